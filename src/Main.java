@@ -1,9 +1,99 @@
 import bg.sofia.uni.fmi.mjt.authserver.AuthServer;
+import bg.sofia.uni.fmi.mjt.authserver.config.ServerConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.config.AuthConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.config.Durability;
+import bg.sofia.uni.fmi.mjt.authserver.config.ServerEngineType;
+import bg.sofia.uni.fmi.mjt.authserver.config.SslContexts;
+import bg.sofia.uni.fmi.mjt.authserver.config.StorageType;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
 
 public class Main {
+    private static final int SERVER_PORT = 8000;
+    private static final int HTTP_PORT = 8080;
+    private static final String KEY_STORE_VARIABLE = "AUTH_SERVER_KEY_STORE";
+    private static final String KEY_STORE_PASSWORD_VARIABLE = "AUTH_SERVER_KEY_STORE_PASSWORD";
+    private static final String UNIX_SOCKET_VARIABLE = "AUTH_SERVER_UNIX_SOCKET";
+    private static final String STORAGE_VARIABLE = "AUTH_SERVER_STORAGE";
+    private static final String DURABILITY_VARIABLE = "AUTH_SERVER_DURABILITY";
+    private static final String PARTITIONS_VARIABLE = "AUTH_SERVER_PARTITIONS";
 
     public static void main(String[] args) {
-        AuthServer server = new AuthServer(8000);
+        ServerConfiguration.ServerConfigurationBuilder configuration = ServerConfiguration.builder(SERVER_PORT)
+                .setHttpPort(HTTP_PORT);
+
+        // the engine can be chosen at startup, e.g. "thread-per-connection"
+        if (args.length > 0) {
+            ServerEngineType engineType = ServerEngineType.fromString(args[0]);
+
+            if (engineType == null) {
+                System.out.println("Unknown server engine: " + args[0]);
+                return;
+            }
+            configuration.setEngineType(engineType);
+        }
+
+        // clients on the same host may connect over a Unix domain socket as well
+        String unixSocketPath = System.getenv(UNIX_SOCKET_VARIABLE);
+        if (unixSocketPath != null) {
+            configuration.setUnixSocketPath(Path.of(unixSocketPath));
+        }
+
+        // clients connect over TLS if the server is given a key store
+        String keyStorePath = System.getenv(KEY_STORE_VARIABLE);
+        if (keyStorePath != null) {
+            String password = System.getenv(KEY_STORE_PASSWORD_VARIABLE);
+
+            try {
+                configuration.setSslContext(SslContexts.fromKeyStore(Path.of(keyStorePath),
+                        password != null ? password.toCharArray() : new char[0]));
+            } catch (IOException | GeneralSecurityException exception) {
+                System.out.println("Could not load the key store:");
+                System.out.println(exception.getMessage());
+                return;
+            }
+        }
+
+        // the users may be kept in memory or in a mapped file instead of being read from the file on every lookup
+        AuthConfiguration.AuthConfigurationBuilder authConfiguration = AuthServer.defaultConfiguration();
+        String storage = System.getenv(STORAGE_VARIABLE);
+        if (storage != null) {
+            StorageType storageType = StorageType.fromString(storage);
+
+            if (storageType == null) {
+                System.out.println("Unknown storage: " + storage);
+                return;
+            }
+            authConfiguration.setStorageType(storageType);
+        }
+
+        // writes may be forced to the disk, e.g. "per-operation"
+        String durabilityName = System.getenv(DURABILITY_VARIABLE);
+        if (durabilityName != null) {
+            Durability durability = Durability.fromString(durabilityName);
+
+            if (durability == null) {
+                System.out.println("Unknown durability: " + durabilityName);
+                return;
+            }
+            authConfiguration.setDurability(durability);
+        }
+
+        // the number of files the partitioned storage splits the users into
+        String partitions = System.getenv(PARTITIONS_VARIABLE);
+        if (partitions != null) {
+            try {
+                authConfiguration.setPartitionCount(Integer.parseInt(partitions));
+            } catch (NumberFormatException exception) {
+                System.out.println("Invalid partition count:");
+                System.out.println(exception.getMessage());
+                return;
+            }
+        }
+
+        AuthServer server = new AuthServer(configuration.build(), authConfiguration.build());
         Thread serverThread = new Thread(server);
 
         serverThread.start();
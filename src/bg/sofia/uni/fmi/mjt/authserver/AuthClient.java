@@ -1,7 +1,9 @@
 package bg.sofia.uni.fmi.mjt.authserver;
 
 import bg.sofia.uni.fmi.mjt.authserver.commands.CommandExecutor;
+import bg.sofia.uni.fmi.mjt.authserver.commands.StatsCommand;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
@@ -9,6 +11,10 @@ import java.nio.channels.SocketChannel;
 import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 
+/**
+ * An interactive console client for the text protocol.
+ * Applications should use {@link bg.sofia.uni.fmi.mjt.authserver.client.AsyncAuthClient} instead.
+ */
 public class AuthClient {
     private static final String SERVER_HOST = "localhost";
     private static final int SERVER_PORT = 8000;
@@ -30,7 +36,7 @@ public class AuthClient {
                 String command = scanner.nextLine();
 
                 String response = sendCommand(command);
-                System.out.print(response);
+                System.out.print(StatsCommand.getConsoleLayout(response));
 
                 if (command.equals(CommandExecutor.COMMAND_EXIT)) {
                     break;
@@ -47,18 +53,21 @@ public class AuthClient {
             throw new IllegalStateException("Cannot communicate: no connection established");
         }
 
-        buffer.clear();
-        buffer.put(command.getBytes());
-        buffer.put(System.lineSeparator().getBytes(StandardCharsets.UTF_8));
-        buffer.flip();
-        socketChannel.write(buffer);
-
-        buffer.clear();
-        socketChannel.read(buffer);
-        String response = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        ByteBuffer request = ByteBuffer.wrap((command + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        while (request.hasRemaining()) {
+            socketChannel.write(request);
+        }
 
-        buffer.flip();
+        // a full buffer means there is more of the response left to read
+        ByteArrayOutputStream response = new ByteArrayOutputStream();
+        do {
+            buffer.clear();
+            if (socketChannel.read(buffer) < 0) {
+                break;
+            }
+            response.write(buffer.array(), 0, buffer.position());
+        } while (!buffer.hasRemaining());
 
-        return response;
+        return response.toString(StandardCharsets.UTF_8);
     }
 }
@@ -1,36 +1,48 @@
 package bg.sofia.uni.fmi.mjt.authserver;
 
-import bg.sofia.uni.fmi.mjt.authserver.auth.AuthSessionManager;
 import bg.sofia.uni.fmi.mjt.authserver.auth.Authenticator;
+import bg.sofia.uni.fmi.mjt.authserver.auth.SingleFlightSessionManager;
 import bg.sofia.uni.fmi.mjt.authserver.auth.TSVFileSessionManager;
 import bg.sofia.uni.fmi.mjt.authserver.commands.CommandExecutor;
 import bg.sofia.uni.fmi.mjt.authserver.commands.RegisterCommand;
 import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
 import bg.sofia.uni.fmi.mjt.authserver.config.AuthConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.config.ServerConfiguration;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandParseException;
+import bg.sofia.uni.fmi.mjt.authserver.http.HttpApiServer;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.GroupCommitLog;
+import bg.sofia.uni.fmi.mjt.authserver.server.NioServerEngine;
+import bg.sofia.uni.fmi.mjt.authserver.server.ServerEngine;
+import bg.sofia.uni.fmi.mjt.authserver.server.ThreadPerConnectionServerEngine;
 import bg.sofia.uni.fmi.mjt.authserver.storage.AuthStorage;
+import bg.sofia.uni.fmi.mjt.authserver.storage.BloomFilterAuthStorage;
+import bg.sofia.uni.fmi.mjt.authserver.storage.CachingAuthStorage;
+import bg.sofia.uni.fmi.mjt.authserver.storage.InMemoryAuthStorage;
+import bg.sofia.uni.fmi.mjt.authserver.storage.MappedAuthStorage;
+import bg.sofia.uni.fmi.mjt.authserver.storage.PartitionedAuthStorage;
+import bg.sofia.uni.fmi.mjt.authserver.storage.SegmentedLruCache;
+import bg.sofia.uni.fmi.mjt.authserver.storage.SingleFlight;
+import bg.sofia.uni.fmi.mjt.authserver.storage.SingleFlightAuthStorage;
 import bg.sofia.uni.fmi.mjt.authserver.storage.TSVFileAuthStorage;
+import bg.sofia.uni.fmi.mjt.authserver.storage.UserJournal;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.InetSocketAddress;
-import java.nio.ByteBuffer;
-import java.nio.channels.SelectionKey;
-import java.nio.channels.Selector;
-import java.nio.channels.ServerSocketChannel;
-import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
-import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class AuthServer implements Runnable {
-    private static final String SERVER_HOST = "localhost";
-    private static final int BUFFER_SIZE = 1024;
-
     private static final int MIN_ADMIN_COUNT = 1;
     private static final int MAX_LOGIN_FAIL_ATTEMPTS = 3;
     private static final int LOCK_TIMEOUT_MINUTES = 15;
+    private static final int SNAPSHOT_INTERVAL_SECONDS = 60;
     private static final Path USERS_DATABASE_PATH = Path.of("users.tsv");
     private static final Path SESSIONS_DATABASE_PATH = Path.of("sessions.tsv");
     private static final Path AUDIT_LOG_PATH = Path.of("audit.log");
@@ -39,32 +51,46 @@ public class AuthServer implements Runnable {
             "In order to proceed you must add an administrator user."
             + System.lineSeparator() + "Do it via the register command.";
 
-    private final CommandExecutor commandExecutor;
-    private final int serverPort;
-    private Selector selector;
-    private boolean shouldListen;
+    private final ServerEngine engine;
+    private final HttpApiServer httpApiServer;
+    private final AuthStorage storage;
+    private final SingleFlightSessionManager sessionManager;
 
     public AuthServer(int port) {
-        serverPort = port;
-        shouldListen = false;
+        this(ServerConfiguration.builder(port).build());
+    }
 
-        AuthConfiguration configuration = AuthConfiguration.builder(USERS_DATABASE_PATH,
-                SESSIONS_DATABASE_PATH, AUDIT_LOG_PATH)
-                .setLockTimeout(LOCK_TIMEOUT_MINUTES * 60)
-                .setMaxLoginAttemptFailures(MAX_LOGIN_FAIL_ATTEMPTS)
-                .setMinimumAdminCount(MIN_ADMIN_COUNT)
-                .build();
+    public AuthServer(ServerConfiguration serverConfiguration) {
+        this(serverConfiguration, defaultConfiguration().build());
+    }
 
-        AuthStorage storage = new TSVFileAuthStorage(configuration.getUsersDatabasePath());
-        AuthSessionManager sessionManager = new TSVFileSessionManager(configuration, storage);
+    public AuthServer(ServerConfiguration serverConfiguration, AuthConfiguration configuration) {
+        storage = createStorage(configuration);
+        // concurrent lookups of the same session share one scan of the database files
+        sessionManager = new SingleFlightSessionManager(new TSVFileSessionManager(configuration, storage));
 
         Authenticator authenticator = new Authenticator(configuration, storage, sessionManager);
 
-        while (storage.getAdminCount() < MIN_ADMIN_COUNT) {
+        while (storage.getAdminCount() < configuration.getMinimumAdminCount()) {
             addInitialAdmin(authenticator);
         }
 
-        commandExecutor = new CommandExecutor(authenticator);
+        CommandExecutor commandExecutor = new CommandExecutor(authenticator);
+        engine = createEngine(serverConfiguration, commandExecutor);
+        httpApiServer = serverConfiguration.getHttpPort() > 0
+                ? new HttpApiServer(serverConfiguration, commandExecutor)
+                : null;
+    }
+
+    /**
+     * @return the configuration the server runs with unless it is given one, to be adjusted further
+     */
+    public static AuthConfiguration.AuthConfigurationBuilder defaultConfiguration() {
+        return AuthConfiguration.builder(USERS_DATABASE_PATH, SESSIONS_DATABASE_PATH, AUDIT_LOG_PATH)
+                .setLockTimeout(LOCK_TIMEOUT_MINUTES * 60)
+                .setMaxLoginAttemptFailures(MAX_LOGIN_FAIL_ATTEMPTS)
+                .setMinimumAdminCount(MIN_ADMIN_COUNT)
+                .setSnapshotIntervalSeconds(SNAPSHOT_INTERVAL_SECONDS);
     }
 
     private void addInitialAdmin(Authenticator authenticator) {
@@ -100,84 +126,197 @@ public class AuthServer implements Runnable {
     }
 
     public void start() {
-        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
-            serverSocketChannel.bind(new InetSocketAddress(SERVER_HOST, serverPort));
-            serverSocketChannel.configureBlocking(false);
+        try {
+            if (httpApiServer != null) {
+                httpApiServer.start();
+            }
 
-            selector = Selector.open();
-            serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+            engine.start();
+        } catch (IOException e) {
+            System.out.println("There was a problem with the server socket");
+            e.printStackTrace();
+        } finally {
+            // the engine only returns once it has been stopped
+            if (httpApiServer != null) {
+                httpApiServer.stop();
+            }
 
-            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            printLookupStatistics();
+            printCommitStatistics();
+            closeStorage();
+            closeLogs();
+        }
+    }
 
-            shouldListen = true;
+    public void stop() {
+        engine.stop();
+    }
 
-            while (true) {
-                int readyChannels = selector.select();
+    private void closeStorage() {
+        if (storage instanceof Closeable) {
+            try {
+                ((Closeable) storage).close();
+            } catch (IOException exception) {
+                System.out.println("Could not close the users storage:");
+                System.out.println(exception.getMessage());
+            }
+        }
+    }
 
-                if (readyChannels == 0) {
-                    if (!shouldListen) {
-                        break;
-                    }
+    private static void closeLogs() {
+        // closing a log removes it from the logs
+        for (GroupCommitLog log : new ArrayList<>(GroupCommitLog.getLogs())) {
+            try {
+                log.close();
+            } catch (IOException exception) {
+                System.out.println("Could not close " + log.getPath() + ":");
+                System.out.println(exception.getMessage());
+            }
+        }
+    }
+
+    private void printLookupStatistics() {
+        AuthStorage uncachedStorage = storage;
+        if (storage instanceof CachingAuthStorage) {
+            SegmentedLruCache<?, ?> users = ((CachingAuthStorage) storage).getUsers();
+            System.out.printf("Cached users: %d hits, %d misses, %d evictions%n", users.getHitCount(),
+                    users.getMissCount(), users.getEvictionCount());
 
-                    continue;
-                }
+            uncachedStorage = ((CachingAuthStorage) storage).getStorage();
+        }
 
-                Set<SelectionKey> selectedKeys = selector.selectedKeys();
-                Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+        System.out.println("Coalesced lookups:");
+        if (uncachedStorage instanceof SingleFlightAuthStorage) {
+            printLookupStatistics("users by username",
+                    ((SingleFlightAuthStorage) uncachedStorage).getUserLookups());
+        }
+        printLookupStatistics("users by session", sessionManager.getUserLookups());
+        printLookupStatistics("sessions by username", sessionManager.getSessionLookups());
+    }
+
+    private static void printLookupStatistics(String name, SingleFlight<?, ?> lookups) {
+        System.out.printf("  %s: %d executed, %d coalesced%n", name,
+                lookups.getExecutedCount(), lookups.getCoalescedCount());
+    }
 
-                while (keyIterator.hasNext()) {
-                    SelectionKey key = keyIterator.next();
+    private static void printCommitStatistics() {
+        System.out.println("Group commits:");
+        for (GroupCommitLog log : GroupCommitLog.getLogs()) {
+            System.out.printf("  %s (%s): %d records, %d commits%n", log.getPath(), log.getDurability(),
+                    log.getRecordCount(), log.getCommitCount());
+        }
+    }
 
-                    if (key.isReadable()) {
-                        SocketChannel socketChannel = (SocketChannel) key.channel();
+    private static AuthStorage createStorage(AuthConfiguration configuration) {
+        return switch (configuration.getStorageType()) {
+            // the users looked up most often are cached, concurrent lookups of the same user share one scan
+            // of the file, and usernames which do not exist skip the scan
+            case TSV_FILE -> new CachingAuthStorage(new SingleFlightAuthStorage(
+                    createUsernameFilter(configuration, createFileStorage(configuration))),
+                    configuration.getUserCacheSize());
+            case IN_MEMORY -> new InMemoryAuthStorage(createFileStorage(configuration));
+            case JOURNAL -> new InMemoryAuthStorage(new UserJournal(createFileStorage(configuration),
+                    createLog(configuration, configuration.getUsersJournalPath()),
+                    configuration.getJournalCompactionThreshold()));
+            case MAPPED -> createMappedStorage(configuration);
+            case PARTITIONED -> new CachingAuthStorage(createUsernameFilter(configuration,
+                    createPartitionedStorage(configuration)), configuration.getUserCacheSize());
+        };
+    }
 
-                        buffer.clear();
-                        int r;
-                        try {
-                            r = socketChannel.read(buffer);
-                        } catch (IOException exception) {
-                            System.out.println("Could not read from client:");
-                            System.out.println(exception.getMessage());
-                            socketChannel.close();
-                            continue;
-                        }
+    private static TSVFileAuthStorage createFileStorage(AuthConfiguration configuration) {
+        return new TSVFileAuthStorage(createLog(configuration, configuration.getUsersDatabasePath()),
+                configuration.getSnapshotIntervalSeconds());
+    }
 
-                        if (r < 0) {
-                            socketChannel.close();
-                            continue;
-                        }
+    private static AuthStorage createMappedStorage(AuthConfiguration configuration) {
+        Path mappedPath = configuration.getMappedUsersDatabasePath();
 
-                        String command = new String(buffer.array(), 0, buffer.position(), StandardCharsets.UTF_8);
+        // the users database is converted the first time, after that only the mapped file is kept up to date
+        // and the users database is not read at all
+        if (!Files.exists(mappedPath) && Files.exists(configuration.getUsersDatabasePath())) {
+            MappedAuthStorage.importUsers(createFileStorage(configuration), mappedPath);
+        }
 
-                        buffer.clear();
+        return new MappedAuthStorage(mappedPath, configuration.getDurability(),
+                configuration.getCommitIntervalMillis());
+    }
 
-                        String response = commandExecutor.executeCommand(command, socketChannel);
+    private static AuthStorage createPartitionedStorage(AuthConfiguration configuration) {
+        int partitionCount = configuration.getPartitionCount();
+        List<Path> partitionPaths = new ArrayList<>();
+        for (int i = 0; i < partitionCount; i++) {
+            partitionPaths.add(configuration.getUsersPartitionPath(i));
+        }
+        Path manifestPath = configuration.getUsersPartitionManifestPath();
 
-                        buffer.put(response.getBytes());
-                        buffer.put(System.lineSeparator().getBytes());
-                        buffer.flip();
+        // the users would not be found in the partitions they were put in with another count
+        int recordedCount = PartitionedAuthStorage.readPartitionCount(manifestPath);
+        if (recordedCount >= 0 && recordedCount != partitionCount) {
+            throw new IllegalStateException("The users are split into " + recordedCount + " partitions, not "
+                    + partitionCount);
+        }
+        requireNoPartitionsBeyond(configuration, partitionCount);
+
+        // the users database is split the first time, and again if that was interrupted before every partition
+        // was moved into place, after that only the partitions are kept up to date and the users database
+        // is not read at all
+        if (recordedCount < 0 && partitionPaths.stream().allMatch(Files::exists)) {
+            // every partition of an import whose manifest was not written is in place already
+            PartitionedAuthStorage.writePartitionCount(manifestPath, partitionCount, configuration.getDurability());
+        } else if (recordedCount < 0) {
+            AuthStorage source = Files.exists(configuration.getUsersDatabasePath())
+                    ? createFileStorage(configuration)
+                    : null;
+            PartitionedAuthStorage.importUsers(source, partitionPaths, manifestPath, configuration.getDurability());
+        }
 
-                        socketChannel.write(buffer);
-                    } else if (key.isAcceptable()) {
-                        ServerSocketChannel socketChannel = (ServerSocketChannel) key.channel();
+        List<TSVFileAuthStorage> partitions = new ArrayList<>();
+        for (Path partitionPath : partitionPaths) {
+            partitions.add(new TSVFileAuthStorage(createLog(configuration, partitionPath),
+                    configuration.getSnapshotIntervalSeconds()));
+        }
 
-                        SocketChannel accept = socketChannel.accept();
-                        accept.configureBlocking(false);
-                        accept.register(selector, SelectionKey.OP_READ);
-                    }
+        return new PartitionedAuthStorage(partitions);
+    }
 
-                    keyIterator.remove();
-                }
-            }
+    // a partition file past the count holds users who would no longer be found
+    private static void requireNoPartitionsBeyond(AuthConfiguration configuration, int partitionCount) {
+        Path usersDatabasePath = configuration.getUsersDatabasePath().toAbsolutePath();
+        Pattern partitionName = Pattern.compile(Pattern.quote(usersDatabasePath.getFileName() + ".")
+                + "(\\d{1,9})");
+
+        List<Path> leftOverPaths;
+        try (Stream<Path> paths = Files.list(usersDatabasePath.getParent())) {
+            leftOverPaths = paths.filter(path -> {
+                Matcher matcher = partitionName.matcher(path.getFileName().toString());
+                return matcher.matches() && Integer.parseInt(matcher.group(1)) >= partitionCount;
+            }).collect(Collectors.toList());
+        } catch (IOException exception) {
+            throw new RuntimeException("Could not look for partitions of the users", exception);
+        }
 
-        } catch (IOException e) {
-            System.out.println("There was a problem with the server socket");
-            e.printStackTrace();
+        if (!leftOverPaths.isEmpty()) {
+            throw new IllegalStateException("The users are split into more than " + partitionCount
+                    + " partitions, " + leftOverPaths + " are left over");
         }
     }
 
-    public void stop() {
-        shouldListen = false;
-        selector.wakeup();
+    private static AuthStorage createUsernameFilter(AuthConfiguration configuration, AuthStorage storage) {
+        return new BloomFilterAuthStorage(storage, configuration.getUsernameFilterExpectedCount(),
+                configuration.getUsernameFilterFalsePositiveRate());
+    }
+
+    private static GroupCommitLog createLog(AuthConfiguration configuration, Path path) {
+        return GroupCommitLog.forPath(path, configuration.getDurability(), configuration.getCommitIntervalMillis());
+    }
+
+    private static ServerEngine createEngine(ServerConfiguration serverConfiguration,
+                                             CommandExecutor commandExecutor) {
+        return switch (serverConfiguration.getEngineType()) {
+            case NIO -> new NioServerEngine(serverConfiguration, commandExecutor);
+            case THREAD_PER_CONNECTION -> new ThreadPerConnectionServerEngine(serverConfiguration,
+                    commandExecutor);
+        };
     }
 }
@@ -1,23 +1,32 @@
 package bg.sofia.uni.fmi.mjt.authserver.auditlog;
 
 import bg.sofia.uni.fmi.mjt.authserver.auditlog.events.Event;
+import bg.sofia.uni.fmi.mjt.authserver.config.AuthConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.config.Durability;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.GroupCommitLog;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Path;
 
 public class DefaultAuthAuditLogger implements AuthAuditLogger {
-    private final Path auditLogFilePath;
+    private final GroupCommitLog log;
 
     public DefaultAuthAuditLogger(Path auditLogFilePath) {
-        this.auditLogFilePath = auditLogFilePath;
+        this.log = GroupCommitLog.forPath(auditLogFilePath, Durability.NONE, 0);
+    }
+
+    /**
+     * Writes to the audit log of the configuration, as durably as the configuration asks for.
+     */
+    public DefaultAuthAuditLogger(AuthConfiguration configuration) {
+        this.log = GroupCommitLog.forPath(configuration.getAuditLogPath(), configuration.getDurability(),
+                configuration.getCommitIntervalMillis());
     }
 
     @Override
     public void logEvent(Event event) {
-        try (var bufferedWriter = new BufferedWriter(new FileWriter(auditLogFilePath.toString(), true))) {
-            bufferedWriter.write(event.toString() + System.lineSeparator());
+        try {
+            log.append(event.toString() + System.lineSeparator());
         } catch (IOException exception) {
             throw new RuntimeException("An error occurred while writing to audit log", exception);
         }
@@ -1,6 +1,7 @@
 package bg.sofia.uni.fmi.mjt.authserver.auditlog.events;
 
 import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
 import java.time.LocalDateTime;
 import java.time.temporal.ChronoUnit;
 
@@ -10,6 +11,7 @@ public abstract class AbstractEvent implements Event {
 
     // not sure what to call this
     protected static final String SLASH = "/";
+    protected static final String LOCAL_ADDRESS = "local";
 
     private final LocalDateTime timestamp;
 
@@ -47,6 +49,11 @@ public abstract class AbstractEvent implements Event {
     }
 
     private String formatAddress(SocketAddress socketAddress) {
+        // clients of a Unix domain socket have no address of their own, they are on the server's host
+        if (socketAddress instanceof UnixDomainSocketAddress) {
+            return LOCAL_ADDRESS;
+        }
+
         String address = socketAddress.toString();
         return address
                 .substring(0, address.lastIndexOf(PORT_DELIMITER))
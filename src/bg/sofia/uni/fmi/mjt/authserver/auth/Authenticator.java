@@ -2,43 +2,91 @@ package bg.sofia.uni.fmi.mjt.authserver.auth;
 
 import bg.sofia.uni.fmi.mjt.authserver.config.AuthConfiguration;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.AuthenticationException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.FailedLoginException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.LockedUserException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.ValidationException;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.StripedLock;
 import bg.sofia.uni.fmi.mjt.authserver.storage.AuthStorage;
+import bg.sofia.uni.fmi.mjt.authserver.storage.StagingAuthStorage;
+import bg.sofia.uni.fmi.mjt.authserver.storage.UserStatistics;
 import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
 import bg.sofia.uni.fmi.mjt.authserver.user.Email;
 import bg.sofia.uni.fmi.mjt.authserver.user.Password;
 import bg.sofia.uni.fmi.mjt.authserver.user.User;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
 
+/**
+ * Registers, logs in and changes users.
+ * <p>
+ *     Changes to an existing user, e.g. counting a failed login, read the user and write them back
+ *     while holding the lock of their username, so that two changes made at the same time are both kept
+ *     instead of one of them writing back a copy of the user from before the other.
+ * </p>
+ * <p>
+ *     Registrations, and changes and batches which give users a username or an email, also lock those,
+ *     emails in the same stripes as usernames, so that a username or an email a batch is about to write
+ *     cannot be taken by a user registered or changed before the batch is committed.
+ * </p>
+ */
 public class Authenticator {
+    private static final int USER_LOCK_STRIPE_COUNT = 64;
+
     private final AuthConfiguration configuration;
     private final AuthStorage storage;
     private final AuthSessionManager sessionManager;
+    private final StripedLock userLocks;
 
     public Authenticator(AuthConfiguration configuration, AuthStorage storage,
                          AuthSessionManager sessionManager) {
+        this(configuration, storage, sessionManager, new StripedLock(USER_LOCK_STRIPE_COUNT));
+    }
+
+    private Authenticator(AuthConfiguration configuration, AuthStorage storage,
+                          AuthSessionManager sessionManager, StripedLock userLocks) {
         this.configuration = configuration;
         this.storage = storage;
         this.sessionManager = sessionManager;
+        this.userLocks = userLocks;
     }
 
     public void registerUser(String username, Password password, String firstName, String lastName, Email email,
                              Authority authority)
             throws UserAlreadyExistsException, ValidationException {
-        if (storage.getUserByUsername(username) != null) {
+        // most usernames which are free are known to be free without reading the storage
+        if (storage.mightContainUsername(username) && storage.getUserByUsername(username) != null) {
             throw new UserAlreadyExistsException("Trying to register user with a taken username");
         }
+        if (storage.getUserByEmail(email.getValue()) != null) {
+            throw new EmailAlreadyExistsException("Trying to register user with a taken email");
+        }
 
         password.validate();
         password.hash();
 
         email.validate();
 
-        storage.addUser(new User(username, password, firstName, lastName, email, authority, null));
+        StripedLock.Locked locked = lockUsers(List.of(username), List.of(email.getValue()));
+        try {
+            // checked again, as the username or the email may have been taken while the password was hashed
+            if (storage.getUserByUsername(username) != null) {
+                throw new UserAlreadyExistsException("Trying to register user with a taken username");
+            }
+            if (storage.getUserByEmail(email.getValue()) != null) {
+                throw new EmailAlreadyExistsException("Trying to register user with a taken email");
+            }
+
+            storage.addUser(new User(username, password, firstName, lastName, email, authority, null));
+        } finally {
+            locked.unlock();
+        }
     }
 
     public void registerUser(String username, Password password, String firstName, String lastName, Email email)
@@ -47,7 +95,7 @@ public class Authenticator {
     }
 
     public Session logUserInWithPassword(String username, String password) throws AuthenticationException {
-        User foundUser = storage.getUserByUsername(username);
+        User foundUser = storage.mightContainUsername(username) ? storage.getUserByUsername(username) : null;
 
         if (foundUser == null) {
             throw new FailedLoginException("Username and/or password do not match any user");
@@ -57,17 +105,38 @@ public class Authenticator {
             throw new LockedUserException("Could not log user in: user is locked");
         }
 
-        Password userPasswordHash = foundUser.getPasswordHash();
-        if (!userPasswordHash.check(password)) {
-            if (userPasswordHash.getFailedAttempts() > configuration.getMaxLoginAttemptFails()) {
-                foundUser.setLockedUntil(LocalDateTime.now()
-                        .plusSeconds(configuration.getLockTimeout()));
-                foundUser.getPasswordHash().resetFailedAttempts();
+        // checking the password takes long, so it is checked before the user is locked
+        boolean correct = foundUser.getPasswordHash().check(password);
+
+        StripedLock.Locked locked = userLocks.lock(username);
+        try {
+            // read again, so that the failed attempts counted by logins made meanwhile are not lost
+            User currentUser = storage.getUserByUsername(username);
+
+            if (currentUser == null || !currentUser.getPasswordHash().equals(foundUser.getPasswordHash())) {
+                throw new FailedLoginException("Username and/or password do not match any user");
             }
 
-            storage.replaceUserByUsername(foundUser.getUsername(), foundUser);
+            if (currentUser.isLocked()) {
+                throw new LockedUserException("Could not log user in: user is locked");
+            }
 
-            throw new FailedLoginException("Username and/or password do not match any user");
+            if (!correct) {
+                Password userPasswordHash = currentUser.getPasswordHash();
+                userPasswordHash.addFailedAttempt();
+
+                if (userPasswordHash.getFailedAttempts() > configuration.getMaxLoginAttemptFails()) {
+                    currentUser.setLockedUntil(LocalDateTime.now()
+                            .plusSeconds(configuration.getLockTimeout()));
+                    userPasswordHash.resetFailedAttempts();
+                }
+
+                storage.replaceUserByUsername(username, currentUser);
+
+                throw new FailedLoginException("Username and/or password do not match any user");
+            }
+        } finally {
+            locked.unlock();
         }
 
         return sessionManager.logUserIn(foundUser.getUsername());
@@ -83,8 +152,39 @@ public class Authenticator {
         return sessionManager.logUserIn(foundUser.getUsername());
     }
 
+    /**
+     * Replaces a user with the given version of them, whatever has changed since it was read.
+     */
     public void replaceUser(String usernameOfReplaced, User toUser) {
-        storage.replaceUserByUsername(usernameOfReplaced, toUser);
+        StripedLock.Locked locked = userLocks.lock(usernameOfReplaced);
+        try {
+            storage.replaceUserByUsername(usernameOfReplaced, toUser);
+        } finally {
+            locked.unlock();
+        }
+    }
+
+    /**
+     * Changes the current version of a user, with no other change to them made through this authenticator
+     * in between.
+     * @param update changes the user it is given
+     * @return the changed user, {@code null} if there is no user with the given username
+     */
+    public User updateUser(String username, Consumer<User> update) {
+        StripedLock.Locked locked = userLocks.lock(username);
+        try {
+            User user = storage.getUserByUsername(username);
+            if (user == null) {
+                return null;
+            }
+
+            update.accept(user);
+            storage.replaceUserByUsername(username, user);
+
+            return user;
+        } finally {
+            locked.unlock();
+        }
     }
 
     public User getUserBySession(Session session) {
@@ -95,6 +195,10 @@ public class Authenticator {
         return storage.getUserByUsername(username);
     }
 
+    public User getUserByEmail(String email) {
+        return storage.getUserByEmail(email);
+    }
+
     public void logUserOut(Session session) throws AuthenticationException {
         User foundUser = getUserBySession(session);
 
@@ -111,7 +215,50 @@ public class Authenticator {
             sessionManager.invalidateSession(session);
         }
 
-        storage.removeUserByUsername(username);
+        StripedLock.Locked locked = userLocks.lock(username);
+        try {
+            storage.removeUserByUsername(username);
+        } finally {
+            locked.unlock();
+        }
+    }
+
+    /**
+     * Keeps the given users from being changed through this authenticator until they are unlocked,
+     * e.g. while a batch of changes to them, read and written at different times, is made.
+     * @return the locked users, to be unlocked in a {@code finally} block
+     */
+    public StripedLock.Locked lockUsers(Collection<String> usernames) {
+        return userLocks.lock(usernames);
+    }
+
+    /**
+     * Like {@link #lockUsers(Collection)}, and keeps the given emails from being given to any other user
+     * through this authenticator as well. {@code null} usernames and emails are skipped.
+     */
+    public StripedLock.Locked lockUsers(Collection<String> usernames, Collection<String> emails) {
+        List<String> keys = new ArrayList<>(usernames);
+        emails.stream()
+                .filter(Objects::nonNull)
+                .map(Email::normalize)
+                .forEach(keys::add);
+
+        // a single call locks the stripes of both in the same order as everyone else
+        return userLocks.lock(keys);
+    }
+
+    /**
+     * @return a storage which keeps the writes to this authenticator's users aside until committed
+     */
+    public StagingAuthStorage createStagingStorage() {
+        return new StagingAuthStorage(storage);
+    }
+
+    /**
+     * @return an authenticator with the same configuration, sessions and locks, working on the given storage
+     */
+    public Authenticator withStorage(AuthStorage otherStorage) {
+        return new Authenticator(configuration, otherStorage, sessionManager, userLocks);
     }
 
     public AuthConfiguration getConfiguration() {
@@ -121,4 +268,8 @@ public class Authenticator {
     public long getAdminCount() {
         return storage.getAdminCount();
     }
+
+    public UserStatistics getUserStatistics() {
+        return storage.getUserStatistics();
+    }
 }
@@ -0,0 +1,69 @@
+package bg.sofia.uni.fmi.mjt.authserver.auth;
+
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.AuthenticationException;
+import bg.sofia.uni.fmi.mjt.authserver.storage.SingleFlight;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.util.UUID;
+import java.util.function.UnaryOperator;
+
+/**
+ * Lets concurrent lookups of the same session, or of the same user's session, share a single read
+ * of the underlying session manager. Logging in and invalidating sessions go straight through; as either
+ * may change sessions other than the one passed in, they make all later lookups start anew.
+ */
+public class SingleFlightSessionManager implements AuthSessionManager {
+    private final AuthSessionManager sessionManager;
+    private final SingleFlight<UUID, User> userLookups;
+    private final SingleFlight<String, Session> sessionLookups;
+
+    public SingleFlightSessionManager(AuthSessionManager sessionManager) {
+        this.sessionManager = sessionManager;
+        this.userLookups = new SingleFlight<>(User::new);
+        // sessions are immutable, they can be shared as they are
+        this.sessionLookups = new SingleFlight<>(UnaryOperator.identity());
+    }
+
+    @Override
+    public Session logUserIn(String username) throws AuthenticationException {
+        try {
+            return sessionManager.logUserIn(username);
+        } finally {
+            userLookups.forgetAll();
+            sessionLookups.forget(username);
+        }
+    }
+
+    @Override
+    public User getUserBySession(Session session) {
+        return userLookups.execute(session.getId(), id -> sessionManager.getUserBySession(session));
+    }
+
+    @Override
+    public Session getSessionByUsername(String username) {
+        return sessionLookups.execute(username, sessionManager::getSessionByUsername);
+    }
+
+    @Override
+    public void invalidateSession(Session session) {
+        try {
+            sessionManager.invalidateSession(session);
+        } finally {
+            userLookups.forget(session.getId());
+            sessionLookups.forgetAll();
+        }
+    }
+
+    @Override
+    public void scheduleSessionInvalidation(Session session) {
+        sessionManager.scheduleSessionInvalidation(session);
+    }
+
+    public SingleFlight<UUID, User> getUserLookups() {
+        return userLookups;
+    }
+
+    public SingleFlight<String, Session> getSessionLookups() {
+        return sessionLookups;
+    }
+}
@@ -4,30 +4,40 @@ import bg.sofia.uni.fmi.mjt.authserver.config.AuthConfiguration;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.AuthenticationException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.LockedUserException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserDoesNotExistException;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.GroupCommitLog;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.StripedLock;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.TextFileSnapshot;
 import bg.sofia.uni.fmi.mjt.authserver.storage.AuthStorage;
 import bg.sofia.uni.fmi.mjt.authserver.tasks.InvalidateSessionTask;
 import bg.sofia.uni.fmi.mjt.authserver.user.User;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeParseException;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-
+import java.util.stream.Collectors;
+
+/**
+ * Keeps the sessions in a file, one per line.
+ * Reads do not lock, see {@link GroupCommitLog#read}, and logins are made one at a time per username,
+ * so that a user who logs in twice at the same time still ends up with a single session.
+ * The sessions which are still valid when it starts may be loaded through a {@link TextFileSnapshot} of the file.
+ */
 public class TSVFileSessionManager implements AuthSessionManager {
     private static final int EXECUTOR_THREAD_COUNT = 5;
-    private static final String TEMPORARY_FILE_NAME = "tmp-sessions.tsv";
+    private static final int USER_LOCK_STRIPE_COUNT = 64;
     private static final String DELIMITER = "\t";
 
     private static final int INDEX_ID = 0;
@@ -37,10 +47,19 @@ public class TSVFileSessionManager implements AuthSessionManager {
     private final AuthConfiguration configuration;
     private final ScheduledExecutorService executorService;
     private final AuthStorage storage;
+    private final GroupCommitLog log;
+    private final StripedLock userLocks;
+    private final TextFileSnapshot<Session> snapshot;
 
     public TSVFileSessionManager(AuthConfiguration configuration, AuthStorage storage) {
         this.configuration = configuration;
         this.storage = storage;
+        this.log = GroupCommitLog.forPath(configuration.getSessionsDatabasePath(), configuration.getDurability(),
+                configuration.getCommitIntervalMillis());
+        this.userLocks = new StripedLock(USER_LOCK_STRIPE_COUNT);
+        this.snapshot = configuration.getSnapshotIntervalSeconds() > 0
+                ? new TextFileSnapshot<>(log, new SessionFormat(), configuration.getSnapshotIntervalSeconds())
+                : null;
         executorService = Executors.newScheduledThreadPool(EXECUTOR_THREAD_COUNT);
 
         removeExpiredSessions();
@@ -58,78 +77,37 @@ public class TSVFileSessionManager implements AuthSessionManager {
             throw new LockedUserException("Cannot log user in: account is locked");
         }
 
-        Session oldSession = getSessionByUsername(username);
-
         Session newSession = Session.generateForUsername(foundUser.getUsername());
-        scheduleSessionInvalidation(newSession);
-
-        String sessionsDatabaseFilename = configuration.getSessionsDatabasePath().toString();
-        if (oldSession == null) {
-            try (var bufferedWriter = new BufferedWriter(new FileWriter(sessionsDatabaseFilename, true))) {
-                bufferedWriter.write(String.join(DELIMITER,
-                        newSession.getId().toString(),
-                        newSession.getLoggedInUsername(),
-                        newSession.getExpiresAt().toString())
-                    + System.lineSeparator());
-            } catch (FileNotFoundException exception) {
-                throw new RuntimeException("Could not find file", exception);
-            } catch (IOException exception) {
-                throw new RuntimeException("There was an error updating the sessions database", exception);
-            }
-
-            return newSession;
-        }
-
-        try (var bufferedReader = new BufferedReader(new FileReader(sessionsDatabaseFilename));
-             var bufferedWriter = new BufferedWriter(new FileWriter(TEMPORARY_FILE_NAME))) {
-            String line;
-            String[] tokens;
-
-            while ((line = bufferedReader.readLine()) != null) {
-                tokens = line.split(DELIMITER);
-
-                if (tokens[INDEX_USERNAME].equals(username)) {
-                    bufferedWriter.write(String.join(DELIMITER,
-                            newSession.getId().toString(),
-                            newSession.getLoggedInUsername(),
-                            newSession.getExpiresAt().toString())
-                        + System.lineSeparator());
-                } else {
-                    bufferedWriter.write(line + System.lineSeparator());
-                }
-            }
-        } catch (FileNotFoundException exception) {
-            throw new RuntimeException("Could not find file", exception);
-        } catch (IOException exception) {
-            throw new RuntimeException("There was an error updating the sessions database", exception);
-        }
-
+        StripedLock.Locked locked = userLocks.lock(username);
         try {
-            Files.move(Path.of(TEMPORARY_FILE_NAME), Path.of(sessionsDatabaseFilename),
-                    StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException exception) {
-            throw new RuntimeException("Could not rename temporary database file", exception);
+            writeSession(username, newSession);
+        } finally {
+            locked.unlock();
         }
 
+        scheduleSessionInvalidation(newSession);
         return newSession;
     }
 
     @Override
     public User getUserBySession(Session session) {
-        User foundUser = null;
+        String foundUsername;
 
-        String sessionsDatabaseFilename = configuration.getSessionsDatabasePath().toString();
-        try (var bufferedReader = new BufferedReader(new FileReader(sessionsDatabaseFilename))) {
-            String line;
-            String[] tokens;
+        try {
+            foundUsername = log.read(bufferedReader -> {
+                String line;
+                String[] tokens;
 
-            while ((line = bufferedReader.readLine()) != null && foundUser == null) {
-                tokens = line.split(DELIMITER);
+                while ((line = bufferedReader.readLine()) != null) {
+                    tokens = line.split(DELIMITER);
 
-                if (tokens[INDEX_ID].equals(session.getId().toString())) {
-                    foundUser = storage.getUserByUsername(tokens[INDEX_USERNAME]);
+                    if (tokens[INDEX_ID].equals(session.getId().toString())) {
+                        return tokens[INDEX_USERNAME];
+                    }
                 }
-            }
+
+                return null;
+            });
         } catch (FileNotFoundException exception) {
             throw new RuntimeException("Session database file was not found", exception);
         } catch (IOException exception) {
@@ -137,66 +115,60 @@ public class TSVFileSessionManager implements AuthSessionManager {
                     exception);
         }
 
-        return foundUser;
+        return foundUsername != null ? storage.getUserByUsername(foundUsername) : null;
     }
 
     @Override
     public Session getSessionByUsername(String username) {
-        Session foundSession = null;
-
-        String sessionsDatabaseFilename = configuration.getSessionsDatabasePath().toString();
-        try (var bufferedReader = new BufferedReader(new FileReader(sessionsDatabaseFilename))) {
-            String line;
-            String[] tokens;
-
-            while ((line = bufferedReader.readLine()) != null && foundSession == null) {
-                tokens = line.split(DELIMITER);
-
-                if (tokens[INDEX_USERNAME].equals(username)) {
-                    foundSession = new Session(UUID.fromString(tokens[INDEX_ID]),
-                            tokens[INDEX_USERNAME],
-                            LocalDateTime.parse(tokens[INDEX_EXPIRES_AT]));
+        try {
+            return log.read(bufferedReader -> {
+                String line;
+                String[] tokens;
+
+                while ((line = bufferedReader.readLine()) != null) {
+                    tokens = line.split(DELIMITER);
+
+                    if (tokens[INDEX_USERNAME].equals(username)) {
+                        return new Session(UUID.fromString(tokens[INDEX_ID]),
+                                tokens[INDEX_USERNAME],
+                                LocalDateTime.parse(tokens[INDEX_EXPIRES_AT]));
+                    }
                 }
-            }
+
+                return null;
+            });
         } catch (FileNotFoundException exception) {
             throw new RuntimeException("Session database file was not found", exception);
         } catch (IOException exception) {
             throw new RuntimeException("There was an error while trying to read from session database file",
                     exception);
         }
-
-        return foundSession;
     }
 
     @Override
     public void invalidateSession(Session session) {
         String sessionsDatabaseFilename = configuration.getSessionsDatabasePath().toString();
 
-        try (var bufferedReader = new BufferedReader(new FileReader(sessionsDatabaseFilename));
-             var bufferedWriter = new BufferedWriter(new FileWriter(TEMPORARY_FILE_NAME))) {
-            String line;
-            String[] tokens;
-
-            while ((line = bufferedReader.readLine()) != null) {
-                tokens = line.split(DELIMITER);
-
-                if (!tokens[INDEX_ID].equals(session.getId().toString())) {
-                    bufferedWriter.write(line + System.lineSeparator());
+        try {
+            log.rewrite(bufferedWriter -> {
+                try (var bufferedReader = new BufferedReader(new FileReader(sessionsDatabaseFilename))) {
+                    String line;
+                    String[] tokens;
+
+                    while ((line = bufferedReader.readLine()) != null) {
+                        tokens = line.split(DELIMITER);
+
+                        if (!tokens[INDEX_ID].equals(session.getId().toString())) {
+                            bufferedWriter.write(line + System.lineSeparator());
+                        }
+                    }
                 }
-            }
+            });
         } catch (FileNotFoundException exception) {
             throw new RuntimeException("Could not find file", exception);
         } catch (IOException exception) {
             throw new RuntimeException("There was an error updating the sessions database", exception);
         }
-
-        try {
-            Files.move(Path.of(TEMPORARY_FILE_NAME), Path.of(sessionsDatabaseFilename),
-                    StandardCopyOption.REPLACE_EXISTING);
-        } catch (IOException exception) {
-            throw new RuntimeException("There was an error while trying to rename"
-                    + "temporary sessions database file", exception);
-        }
     }
 
     @Override
@@ -205,47 +177,144 @@ public class TSVFileSessionManager implements AuthSessionManager {
                 ChronoUnit.SECONDS.between(LocalDateTime.now(), session.getExpiresAt()), TimeUnit.SECONDS);
     }
 
-    private void removeExpiredSessions() {
-        String sessionsDatabaseFilename = configuration.getSessionsDatabasePath().toString();
-
-        LocalDateTime compareAgainst = LocalDateTime.now();
+    // must be called with the lock of the username held
+    private void writeSession(String username, Session newSession) {
+        Session oldSession = getSessionByUsername(username);
 
-        try (var bufferedReader = new BufferedReader(new FileReader(sessionsDatabaseFilename));
-             var bufferedWriter = new BufferedWriter(new FileWriter(TEMPORARY_FILE_NAME))) {
-            String line;
-            String[] tokens;
+        String sessionsDatabaseFilename = configuration.getSessionsDatabasePath().toString();
+        if (oldSession == null) {
+            try {
+                log.append(formatSession(newSession) + System.lineSeparator());
+            } catch (IOException exception) {
+                throw new RuntimeException("There was an error updating the sessions database", exception);
+            }
 
-            while ((line = bufferedReader.readLine()) != null) {
-                tokens = line.split(DELIMITER);
-                LocalDateTime expiresAt;
+            return;
+        }
 
-                try {
-                    expiresAt = LocalDateTime.parse(tokens[INDEX_EXPIRES_AT]);
-                } catch (DateTimeParseException exception) {
-                    // skip
-                    continue;
+        try {
+            log.rewrite(bufferedWriter -> {
+                try (var bufferedReader = new BufferedReader(new FileReader(sessionsDatabaseFilename))) {
+                    String line;
+                    String[] tokens;
+
+                    while ((line = bufferedReader.readLine()) != null) {
+                        tokens = line.split(DELIMITER);
+
+                        if (tokens[INDEX_USERNAME].equals(username)) {
+                            bufferedWriter.write(formatSession(newSession) + System.lineSeparator());
+                        } else {
+                            bufferedWriter.write(line + System.lineSeparator());
+                        }
+                    }
                 }
+            });
+        } catch (FileNotFoundException exception) {
+            throw new RuntimeException("Could not find file", exception);
+        } catch (IOException exception) {
+            throw new RuntimeException("There was an error updating the sessions database", exception);
+        }
+    }
 
-                if (expiresAt.isAfter(compareAgainst)) {
-                    bufferedWriter.write(line + System.lineSeparator());
+    /**
+     * Schedules the invalidation of the sessions which are still valid,
+     * and rewrites the file without the others only if there are any.
+     */
+    private void removeExpiredSessions() {
+        LocalDateTime compareAgainst = LocalDateTime.now();
 
-                    UUID id = UUID.fromString(tokens[INDEX_ID]);
-                    Session session = new Session(id, tokens[INDEX_USERNAME], expiresAt);
+        List<Session> sessions;
+        try {
+            sessions = snapshot != null ? snapshot.readRecords() : log.read(bufferedReader -> {
+                List<Session> readSessions = new ArrayList<>();
 
-                    scheduleSessionInvalidation(session);
+                String line;
+                while ((line = bufferedReader.readLine()) != null) {
+                    readSessions.add(parseSession(line));
                 }
-            }
+
+                return readSessions;
+            });
         } catch (FileNotFoundException exception) {
             throw new RuntimeException("Could not find file", exception);
         } catch (IOException exception) {
-            throw new RuntimeException("There was an error updating the sessions database", exception);
+            throw new RuntimeException("There was an error reading the sessions database", exception);
         }
 
+        // a session whose expiry time cannot be read is dropped as well
+        List<Session> validSessions = sessions.stream()
+                .filter(session -> session.getExpiresAt() != null && session.getExpiresAt().isAfter(compareAgainst))
+                .collect(Collectors.toList());
+        validSessions.forEach(this::scheduleSessionInvalidation);
+
+        if (validSessions.size() == sessions.size()) {
+            return;
+        }
+
+        // nothing else writes to the file before the manager is created
         try {
-            Files.move(Path.of(TEMPORARY_FILE_NAME), Path.of(sessionsDatabaseFilename),
-                    StandardCopyOption.REPLACE_EXISTING);
+            log.rewrite(bufferedWriter -> {
+                for (Session session : validSessions) {
+                    bufferedWriter.write(formatSession(session) + System.lineSeparator());
+                }
+            });
         } catch (IOException exception) {
-            throw new RuntimeException("There was an error while trying to rename file", exception);
+            throw new RuntimeException("There was an error updating the sessions database", exception);
+        }
+    }
+
+    private static String formatSession(Session session) {
+        return String.join(DELIMITER,
+                session.getId().toString(),
+                session.getLoggedInUsername(),
+                session.getExpiresAt().toString());
+    }
+
+    private static Session parseSession(String line) {
+        String[] tokens = line.split(DELIMITER);
+
+        LocalDateTime expiresAt;
+        try {
+            expiresAt = LocalDateTime.parse(tokens[INDEX_EXPIRES_AT]);
+        } catch (DateTimeParseException exception) {
+            expiresAt = null;
+        }
+
+        return new Session(UUID.fromString(tokens[INDEX_ID]), tokens[INDEX_USERNAME], expiresAt);
+    }
+
+    /**
+     * Keeps a session in a snapshot as its id, its username and, if it could be read, the UTC seconds
+     * and nanoseconds of its expiry time.
+     */
+    private static class SessionFormat implements TextFileSnapshot.Format<Session> {
+        @Override
+        public Session parse(String line) {
+            return parseSession(line);
+        }
+
+        @Override
+        public void write(DataOutputStream output, Session session) throws IOException {
+            output.writeLong(session.getId().getMostSignificantBits());
+            output.writeLong(session.getId().getLeastSignificantBits());
+            output.writeUTF(session.getLoggedInUsername());
+
+            output.writeBoolean(session.getExpiresAt() != null);
+            if (session.getExpiresAt() != null) {
+                output.writeLong(session.getExpiresAt().toEpochSecond(ZoneOffset.UTC));
+                output.writeInt(session.getExpiresAt().getNano());
+            }
+        }
+
+        @Override
+        public Session read(DataInputStream input) throws IOException {
+            UUID id = new UUID(input.readLong(), input.readLong());
+            String username = input.readUTF();
+            LocalDateTime expiresAt = input.readBoolean()
+                    ? LocalDateTime.ofEpochSecond(input.readLong(), input.readInt(), ZoneOffset.UTC)
+                    : null;
+
+            return new Session(id, username, expiresAt);
         }
     }
 }
@@ -0,0 +1,156 @@
+package bg.sofia.uni.fmi.mjt.authserver.benchmark;
+
+import bg.sofia.uni.fmi.mjt.authserver.AuthServer;
+import bg.sofia.uni.fmi.mjt.authserver.config.AuthConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.config.ServerConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.config.ServerEngineType;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.Email;
+import bg.sofia.uni.fmi.mjt.authserver.user.Password;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+import bg.sofia.uni.fmi.mjt.authserver.validation.EmailValidator;
+import bg.sofia.uni.fmi.mjt.authserver.validation.PasswordValidator;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs the same workload against every server engine, one after the other, and prints their throughput.
+ * Every client keeps one connection and sends session logins with unknown session ids back to back,
+ * which makes the server read its sessions database on every request.
+ * <p>
+ * Usage: {@code EngineThroughputBenchmark [clients] [seconds]}
+ * </p>
+ */
+public class EngineThroughputBenchmark {
+    private static final String HOST = "localhost";
+    private static final int FIRST_PORT = 8100;
+    private static final int DEFAULT_CLIENT_COUNT = 64;
+    private static final int DEFAULT_DURATION_SECONDS = 10;
+    private static final int WARM_UP_SECONDS = 2;
+    private static final int CONNECT_ATTEMPTS = 50;
+    private static final int CONNECT_RETRY_MILLIS = 100;
+
+    private static final String ADMIN_USERNAME = "benchmark-admin";
+    private static final String ADMIN_PASSWORD = "BenchmarkPassword1";
+    private static final String COMMAND_FORMAT = "login --session-id %s" + System.lineSeparator();
+
+    public static void main(String[] args) throws Exception {
+        int clientCount = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_CLIENT_COUNT;
+        int durationSeconds = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_DURATION_SECONDS;
+
+        System.out.printf("%d clients, %d seconds per engine%n", clientCount, durationSeconds);
+        System.out.printf("%-25s %15s%n", "engine", "requests/s");
+
+        int port = FIRST_PORT;
+        for (ServerEngineType engineType : ServerEngineType.values()) {
+            double throughput = measure(engineType, port++, clientCount, durationSeconds);
+            System.out.printf("%-25s %15.1f%n", engineType, throughput);
+        }
+
+        // the session manager keeps non-daemon timer threads around
+        System.exit(0);
+    }
+
+    private static double measure(ServerEngineType engineType, int port, int clientCount, int durationSeconds)
+            throws Exception {
+        Path directory = Files.createTempDirectory("auth-benchmark-" + engineType);
+        AuthConfiguration configuration = prepareDatabase(directory);
+
+        AuthServer server = new AuthServer(ServerConfiguration.builder(port)
+                .setHost(HOST)
+                .setEngineType(engineType)
+                .build(), configuration);
+        Thread serverThread = new Thread(server);
+        serverThread.start();
+
+        LongAdder completedRequests = new LongAdder();
+        List<Thread> clients = new ArrayList<>();
+        long warmUpEnd = System.nanoTime() + WARM_UP_SECONDS * 1_000_000_000L;
+        long end = warmUpEnd + durationSeconds * 1_000_000_000L;
+
+        for (int i = 0; i < clientCount; i++) {
+            Thread client = new Thread(() -> runClient(port, warmUpEnd, end, completedRequests));
+            clients.add(client);
+            client.start();
+        }
+
+        for (Thread client : clients) {
+            client.join();
+        }
+
+        server.stop();
+        serverThread.join();
+
+        return completedRequests.sum() / (double) durationSeconds;
+    }
+
+    private static void runClient(int port, long warmUpEnd, long end, LongAdder completedRequests) {
+        try (SocketChannel socketChannel = connect(port);
+             var reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(socketChannel),
+                     StandardCharsets.UTF_8))) {
+            long now;
+
+            while ((now = System.nanoTime()) < end) {
+                String command = String.format(COMMAND_FORMAT, UUID.randomUUID());
+                ByteBuffer buffer = ByteBuffer.wrap(command.getBytes(StandardCharsets.UTF_8));
+                while (buffer.hasRemaining()) {
+                    socketChannel.write(buffer);
+                }
+
+                if (reader.readLine() == null) {
+                    return;
+                }
+
+                if (now >= warmUpEnd) {
+                    completedRequests.increment();
+                }
+            }
+        } catch (IOException | InterruptedException exception) {
+            System.out.println("Benchmark client failed: " + exception.getMessage());
+        }
+    }
+
+    static SocketChannel connect(int port) throws IOException, InterruptedException {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return SocketChannel.open(new InetSocketAddress(HOST, port));
+            } catch (IOException exception) {
+                // the server may still be starting up
+                if (attempt == CONNECT_ATTEMPTS) {
+                    throw exception;
+                }
+                Thread.sleep(CONNECT_RETRY_MILLIS);
+            }
+        }
+    }
+
+    static AuthConfiguration prepareDatabase(Path directory) throws IOException {
+        Path usersPath = directory.resolve("users.tsv");
+        Path sessionsPath = directory.resolve("sessions.tsv");
+        Path auditLogPath = directory.resolve("audit.log");
+
+        // an admin has to exist, otherwise the server asks for one on standard input
+        Password password = new Password(ADMIN_PASSWORD, new PasswordValidator());
+        password.hash();
+        User admin = new User(ADMIN_USERNAME, password, "Benchmark", "Admin",
+                new Email("admin@benchmark.com", new EmailValidator()), Authority.ADMIN, null);
+
+        Files.writeString(usersPath, admin.toStringWithDelimiter("\t") + System.lineSeparator());
+        Files.createFile(sessionsPath);
+
+        return AuthConfiguration.builder(usersPath, sessionsPath, auditLogPath).build();
+    }
+}
@@ -0,0 +1,140 @@
+package bg.sofia.uni.fmi.mjt.authserver.benchmark;
+
+/**
+ * <p>
+ *     A latency histogram in the style of HdrHistogram: values are counted in buckets whose width
+ *     doubles with every power of two, each split into the same number of sub-buckets, which keeps
+ *     the relative error of every recorded value under a fixed bound with a small, fixed footprint.
+ *     With 2048 sub-buckets values are kept to three significant digits.
+ * </p>
+ * <p>
+ *     {@link #recordValueWithExpectedInterval} corrects for coordinated omission: a load generator which waits
+ *     for every response before sending its next request silently skips the requests it should have sent while
+ *     the server stalled, so the stall is recorded once instead of for every request it would have delayed.
+ * </p>
+ * Recording is thread-safe.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_COUNT_MAGNITUDE = 11;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_COUNT_MAGNITUDE;
+    private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = SUB_BUCKET_COUNT_MAGNITUDE - 1;
+    private static final int SUB_BUCKET_HALF_COUNT = SUB_BUCKET_COUNT / 2;
+    private static final long SUB_BUCKET_MASK = SUB_BUCKET_COUNT - 1;
+    private static final double PERCENT = 100.0;
+
+    private final long highestTrackableValue;
+    private final long[] counts;
+    private long totalCount;
+    private long maxValue;
+    private double sum;
+
+    /**
+     * @param highestTrackableValue the largest value to be told apart, larger ones are counted as this one
+     */
+    public LatencyHistogram(long highestTrackableValue) {
+        this.highestTrackableValue = highestTrackableValue;
+
+        int bucketCount = 1;
+        while (((long) SUB_BUCKET_COUNT << (bucketCount - 1)) <= highestTrackableValue) {
+            bucketCount++;
+        }
+        this.counts = new long[(bucketCount + 1) * SUB_BUCKET_HALF_COUNT];
+    }
+
+    public synchronized void recordValue(long value) {
+        long clamped = Math.max(0, Math.min(value, highestTrackableValue));
+
+        counts[getCountsIndex(clamped)]++;
+        totalCount++;
+        maxValue = Math.max(maxValue, clamped);
+        sum += clamped;
+    }
+
+    /**
+     * Records a value and, if it is longer than the expected interval between two requests, also the
+     * values of the requests which would have been sent meanwhile, each one interval shorter than the previous.
+     */
+    public synchronized void recordValueWithExpectedInterval(long value, long expectedInterval) {
+        recordValue(value);
+
+        if (expectedInterval <= 0) {
+            return;
+        }
+
+        for (long missedValue = value - expectedInterval; missedValue >= expectedInterval;
+             missedValue -= expectedInterval) {
+            recordValue(missedValue);
+        }
+    }
+
+    /**
+     * Adds all values recorded by another histogram with the same trackable range to this one.
+     */
+    public synchronized void add(LatencyHistogram other) {
+        synchronized (other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+
+            totalCount += other.totalCount;
+            maxValue = Math.max(maxValue, other.maxValue);
+            sum += other.sum;
+        }
+    }
+
+    public synchronized long getTotalCount() {
+        return totalCount;
+    }
+
+    public synchronized long getMaxValue() {
+        return maxValue;
+    }
+
+    public synchronized double getMean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    /**
+     * @return the largest value which at least the given percentage of the recorded values do not exceed,
+     * to the precision of the histogram
+     */
+    public synchronized long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / PERCENT * totalCount));
+        long cumulativeCount = 0;
+
+        for (int i = 0; i < counts.length; i++) {
+            cumulativeCount += counts[i];
+
+            if (cumulativeCount >= countAtPercentile) {
+                return Math.min(getHighestEquivalentValue(i), maxValue);
+            }
+        }
+
+        return maxValue;
+    }
+
+    private static int getCountsIndex(long value) {
+        int bucketIndex = Long.SIZE - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK) - SUB_BUCKET_COUNT_MAGNITUDE;
+        int subBucketIndex = (int) (value >>> bucketIndex);
+
+        // every bucket but the first only uses the upper half of its sub-buckets, the lower half overlaps
+        // with the previous bucket
+        return ((bucketIndex + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE) + (subBucketIndex - SUB_BUCKET_HALF_COUNT);
+    }
+
+    private static long getHighestEquivalentValue(int countsIndex) {
+        int bucketIndex = (countsIndex >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+        int subBucketIndex = (countsIndex & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+
+        if (bucketIndex < 0) {
+            subBucketIndex -= SUB_BUCKET_HALF_COUNT;
+            bucketIndex = 0;
+        }
+
+        return ((long) (subBucketIndex + 1) << bucketIndex) - 1;
+    }
+}
@@ -0,0 +1,271 @@
+package bg.sofia.uni.fmi.mjt.authserver.benchmark;
+
+import bg.sofia.uni.fmi.mjt.authserver.client.AsyncAuthClient;
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandResult;
+import bg.sofia.uni.fmi.mjt.authserver.commands.ResultCode;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.config.ClientConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandParseException;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>
+ *     Replays a weighted mix of operations against a running server and reports the throughput
+ *     and the latency percentiles of every operation.
+ * </p>
+ * <p>
+ *     In open-loop mode requests are sent at a fixed rate no matter how fast the server answers,
+ *     and latency is measured from the moment each request was due to be sent, so a server which falls
+ *     behind is charged for the time requests spent waiting to be sent as well.
+ *     In closed-loop mode a fixed number of clients send their next request as soon as they get a response.
+ *     Such clients send less while the server stalls, so the stall would be under-counted; given the expected
+ *     interval between two requests of a client, the missed requests are added back to the corrected histogram.
+ * </p>
+ * Usage: {@code LoadGenerator [--host localhost] [--port 8000] [--mode open|closed] [--rate 1000]
+ * [--concurrency 16] [--expected-interval-us 0] [--duration 30] [--warm-up 5] [--connections 4] [--users 100]
+ * [--unix-socket path]
+ * [--mix register:1,login:4,session-login:10,update:2,logout:1]}
+ */
+public class LoadGenerator {
+    private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(1);
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+    private static final int DRAIN_TIMEOUT_SECONDS = 30;
+
+    private final AsyncAuthClient client;
+    private final Workload workload;
+    private final Map<LoadOperation, LatencyHistogram> histograms;
+    private final Map<LoadOperation, LatencyHistogram> correctedHistograms;
+    private final Map<LoadOperation, LongAdder> errors;
+
+    public LoadGenerator(AsyncAuthClient client, Workload workload) {
+        this.client = client;
+        this.workload = workload;
+        this.histograms = new EnumMap<>(LoadOperation.class);
+        this.correctedHistograms = new EnumMap<>(LoadOperation.class);
+        this.errors = new EnumMap<>(LoadOperation.class);
+
+        for (LoadOperation operation : LoadOperation.values()) {
+            histograms.put(operation, new LatencyHistogram(HIGHEST_TRACKABLE_MICROS));
+            correctedHistograms.put(operation, new LatencyHistogram(HIGHEST_TRACKABLE_MICROS));
+            errors.put(operation, new LongAdder());
+        }
+    }
+
+    public static void main(String[] args) {
+        CommandParser options;
+        try {
+            options = CommandParser.parse("load-generator " + String.join(" ", args));
+        } catch (CommandParseException exception) {
+            System.out.println("Invalid options: " + exception.getMessage());
+            return;
+        }
+
+        String mode = getOption(options, "mode", "open");
+        int durationSeconds = Integer.parseInt(getOption(options, "duration", "30"));
+        int warmUpSeconds = Integer.parseInt(getOption(options, "warm-up", "5"));
+
+        String unixSocketPath = options.getArgumentValue("unix-socket");
+        ClientConfiguration configuration = ClientConfiguration.builder(getOption(options, "host", "localhost"),
+                        Integer.parseInt(getOption(options, "port", "8000")))
+                .setUnixSocketPath(unixSocketPath != null ? Path.of(unixSocketPath) : null)
+                .setConnectionCount(Integer.parseInt(getOption(options, "connections", "4")))
+                .build();
+
+        try (AsyncAuthClient client = new AsyncAuthClient(configuration)) {
+            Workload workload = new Workload(client, Workload.parseMix(
+                    getOption(options, "mix", "register:1,login:4,session-login:10,update:2,logout:1")));
+            workload.populate(Integer.parseInt(getOption(options, "users", "100")));
+
+            LoadGenerator generator = new LoadGenerator(client, workload);
+            long start;
+
+            if (mode.equals("open")) {
+                int rate = Integer.parseInt(getOption(options, "rate", "1000"));
+                System.out.printf("open loop, %d requests/s, %d s%n", rate, durationSeconds);
+
+                start = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmUpSeconds);
+                generator.runOpenLoop(rate, warmUpSeconds + durationSeconds, start);
+            } else if (mode.equals("closed")) {
+                int concurrency = Integer.parseInt(getOption(options, "concurrency", "16"));
+                long expectedIntervalMicros = Long.parseLong(getOption(options, "expected-interval-us", "0"));
+                System.out.printf("closed loop, %d clients, %d s%n", concurrency, durationSeconds);
+
+                start = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmUpSeconds);
+                generator.runClosedLoop(concurrency, expectedIntervalMicros, warmUpSeconds + durationSeconds, start);
+            } else {
+                System.out.println("Unknown mode: " + mode);
+                return;
+            }
+
+            generator.printReport(durationSeconds, mode.equals("open"));
+        } catch (IllegalArgumentException exception) {
+            System.out.println("Invalid options: " + exception.getMessage());
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sends requests at a fixed rate from a single thread, without waiting for their responses.
+     * Results of requests due before the end of the warm-up are not recorded.
+     */
+    public void runOpenLoop(int requestsPerSecond, int totalSeconds, long recordingStart) {
+        long interval = TimeUnit.SECONDS.toNanos(1) / requestsPerSecond;
+        long begin = System.nanoTime();
+        long end = begin + TimeUnit.SECONDS.toNanos(totalSeconds);
+        List<CompletableFuture<CommandResult>> outstanding = new ArrayList<>();
+
+        for (long i = 0; ; i++) {
+            long due = begin + i * interval;
+            if (due >= end) {
+                break;
+            }
+
+            long now;
+            while ((now = System.nanoTime()) < due) {
+                LockSupport.parkNanos(due - now);
+            }
+
+            long sent = now;
+            LoadOperation operation = workload.nextOperation();
+            CompletableFuture<CommandResult> response = workload.execute(operation);
+
+            response.whenComplete((result, exception) -> {
+                if (due < recordingStart) {
+                    return;
+                }
+
+                long finished = System.nanoTime();
+                record(operation, result, exception);
+                // response time counts from when the request was due, service time from when it was sent
+                correctedHistograms.get(operation).recordValue(TimeUnit.NANOSECONDS.toMicros(finished - due));
+                histograms.get(operation).recordValue(TimeUnit.NANOSECONDS.toMicros(finished - sent));
+            });
+
+            outstanding.add(response);
+            if (outstanding.size() >= requestsPerSecond) {
+                outstanding.removeIf(CompletableFuture::isDone);
+            }
+        }
+
+        awaitAll(outstanding);
+    }
+
+    /**
+     * Runs the given number of clients, each sending its next request as soon as the previous one is answered.
+     */
+    public void runClosedLoop(int concurrency, long expectedIntervalMicros, int totalSeconds, long recordingStart)
+            throws InterruptedException {
+        long end = System.nanoTime() + TimeUnit.SECONDS.toNanos(totalSeconds);
+        List<Thread> clients = new ArrayList<>();
+
+        for (int i = 0; i < concurrency; i++) {
+            Thread client = new Thread(() -> {
+                long sent;
+
+                while ((sent = System.nanoTime()) < end) {
+                    LoadOperation operation = workload.nextOperation();
+                    CommandResult result = null;
+                    Throwable exception = null;
+
+                    try {
+                        result = workload.execute(operation).join();
+                    } catch (RuntimeException e) {
+                        exception = e;
+                    }
+
+                    if (sent >= recordingStart) {
+                        long latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - sent);
+                        record(operation, result, exception);
+                        histograms.get(operation).recordValue(latency);
+                        correctedHistograms.get(operation).recordValueWithExpectedInterval(latency,
+                                expectedIntervalMicros);
+                    }
+                }
+            }, "load-client-" + i);
+
+            clients.add(client);
+            client.start();
+        }
+
+        for (Thread client : clients) {
+            client.join();
+        }
+    }
+
+    public void printReport(int durationSeconds, boolean openLoop) {
+        String histogramName = openLoop ? "service time" : "uncorrected";
+        String correctedHistogramName = openLoop ? "response time" : "corrected for coordinated omission";
+
+        long requestCount = histograms.values().stream().mapToLong(LatencyHistogram::getTotalCount).sum();
+        long errorCount = errors.values().stream().mapToLong(LongAdder::sum).sum();
+
+        // failed requests do not count towards the throughput, a server answering only errors is not keeping up
+        System.out.printf("%nthroughput: %.1f successful requests/s, %d of %d requests failed%n",
+                (requestCount - errorCount) / (double) durationSeconds, errorCount, requestCount);
+
+        printHistograms(histogramName, histograms);
+        printHistograms(correctedHistogramName, correctedHistograms);
+    }
+
+    private void printHistograms(String name, Map<LoadOperation, LatencyHistogram> operationHistograms) {
+        System.out.printf("%n%s, in microseconds%n", name);
+        System.out.printf("%-15s %10s %8s %10s %10s %10s %10s %10s%n",
+                "operation", "count", "errors", "p50", "p90", "p99", "p99.9", "max");
+
+        LatencyHistogram total = new LatencyHistogram(HIGHEST_TRACKABLE_MICROS);
+        long totalErrors = 0;
+
+        for (LoadOperation operation : LoadOperation.values()) {
+            LatencyHistogram histogram = operationHistograms.get(operation);
+            long errorCount = errors.get(operation).sum();
+
+            if (histogram.getTotalCount() > 0) {
+                printRow(operation.toString(), histogram, errorCount);
+            }
+
+            total.add(histogram);
+            totalErrors += errorCount;
+        }
+
+        printRow("all", total, totalErrors);
+    }
+
+    private static void printRow(String name, LatencyHistogram histogram, long errorCount) {
+        System.out.printf("%-15s %10d %8d", name, histogram.getTotalCount(), errorCount);
+        for (double percentile : PERCENTILES) {
+            System.out.printf(" %10d", histogram.getValueAtPercentile(percentile));
+        }
+        System.out.printf(" %10d%n", histogram.getMaxValue());
+    }
+
+    // a response with any result but OK is counted as an error, as is a request which failed altogether
+    private void record(LoadOperation operation, CommandResult result, Throwable exception) {
+        if (exception != null || result.getResultCode() != ResultCode.OK) {
+            errors.get(operation).increment();
+        }
+    }
+
+    private void awaitAll(List<CompletableFuture<CommandResult>> outstanding) {
+        try {
+            CompletableFuture.allOf(outstanding.toArray(new CompletableFuture<?>[0]))
+                    .get(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (Exception exception) {
+            // failed requests have been counted as errors already
+        }
+    }
+
+    private static String getOption(CommandParser options, String name, String defaultValue) {
+        String value = options.getArgumentValue(name);
+        return value != null ? value : defaultValue;
+    }
+}
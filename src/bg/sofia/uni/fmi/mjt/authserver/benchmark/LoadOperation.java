@@ -0,0 +1,29 @@
+package bg.sofia.uni.fmi.mjt.authserver.benchmark;
+
+public enum LoadOperation {
+    REGISTER("register"),
+    LOGIN("login"),
+    LOGIN_WITH_SESSION_ID("session-login"),
+    UPDATE("update"),
+    LOGOUT("logout");
+
+    private final String text;
+
+    LoadOperation(String text) {
+        this.text = text;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    public static LoadOperation fromString(String text) {
+        for (LoadOperation operation : LoadOperation.values()) {
+            if (operation.toString().equalsIgnoreCase(text)) {
+                return operation;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,143 @@
+package bg.sofia.uni.fmi.mjt.authserver.benchmark;
+
+import bg.sofia.uni.fmi.mjt.authserver.AuthServer;
+import bg.sofia.uni.fmi.mjt.authserver.config.AuthConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.config.ServerConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.config.ServerEngineType;
+import bg.sofia.uni.fmi.mjt.authserver.config.SslContexts;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures how many TLS connections per second every server engine sets up, with full handshakes
+ * and with clients resuming their previous session.
+ * Every connection completes its handshake, sends one command the server answers without touching
+ * its databases, which also lets the client receive its session ticket, and is closed.
+ * <p>
+ * Usage: {@code TlsHandshakeBenchmark <key store> <key store password> [clients] [seconds]}
+ * </p>
+ */
+public class TlsHandshakeBenchmark {
+    private static final String HOST = "localhost";
+    private static final int FIRST_PORT = 8200;
+    private static final int DEFAULT_CLIENT_COUNT = 16;
+    private static final int DEFAULT_DURATION_SECONDS = 10;
+    private static final int WARM_UP_SECONDS = 2;
+
+    private static final byte[] COMMAND = ("ping" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.out.println("Usage: TlsHandshakeBenchmark <key store> <key store password> [clients] [seconds]");
+            return;
+        }
+
+        Path keyStorePath = Path.of(args[0]);
+        char[] password = args[1].toCharArray();
+        int clientCount = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_CLIENT_COUNT;
+        int durationSeconds = args.length > 3 ? Integer.parseInt(args[3]) : DEFAULT_DURATION_SECONDS;
+
+        System.out.printf("%d clients, %d seconds per run%n", clientCount, durationSeconds);
+        System.out.printf("%-25s %20s %20s%n", "engine", "full handshakes/s", "resumptions/s");
+
+        int port = FIRST_PORT;
+        for (ServerEngineType engineType : ServerEngineType.values()) {
+            Path directory = Files.createTempDirectory("auth-tls-benchmark-" + engineType);
+            AuthConfiguration configuration = EngineThroughputBenchmark.prepareDatabase(directory);
+
+            AuthServer server = new AuthServer(ServerConfiguration.builder(port)
+                    .setHost(HOST)
+                    .setEngineType(engineType)
+                    .setSslContext(SslContexts.fromKeyStore(keyStorePath, password))
+                    .build(), configuration);
+            Thread serverThread = new Thread(server);
+            serverThread.start();
+
+            // wait for the server to start listening
+            EngineThroughputBenchmark.connect(port).close();
+
+            // every run gets a client context of its own, so that no sessions are carried over
+            double fullHandshakes = measure(SslContexts.fromKeyStore(keyStorePath, password), port,
+                    false, clientCount, durationSeconds);
+            double resumptions = measure(SslContexts.fromKeyStore(keyStorePath, password), port,
+                    true, clientCount, durationSeconds);
+            System.out.printf("%-25s %20.1f %20.1f%n", engineType, fullHandshakes, resumptions);
+
+            server.stop();
+            serverThread.join();
+            port++;
+        }
+
+        // the session manager keeps non-daemon timer threads around
+        System.exit(0);
+    }
+
+    private static double measure(SSLContext clientContext, int port, boolean resume, int clientCount,
+                                  int durationSeconds) throws InterruptedException {
+        LongAdder completedConnections = new LongAdder();
+        List<Thread> clients = new ArrayList<>();
+        long warmUpEnd = System.nanoTime() + WARM_UP_SECONDS * 1_000_000_000L;
+        long end = warmUpEnd + durationSeconds * 1_000_000_000L;
+
+        for (int i = 0; i < clientCount; i++) {
+            Thread client = new Thread(() -> runClient(clientContext.getSocketFactory(), port, resume,
+                    warmUpEnd, end, completedConnections));
+            clients.add(client);
+            client.start();
+        }
+
+        for (Thread client : clients) {
+            client.join();
+        }
+
+        return completedConnections.sum() / (double) durationSeconds;
+    }
+
+    private static void runClient(SSLSocketFactory socketFactory, int port, boolean resume,
+                                  long warmUpEnd, long end, LongAdder completedConnections) {
+        try {
+            long now;
+
+            while ((now = System.nanoTime()) < end) {
+                try (SSLSocket socket = (SSLSocket) socketFactory.createSocket(HOST, port)) {
+                    socket.setTcpNoDelay(true);
+                    exchangeCommand(socket);
+
+                    if (!resume) {
+                        // keeps the client from offering the session the next time
+                        socket.getSession().invalidate();
+                    }
+                }
+
+                if (now >= warmUpEnd) {
+                    completedConnections.increment();
+                }
+            }
+        } catch (IOException exception) {
+            System.out.println("Benchmark client failed: " + exception.getMessage());
+        }
+    }
+
+    private static void exchangeCommand(SSLSocket socket) throws IOException {
+        OutputStream output = socket.getOutputStream();
+        output.write(COMMAND);
+        output.flush();
+
+        InputStream input = socket.getInputStream();
+        int b;
+        while ((b = input.read()) != -1 && b != '\n') {
+            // the response itself does not matter
+        }
+    }
+}
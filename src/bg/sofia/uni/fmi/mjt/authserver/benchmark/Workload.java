@@ -0,0 +1,170 @@
+package bg.sofia.uni.fmi.mjt.authserver.benchmark;
+
+import bg.sofia.uni.fmi.mjt.authserver.client.AsyncAuthClient;
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandResult;
+import bg.sofia.uni.fmi.mjt.authserver.commands.ResultCode;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A weighted mix of operations together with the users and sessions they create and use.
+ * Operations which need a session fall back to a password login when the user they picked has none,
+ * the same way a real client would have to log in first.
+ */
+public class Workload {
+    private static final String PASSWORD = "LoadPassword1";
+    private static final String EMAIL_DOMAIN = "@generator.com";
+    private static final String MIX_SEPARATOR = ",";
+    private static final String WEIGHT_SEPARATOR = ":";
+
+    private final AsyncAuthClient client;
+    private final LoadOperation[] operationsByWeight;
+    private final List<String> usernames;
+    private final Map<String, UUID> sessions;
+    private final String usernamePrefix;
+
+    public Workload(AsyncAuthClient client, Map<LoadOperation, Integer> mix) {
+        this.client = client;
+        this.usernames = new ArrayList<>();
+        this.sessions = new ConcurrentHashMap<>();
+        this.usernamePrefix = "load-" + UUID.randomUUID().toString().substring(0, 8) + "-";
+
+        List<LoadOperation> operations = new ArrayList<>();
+        mix.forEach((operation, weight) -> {
+            for (int i = 0; i < weight; i++) {
+                operations.add(operation);
+            }
+        });
+        this.operationsByWeight = operations.toArray(new LoadOperation[0]);
+    }
+
+    /**
+     * Parses a mix such as {@code register:1,login:4,session-login:10,update:2,logout:1}.
+     */
+    public static Map<LoadOperation, Integer> parseMix(String text) {
+        Map<LoadOperation, Integer> mix = new EnumMap<>(LoadOperation.class);
+
+        for (String entry : text.split(MIX_SEPARATOR)) {
+            String[] parts = entry.split(WEIGHT_SEPARATOR);
+            LoadOperation operation = LoadOperation.fromString(parts[0].strip());
+
+            if (operation == null || parts.length != 2) {
+                throw new IllegalArgumentException("Invalid mix entry: " + entry);
+            }
+
+            int weight = Integer.parseInt(parts[1].strip());
+            if (weight > 0) {
+                mix.put(operation, weight);
+            }
+        }
+
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("The mix has no operations");
+        }
+
+        return mix;
+    }
+
+    /**
+     * Registers and logs in the given number of users, so that the mix does not start from an empty server.
+     */
+    public void populate(int userCount) {
+        List<CompletableFuture<?>> logins = new ArrayList<>();
+
+        for (int i = 0; i < userCount; i++) {
+            logins.add(register().thenCompose(result -> login()));
+        }
+
+        CompletableFuture.allOf(logins.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    public LoadOperation nextOperation() {
+        return operationsByWeight[ThreadLocalRandom.current().nextInt(operationsByWeight.length)];
+    }
+
+    public CompletableFuture<CommandResult> execute(LoadOperation operation) {
+        return switch (operation) {
+            case REGISTER -> register();
+            case LOGIN -> login();
+            case LOGIN_WITH_SESSION_ID -> loginWithSessionId();
+            case UPDATE -> update();
+            case LOGOUT -> logout();
+        };
+    }
+
+    private CompletableFuture<CommandResult> register() {
+        String username = usernamePrefix + UUID.randomUUID().toString().substring(0, 13);
+
+        // emails are unique, so every user gets their own
+        return client.register(username, PASSWORD, "Load", "Generator", username + EMAIL_DOMAIN)
+                .thenApply(result -> {
+                    if (result.getResultCode() == ResultCode.OK) {
+                        synchronized (usernames) {
+                            usernames.add(username);
+                        }
+                    }
+                    return result;
+                });
+    }
+
+    private CompletableFuture<CommandResult> login() {
+        String username = pickUsername();
+        if (username == null) {
+            return register();
+        }
+
+        return client.login(username, PASSWORD).thenApply(result -> rememberSession(username, result));
+    }
+
+    private CompletableFuture<CommandResult> loginWithSessionId() {
+        String username = pickUsername();
+        UUID sessionId = username != null ? sessions.get(username) : null;
+        if (sessionId == null) {
+            return login();
+        }
+
+        return client.login(sessionId).thenApply(result -> rememberSession(username, result));
+    }
+
+    private CompletableFuture<CommandResult> update() {
+        String username = pickUsername();
+        UUID sessionId = username != null ? sessions.get(username) : null;
+        if (sessionId == null) {
+            return login();
+        }
+
+        String newFirstName = "Load" + ThreadLocalRandom.current().nextInt(1000);
+        return client.updateUser(sessionId, null, newFirstName, null, null);
+    }
+
+    private CompletableFuture<CommandResult> logout() {
+        String username = pickUsername();
+        UUID sessionId = username != null ? sessions.remove(username) : null;
+        if (sessionId == null) {
+            return login();
+        }
+
+        return client.logout(sessionId);
+    }
+
+    private CommandResult rememberSession(String username, CommandResult result) {
+        result.getSession().ifPresent(session -> sessions.put(username, session.getId()));
+        return result;
+    }
+
+    private String pickUsername() {
+        synchronized (usernames) {
+            if (usernames.isEmpty()) {
+                return null;
+            }
+            return usernames.get(ThreadLocalRandom.current().nextInt(usernames.size()));
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package bg.sofia.uni.fmi.mjt.authserver.client;
+
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandResult;
+import bg.sofia.uni.fmi.mjt.authserver.config.ClientConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.ConnectionClosedException;
+import bg.sofia.uni.fmi.mjt.authserver.protocol.BinaryProtocol;
+import bg.sofia.uni.fmi.mjt.authserver.protocol.Opcode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * <p>
+ *     A thread-safe client for the auth server, speaking the {@link BinaryProtocol}.
+ *     Every command returns a future of its {@link CommandResult}, so callers check the result code
+ *     instead of matching response texts, and get the new session of a login as a value.
+ * </p>
+ * <p>
+ *     Requests are spread over a pool of connections, each connection pipelining its requests.
+ *     Broken connections are replaced on the next request which would go through them.
+ *     A request fails with a {@link java.util.concurrent.TimeoutException} if its response does not arrive
+ *     in time, and with a {@link ConnectionClosedException} if its connection is lost.
+ * </p>
+ */
+public class AsyncAuthClient implements Closeable {
+    private final ClientConfiguration configuration;
+    private final SocketAddress address;
+    private final AtomicReferenceArray<ClientConnection> connections;
+    private volatile boolean closed;
+
+    public AsyncAuthClient(ClientConfiguration configuration) {
+        this.configuration = configuration;
+        this.address = configuration.getUnixSocketPath() != null
+                ? UnixDomainSocketAddress.of(configuration.getUnixSocketPath())
+                : new InetSocketAddress(configuration.getHost(), configuration.getPort());
+        this.connections = new AtomicReferenceArray<>(configuration.getConnectionCount());
+    }
+
+    public CompletableFuture<CommandResult> register(String username, String password, String firstName,
+                                                     String lastName, String email) {
+        return send(Opcode.REGISTER, username, password, firstName, lastName, email);
+    }
+
+    public CompletableFuture<CommandResult> login(String username, String password) {
+        return send(Opcode.LOGIN_WITH_PASSWORD, username, password);
+    }
+
+    public CompletableFuture<CommandResult> login(UUID sessionId) {
+        return send(Opcode.LOGIN_WITH_SESSION_ID, sessionId.toString());
+    }
+
+    public CompletableFuture<CommandResult> validateSession(UUID sessionId) {
+        return send(Opcode.VALIDATE_SESSION, sessionId.toString());
+    }
+
+    /**
+     * Updates the logged-in user. Fields which should stay the same are given as {@code null}.
+     */
+    public CompletableFuture<CommandResult> updateUser(UUID sessionId, String newUsername, String newFirstName,
+                                                       String newLastName, String newEmail) {
+        return send(Opcode.UPDATE_USER, sessionId.toString(), newUsername, newFirstName, newLastName, newEmail);
+    }
+
+    public CompletableFuture<CommandResult> resetPassword(UUID sessionId, String username, String oldPassword,
+                                                          String newPassword) {
+        return send(Opcode.RESET_PASSWORD, sessionId.toString(), username, oldPassword, newPassword);
+    }
+
+    public CompletableFuture<CommandResult> logout(UUID sessionId) {
+        return send(Opcode.LOGOUT, sessionId.toString());
+    }
+
+    public CompletableFuture<CommandResult> addAdminUser(UUID sessionId, String username) {
+        return send(Opcode.ADD_ADMIN_USER, sessionId.toString(), username);
+    }
+
+    public CompletableFuture<CommandResult> removeAdminUser(UUID sessionId, String username) {
+        return send(Opcode.REMOVE_ADMIN_USER, sessionId.toString(), username);
+    }
+
+    public CompletableFuture<CommandResult> deleteUser(UUID sessionId, String username) {
+        return send(Opcode.DELETE_USER, sessionId.toString(), username);
+    }
+
+    /**
+     * Sends any request, with its field values in the order of the fields of the opcode.
+     */
+    public CompletableFuture<CommandResult> send(Opcode opcode, String... values) {
+        ByteBuffer frame;
+        ClientConnection connection;
+
+        try {
+            frame = BinaryProtocol.encodeRequest(opcode, values);
+            connection = getConnection();
+        } catch (IOException | IllegalArgumentException exception) {
+            return CompletableFuture.failedFuture(exception);
+        }
+
+        CompletableFuture<CommandResult> response = connection.send(frame);
+
+        if (configuration.getRequestTimeoutMillis() > 0) {
+            response.orTimeout(configuration.getRequestTimeoutMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        return response;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+
+        synchronized (connections) {
+            for (int i = 0; i < connections.length(); i++) {
+                ClientConnection connection = connections.getAndSet(i, null);
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    // the connection with the fewest requests in flight, so that one slow request holds up as few others as possible
+    private ClientConnection getConnection() throws IOException {
+        if (closed) {
+            throw new ConnectionClosedException("Client is closed");
+        }
+
+        ClientConnection leastLoaded = null;
+        for (int i = 0; i < connections.length(); i++) {
+            ClientConnection connection = connections.get(i);
+
+            if (connection == null || !connection.isOpen()) {
+                return openConnection(i);
+            }
+
+            if (leastLoaded == null || connection.getPendingRequestCount() < leastLoaded.getPendingRequestCount()) {
+                leastLoaded = connection;
+            }
+        }
+
+        return leastLoaded;
+    }
+
+    private ClientConnection openConnection(int index) throws IOException {
+        synchronized (connections) {
+            if (closed) {
+                throw new ConnectionClosedException("Client is closed");
+            }
+
+            // another thread may have opened it in the meantime
+            ClientConnection connection = connections.get(index);
+            if (connection == null || !connection.isOpen()) {
+                connection = ClientConnection.open(address, configuration.getConnectTimeoutMillis());
+                connections.set(index, connection);
+            }
+
+            return connection;
+        }
+    }
+}
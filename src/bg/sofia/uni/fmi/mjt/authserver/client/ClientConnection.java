@@ -0,0 +1,163 @@
+package bg.sofia.uni.fmi.mjt.authserver.client;
+
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandResult;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.ConnectionClosedException;
+import bg.sofia.uni.fmi.mjt.authserver.protocol.BinaryProtocol;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single binary protocol connection which pipelines requests: any number of them may be sent
+ * before the first response arrives. The server answers the requests of a connection in order,
+ * so a reader thread simply completes the oldest pending request with every response it reads.
+ */
+class ClientConnection {
+    private final SocketChannel socketChannel;
+    private final Queue<CompletableFuture<CommandResult>> pendingRequests;
+    // the size of a concurrent queue is not constant-time
+    private final AtomicInteger pendingRequestCount;
+    private final Object writeLock;
+    private final Thread reader;
+    private volatile boolean open;
+
+    private ClientConnection(SocketChannel socketChannel) {
+        this.socketChannel = socketChannel;
+        this.pendingRequests = new ConcurrentLinkedQueue<>();
+        this.pendingRequestCount = new AtomicInteger();
+        this.writeLock = new Object();
+        this.reader = new Thread(this::readResponses, "auth-client-reader");
+        this.reader.setDaemon(true);
+        this.open = true;
+    }
+
+    /**
+     * Connects to the server over TCP, or over a Unix domain socket if given its address.
+     */
+    static ClientConnection open(SocketAddress address, int connectTimeoutMillis) throws IOException {
+        boolean unixDomain = address instanceof UnixDomainSocketAddress;
+        SocketChannel socketChannel = unixDomain ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                : SocketChannel.open();
+
+        try {
+            if (unixDomain) {
+                // connecting to a local socket never waits for the network
+                socketChannel.connect(address);
+            } else {
+                socketChannel.socket().connect(address, connectTimeoutMillis);
+                socketChannel.socket().setTcpNoDelay(true);
+            }
+
+            ByteBuffer magic = ByteBuffer.wrap(new byte[] {BinaryProtocol.MAGIC});
+            while (magic.hasRemaining()) {
+                socketChannel.write(magic);
+            }
+        } catch (IOException exception) {
+            socketChannel.close();
+            throw exception;
+        }
+
+        ClientConnection connection = new ClientConnection(socketChannel);
+        connection.reader.start();
+
+        return connection;
+    }
+
+    boolean isOpen() {
+        return open;
+    }
+
+    int getPendingRequestCount() {
+        return pendingRequestCount.get();
+    }
+
+    CompletableFuture<CommandResult> send(ByteBuffer frame) {
+        CompletableFuture<CommandResult> response = new CompletableFuture<>();
+
+        // the request has to be queued in the same order it is written in
+        synchronized (writeLock) {
+            if (!open) {
+                response.completeExceptionally(new ConnectionClosedException("Connection is closed"));
+                return response;
+            }
+
+            pendingRequests.add(response);
+            pendingRequestCount.incrementAndGet();
+            try {
+                while (frame.hasRemaining()) {
+                    socketChannel.write(frame);
+                }
+            } catch (IOException exception) {
+                close(new ConnectionClosedException("Could not send request", exception));
+            }
+        }
+
+        return response;
+    }
+
+    void close() {
+        close(new ConnectionClosedException("Connection is closed"));
+    }
+
+    private void readResponses() {
+        ConnectionClosedException cause = new ConnectionClosedException("Connection is closed");
+
+        try (var input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(socketChannel)))) {
+            while (open) {
+                int frameLength = input.readInt();
+                if (frameLength < 0 || frameLength > BinaryProtocol.MAX_FRAME_LENGTH) {
+                    throw new IOException("Frame length must be between 0 and "
+                            + BinaryProtocol.MAX_FRAME_LENGTH + " bytes");
+                }
+
+                byte[] frame = new byte[frameLength];
+                input.readFully(frame);
+
+                CompletableFuture<CommandResult> response = pendingRequests.poll();
+                if (response == null) {
+                    throw new IOException("Received a response to no request");
+                }
+                pendingRequestCount.decrementAndGet();
+
+                // a request which has timed out is already complete, its response is simply dropped
+                response.complete(BinaryProtocol.decodeResponse(ByteBuffer.wrap(frame)));
+            }
+        } catch (IOException | RuntimeException exception) {
+            cause = new ConnectionClosedException("Connection to the server was lost", exception);
+        } finally {
+            // whatever stopped the reader, no pending request would be answered any more
+            close(cause);
+        }
+    }
+
+    private void close(ConnectionClosedException cause) {
+        // no request may be queued after the pending ones have been failed
+        synchronized (writeLock) {
+            open = false;
+
+            try {
+                socketChannel.close();
+            } catch (IOException exception) {
+                System.out.println("Could not close connection:");
+                System.out.println(exception.getMessage());
+            }
+
+            CompletableFuture<CommandResult> response;
+            while ((response = pendingRequests.poll()) != null) {
+                pendingRequestCount.decrementAndGet();
+                response.completeExceptionally(cause);
+            }
+        }
+    }
+}
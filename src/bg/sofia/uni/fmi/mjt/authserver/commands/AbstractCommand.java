@@ -7,6 +7,9 @@ import bg.sofia.uni.fmi.mjt.authserver.exceptions.MissingRequiredArgumentsExcept
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.UnknownArgumentException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.ValidationException;
 
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.channels.SocketChannel;
 import java.util.HashSet;
 import java.util.Optional;
 import java.util.Set;
@@ -15,34 +18,69 @@ public abstract class AbstractCommand implements Command {
     protected Authenticator authenticator;
     protected CommandParser parser;
     protected Set<CommandParameter> parameters;
+    private ResultCode resultCode;
 
     public AbstractCommand(Authenticator authenticator, CommandParser parser) {
         this.authenticator = authenticator;
         this.parser = parser;
         this.parameters = new HashSet<>();
+        this.resultCode = ResultCode.OK;
     }
 
     public abstract String execute();
 
+    @Override
+    public ResultCode getResultCode() {
+        return resultCode;
+    }
+
+    /**
+     * Reports the given result code for the execution, which answers with the given response.
+     */
+    protected String respond(ResultCode resultCode, String response) {
+        this.resultCode = resultCode;
+        return response;
+    }
+
     protected void validate() throws CommandParseException {
         parser.requireAllArgumentNamesAreValidParameterNames(parameters);
         parser.requireAllRequiredArgumentsArePresent(parameters);
     }
 
+    /**
+     * @return the response to arguments which are not valid, in which case the request is reported as bad
+     */
     protected Optional<String> validateArgumentsAndGetErrorMessage() {
         try {
             validate();
         } catch (UnknownArgumentException exception) {
-            return Optional.of(getNonExistingParameterResponse(exception.getParameters()));
+            return Optional.of(respond(ResultCode.BAD_REQUEST,
+                    getNonExistingParameterResponse(exception.getParameters())));
         } catch (MissingRequiredArgumentsException exception) {
-            return Optional.of(getMissingRequiredArgumentsResponse(exception.getMissingArguments()));
+            return Optional.of(respond(ResultCode.BAD_REQUEST,
+                    getMissingRequiredArgumentsResponse(exception.getMissingArguments())));
         } catch (CommandParseException exception) {
-            return Optional.of(getGeneralPreExecutionFailureResponse());
+            return Optional.of(respond(ResultCode.BAD_REQUEST, getGeneralPreExecutionFailureResponse()));
         }
 
         return Optional.empty();
     }
 
+    /**
+     * @return the address of the client on the other end of the channel, or {@code null} if there is no channel
+     */
+    protected static SocketAddress getRemoteAddress(SocketChannel socketChannel) {
+        if (socketChannel == null) {
+            return null;
+        }
+
+        try {
+            return socketChannel.getRemoteAddress();
+        } catch (IOException exception) {
+            throw new RuntimeException("There was an error while fetching socket address", exception);
+        }
+    }
+
     public String getNonExistingParameterResponse(Set<String> parameters) {
         return "Could not execute command, unknown parameters: "
                 + System.lineSeparator() + parameters;
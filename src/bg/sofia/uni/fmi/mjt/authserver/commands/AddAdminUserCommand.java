@@ -10,7 +10,6 @@ import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
 import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
 import bg.sofia.uni.fmi.mjt.authserver.user.User;
 
-import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.channels.SocketChannel;
 import java.time.LocalDateTime;
@@ -19,13 +18,18 @@ import java.util.UUID;
 
 public class AddAdminUserCommand extends AbstractCommand {
     protected final AuthAuditLogger auditLogger;
-    protected final SocketChannel socketChannel;
+    protected final SocketAddress remoteAddress;
 
     public AddAdminUserCommand(Authenticator authenticator, CommandParser parser,
                                AuthAuditLogger auditLogger, SocketChannel socketChannel) {
+        this(authenticator, parser, auditLogger, getRemoteAddress(socketChannel));
+    }
+
+    public AddAdminUserCommand(Authenticator authenticator, CommandParser parser,
+                               AuthAuditLogger auditLogger, SocketAddress remoteAddress) {
         super(authenticator, parser);
         this.auditLogger = auditLogger;
-        this.socketChannel = socketChannel;
+        this.remoteAddress = remoteAddress;
         setParameters();
     }
 
@@ -49,45 +53,37 @@ public class AddAdminUserCommand extends AbstractCommand {
         try {
             uuid = UUID.fromString(sessionId);
         } catch (IllegalArgumentException exception) {
-            return getInvalidSessionIdResponse();
+            return respond(ResultCode.INVALID_SESSION, getInvalidSessionIdResponse());
         }
 
         Session session = new Session(uuid);
 
         User userWhoRequested = authenticator.getUserBySession(session);
         if (userWhoRequested == null) {
-            return getFailedSessionLoginResponse();
-        }
-
-        SocketAddress performerAddress;
-        try {
-            performerAddress = socketChannel.getRemoteAddress();
-        } catch (IOException exception) {
-            throw new RuntimeException("There was an error while trying to read IP of performer", exception);
+            return respond(ResultCode.INVALID_SESSION, getFailedSessionLoginResponse());
         }
 
         var beginEvent = new BeginResourceChangeEvent(LocalDateTime.now(), userWhoRequested.getUsername(),
-                performerAddress, username, ResourceChangeEventType.ADD_ADMIN);
+                remoteAddress, username, ResourceChangeEventType.ADD_ADMIN);
         auditLogger.logEvent(beginEvent);
 
         if (!userWhoRequested.getAuthority().isAtLeast(Authority.ADMIN)) {
             auditLogger.logEvent(new EndResourceChangeEvent(LocalDateTime.now(), beginEvent, false));
-            return getUnauthorizedResponse(userWhoRequested.getUsername());
+            return respond(ResultCode.FORBIDDEN, getUnauthorizedResponse(userWhoRequested.getUsername()));
         }
 
         User userToAdd = authenticator.getUserByUsername(username);
         if (userToAdd == null) {
             auditLogger.logEvent(new EndResourceChangeEvent(LocalDateTime.now(), beginEvent, false));
-            return getUserToAddNotFoundResponse(username);
+            return respond(ResultCode.NOT_FOUND, getUserToAddNotFoundResponse(username));
         }
 
         if (userToAdd.getAuthority().isAtLeast(Authority.ADMIN)) {
             auditLogger.logEvent(new EndResourceChangeEvent(LocalDateTime.now(), beginEvent, false));
-            return getUserIsAlreadyAdminResponse();
+            return respond(ResultCode.CONFLICT, getUserIsAlreadyAdminResponse());
         }
 
-        userToAdd.setAuthority(Authority.ADMIN);
-        authenticator.replaceUser(userToAdd.getUsername(), userToAdd);
+        authenticator.updateUser(userToAdd.getUsername(), user -> user.setAuthority(Authority.ADMIN));
 
         auditLogger.logEvent(new EndResourceChangeEvent(LocalDateTime.now(), beginEvent, true));
         return getSuccessfulAdminAddResponse();
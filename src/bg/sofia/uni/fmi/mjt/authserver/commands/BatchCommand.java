@@ -0,0 +1,220 @@
+package bg.sofia.uni.fmi.mjt.authserver.commands;
+
+import bg.sofia.uni.fmi.mjt.authserver.auth.Authenticator;
+import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.StripedLock;
+import bg.sofia.uni.fmi.mjt.authserver.storage.StagingAuthStorage;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.net.SocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+/**
+ * Executes the commands of a batch in order, on top of a {@link StagingAuthStorage}:
+ * the users they touch are read in one pass and all their changes are written in one pass,
+ * after every command has been validated and executed.
+ * Each command still succeeds or fails on its own, and the batch answers with all of their results on one line.
+ * <p>
+ *     The users the commands are about are locked for the whole batch, so changes made to them
+ *     outside the batch wait for it instead of being overwritten with the versions it read.
+ *     So are the emails the commands give users, and the usernames they register or rename users to,
+ *     so that no user registered or changed outside the batch takes them before the batch is committed.
+ * </p>
+ */
+public class BatchCommand implements Command {
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final String RESULT_SEPARATOR = "; ";
+    private static final Pattern LINE_BREAK = Pattern.compile("\\R");
+
+    // commands which log users in or out act on sessions, which are not staged
+    private static final Set<String> BATCHABLE_COMMANDS = Set.of(CommandExecutor.COMMAND_REGISTER,
+            CommandExecutor.COMMAND_UPDATE_USER, CommandExecutor.COMMAND_RESET_PASSWORD,
+            CommandExecutor.COMMAND_ADD_ADMIN_USER, CommandExecutor.COMMAND_REMOVE_ADMIN_USER,
+            CommandExecutor.COMMAND_DELETE_USER);
+
+    private final Authenticator authenticator;
+    private final CommandParser parser;
+    private final SocketAddress remoteAddress;
+    private final List<CommandResult> results;
+    private ResultCode resultCode;
+
+    public BatchCommand(Authenticator authenticator, CommandParser parser, SocketAddress remoteAddress) {
+        this.authenticator = authenticator;
+        this.parser = parser;
+        this.remoteAddress = remoteAddress;
+        this.results = new ArrayList<>();
+        this.resultCode = ResultCode.OK;
+    }
+
+    @Override
+    public String execute() {
+        List<CommandParser> commands = parser.getBatchedCommands();
+
+        // the results of the batched commands are part of the response, the batch itself succeeds once run
+        if (commands.isEmpty()) {
+            resultCode = ResultCode.BAD_REQUEST;
+            return getEmptyBatchResponse();
+        } else if (commands.size() > MAX_BATCH_SIZE) {
+            resultCode = ResultCode.BAD_REQUEST;
+            return getBatchTooLargeResponse();
+        }
+
+        for (int i = 0; i < commands.size(); i++) {
+            String commandName = commands.get(i).getCommandName();
+
+            if (!BATCHABLE_COMMANDS.contains(commandName)) {
+                resultCode = ResultCode.BAD_REQUEST;
+                return getCommandNotBatchableResponse(i + 1, commandName);
+            }
+        }
+
+        // the users are not changed outside the batch from when they are read until its changes are written
+        Set<String> usernames = new LinkedHashSet<>();
+        StripedLock.Locked locked = lockUsers(commands, usernames);
+        try {
+            StagingAuthStorage stagingStorage = authenticator.createStagingStorage();
+            stagingStorage.prefetch(usernames);
+
+            CommandExecutor stagingExecutor = new CommandExecutor(authenticator.withStorage(stagingStorage));
+            for (CommandParser command : commands) {
+                results.add(stagingExecutor.executeCommandForResult(command, remoteAddress));
+            }
+
+            stagingStorage.commit();
+        } finally {
+            locked.unlock();
+        }
+
+        return getBatchResponse(results);
+    }
+
+    @Override
+    public ResultCode getResultCode() {
+        return resultCode;
+    }
+
+    /**
+     * @return the results of the batched commands, in order, once the batch has been executed
+     */
+    public List<CommandResult> getResults() {
+        return results;
+    }
+
+    /**
+     * Locks the users the commands are about, the ones they name and the ones whose sessions they are run with,
+     * and the emails they give users.
+     * @param usernames filled with the usernames of the locked users
+     */
+    private StripedLock.Locked lockUsers(List<CommandParser> commands, Set<String> usernames) {
+        usernames.addAll(getUsernames(commands));
+        Set<String> emails = getEmails(commands);
+
+        while (true) {
+            StripedLock.Locked locked = authenticator.lockUsers(usernames, emails);
+
+            // a session may have moved to another user before its user was locked
+            Set<String> currentUsernames = getUsernames(commands);
+            if (usernames.containsAll(currentUsernames)) {
+                return locked;
+            }
+
+            locked.unlock();
+            usernames.addAll(currentUsernames);
+        }
+    }
+
+    private Set<String> getUsernames(List<CommandParser> commands) {
+        Set<String> usernames = new LinkedHashSet<>();
+        // the commands of a batch are usually run with the same session, which is looked up once
+        Set<String> sessionIds = new LinkedHashSet<>();
+
+        for (CommandParser command : commands) {
+            String username = command.getArgumentValue("username");
+            String newUsername = command.getArgumentValue("new-username");
+            String sessionId = command.getArgumentValue("session-id");
+
+            if (username != null) {
+                usernames.add(username);
+            }
+            if (newUsername != null) {
+                usernames.add(newUsername);
+            }
+            if (sessionId != null) {
+                sessionIds.add(sessionId);
+            }
+        }
+
+        for (String sessionId : sessionIds) {
+            User sessionUser = getUserBySessionId(sessionId);
+
+            if (sessionUser != null) {
+                usernames.add(sessionUser.getUsername());
+            }
+        }
+
+        return usernames;
+    }
+
+    private static Set<String> getEmails(List<CommandParser> commands) {
+        Set<String> emails = new LinkedHashSet<>();
+
+        for (CommandParser command : commands) {
+            String email = command.getArgumentValue("email");
+            String newEmail = command.getArgumentValue("new-email");
+
+            if (email != null) {
+                emails.add(email);
+            }
+            if (newEmail != null) {
+                emails.add(newEmail);
+            }
+        }
+
+        return emails;
+    }
+
+    private User getUserBySessionId(String sessionId) {
+        try {
+            return authenticator.getUserBySession(new Session(UUID.fromString(sessionId)));
+        } catch (IllegalArgumentException exception) {
+            // the command itself answers that the session id is invalid
+            return null;
+        }
+    }
+
+    /**
+     * Puts the results on a single line, separated like the commands of the batch,
+     * since every response is framed by the line it is sent on.
+     */
+    public static String getBatchResponse(List<CommandResult> results) {
+        StringBuilder response = new StringBuilder("Batch of " + results.size() + " commands executed:");
+
+        for (int i = 0; i < results.size(); i++) {
+            CommandResult result = results.get(i);
+            response.append(i == 0 ? " " : RESULT_SEPARATOR)
+                    .append(i + 1).append(". ")
+                    .append(result.getResultCode()).append(": ")
+                    .append(LINE_BREAK.matcher(result.getResponse()).replaceAll(" "));
+        }
+
+        return response.toString();
+    }
+
+    public static String getEmptyBatchResponse() {
+        return "Could not execute batch: it has no commands";
+    }
+
+    public static String getBatchTooLargeResponse() {
+        return "Could not execute batch: it has more than " + MAX_BATCH_SIZE + " commands";
+    }
+
+    public static String getCommandNotBatchableResponse(int position, String commandName) {
+        return "Could not execute batch: command " + position + " (" + commandName + ") cannot be batched";
+    }
+}
@@ -14,4 +14,11 @@ public interface Command {
      * @return a message - response from the execution
      */
     String execute();
+
+    /**
+     * @return how the execution went, for clients which should not have to tell it from the response
+     */
+    default ResultCode getResultCode() {
+        return ResultCode.OK;
+    }
 }
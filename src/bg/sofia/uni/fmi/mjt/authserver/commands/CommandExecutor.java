@@ -2,9 +2,12 @@ package bg.sofia.uni.fmi.mjt.authserver.commands;
 
 import bg.sofia.uni.fmi.mjt.authserver.auditlog.DefaultAuthAuditLogger;
 import bg.sofia.uni.fmi.mjt.authserver.auth.Authenticator;
+import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
 import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandParseException;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.CommitLatency;
 
+import java.net.SocketAddress;
 import java.nio.channels.SocketChannel;
 
 public class CommandExecutor {
@@ -16,6 +19,9 @@ public class CommandExecutor {
     public static final String COMMAND_ADD_ADMIN_USER = "add-admin-user";
     public static final String COMMAND_REMOVE_ADMIN_USER = "remove-admin-user";
     public static final String COMMAND_DELETE_USER = "delete-user";
+    public static final String COMMAND_VALIDATE_SESSION = "validate-session";
+    public static final String COMMAND_BATCH = "batch";
+    public static final String COMMAND_STATS = "stats";
     public static final String COMMAND_EXIT = "exit";
 
     private final Authenticator authenticator;
@@ -35,60 +41,98 @@ public class CommandExecutor {
             return response;
         }
 
-        String commandName = parser.getCommandName();
+        return executeCommand(parser, socketChannel);
+    }
+
+    public String executeCommand(CommandParser parser, SocketChannel socketChannel) {
+        return createCommand(parser, socketChannel).execute();
+    }
+
+    /**
+     * Executes a parsed command and also reports how it went as a {@link ResultCode},
+     * as well as the new session if the command was a successful login.
+     */
+    public CommandResult executeCommandForResult(CommandParser parser, SocketChannel socketChannel) {
+        return executeCommandForResult(parser, getRemoteAddress(parser, socketChannel));
+    }
 
-        switch (commandName) {
-            case COMMAND_REGISTER -> {
-                Command registerCommand = new RegisterCommand(authenticator, parser);
-                response = registerCommand.execute();
-            }
-            case COMMAND_LOGIN -> {
-                Command loginCommand = new LoginCommand(authenticator, parser,
-                        new DefaultAuthAuditLogger(authenticator.getConfiguration().getAuditLogPath()),
-                        socketChannel);
-                response = loginCommand.execute();
-            }
-            case COMMAND_UPDATE_USER -> {
-                Command updateUserCommand = new UpdateUserCommand(authenticator, parser);
-                response = updateUserCommand.execute();
-            }
-            case COMMAND_RESET_PASSWORD -> {
-                Command resetPasswordCommand = new ResetPasswordCommand(authenticator, parser);
-                response = resetPasswordCommand.execute();
-            }
-            case COMMAND_LOGOUT -> {
-                Command logoutCommand = new LogoutCommand(authenticator, parser);
-                response = logoutCommand.execute();
-            }
-            case COMMAND_ADD_ADMIN_USER -> {
-                Command addAdminUserCommand = new AddAdminUserCommand(authenticator, parser,
-                        new DefaultAuthAuditLogger(authenticator.getConfiguration().getAuditLogPath()),
-                        socketChannel);
-                response = addAdminUserCommand.execute();
-            }
-            case COMMAND_REMOVE_ADMIN_USER -> {
-                Command removeAdminUserCommand = new RemoveAdminUserCommand(authenticator, parser,
-                        authenticator.getConfiguration(),
-                        new DefaultAuthAuditLogger(authenticator.getConfiguration().getAuditLogPath()),
-                        socketChannel);
-                response = removeAdminUserCommand.execute();
-            }
-            case COMMAND_DELETE_USER -> {
-                Command deleteUserCommand = new DeleteUserCommand(authenticator, parser);
-                response = deleteUserCommand.execute();
-            }
-            case COMMAND_EXIT -> response = getExitResponse();
-            default -> response = getUnknownCommandResponse();
+    /**
+     * Like {@link #executeCommandForResult(CommandParser, SocketChannel)}, for clients
+     * which are not served over a socket channel of their own, e.g. HTTP clients.
+     */
+    public CommandResult executeCommandForResult(CommandParser parser, SocketAddress remoteAddress) {
+        Command command = createCommand(parser, remoteAddress);
+
+        // nested executions, e.g. of batched commands, are counted in the latency of the outer one
+        long commitNanosBefore = CommitLatency.getNanos();
+        String response = command.execute();
+        long commitLatencyNanos = CommitLatency.getNanos() - commitNanosBefore;
+
+        Session session = null;
+        if (command instanceof LoginCommand) {
+            session = ((LoginCommand) command).getSession().orElse(null);
         }
 
-        return response;
+        return new CommandResult(command.getResultCode(), response, session, commitLatencyNanos);
+    }
+
+    public Command createCommand(CommandParser parser, SocketChannel socketChannel) {
+        return createCommand(parser, getRemoteAddress(parser, socketChannel));
+    }
+
+    public Command createCommand(CommandParser parser, SocketAddress remoteAddress) {
+        String commandName = parser.getCommandName();
+
+        return switch (commandName) {
+            case COMMAND_REGISTER -> new RegisterCommand(authenticator, parser);
+            case COMMAND_LOGIN -> new LoginCommand(authenticator, parser,
+                    new DefaultAuthAuditLogger(authenticator.getConfiguration()),
+                    remoteAddress);
+            case COMMAND_UPDATE_USER -> new UpdateUserCommand(authenticator, parser);
+            case COMMAND_RESET_PASSWORD -> new ResetPasswordCommand(authenticator, parser);
+            case COMMAND_LOGOUT -> new LogoutCommand(authenticator, parser);
+            case COMMAND_ADD_ADMIN_USER -> new AddAdminUserCommand(authenticator, parser,
+                    new DefaultAuthAuditLogger(authenticator.getConfiguration()),
+                    remoteAddress);
+            case COMMAND_REMOVE_ADMIN_USER -> new RemoveAdminUserCommand(authenticator, parser,
+                    authenticator.getConfiguration(),
+                    new DefaultAuthAuditLogger(authenticator.getConfiguration()),
+                    remoteAddress);
+            case COMMAND_DELETE_USER -> new DeleteUserCommand(authenticator, parser);
+            case COMMAND_VALIDATE_SESSION -> new ValidateSessionCommand(authenticator, parser);
+            case COMMAND_BATCH -> new BatchCommand(authenticator, parser, remoteAddress);
+            case COMMAND_STATS -> new StatsCommand(authenticator, parser);
+            case COMMAND_EXIT -> this::getExitResponse;
+            default -> new UnknownCommand();
+        };
+    }
+
+    // only the commands which audit their performer need the address of the client
+    private static SocketAddress getRemoteAddress(CommandParser parser, SocketChannel socketChannel) {
+        return switch (parser.getCommandName()) {
+            case COMMAND_LOGIN, COMMAND_ADD_ADMIN_USER, COMMAND_REMOVE_ADMIN_USER, COMMAND_BATCH ->
+                    AbstractCommand.getRemoteAddress(socketChannel);
+            default -> null;
+        };
     }
 
     private String getExitResponse() {
         return "Have a good day! :)";
     }
 
-    private String getUnknownCommandResponse() {
+    private static String getUnknownCommandResponse() {
         return "Unknown command";
     }
+
+    private static class UnknownCommand implements Command {
+        @Override
+        public String execute() {
+            return getUnknownCommandResponse();
+        }
+
+        @Override
+        public ResultCode getResultCode() {
+            return ResultCode.UNKNOWN_COMMAND;
+        }
+    }
 }
@@ -0,0 +1,50 @@
+package bg.sofia.uni.fmi.mjt.authserver.commands;
+
+import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
+
+import java.util.Optional;
+
+/**
+ * The response of an executed command together with its result code,
+ * the time it spent committing its writes and, for successful logins, the new session.
+ */
+public class CommandResult {
+    private final ResultCode resultCode;
+    private final String response;
+    private final Session session;
+    private final long commitLatencyNanos;
+
+    public CommandResult(ResultCode resultCode, String response) {
+        this(resultCode, response, null);
+    }
+
+    public CommandResult(ResultCode resultCode, String response, Session session) {
+        this(resultCode, response, session, 0);
+    }
+
+    public CommandResult(ResultCode resultCode, String response, Session session, long commitLatencyNanos) {
+        this.resultCode = resultCode;
+        this.response = response;
+        this.session = session;
+        this.commitLatencyNanos = commitLatencyNanos;
+    }
+
+    public ResultCode getResultCode() {
+        return resultCode;
+    }
+
+    public String getResponse() {
+        return response;
+    }
+
+    public Optional<Session> getSession() {
+        return Optional.ofNullable(session);
+    }
+
+    /**
+     * @return the time spent writing to the databases and waiting for the writes to be committed
+     */
+    public long getCommitLatencyNanos() {
+        return commitLatencyNanos;
+    }
+}
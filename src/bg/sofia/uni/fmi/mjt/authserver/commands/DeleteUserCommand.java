@@ -35,23 +35,23 @@ public class DeleteUserCommand extends AbstractCommand {
         try {
             uuid = UUID.fromString(sessionId);
         } catch (IllegalArgumentException exception) {
-            return getInvalidSessionIdResponse();
+            return respond(ResultCode.INVALID_SESSION, getInvalidSessionIdResponse());
         }
 
         Session session = new Session(uuid);
 
         User userWhoRequested = authenticator.getUserBySession(session);
         if (userWhoRequested == null) {
-            return getFailedSessionLoginResponse();
+            return respond(ResultCode.INVALID_SESSION, getFailedSessionLoginResponse());
         }
 
         if (!userWhoRequested.getAuthority().isAtLeast(Authority.ADMIN)) {
-            return getUnauthorizedResponse(userWhoRequested.getUsername());
+            return respond(ResultCode.FORBIDDEN, getUnauthorizedResponse(userWhoRequested.getUsername()));
         }
 
         User userToRemove = authenticator.getUserByUsername(username);
         if (userToRemove == null) {
-            return getUserToDeleteNotFoundResponse(username);
+            return respond(ResultCode.NOT_FOUND, getUserToDeleteNotFoundResponse(username));
         }
 
         authenticator.deleteUser(userToRemove.getUsername());
@@ -2,20 +2,29 @@ package bg.sofia.uni.fmi.mjt.authserver.commands;
 
 import bg.sofia.uni.fmi.mjt.authserver.auditlog.AuthAuditLogger;
 import bg.sofia.uni.fmi.mjt.authserver.auth.Authenticator;
+import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
 import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
 
+import java.net.SocketAddress;
 import java.nio.channels.SocketChannel;
 import java.util.Map;
+import java.util.Optional;
 
 public class LoginCommand extends AbstractCommand {
     protected final AuthAuditLogger auditLogger;
-    protected final SocketChannel socketChannel;
+    protected final SocketAddress remoteAddress;
+    protected Session session;
 
     public LoginCommand(Authenticator authenticator, CommandParser parser,
                         AuthAuditLogger auditLogger, SocketChannel socketChannel) {
+        this(authenticator, parser, auditLogger, getRemoteAddress(socketChannel));
+    }
+
+    public LoginCommand(Authenticator authenticator, CommandParser parser,
+                        AuthAuditLogger auditLogger, SocketAddress remoteAddress) {
         super(authenticator, parser);
         this.auditLogger = auditLogger;
-        this.socketChannel = socketChannel;
+        this.remoteAddress = remoteAddress;
         setParameters();
     }
 
@@ -29,19 +38,29 @@ public class LoginCommand extends AbstractCommand {
     public String execute() {
         Map<String, String> argumentPairs = parser.getArguments();
 
+        LoginCommand loginCommand;
         if (argumentPairs.containsKey("--username") || argumentPairs.containsKey("--password")) {
-            return new LoginWithPasswordCommand(authenticator, parser, auditLogger, socketChannel)
-                    .execute();
+            loginCommand = new LoginWithPasswordCommand(authenticator, parser, auditLogger, remoteAddress);
+        } else if (argumentPairs.containsKey("--session-id")) {
+            loginCommand = new LoginWithSessionIdCommand(authenticator, parser);
+        } else {
+            return respond(ResultCode.BAD_REQUEST, getLoginCommandUsageResponse());
         }
 
-        if (argumentPairs.containsKey("--session-id")) {
-            return new LoginWithSessionIdCommand(authenticator, parser).execute();
-        }
+        String response = loginCommand.execute();
+        session = loginCommand.session;
+
+        return respond(loginCommand.getResultCode(), response);
+    }
 
-        return getLoginCommandUsageResponse();
+    /**
+     * @return the session created by the command, if it has been executed and the login succeeded
+     */
+    public Optional<Session> getSession() {
+        return Optional.ofNullable(session);
     }
 
-    private String getLoginCommandUsageResponse() {
+    public static String getLoginCommandUsageResponse() {
         return "Invalid usage of command";
     }
 }
@@ -8,7 +8,6 @@ import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
 import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.AuthenticationException;
 
-import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.channels.SocketChannel;
 import java.time.LocalDateTime;
@@ -20,6 +19,11 @@ public class LoginWithPasswordCommand extends LoginCommand {
         super(authenticator, parser, auditLogger, socketChannel);
     }
 
+    public LoginWithPasswordCommand(Authenticator authenticator, CommandParser parser,
+                                    AuthAuditLogger auditLogger, SocketAddress remoteAddress) {
+        super(authenticator, parser, auditLogger, remoteAddress);
+    }
+
     @Override
     public String execute() {
         Optional<String> argumentValidationError = validateArgumentsAndGetErrorMessage();
@@ -31,22 +35,13 @@ public class LoginWithPasswordCommand extends LoginCommand {
         String username = parser.getArgumentValue("username");
         String password = parser.getArgumentValue("password");
 
-        Session session;
-
-        SocketAddress socketAddress;
-        try {
-            socketAddress = socketChannel.getRemoteAddress();
-        } catch (IOException exception) {
-            throw new RuntimeException("There was an error while fetching socket address", exception);
-        }
-
         try {
             session = authenticator.logUserInWithPassword(username, password);
         } catch (AuthenticationException exception) {
-            Event failedLoginEvent = new FailedLoginEvent(LocalDateTime.now(), username, socketAddress);
+            Event failedLoginEvent = new FailedLoginEvent(LocalDateTime.now(), username, remoteAddress);
 
             auditLogger.logEvent(failedLoginEvent);
-            return getFailedLoginResponse(exception);
+            return respond(ResultCode.AUTHENTICATION_FAILED, getFailedLoginResponse(exception));
         }
 
         return getSuccessfulLoginResponse(session);
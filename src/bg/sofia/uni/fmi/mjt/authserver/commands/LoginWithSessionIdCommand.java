@@ -5,12 +5,13 @@ import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
 import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.AuthenticationException;
 
+import java.net.SocketAddress;
 import java.util.Optional;
 import java.util.UUID;
 
 public class LoginWithSessionIdCommand extends LoginCommand {
     public LoginWithSessionIdCommand(Authenticator authenticator, CommandParser parser) {
-        super(authenticator, parser, null, null);
+        super(authenticator, parser, null, (SocketAddress) null);
         setParameters();
     }
 
@@ -32,19 +33,17 @@ public class LoginWithSessionIdCommand extends LoginCommand {
         try {
             uuid = UUID.fromString(sessionId);
         } catch (IllegalArgumentException exception) {
-            return getInvalidSessionIdResponse();
+            return respond(ResultCode.INVALID_SESSION, getInvalidSessionIdResponse());
         }
 
         Session oldSession = new Session(uuid);
-        Session newSession;
-
         try {
-            newSession = authenticator.logUserInWithSessionId(oldSession);
+            session = authenticator.logUserInWithSessionId(oldSession);
         } catch (AuthenticationException exception) {
-            return exception.getMessage();
+            return respond(ResultCode.AUTHENTICATION_FAILED, exception.getMessage());
         }
 
-        return getSuccessfulLoginResponse(newSession);
+        return getSuccessfulLoginResponse(session);
     }
 
     public static String getSuccessfulLoginResponse(Session session) {
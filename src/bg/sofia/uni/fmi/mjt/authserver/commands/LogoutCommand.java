@@ -32,7 +32,7 @@ public class LogoutCommand extends AbstractCommand {
         try {
             uuid = UUID.fromString(sessionId);
         } catch (IllegalArgumentException exception) {
-            return getInvalidSessionIdResponse();
+            return respond(ResultCode.INVALID_SESSION, getInvalidSessionIdResponse());
         }
 
         Session session = new Session(uuid);
@@ -40,7 +40,7 @@ public class LogoutCommand extends AbstractCommand {
         try {
             authenticator.logUserOut(session);
         } catch (AuthenticationException exception) {
-            return getFailedSessionLoginResponse();
+            return respond(ResultCode.INVALID_SESSION, getFailedSessionLoginResponse());
         }
 
         return getSuccessfulLogoutResponse();
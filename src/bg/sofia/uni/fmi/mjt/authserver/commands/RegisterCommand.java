@@ -2,6 +2,7 @@ package bg.sofia.uni.fmi.mjt.authserver.commands;
 
 import bg.sofia.uni.fmi.mjt.authserver.auth.Authenticator;
 import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.InvalidEmailException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.InvalidPasswordException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
@@ -58,14 +59,16 @@ public class RegisterCommand extends AbstractCommand {
             } else {
                 authenticator.registerUser(username, userPassword, firstName, lastName, userEmail);
             }
+        } catch (EmailAlreadyExistsException exception) {
+            return respond(ResultCode.CONFLICT, getEmailAlreadyExistsResponse());
         } catch (UserAlreadyExistsException exception) {
-            return getUserAlreadyExistsResponse();
+            return respond(ResultCode.CONFLICT, getUserAlreadyExistsResponse());
         } catch (InvalidPasswordException exception) {
-            return getInvalidPasswordResponse(exception);
+            return respond(ResultCode.BAD_REQUEST, getInvalidPasswordResponse(exception));
         } catch (InvalidEmailException exception) {
-            return getInvalidEmailResponse(exception);
+            return respond(ResultCode.BAD_REQUEST, getInvalidEmailResponse(exception));
         } catch (ValidationException exception) {
-            return getGeneralValidationErrorResponse(exception);
+            return respond(ResultCode.BAD_REQUEST, getGeneralValidationErrorResponse(exception));
         }
 
         return getSuccessfulRegisterResponse();
@@ -92,4 +95,8 @@ public class RegisterCommand extends AbstractCommand {
     public static String getUserAlreadyExistsResponse() {
         return "Could not register: username is already taken";
     }
+
+    public static String getEmailAlreadyExistsResponse() {
+        return "Could not register: email is already taken";
+    }
 }
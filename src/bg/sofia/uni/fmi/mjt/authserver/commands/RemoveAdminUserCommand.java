@@ -11,7 +11,6 @@ import bg.sofia.uni.fmi.mjt.authserver.config.AuthConfiguration;
 import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
 import bg.sofia.uni.fmi.mjt.authserver.user.User;
 
-import java.io.IOException;
 import java.net.SocketAddress;
 import java.nio.channels.SocketChannel;
 import java.time.LocalDateTime;
@@ -21,15 +20,21 @@ import java.util.UUID;
 public class RemoveAdminUserCommand extends AbstractCommand {
     private final AuthConfiguration configuration;
     protected final AuthAuditLogger auditLogger;
-    protected final SocketChannel socketChannel;
+    protected final SocketAddress remoteAddress;
 
     public RemoveAdminUserCommand(Authenticator authenticator, CommandParser parser,
                                   AuthConfiguration configuration,
                                   AuthAuditLogger auditLogger, SocketChannel socketChannel) {
+        this(authenticator, parser, configuration, auditLogger, getRemoteAddress(socketChannel));
+    }
+
+    public RemoveAdminUserCommand(Authenticator authenticator, CommandParser parser,
+                                  AuthConfiguration configuration,
+                                  AuthAuditLogger auditLogger, SocketAddress remoteAddress) {
         super(authenticator, parser);
         this.configuration = configuration;
         this.auditLogger = auditLogger;
-        this.socketChannel = socketChannel;
+        this.remoteAddress = remoteAddress;
         setParameters();
     }
 
@@ -53,50 +58,42 @@ public class RemoveAdminUserCommand extends AbstractCommand {
         try {
             uuid = UUID.fromString(sessionId);
         } catch (IllegalArgumentException exception) {
-            return getInvalidSessionIdResponse();
+            return respond(ResultCode.INVALID_SESSION, getInvalidSessionIdResponse());
         }
 
         Session session = new Session(uuid);
 
         User userWhoRequested = authenticator.getUserBySession(session);
         if (userWhoRequested == null) {
-            return getFailedSessionLoginResponse();
-        }
-
-        SocketAddress performerAddress;
-        try {
-            performerAddress = socketChannel.getRemoteAddress();
-        } catch (IOException exception) {
-            throw new RuntimeException("There was an error while trying to read IP of performer", exception);
+            return respond(ResultCode.INVALID_SESSION, getFailedSessionLoginResponse());
         }
 
         var beginEvent = new BeginResourceChangeEvent(LocalDateTime.now(), userWhoRequested.getUsername(),
-                performerAddress, username, ResourceChangeEventType.REMOVE_ADMIN);
+                remoteAddress, username, ResourceChangeEventType.REMOVE_ADMIN);
         auditLogger.logEvent(beginEvent);
 
         if (!userWhoRequested.getAuthority().isAtLeast(Authority.ADMIN)) {
             auditLogger.logEvent(new EndResourceChangeEvent(LocalDateTime.now(), beginEvent, false));
-            return getUnauthorizedResponse(userWhoRequested.getUsername());
+            return respond(ResultCode.FORBIDDEN, getUnauthorizedResponse(userWhoRequested.getUsername()));
         }
 
         User userToRemove = authenticator.getUserByUsername(username);
         if (userToRemove == null) {
             auditLogger.logEvent(new EndResourceChangeEvent(LocalDateTime.now(), beginEvent, false));
-            return getUserToRemoveNotFoundResponse(username);
+            return respond(ResultCode.NOT_FOUND, getUserToRemoveNotFoundResponse(username));
         }
 
         if (!userToRemove.getAuthority().isAtLeast(Authority.ADMIN)) {
             auditLogger.logEvent(new EndResourceChangeEvent(LocalDateTime.now(), beginEvent, false));
-            return getUserIsNotAdminResponse();
+            return respond(ResultCode.CONFLICT, getUserIsNotAdminResponse());
         }
 
         if (authenticator.getAdminCount() <= configuration.getMinimumAdminCount()) {
             auditLogger.logEvent(new EndResourceChangeEvent(LocalDateTime.now(), beginEvent, false));
-            return getAdminCountTooLowResponse();
+            return respond(ResultCode.CONFLICT, getAdminCountTooLowResponse());
         }
 
-        userToRemove.setAuthority(Authority.USER);
-        authenticator.replaceUser(userToRemove.getUsername(), userToRemove);
+        authenticator.updateUser(userToRemove.getUsername(), user -> user.setAuthority(Authority.USER));
 
         auditLogger.logEvent(new EndResourceChangeEvent(LocalDateTime.now(), beginEvent, true));
         return getSuccessfulAdminRemoveResponse();
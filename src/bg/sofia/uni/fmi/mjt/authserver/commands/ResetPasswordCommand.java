@@ -42,21 +42,21 @@ public class ResetPasswordCommand extends AbstractCommand {
         try {
             uuid = UUID.fromString(sessionId);
         } catch (IllegalArgumentException exception) {
-            return getInvalidSessionIdResponse();
+            return respond(ResultCode.INVALID_SESSION, getInvalidSessionIdResponse());
         }
 
         User foundUser = authenticator.getUserBySession(new Session(uuid));
 
         if (foundUser == null) {
-            return getFailedSessionLoginResponse();
+            return respond(ResultCode.INVALID_SESSION, getFailedSessionLoginResponse());
         }
 
         if (!username.equals(foundUser.getUsername())) {
-            return getUsernameDoesNotMatchResponse();
+            return respond(ResultCode.FORBIDDEN, getUsernameDoesNotMatchResponse());
         }
 
         if (!foundUser.getPasswordHash().check(oldPassword)) {
-            return getPasswordDoesNotMatchResponse();
+            return respond(ResultCode.AUTHENTICATION_FAILED, getPasswordDoesNotMatchResponse());
         }
 
         Password newPass = new Password(newPassword, new PasswordValidator());
@@ -64,14 +64,13 @@ public class ResetPasswordCommand extends AbstractCommand {
         try {
             newPass.validate();
         } catch (InvalidPasswordException exception) {
-            return getInvalidPasswordResponse(exception);
+            return respond(ResultCode.BAD_REQUEST, getInvalidPasswordResponse(exception));
         } catch (ValidationException exception) {
-            return getGeneralValidationErrorResponse(exception);
+            return respond(ResultCode.BAD_REQUEST, getGeneralValidationErrorResponse(exception));
         }
 
         newPass.hash();
-        foundUser.setPasswordHash(newPass);
-        authenticator.replaceUser(foundUser.getUsername(), foundUser);
+        authenticator.updateUser(foundUser.getUsername(), user -> user.setPasswordHash(newPass));
 
         return getSuccessfulPasswordResetResponse();
     }
@@ -0,0 +1,36 @@
+package bg.sofia.uni.fmi.mjt.authserver.commands;
+
+/**
+ * The outcome of a command as a number, for clients which should not have to match response texts.
+ */
+public enum ResultCode {
+    OK(0),
+    BAD_REQUEST(1),
+    UNKNOWN_COMMAND(2),
+    INVALID_SESSION(3),
+    AUTHENTICATION_FAILED(4),
+    FORBIDDEN(5),
+    NOT_FOUND(6),
+    CONFLICT(7),
+    SERVER_BUSY(8),
+    INTERNAL_ERROR(9);
+
+    private final int code;
+
+    ResultCode(int code) {
+        this.code = code;
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public static ResultCode fromCode(int code) {
+        for (ResultCode resultCode : ResultCode.values()) {
+            if (resultCode.code == code) {
+                return resultCode;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,110 @@
+package bg.sofia.uni.fmi.mjt.authserver.commands;
+
+import bg.sofia.uni.fmi.mjt.authserver.auth.Authenticator;
+import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.storage.UserStatistics;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Shows admins how many users there are, by authority, and how many of them are locked
+ * or have failed to log in recently.
+ */
+public class StatsCommand extends AbstractCommand {
+    private static final String STATISTICS_PREFIX = "User statistics: ";
+    private static final String ITEM_SEPARATOR = ", ";
+    private static final String VALUE_SEPARATOR = "=";
+
+    private UserStatistics statistics;
+
+    public StatsCommand(Authenticator authenticator, CommandParser parser) {
+        super(authenticator, parser);
+        setParameters();
+    }
+
+    private void setParameters() {
+        parameters.add(new CommandParameter("session-id"));
+    }
+
+    @Override
+    public String execute() {
+        Optional<String> argumentValidationError = validateArgumentsAndGetErrorMessage();
+
+        if (argumentValidationError.isPresent()) {
+            return argumentValidationError.get();
+        }
+
+        String sessionId = parser.getArgumentValue("session-id");
+
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(sessionId);
+        } catch (IllegalArgumentException exception) {
+            return respond(ResultCode.INVALID_SESSION, getInvalidSessionIdResponse());
+        }
+
+        User userWhoRequested = authenticator.getUserBySession(new Session(uuid));
+        if (userWhoRequested == null) {
+            return respond(ResultCode.INVALID_SESSION, getFailedSessionLoginResponse());
+        }
+
+        if (!userWhoRequested.getAuthority().isAtLeast(Authority.ADMIN)) {
+            return respond(ResultCode.FORBIDDEN, getUnauthorizedResponse(userWhoRequested.getUsername()));
+        }
+
+        statistics = authenticator.getUserStatistics();
+        return getStatisticsResponse(statistics);
+    }
+
+    /**
+     * @return the statistics shown to the admin, {@code null} if the command did not succeed
+     */
+    public UserStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * Puts the statistics on a single line, e.g. {@code User statistics: users=3, USER=2, ADMIN=1, locked=0, ...},
+     * since every response is framed by the line it is sent on.
+     */
+    public static String getStatisticsResponse(UserStatistics statistics) {
+        StringBuilder response = new StringBuilder(STATISTICS_PREFIX);
+        response.append("users").append(VALUE_SEPARATOR).append(statistics.getUserCount());
+
+        for (Authority authority : Authority.values()) {
+            response.append(ITEM_SEPARATOR)
+                    .append(authority).append(VALUE_SEPARATOR).append(statistics.getCount(authority));
+        }
+
+        response.append(ITEM_SEPARATOR).append("locked").append(VALUE_SEPARATOR)
+                .append(statistics.getLockedCount());
+        response.append(ITEM_SEPARATOR).append("failed-login-attempts").append(VALUE_SEPARATOR)
+                .append(statistics.getFailedAttemptsCount());
+
+        return response.toString();
+    }
+
+    /**
+     * Lays a statistics response out with one count per line for a console, leaves any other response as it is.
+     */
+    public static String getConsoleLayout(String response) {
+        if (!response.startsWith(STATISTICS_PREFIX)) {
+            return response;
+        }
+
+        StringBuilder layout = new StringBuilder(STATISTICS_PREFIX.trim());
+        for (String item : response.substring(STATISTICS_PREFIX.length()).trim().split(ITEM_SEPARATOR)) {
+            layout.append(System.lineSeparator()).append("  ").append(item.replace(VALUE_SEPARATOR, ": "));
+        }
+
+        return layout.append(System.lineSeparator()).toString();
+    }
+
+    public static String getUnauthorizedResponse(String username) {
+        return "User " + username + " is not authorized";
+    }
+}
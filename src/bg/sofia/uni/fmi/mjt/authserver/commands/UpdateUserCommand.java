@@ -3,12 +3,15 @@ package bg.sofia.uni.fmi.mjt.authserver.commands;
 import bg.sofia.uni.fmi.mjt.authserver.auth.Authenticator;
 import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
 import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.ValidationException;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.StripedLock;
 import bg.sofia.uni.fmi.mjt.authserver.user.Email;
 import bg.sofia.uni.fmi.mjt.authserver.user.User;
 import bg.sofia.uni.fmi.mjt.authserver.validation.EmailValidator;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -48,18 +51,30 @@ public class UpdateUserCommand extends AbstractCommand {
         try {
             uuid = UUID.fromString(sessionId);
         } catch (IllegalArgumentException exception) {
-            return getInvalidSessionIdResponse();
+            return respond(ResultCode.INVALID_SESSION, getInvalidSessionIdResponse());
         }
 
         Session sessionToSearchBy = new Session(uuid);
         User foundUser = authenticator.getUserBySession(sessionToSearchBy);
 
         if (foundUser == null) {
-            return getFailedSessionLoginResponse();
+            return respond(ResultCode.INVALID_SESSION, getFailedSessionLoginResponse());
         }
 
         String oldUsername = foundUser.getUsername();
 
+        // a batch which is about to write the new username or email is waited for, and the other way round
+        StripedLock.Locked locked = authenticator.lockUsers(Arrays.asList(oldUsername, newUsername),
+                Collections.singletonList(newEmail));
+        try {
+            return updateUser(oldUsername, newUsername, newFirstName, newLastName, newEmail);
+        } finally {
+            locked.unlock();
+        }
+    }
+
+    private String updateUser(String oldUsername, String newUsername, String newFirstName, String newLastName,
+                              String newEmail) {
         if (newUsername != null && authenticator.getUserByUsername(newUsername) != null) {
             validationErrors.add(getUserAlreadyExistsResponse());
         }
@@ -71,26 +86,41 @@ public class UpdateUserCommand extends AbstractCommand {
             } catch (ValidationException exception) {
                 validationErrors.add(exception.getMessage());
             }
+
+            User userWithEmail = authenticator.getUserByEmail(newEmail);
+            if (userWithEmail != null && !userWithEmail.getUsername().equals(oldUsername)) {
+                validationErrors.add(getEmailAlreadyExistsResponse());
+            }
         }
 
         if (!validationErrors.isEmpty()) {
-            return getUnsuccessfulUpdateResponse();
+            return respond(ResultCode.BAD_REQUEST, getUnsuccessfulUpdateResponse());
         }
 
-        if (newUsername != null) {
-            foundUser.setUsername(newUsername);
-        }
-        if (newFirstName != null) {
-            foundUser.setFirstName(newFirstName);
-        }
-        if (newLastName != null) {
-            foundUser.setLastName(newLastName);
-        }
-        if (newEmail != null) {
-            foundUser.setEmail(newMail);
+        // only the given fields are changed, the rest of the user is kept as it is by then
+        try {
+            authenticator.updateUser(oldUsername, user -> {
+                if (newUsername != null) {
+                    user.setUsername(newUsername);
+                }
+                if (newFirstName != null) {
+                    user.setFirstName(newFirstName);
+                }
+                if (newLastName != null) {
+                    user.setLastName(newLastName);
+                }
+                if (newEmail != null) {
+                    user.setEmail(newMail);
+                }
+            });
+        } catch (IllegalArgumentException exception) {
+            // the username or the email was taken after it was checked above
+            validationErrors.add(exception.getCause() instanceof EmailAlreadyExistsException
+                    ? getEmailAlreadyExistsResponse()
+                    : getUserAlreadyExistsResponse());
+            return respond(ResultCode.BAD_REQUEST, getUnsuccessfulUpdateResponse());
         }
 
-        authenticator.replaceUser(oldUsername, foundUser);
         return getSuccessfulUpdateResponse();
     }
 
@@ -106,6 +136,10 @@ public class UpdateUserCommand extends AbstractCommand {
         return "Username is already taken";
     }
 
+    public static String getEmailAlreadyExistsResponse() {
+        return "Email is already taken";
+    }
+
     public List<String> getValidationErrors() {
         return Collections.unmodifiableList(validationErrors);
     }
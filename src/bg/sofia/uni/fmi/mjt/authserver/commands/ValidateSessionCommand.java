@@ -0,0 +1,53 @@
+package bg.sofia.uni.fmi.mjt.authserver.commands;
+
+import bg.sofia.uni.fmi.mjt.authserver.auth.Authenticator;
+import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Checks whether a session is still valid, without starting a new one like a login with it does.
+ */
+public class ValidateSessionCommand extends AbstractCommand {
+    public ValidateSessionCommand(Authenticator authenticator, CommandParser parser) {
+        super(authenticator, parser);
+        setParameters();
+    }
+
+    private void setParameters() {
+        parameters.add(new CommandParameter("session-id"));
+    }
+
+    @Override
+    public String execute() {
+        Optional<String> argumentValidationError = validateArgumentsAndGetErrorMessage();
+
+        if (argumentValidationError.isPresent()) {
+            return argumentValidationError.get();
+        }
+
+        String sessionId = parser.getArgumentValue("session-id");
+
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(sessionId);
+        } catch (IllegalArgumentException exception) {
+            return respond(ResultCode.INVALID_SESSION, getInvalidSessionIdResponse());
+        }
+
+        User user = authenticator.getUserBySession(new Session(uuid));
+
+        if (user == null) {
+            return respond(ResultCode.INVALID_SESSION, getFailedSessionLoginResponse());
+        }
+
+        return getValidSessionResponse(user.getUsername());
+    }
+
+    public static String getValidSessionResponse(String username) {
+        return "Session is valid, it belongs to user: " + username;
+    }
+}
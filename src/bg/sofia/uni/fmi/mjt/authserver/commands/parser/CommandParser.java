@@ -3,14 +3,17 @@ package bg.sofia.uni.fmi.mjt.authserver.commands.parser;
 import bg.sofia.uni.fmi.mjt.authserver.commands.CommandParameter;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandParseException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.InvalidArgumentNameException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.InvalidBatchException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.InvalidTokenCountException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.MissingRequiredArgumentsException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.MultipleOccurrencesOfOneArgumentException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.UnknownArgumentException;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -18,31 +21,84 @@ import java.util.stream.Collectors;
 public class CommandParser {
     private final String commandName;
     private final Map<String, String> arguments;
+    private final List<CommandParser> batchedCommands;
 
-    private static final String WHITESPACE_SEPARATOR = "\\s+";
     private static final String ARGUMENT_NAME_PREFIX = "--";
+    private static final String BATCH_COMMAND_NAME = "batch";
+    private static final String BATCH_SEPARATOR = ";";
 
     private CommandParser(String commandName, Map<String, String> arguments) {
+        this(commandName, arguments, List.of());
+    }
+
+    private CommandParser(String commandName, Map<String, String> arguments, List<CommandParser> batchedCommands) {
         this.commandName = commandName;
         this.arguments = arguments;
+        this.batchedCommands = batchedCommands;
     }
 
     public static CommandParser parse(String commandText) throws CommandParseException {
-        String[] tokens = commandText.strip().split(WHITESPACE_SEPARATOR);
+        return parse((CharSequence) commandText);
+    }
+
+    /**
+     * Parses a command straight from a character view, e.g. a {@link java.nio.CharBuffer}
+     * decoded from the network, without copying the whole command line into a string first.
+     * Only the command name and the argument names and values are materialized.
+     */
+    public static CommandParser parse(CharSequence commandText) throws CommandParseException {
+        List<String> tokens = tokenize(commandText);
+
+        if (tokens.get(0).equals(BATCH_COMMAND_NAME)) {
+            return parseBatch(tokens);
+        }
+
+        return parse(tokens);
+    }
 
+    /**
+     * A batch carries its commands one after another, separated by standalone {@code ;} tokens, e.g.
+     * {@code batch register --username a ... ; delete-user --session-id ... --username b}.
+     * Every one of them has to parse for the batch to parse.
+     */
+    private static CommandParser parseBatch(List<String> tokens) throws CommandParseException {
+        List<CommandParser> batchedCommands = new ArrayList<>();
+
+        int commandStart = 1;
+        for (int i = 1; i <= tokens.size(); i++) {
+            if (i < tokens.size() && !tokens.get(i).equals(BATCH_SEPARATOR)) {
+                continue;
+            }
+
+            // empty commands, e.g. after a trailing separator, are skipped
+            if (i > commandStart) {
+                try {
+                    batchedCommands.add(parse(tokens.subList(commandStart, i)));
+                } catch (CommandParseException exception) {
+                    throw new InvalidBatchException("Command " + (batchedCommands.size() + 1)
+                            + " of the batch: " + exception.getMessage());
+                }
+            }
+            commandStart = i + 1;
+        }
+
+        return new CommandParser(BATCH_COMMAND_NAME, new HashMap<>(), batchedCommands);
+    }
+
+    private static CommandParser parse(List<String> tokens) throws CommandParseException {
         // every argument name has to be followed by a corresponding value,
         // tokens count must be an odd number (command name + pairs of name<->value)
-        if (tokens.length % 2 == 0) {
+        if (tokens.size() % 2 == 0) {
             throw new InvalidTokenCountException("Token count is not odd");
         }
 
-        String commandName = tokens[0];
+        String commandName = tokens.get(0);
         Map<String, String> arguments = new HashMap<>();
 
         // iterate over pairs
-        for (int i = 1; i < tokens.length - 1; i += 2) {
-            String argumentName = tokens[i];
-            String argumentValue = tokens[i + 1];
+        for (int i = 1; i < tokens.size() - 1; i += 2) {
+            String argumentName = tokens.get(i);
+            String argumentValue = tokens.get(i + 1);
 
             if (!isValidArgumentName(argumentName)) {
                 throw new InvalidArgumentNameException("Argument with invalid name: [" + argumentName + "]");
@@ -57,10 +113,28 @@ public class CommandParser {
         return new CommandParser(commandName, arguments);
     }
 
+    /**
+     * Creates a parser for a command whose arguments have already been split by the client,
+     * keyed by their names without the {@code --} prefix.
+     */
+    public static CommandParser of(String commandName, Map<String, String> arguments) {
+        Map<String, String> prefixedArguments = new HashMap<>();
+        arguments.forEach((name, value) -> prefixedArguments.put(ARGUMENT_NAME_PREFIX + name, value));
+
+        return new CommandParser(commandName, prefixedArguments);
+    }
+
     public String getCommandName() {
         return commandName;
     }
 
+    /**
+     * @return the commands carried by a batch, in the order they were given, or none if this is not a batch
+     */
+    public List<CommandParser> getBatchedCommands() {
+        return batchedCommands;
+    }
+
     public String getArgumentValue(String argumentName) {
         return arguments.get(ARGUMENT_NAME_PREFIX + argumentName);
     }
@@ -100,6 +174,34 @@ public class CommandParser {
         return Collections.unmodifiableMap(arguments);
     }
 
+    private static List<String> tokenize(CharSequence commandText) {
+        List<String> tokens = new ArrayList<>();
+        final int length = commandText.length();
+
+        int tokenStart = -1;
+        for (int i = 0; i < length; i++) {
+            boolean isWhitespace = Character.isWhitespace(commandText.charAt(i));
+
+            if (isWhitespace && tokenStart != -1) {
+                tokens.add(commandText.subSequence(tokenStart, i).toString());
+                tokenStart = -1;
+            } else if (!isWhitespace && tokenStart == -1) {
+                tokenStart = i;
+            }
+        }
+
+        if (tokenStart != -1) {
+            tokens.add(commandText.subSequence(tokenStart, length).toString());
+        }
+
+        // a blank command still has a (blank) name
+        if (tokens.isEmpty()) {
+            tokens.add("");
+        }
+
+        return tokens;
+    }
+
     private static boolean isValidArgumentName(String token) {
         return token.startsWith(ARGUMENT_NAME_PREFIX);
     }
@@ -9,6 +9,15 @@ public class AuthConfiguration {
     private long minimumAdminCount;
     private int maxLoginAttemptFails;
     private int lockTimeout;
+    private StorageType storageType;
+    private int journalCompactionThreshold;
+    private Durability durability;
+    private int commitIntervalMillis;
+    private int partitionCount;
+    private int usernameFilterExpectedCount;
+    private double usernameFilterFalsePositiveRate;
+    private int userCacheSize;
+    private int snapshotIntervalSeconds;
 
     private AuthConfiguration(AuthConfigurationBuilder builder) {
         this.usersDatabasePath = builder.usersDatabasePath;
@@ -17,6 +26,15 @@ public class AuthConfiguration {
         this.maxLoginAttemptFails = builder.maxLoginAttemptFails;
         this.lockTimeout = builder.lockTimeout;
         this.minimumAdminCount = builder.minimumAdminCount;
+        this.storageType = builder.storageType;
+        this.journalCompactionThreshold = builder.journalCompactionThreshold;
+        this.durability = builder.durability;
+        this.commitIntervalMillis = builder.commitIntervalMillis;
+        this.partitionCount = builder.partitionCount;
+        this.usernameFilterExpectedCount = builder.usernameFilterExpectedCount;
+        this.usernameFilterFalsePositiveRate = builder.usernameFilterFalsePositiveRate;
+        this.userCacheSize = builder.userCacheSize;
+        this.snapshotIntervalSeconds = builder.snapshotIntervalSeconds;
     }
 
     public void setMaxLoginAttemptFails(int maxLoginAttemptFails) {
@@ -45,6 +63,60 @@ public class AuthConfiguration {
         }
     }
 
+    public void setStorageType(StorageType storageType) {
+        if (storageType != null) {
+            this.storageType = storageType;
+        }
+    }
+
+    public void setJournalCompactionThreshold(int journalCompactionThreshold) {
+        if (journalCompactionThreshold > 0) {
+            this.journalCompactionThreshold = journalCompactionThreshold;
+        }
+    }
+
+    public void setDurability(Durability durability) {
+        if (durability != null) {
+            this.durability = durability;
+        }
+    }
+
+    public void setCommitIntervalMillis(int commitIntervalMillis) {
+        if (commitIntervalMillis > 0) {
+            this.commitIntervalMillis = commitIntervalMillis;
+        }
+    }
+
+    public void setPartitionCount(int partitionCount) {
+        if (partitionCount > 0) {
+            this.partitionCount = partitionCount;
+        }
+    }
+
+    public void setUsernameFilterExpectedCount(int usernameFilterExpectedCount) {
+        if (usernameFilterExpectedCount > 0) {
+            this.usernameFilterExpectedCount = usernameFilterExpectedCount;
+        }
+    }
+
+    public void setUsernameFilterFalsePositiveRate(double usernameFilterFalsePositiveRate) {
+        if (usernameFilterFalsePositiveRate > 0 && usernameFilterFalsePositiveRate < 1) {
+            this.usernameFilterFalsePositiveRate = usernameFilterFalsePositiveRate;
+        }
+    }
+
+    public void setUserCacheSize(int userCacheSize) {
+        if (userCacheSize > 0) {
+            this.userCacheSize = userCacheSize;
+        }
+    }
+
+    public void setSnapshotIntervalSeconds(int snapshotIntervalSeconds) {
+        if (snapshotIntervalSeconds > 0) {
+            this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+        }
+    }
+
     public Path getUsersDatabasePath() {
         return usersDatabasePath;
     }
@@ -69,6 +141,89 @@ public class AuthConfiguration {
         return auditLogPath;
     }
 
+    public StorageType getStorageType() {
+        return storageType;
+    }
+
+    /**
+     * @return the journal of the changes to the users, kept next to the users database
+     */
+    public Path getUsersJournalPath() {
+        return usersDatabasePath.resolveSibling(usersDatabasePath.getFileName() + ".journal");
+    }
+
+    /**
+     * @return the memory-mapped users file, kept next to the users database it is converted from
+     */
+    public Path getMappedUsersDatabasePath() {
+        return usersDatabasePath.resolveSibling(usersDatabasePath.getFileName() + ".slots");
+    }
+
+    /**
+     * @return the file of one of the partitions of the users, kept next to the users database they are split from
+     */
+    public Path getUsersPartitionPath(int partition) {
+        return usersDatabasePath.resolveSibling(usersDatabasePath.getFileName() + "." + partition);
+    }
+
+    /**
+     * @return the file which records how many partitions the users are split into, written once they all are
+     */
+    public Path getUsersPartitionManifestPath() {
+        return usersDatabasePath.resolveSibling(usersDatabasePath.getFileName() + ".partitions");
+    }
+
+    public int getJournalCompactionThreshold() {
+        return journalCompactionThreshold;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * @return how often writes are forced to the disk when the durability is batched
+     */
+    public int getCommitIntervalMillis() {
+        return commitIntervalMillis;
+    }
+
+    /**
+     * @return the number of files the users are split into when they are partitioned
+     */
+    public int getPartitionCount() {
+        return partitionCount;
+    }
+
+    /**
+     * @return how many usernames the filter in front of the file storages is sized for
+     */
+    public int getUsernameFilterExpectedCount() {
+        return usernameFilterExpectedCount;
+    }
+
+    /**
+     * @return how often the filter in front of the file storages lets through a username which does not exist,
+     *         as long as there are no more users than it is sized for
+     */
+    public double getUsernameFilterFalsePositiveRate() {
+        return usernameFilterFalsePositiveRate;
+    }
+
+    /**
+     * @return how many users are cached in front of the file storages
+     */
+    public int getUserCacheSize() {
+        return userCacheSize;
+    }
+
+    /**
+     * @return how often the users and sessions files are snapshotted for a faster start, 0 if they are not
+     */
+    public int getSnapshotIntervalSeconds() {
+        return snapshotIntervalSeconds;
+    }
+
     public static AuthConfigurationBuilder builder(Path usersDatabasePath, Path sessionsDatabasePath,
                                                    Path auditLogPath) {
         return new AuthConfigurationBuilder(usersDatabasePath, sessionsDatabasePath, auditLogPath);
@@ -82,6 +237,15 @@ public class AuthConfiguration {
         private long minimumAdminCount = 1;
         private int maxLoginAttemptFails = 3;
         private int lockTimeout = 15 * 60;
+        private StorageType storageType = StorageType.TSV_FILE;
+        private int journalCompactionThreshold = 10_000;
+        private Durability durability = Durability.NONE;
+        private int commitIntervalMillis = 10;
+        private int partitionCount = 8;
+        private int usernameFilterExpectedCount = 100_000;
+        private double usernameFilterFalsePositiveRate = 0.01;
+        private int userCacheSize = 4096;
+        private int snapshotIntervalSeconds = 0;
 
         private AuthConfigurationBuilder(Path usersDatabasePath, Path sessionsDatabasePath,
                                          Path auditLogPath) {
@@ -111,6 +275,69 @@ public class AuthConfiguration {
             return this;
         }
 
+        public AuthConfigurationBuilder setStorageType(StorageType storageType) {
+            if (storageType != null) {
+                this.storageType = storageType;
+            }
+            return this;
+        }
+
+        public AuthConfigurationBuilder setJournalCompactionThreshold(int journalCompactionThreshold) {
+            if (journalCompactionThreshold > 0) {
+                this.journalCompactionThreshold = journalCompactionThreshold;
+            }
+            return this;
+        }
+
+        public AuthConfigurationBuilder setDurability(Durability durability) {
+            if (durability != null) {
+                this.durability = durability;
+            }
+            return this;
+        }
+
+        public AuthConfigurationBuilder setCommitIntervalMillis(int commitIntervalMillis) {
+            if (commitIntervalMillis > 0) {
+                this.commitIntervalMillis = commitIntervalMillis;
+            }
+            return this;
+        }
+
+        public AuthConfigurationBuilder setPartitionCount(int partitionCount) {
+            if (partitionCount > 0) {
+                this.partitionCount = partitionCount;
+            }
+            return this;
+        }
+
+        public AuthConfigurationBuilder setUsernameFilterExpectedCount(int usernameFilterExpectedCount) {
+            if (usernameFilterExpectedCount > 0) {
+                this.usernameFilterExpectedCount = usernameFilterExpectedCount;
+            }
+            return this;
+        }
+
+        public AuthConfigurationBuilder setUsernameFilterFalsePositiveRate(double usernameFilterFalsePositiveRate) {
+            if (usernameFilterFalsePositiveRate > 0 && usernameFilterFalsePositiveRate < 1) {
+                this.usernameFilterFalsePositiveRate = usernameFilterFalsePositiveRate;
+            }
+            return this;
+        }
+
+        public AuthConfigurationBuilder setUserCacheSize(int userCacheSize) {
+            if (userCacheSize > 0) {
+                this.userCacheSize = userCacheSize;
+            }
+            return this;
+        }
+
+        public AuthConfigurationBuilder setSnapshotIntervalSeconds(int snapshotIntervalSeconds) {
+            if (snapshotIntervalSeconds > 0) {
+                this.snapshotIntervalSeconds = snapshotIntervalSeconds;
+            }
+            return this;
+        }
+
         public AuthConfiguration build() {
             return new AuthConfiguration(this);
         }
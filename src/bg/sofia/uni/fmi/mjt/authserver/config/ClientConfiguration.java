@@ -0,0 +1,104 @@
+package bg.sofia.uni.fmi.mjt.authserver.config;
+
+import java.nio.file.Path;
+
+public class ClientConfiguration {
+    private final String host;
+    private final int port;
+    private final Path unixSocketPath;
+    private final int connectionCount;
+    private final int connectTimeoutMillis;
+    private final int requestTimeoutMillis;
+
+    private ClientConfiguration(ClientConfigurationBuilder builder) {
+        this.host = builder.host;
+        this.port = builder.port;
+        this.unixSocketPath = builder.unixSocketPath;
+        this.connectionCount = builder.connectionCount;
+        this.connectTimeoutMillis = builder.connectTimeoutMillis;
+        this.requestTimeoutMillis = builder.requestTimeoutMillis;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the path of the server's Unix domain socket, to be used instead of its host and port,
+     * or {@code null} if the client connects over TCP
+     */
+    public Path getUnixSocketPath() {
+        return unixSocketPath;
+    }
+
+    /**
+     * @return the number of connections the client spreads its requests over
+     */
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    public int getConnectTimeoutMillis() {
+        return connectTimeoutMillis;
+    }
+
+    /**
+     * @return how long a request may wait for its response before it fails, or {@code 0} for no limit
+     */
+    public int getRequestTimeoutMillis() {
+        return requestTimeoutMillis;
+    }
+
+    public static ClientConfigurationBuilder builder(String host, int port) {
+        return new ClientConfigurationBuilder(host, port);
+    }
+
+    public static class ClientConfigurationBuilder {
+        private final String host;
+        private final int port;
+
+        private Path unixSocketPath = null;
+        private int connectionCount = 4;
+        private int connectTimeoutMillis = 5_000;
+        private int requestTimeoutMillis = 10_000;
+
+        private ClientConfigurationBuilder(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        public ClientConfigurationBuilder setUnixSocketPath(Path unixSocketPath) {
+            this.unixSocketPath = unixSocketPath;
+            return this;
+        }
+
+        public ClientConfigurationBuilder setConnectionCount(int connectionCount) {
+            if (connectionCount > 0) {
+                this.connectionCount = connectionCount;
+            }
+            return this;
+        }
+
+        public ClientConfigurationBuilder setConnectTimeoutMillis(int connectTimeoutMillis) {
+            if (connectTimeoutMillis > 0) {
+                this.connectTimeoutMillis = connectTimeoutMillis;
+            }
+            return this;
+        }
+
+        public ClientConfigurationBuilder setRequestTimeoutMillis(int requestTimeoutMillis) {
+            if (requestTimeoutMillis >= 0) {
+                this.requestTimeoutMillis = requestTimeoutMillis;
+            }
+            return this;
+        }
+
+        public ClientConfiguration build() {
+            return new ClientConfiguration(this);
+        }
+    }
+}
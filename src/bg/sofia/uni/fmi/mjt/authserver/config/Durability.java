@@ -0,0 +1,33 @@
+package bg.sofia.uni.fmi.mjt.authserver.config;
+
+/**
+ * How soon a write to the databases has to reach the disk.
+ */
+public enum Durability {
+    // left to the operating system
+    NONE("none"),
+    // forced to the disk every commit interval, so at most one interval of writes can be lost
+    BATCHED("batched"),
+    // forced to the disk before the operation completes, once for all operations waiting at the same time
+    PER_OPERATION("per-operation");
+
+    private final String text;
+
+    Durability(String text) {
+        this.text = text;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    public static Durability fromString(String text) {
+        for (Durability durability : Durability.values()) {
+            if (durability.toString().equalsIgnoreCase(text)) {
+                return durability;
+            }
+        }
+        return null;
+    }
+}
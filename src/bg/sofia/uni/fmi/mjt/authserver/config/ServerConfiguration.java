@@ -0,0 +1,256 @@
+package bg.sofia.uni.fmi.mjt.authserver.config;
+
+import javax.net.ssl.SSLContext;
+import java.nio.file.Path;
+
+public class ServerConfiguration {
+    private final String host;
+    private final int port;
+    private final Path unixSocketPath;
+    private final ServerEngineType engineType;
+    private final int workerThreadCount;
+    private final int workerQueueCapacity;
+    private final int reactorCount;
+    private final int maxConnections;
+    private final int maxPendingCommandsPerConnection;
+    private final int idleTimeoutSeconds;
+    private final int httpPort;
+    private final int httpThreadCount;
+    private final SSLContext sslContext;
+    private final int tlsSessionCacheSize;
+    private final int tlsSessionTimeoutSeconds;
+
+    private ServerConfiguration(ServerConfigurationBuilder builder) {
+        this.host = builder.host;
+        this.port = builder.port;
+        this.unixSocketPath = builder.unixSocketPath;
+        this.engineType = builder.engineType;
+        this.workerThreadCount = builder.workerThreadCount;
+        this.workerQueueCapacity = builder.workerQueueCapacity;
+        this.reactorCount = builder.reactorCount;
+        this.maxConnections = builder.maxConnections;
+        this.maxPendingCommandsPerConnection = builder.maxPendingCommandsPerConnection;
+        this.idleTimeoutSeconds = builder.idleTimeoutSeconds;
+        this.httpPort = builder.httpPort;
+        this.httpThreadCount = builder.httpThreadCount;
+        this.sslContext = builder.sslContext;
+        this.tlsSessionCacheSize = builder.tlsSessionCacheSize;
+        this.tlsSessionTimeoutSeconds = builder.tlsSessionTimeoutSeconds;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the path of a Unix domain socket served next to the TCP port, or {@code null} if there is none
+     */
+    public Path getUnixSocketPath() {
+        return unixSocketPath;
+    }
+
+    public ServerEngineType getEngineType() {
+        return engineType;
+    }
+
+    public int getWorkerThreadCount() {
+        return workerThreadCount;
+    }
+
+    public int getWorkerQueueCapacity() {
+        return workerQueueCapacity;
+    }
+
+    /**
+     * @return the number of selector loops serving connections, next to a dedicated accepting loop,
+     * or {@code 0} if a single selector loop both accepts and serves all connections
+     */
+    public int getReactorCount() {
+        return reactorCount;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * @return how many commands a client may send ahead of their responses
+     * before the server stops reading from it
+     */
+    public int getMaxPendingCommandsPerConnection() {
+        return maxPendingCommandsPerConnection;
+    }
+
+    /**
+     * @return the number of seconds after which inactive connections are closed,
+     * or {@code 0} if they are never closed
+     */
+    public int getIdleTimeoutSeconds() {
+        return idleTimeoutSeconds;
+    }
+
+    /**
+     * @return the port of the HTTP/JSON API, or {@code 0} if it is disabled
+     */
+    public int getHttpPort() {
+        return httpPort;
+    }
+
+    public int getHttpThreadCount() {
+        return httpThreadCount;
+    }
+
+    /**
+     * @return the context clients' connections are secured with, or {@code null} if they are in plaintext
+     */
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    public boolean isTlsEnabled() {
+        return sslContext != null;
+    }
+
+    /**
+     * @return how many TLS sessions the server remembers for clients resuming them
+     */
+    public int getTlsSessionCacheSize() {
+        return tlsSessionCacheSize;
+    }
+
+    /**
+     * @return the number of seconds for which a TLS session can be resumed
+     */
+    public int getTlsSessionTimeoutSeconds() {
+        return tlsSessionTimeoutSeconds;
+    }
+
+    public static ServerConfigurationBuilder builder(int port) {
+        return new ServerConfigurationBuilder(port);
+    }
+
+    public static class ServerConfigurationBuilder {
+        private final int port;
+
+        private String host = "localhost";
+        private Path unixSocketPath = null;
+        private ServerEngineType engineType = ServerEngineType.NIO;
+        private int workerThreadCount = Runtime.getRuntime().availableProcessors();
+        private int workerQueueCapacity = 1024;
+        private int reactorCount = 0;
+        private int maxConnections = 10_000;
+        private int maxPendingCommandsPerConnection = 64;
+        private int idleTimeoutSeconds = 5 * 60;
+        private int httpPort = 0;
+        private int httpThreadCount = Runtime.getRuntime().availableProcessors();
+        private SSLContext sslContext = null;
+        private int tlsSessionCacheSize = 20_000;
+        private int tlsSessionTimeoutSeconds = 24 * 60 * 60;
+
+        private ServerConfigurationBuilder(int port) {
+            this.port = port;
+        }
+
+        public ServerConfigurationBuilder setHost(String host) {
+            if (host != null) {
+                this.host = host;
+            }
+            return this;
+        }
+
+        public ServerConfigurationBuilder setUnixSocketPath(Path unixSocketPath) {
+            this.unixSocketPath = unixSocketPath;
+            return this;
+        }
+
+        public ServerConfigurationBuilder setEngineType(ServerEngineType engineType) {
+            if (engineType != null) {
+                this.engineType = engineType;
+            }
+            return this;
+        }
+
+        public ServerConfigurationBuilder setWorkerThreadCount(int workerThreadCount) {
+            if (workerThreadCount > 0) {
+                this.workerThreadCount = workerThreadCount;
+            }
+            return this;
+        }
+
+        public ServerConfigurationBuilder setWorkerQueueCapacity(int workerQueueCapacity) {
+            if (workerQueueCapacity > 0) {
+                this.workerQueueCapacity = workerQueueCapacity;
+            }
+            return this;
+        }
+
+        public ServerConfigurationBuilder setReactorCount(int reactorCount) {
+            if (reactorCount >= 0) {
+                this.reactorCount = reactorCount;
+            }
+            return this;
+        }
+
+        public ServerConfigurationBuilder setMaxConnections(int maxConnections) {
+            if (maxConnections > 0) {
+                this.maxConnections = maxConnections;
+            }
+            return this;
+        }
+
+        public ServerConfigurationBuilder setMaxPendingCommandsPerConnection(int maxPendingCommandsPerConnection) {
+            if (maxPendingCommandsPerConnection > 0) {
+                this.maxPendingCommandsPerConnection = maxPendingCommandsPerConnection;
+            }
+            return this;
+        }
+
+        public ServerConfigurationBuilder setIdleTimeoutSeconds(int idleTimeoutSeconds) {
+            if (idleTimeoutSeconds >= 0) {
+                this.idleTimeoutSeconds = idleTimeoutSeconds;
+            }
+            return this;
+        }
+
+        public ServerConfigurationBuilder setHttpPort(int httpPort) {
+            if (httpPort >= 0) {
+                this.httpPort = httpPort;
+            }
+            return this;
+        }
+
+        public ServerConfigurationBuilder setHttpThreadCount(int httpThreadCount) {
+            if (httpThreadCount > 0) {
+                this.httpThreadCount = httpThreadCount;
+            }
+            return this;
+        }
+
+        public ServerConfigurationBuilder setSslContext(SSLContext sslContext) {
+            this.sslContext = sslContext;
+            return this;
+        }
+
+        public ServerConfigurationBuilder setTlsSessionCacheSize(int tlsSessionCacheSize) {
+            if (tlsSessionCacheSize > 0) {
+                this.tlsSessionCacheSize = tlsSessionCacheSize;
+            }
+            return this;
+        }
+
+        public ServerConfigurationBuilder setTlsSessionTimeoutSeconds(int tlsSessionTimeoutSeconds) {
+            if (tlsSessionTimeoutSeconds > 0) {
+                this.tlsSessionTimeoutSeconds = tlsSessionTimeoutSeconds;
+            }
+            return this;
+        }
+
+        public ServerConfiguration build() {
+            return new ServerConfiguration(this);
+        }
+    }
+}
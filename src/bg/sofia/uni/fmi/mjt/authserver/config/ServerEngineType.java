@@ -0,0 +1,26 @@
+package bg.sofia.uni.fmi.mjt.authserver.config;
+
+public enum ServerEngineType {
+    NIO("nio"),
+    THREAD_PER_CONNECTION("thread-per-connection");
+
+    private final String text;
+
+    ServerEngineType(String text) {
+        this.text = text;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    public static ServerEngineType fromString(String text) {
+        for (ServerEngineType engineType : ServerEngineType.values()) {
+            if (engineType.toString().equalsIgnoreCase(text)) {
+                return engineType;
+            }
+        }
+        return null;
+    }
+}
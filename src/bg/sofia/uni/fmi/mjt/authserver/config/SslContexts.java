@@ -0,0 +1,76 @@
+package bg.sofia.uni.fmi.mjt.authserver.config;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * Creates and tunes the TLS contexts of the server and its clients.
+ * <p>
+ *     Reconnecting clients skip the full handshake by resuming their previous session: either from the
+ *     server's session cache, or from a session ticket the server handed them, which keeps the session state
+ *     on the client instead. Tickets are enabled by default since Java 13 and can be turned off with the
+ *     {@code jdk.tls.server.enableSessionTicketExtension} system property.
+ * </p>
+ */
+public final class SslContexts {
+    private static final String TLS = "TLS";
+    private static final String[] PROTOCOLS = {"TLSv1.3", "TLSv1.2"};
+
+    private SslContexts() {
+    }
+
+    /**
+     * Creates a context holding the key and certificate of a key store, e.g. a PKCS12 file made with keytool.
+     * The certificates in the store are trusted as well, so the same store serves clients of a self-signed server.
+     */
+    public static SSLContext fromKeyStore(Path keyStorePath, char[] password)
+            throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        try (InputStream input = Files.newInputStream(keyStorePath)) {
+            keyStore.load(input, password);
+        }
+
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, password);
+
+        TrustManagerFactory trustManagerFactory =
+                TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trustManagerFactory.init(keyStore);
+
+        SSLContext sslContext = SSLContext.getInstance(TLS);
+        sslContext.init(keyManagerFactory.getKeyManagers(), trustManagerFactory.getTrustManagers(), null);
+
+        return sslContext;
+    }
+
+    /**
+     * Applies the session cache settings of the configuration to its TLS context.
+     */
+    public static void configureServerSessions(ServerConfiguration configuration) {
+        SSLSessionContext sessionContext = configuration.getSslContext().getServerSessionContext();
+
+        sessionContext.setSessionCacheSize(configuration.getTlsSessionCacheSize());
+        sessionContext.setSessionTimeout(configuration.getTlsSessionTimeoutSeconds());
+    }
+
+    public static SSLEngine createServerEngine(SSLContext sslContext) {
+        SSLEngine engine = sslContext.createSSLEngine();
+        engine.setUseClientMode(false);
+        engine.setEnabledProtocols(PROTOCOLS);
+
+        return engine;
+    }
+
+    public static String[] getProtocols() {
+        return PROTOCOLS.clone();
+    }
+}
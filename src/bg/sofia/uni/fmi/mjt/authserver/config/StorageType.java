@@ -0,0 +1,29 @@
+package bg.sofia.uni.fmi.mjt.authserver.config;
+
+public enum StorageType {
+    TSV_FILE("tsv-file"),
+    IN_MEMORY("in-memory"),
+    JOURNAL("journal"),
+    MAPPED("mapped"),
+    PARTITIONED("partitioned");
+
+    private final String text;
+
+    StorageType(String text) {
+        this.text = text;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    public static StorageType fromString(String text) {
+        for (StorageType storageType : StorageType.values()) {
+            if (storageType.toString().equalsIgnoreCase(text)) {
+                return storageType;
+            }
+        }
+        return null;
+    }
+}
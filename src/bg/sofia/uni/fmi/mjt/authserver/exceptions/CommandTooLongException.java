@@ -0,0 +1,9 @@
+package bg.sofia.uni.fmi.mjt.authserver.exceptions;
+
+import java.io.IOException;
+
+public class CommandTooLongException extends IOException {
+    public CommandTooLongException(String msg) {
+        super(msg);
+    }
+}
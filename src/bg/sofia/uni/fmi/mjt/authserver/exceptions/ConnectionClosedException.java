@@ -0,0 +1,13 @@
+package bg.sofia.uni.fmi.mjt.authserver.exceptions;
+
+import java.io.IOException;
+
+public class ConnectionClosedException extends IOException {
+    public ConnectionClosedException(String msg) {
+        super(msg);
+    }
+
+    public ConnectionClosedException(String msg, Throwable cause) {
+        super(msg, cause);
+    }
+}
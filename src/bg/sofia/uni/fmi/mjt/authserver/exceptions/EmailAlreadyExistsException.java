@@ -0,0 +1,7 @@
+package bg.sofia.uni.fmi.mjt.authserver.exceptions;
+
+public class EmailAlreadyExistsException extends UserAlreadyExistsException {
+    public EmailAlreadyExistsException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,7 @@
+package bg.sofia.uni.fmi.mjt.authserver.exceptions;
+
+public class InvalidBatchException extends CommandParseException {
+    public InvalidBatchException(String msg) {
+        super(msg);
+    }
+}
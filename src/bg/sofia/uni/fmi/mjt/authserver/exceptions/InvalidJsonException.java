@@ -0,0 +1,7 @@
+package bg.sofia.uni.fmi.mjt.authserver.exceptions;
+
+public class InvalidJsonException extends Exception {
+    public InvalidJsonException(String msg) {
+        super(msg);
+    }
+}
@@ -0,0 +1,205 @@
+package bg.sofia.uni.fmi.mjt.authserver.http;
+
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.InvalidJsonException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads and writes JSON objects whose values are all strings (or {@code null}),
+ * which is all the HTTP API exchanges. Numbers and booleans are read as their text.
+ */
+public final class FlatJson {
+    private static final int UNICODE_ESCAPE_LENGTH = 4;
+    private static final int HEX_RADIX = 16;
+
+    private final String text;
+    private int position;
+
+    private FlatJson(String text) {
+        this.text = text;
+    }
+
+    public static Map<String, String> parseObject(String text) throws InvalidJsonException {
+        FlatJson parser = new FlatJson(text);
+        parser.skipWhitespace();
+        Map<String, String> object = parser.readObject();
+
+        parser.skipWhitespace();
+        if (parser.position != text.length()) {
+            throw new InvalidJsonException("Unexpected content after the JSON object");
+        }
+
+        return object;
+    }
+
+    public static String toJson(Map<String, String> object) {
+        StringBuilder json = new StringBuilder("{");
+
+        for (Map.Entry<String, String> entry : object.entrySet()) {
+            if (json.length() > 1) {
+                json.append(',');
+            }
+
+            appendString(json, entry.getKey());
+            json.append(':');
+
+            if (entry.getValue() == null) {
+                json.append("null");
+            } else {
+                appendString(json, entry.getValue());
+            }
+        }
+
+        return json.append('}').toString();
+    }
+
+    private Map<String, String> readObject() throws InvalidJsonException {
+        Map<String, String> object = new LinkedHashMap<>();
+
+        expect('{');
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return object;
+        }
+
+        while (true) {
+            skipWhitespace();
+            String key = readString();
+
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+
+            // a key may hold null, so put returning null does not mean it was not there
+            if (object.containsKey(key)) {
+                throw new InvalidJsonException("Duplicate key: " + key);
+            }
+            object.put(key, readValue());
+
+            skipWhitespace();
+            char next = next();
+            if (next == '}') {
+                return object;
+            } else if (next != ',') {
+                throw new InvalidJsonException("Expected ',' or '}' at position " + (position - 1));
+            }
+        }
+    }
+
+    private String readValue() throws InvalidJsonException {
+        char first = peek();
+
+        if (first == '"') {
+            return readString();
+        } else if (first == '{' || first == '[') {
+            throw new InvalidJsonException("Nested values are not supported");
+        }
+
+        // a literal: null, true, false or a number
+        int start = position;
+        while (position < text.length() && ",} \t\r\n".indexOf(text.charAt(position)) == -1) {
+            position++;
+        }
+
+        String literal = text.substring(start, position);
+        if (literal.isEmpty()) {
+            throw new InvalidJsonException("Expected a value at position " + start);
+        }
+
+        return literal.equals("null") ? null : literal;
+    }
+
+    private String readString() throws InvalidJsonException {
+        expect('"');
+        StringBuilder value = new StringBuilder();
+
+        while (true) {
+            char c = next();
+
+            if (c == '"') {
+                return value.toString();
+            } else if (c != '\\') {
+                value.append(c);
+                continue;
+            }
+
+            char escaped = next();
+            switch (escaped) {
+                case '"', '\\', '/' -> value.append(escaped);
+                case 'b' -> value.append('\b');
+                case 'f' -> value.append('\f');
+                case 'n' -> value.append('\n');
+                case 'r' -> value.append('\r');
+                case 't' -> value.append('\t');
+                case 'u' -> value.append(readUnicodeEscape());
+                default -> throw new InvalidJsonException("Invalid escape sequence: \\" + escaped);
+            }
+        }
+    }
+
+    private char readUnicodeEscape() throws InvalidJsonException {
+        if (position + UNICODE_ESCAPE_LENGTH > text.length()) {
+            throw new InvalidJsonException("Unexpected end of JSON");
+        }
+
+        try {
+            char c = (char) Integer.parseInt(text.substring(position, position + UNICODE_ESCAPE_LENGTH), HEX_RADIX);
+            position += UNICODE_ESCAPE_LENGTH;
+            return c;
+        } catch (NumberFormatException exception) {
+            throw new InvalidJsonException("Invalid unicode escape at position " + position);
+        }
+    }
+
+    private void skipWhitespace() {
+        while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+            position++;
+        }
+    }
+
+    private void expect(char expected) throws InvalidJsonException {
+        if (next() != expected) {
+            throw new InvalidJsonException("Expected '" + expected + "' at position " + (position - 1));
+        }
+    }
+
+    private char peek() throws InvalidJsonException {
+        if (position >= text.length()) {
+            throw new InvalidJsonException("Unexpected end of JSON");
+        }
+        return text.charAt(position);
+    }
+
+    private char next() throws InvalidJsonException {
+        char c = peek();
+        position++;
+        return c;
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < ' ') {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+
+        json.append('"');
+    }
+}
@@ -0,0 +1,191 @@
+package bg.sofia.uni.fmi.mjt.authserver.http;
+
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandExecutor;
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandResult;
+import bg.sofia.uni.fmi.mjt.authserver.commands.ResultCode;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.config.ServerConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.InvalidJsonException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>
+ *     Exposes the commands as JSON endpoints over HTTP/1.1, next to the socket protocols.
+ *     Every endpoint takes a {@code POST} with a flat JSON object whose keys are the command parameters
+ *     in camel case, e.g. {@code {"sessionId": "...", "newFirstName": "..."}}, and answers with
+ *     the result code, the response message and, for logins, the new session id.
+ * </p>
+ * <p>
+ *     Connections are kept alive between requests, and requests are handled by a fixed pool of threads.
+ * </p>
+ */
+public class HttpApiServer {
+    private static final int MAX_REQUEST_BODY_LENGTH = 64 * 1024;
+
+    private static final int STATUS_OK = 200;
+    private static final int STATUS_BAD_REQUEST = 400;
+    private static final int STATUS_UNAUTHORIZED = 401;
+    private static final int STATUS_FORBIDDEN = 403;
+    private static final int STATUS_NOT_FOUND = 404;
+    private static final int STATUS_METHOD_NOT_ALLOWED = 405;
+    private static final int STATUS_CONFLICT = 409;
+    private static final int STATUS_PAYLOAD_TOO_LARGE = 413;
+    private static final int STATUS_INTERNAL_ERROR = 500;
+    private static final int STATUS_SERVICE_UNAVAILABLE = 503;
+
+    private static final Map<String, String> ENDPOINT_COMMANDS = Map.of(
+            "/register", CommandExecutor.COMMAND_REGISTER,
+            "/login", CommandExecutor.COMMAND_LOGIN,
+            "/validate", CommandExecutor.COMMAND_VALIDATE_SESSION,
+            "/logout", CommandExecutor.COMMAND_LOGOUT,
+            "/update", CommandExecutor.COMMAND_UPDATE_USER);
+
+    private final ServerConfiguration configuration;
+    private final CommandExecutor commandExecutor;
+    private HttpServer httpServer;
+    private ExecutorService requestExecutor;
+
+    public HttpApiServer(ServerConfiguration configuration, CommandExecutor commandExecutor) {
+        this.configuration = configuration;
+        this.commandExecutor = commandExecutor;
+    }
+
+    /**
+     * Starts listening in the background.
+     */
+    public void start() throws IOException {
+        httpServer = HttpServer.create(new InetSocketAddress(configuration.getHost(), configuration.getHttpPort()), 0);
+        requestExecutor = Executors.newFixedThreadPool(configuration.getHttpThreadCount());
+        httpServer.setExecutor(requestExecutor);
+
+        ENDPOINT_COMMANDS.forEach((path, commandName) ->
+                httpServer.createContext(path, exchange -> handle(exchange, commandName)));
+
+        httpServer.start();
+    }
+
+    public void stop() {
+        if (httpServer != null) {
+            httpServer.stop(0);
+            requestExecutor.shutdown();
+        }
+    }
+
+    private void handle(HttpExchange exchange, String commandName) throws IOException {
+        try {
+            if (!exchange.getRequestMethod().equals("POST")) {
+                sendMessage(exchange, STATUS_METHOD_NOT_ALLOWED, ResultCode.BAD_REQUEST, "Only POST is allowed");
+                return;
+            }
+
+            byte[] body = exchange.getRequestBody().readNBytes(MAX_REQUEST_BODY_LENGTH + 1);
+            if (body.length > MAX_REQUEST_BODY_LENGTH) {
+                sendMessage(exchange, STATUS_PAYLOAD_TOO_LARGE, ResultCode.BAD_REQUEST,
+                        "Request body is longer than " + MAX_REQUEST_BODY_LENGTH + " bytes");
+                return;
+            }
+
+            Map<String, String> fields;
+            try {
+                fields = FlatJson.parseObject(new String(body, StandardCharsets.UTF_8));
+            } catch (InvalidJsonException exception) {
+                sendMessage(exchange, STATUS_BAD_REQUEST, ResultCode.BAD_REQUEST, exception.getMessage());
+                return;
+            }
+
+            Map<String, String> arguments = new HashMap<>();
+            fields.forEach((name, value) -> {
+                if (value != null) {
+                    arguments.put(toParameterName(name), value);
+                }
+            });
+
+            CommandResult result;
+            try {
+                result = commandExecutor.executeCommandForResult(CommandParser.of(commandName, arguments),
+                        exchange.getRemoteAddress());
+            } catch (RuntimeException exception) {
+                System.out.println("There was an error while executing command:");
+                System.out.println(exception.getMessage());
+                result = new CommandResult(ResultCode.INTERNAL_ERROR, getCommandFailedResponse());
+            }
+
+            send(exchange, result);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void send(HttpExchange exchange, CommandResult result) throws IOException {
+        Map<String, String> json = new LinkedHashMap<>();
+        json.put("result", result.getResultCode().toString());
+        json.put("message", result.getResponse());
+        result.getSession().ifPresent(session -> json.put("sessionId", session.getId().toString()));
+        json.put("commitLatencyMicros", Long.toString(TimeUnit.NANOSECONDS.toMicros(result.getCommitLatencyNanos())));
+
+        send(exchange, getStatusCode(result.getResultCode()), json);
+    }
+
+    private void sendMessage(HttpExchange exchange, int statusCode, ResultCode resultCode, String message)
+            throws IOException {
+        Map<String, String> json = new LinkedHashMap<>();
+        json.put("result", resultCode.toString());
+        json.put("message", message);
+
+        send(exchange, statusCode, json);
+    }
+
+    private void send(HttpExchange exchange, int statusCode, Map<String, String> json) throws IOException {
+        byte[] body = FlatJson.toJson(json).getBytes(StandardCharsets.UTF_8);
+
+        // a known content length lets the connection be reused for the next request
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(statusCode, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    // e.g. newFirstName -> new-first-name
+    private static String toParameterName(String jsonKey) {
+        StringBuilder name = new StringBuilder(jsonKey.length() + 4);
+
+        for (int i = 0; i < jsonKey.length(); i++) {
+            char c = jsonKey.charAt(i);
+
+            if (Character.isUpperCase(c)) {
+                name.append('-').append(Character.toLowerCase(c));
+            } else {
+                name.append(c);
+            }
+        }
+
+        return name.toString();
+    }
+
+    private static int getStatusCode(ResultCode resultCode) {
+        return switch (resultCode) {
+            case OK -> STATUS_OK;
+            case BAD_REQUEST -> STATUS_BAD_REQUEST;
+            case UNKNOWN_COMMAND, NOT_FOUND -> STATUS_NOT_FOUND;
+            case INVALID_SESSION, AUTHENTICATION_FAILED -> STATUS_UNAUTHORIZED;
+            case FORBIDDEN -> STATUS_FORBIDDEN;
+            case CONFLICT -> STATUS_CONFLICT;
+            case SERVER_BUSY -> STATUS_SERVICE_UNAVAILABLE;
+            case INTERNAL_ERROR -> STATUS_INTERNAL_ERROR;
+        };
+    }
+
+    private static String getCommandFailedResponse() {
+        return "There was an error while executing the command";
+    }
+}
@@ -0,0 +1,24 @@
+package bg.sofia.uni.fmi.mjt.authserver.persistence;
+
+/**
+ * The time the current thread has spent writing to the databases and waiting for its writes to be committed,
+ * so that a request can report how much of its latency went into them,
+ * as the difference between the time before and after it.
+ */
+public class CommitLatency {
+    private static final ThreadLocal<long[]> NANOS = ThreadLocal.withInitial(() -> new long[1]);
+
+    private CommitLatency() {
+    }
+
+    /**
+     * @return the total time of the current thread so far
+     */
+    public static long getNanos() {
+        return NANOS.get()[0];
+    }
+
+    static void add(long nanos) {
+        NANOS.get()[0] += nanos;
+    }
+}
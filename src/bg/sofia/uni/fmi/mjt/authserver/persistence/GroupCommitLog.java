@@ -0,0 +1,432 @@
+package bg.sofia.uni.fmi.mjt.authserver.persistence;
+
+import bg.sofia.uni.fmi.mjt.authserver.config.Durability;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The single write path of a database file: records are appended through a channel which stays open,
+ * and whole-file rewrites are staged in a temporary file next to it and moved over it.
+ * <p>
+ *     Records are written as soon as they are appended, so readers of the file see them right away.
+ *     What the {@link Durability} decides is when they are forced to the disk:
+ *     never, every commit interval by a background thread, or before {@link #sync(long)} returns.
+ *     Unless it is none, the directory of the file is committed as well after a file is moved into or out of it.
+ *     In the last case the first waiting thread forces the file for every record written until then,
+ *     and the threads which start waiting meanwhile are served by the next force, so concurrent operations
+ *     share one {@link FileChannel#force(boolean)} per commit instead of paying one each.
+ * </p>
+ * <p>
+ *     There is one log per file, shared by everything that writes to it.
+ *     Readers of the file go through {@link #read(Read)}, which reads optimistically and reads again,
+ *     this time keeping writers out, only if the file was written to in the meantime,
+ *     so that no reader sees a record which is only half written or a rewrite which is not finished.
+ * </p>
+ */
+public class GroupCommitLog implements Closeable {
+    private static final Map<Path, GroupCommitLog> LOGS = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService FLUSHER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "group-commit-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    private final Path path;
+    private final Durability durability;
+    private final StampedLock contentsLock;
+    private ScheduledFuture<?> flusherTask;
+    private FileChannel channel;
+    private long writtenCount;
+    private long forcedCount;
+    private boolean forcing;
+    private long commitCount;
+
+    private GroupCommitLog(Path path, Durability durability) {
+        this.path = path;
+        this.durability = durability;
+        this.contentsLock = new StampedLock();
+    }
+
+    /**
+     * Returns the log of a file, which is created with the given durability the first time it is asked for.
+     * @throws IllegalArgumentException if the log of the file already commits with another durability
+     */
+    public static GroupCommitLog forPath(Path path, Durability durability, int commitIntervalMillis) {
+        GroupCommitLog log = LOGS.computeIfAbsent(path.toAbsolutePath().normalize(), absolutePath -> {
+            GroupCommitLog createdLog = new GroupCommitLog(path, durability);
+
+            if (durability == Durability.BATCHED) {
+                createdLog.flusherTask = FLUSHER.scheduleAtFixedRate(createdLog::forceInBackground,
+                        commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+
+            return createdLog;
+        });
+
+        if (log.durability != durability) {
+            throw new IllegalArgumentException("The log of " + path + " already commits with durability "
+                    + log.durability + ", not " + durability);
+        }
+
+        return log;
+    }
+
+    public static Collection<GroupCommitLog> getLogs() {
+        return Collections.unmodifiableCollection(LOGS.values());
+    }
+
+    /**
+     * Writes a record to the end of the file and waits for it to be committed.
+     */
+    public void append(String record) throws IOException {
+        sync(write(record));
+    }
+
+    /**
+     * Writes a record to the end of the file without waiting for it to be committed.
+     * @return the ticket to wait for the record with
+     */
+    public long write(String record) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(record.getBytes(Charset.defaultCharset()));
+        long start = System.nanoTime();
+
+        try {
+            synchronized (this) {
+                if (channel == null) {
+                    channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                            StandardOpenOption.APPEND);
+                }
+
+                long stamp = contentsLock.writeLock();
+                try {
+                    while (bytes.hasRemaining()) {
+                        channel.write(bytes);
+                    }
+                } finally {
+                    contentsLock.unlockWrite(stamp);
+                }
+
+                return ++writtenCount;
+            }
+        } finally {
+            CommitLatency.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Waits until the record with the given ticket, and everything written before it, has been committed.
+     */
+    public void sync(long ticket) throws IOException {
+        if (durability != Durability.PER_OPERATION) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        try {
+            force(ticket);
+        } finally {
+            CommitLatency.add(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Waits until everything written so far has been committed.
+     */
+    public void sync() throws IOException {
+        long ticket;
+        synchronized (this) {
+            ticket = writtenCount;
+        }
+
+        sync(ticket);
+    }
+
+    /**
+     * Reads the file, as it is between writes.
+     * The read may run more than once, so it should not have effects other than its result.
+     */
+    public <T> T read(Read<T> read) throws IOException {
+        return readConsistently(() -> readFile(read));
+    }
+
+    /**
+     * Reads the bytes of the file, as it is between writes, without decoding them.
+     * The read may run more than once, so it should not have effects other than its result.
+     */
+    public <T> T readBytes(ReadBytes<T> read) throws IOException {
+        return readConsistently(() -> {
+            try (FileChannel readChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return read.readFrom(readChannel);
+            }
+        });
+    }
+
+    private <T> T readConsistently(FileRead<T> fileRead) throws IOException {
+        long stamp = contentsLock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                T result = fileRead.run();
+                if (contentsLock.validate(stamp)) {
+                    return result;
+                }
+            } catch (IOException | RuntimeException exception) {
+                // a failure caused by a concurrent write is retried, any other one is not
+                if (contentsLock.validate(stamp)) {
+                    throw exception;
+                }
+            }
+        }
+
+        stamp = contentsLock.readLock();
+        try {
+            return fileRead.run();
+        } finally {
+            contentsLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Replaces the whole file with what the given rewrite writes. Nothing is appended in the meantime,
+     * and the new contents are committed, unless the durability is none, before they replace the old ones.
+     * Every rewrite is staged in a temporary file of its own, which is removed if the rewrite fails.
+     */
+    public synchronized void rewrite(Rewrite rewrite) throws IOException {
+        waitForForce();
+        closeChannel();
+
+        Path directory = path.toAbsolutePath().getParent();
+        Path temporaryPath = Files.createTempFile(directory, path.getFileName() + ".", TEMPORARY_FILE_SUFFIX);
+        try {
+            try (FileChannel temporaryChannel = FileChannel.open(temporaryPath, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+                 BufferedWriter writer = new BufferedWriter(Channels.newWriter(temporaryChannel,
+                         Charset.defaultCharset()))) {
+                rewrite.writeTo(writer);
+                writer.flush();
+
+                if (durability != Durability.NONE) {
+                    temporaryChannel.force(false);
+                }
+            }
+
+            // readers are kept out only while the new contents take the place of the old ones
+            long stamp = contentsLock.writeLock();
+            try {
+                Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                contentsLock.unlockWrite(stamp);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+
+        forceDirectory();
+
+        // everything written before is part of the new contents
+        forcedCount = writtenCount;
+        notifyAll();
+    }
+
+    /**
+     * Moves the file away, e.g. for compaction, and starts over with an empty one.
+     */
+    public synchronized void moveTo(Path target) throws IOException {
+        waitForForce();
+        closeChannel();
+
+        if (durability != Durability.NONE && Files.exists(path)) {
+            try (FileChannel movedChannel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                movedChannel.force(false);
+            }
+        }
+
+        long stamp = contentsLock.writeLock();
+        try {
+            Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            contentsLock.unlockWrite(stamp);
+        }
+
+        forceDirectory();
+
+        forcedCount = writtenCount;
+        notifyAll();
+    }
+
+    /**
+     * Commits what has been written, unless the durability is none, closes the file and stops committing it
+     * in the background. The log is no longer shared, the next one asked for the file is a new one.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (flusherTask != null) {
+            flusherTask.cancel(false);
+        }
+        LOGS.remove(path.toAbsolutePath().normalize(), this);
+
+        waitForForce();
+        if (channel != null && durability != Durability.NONE) {
+            channel.force(false);
+        }
+        closeChannel();
+
+        forcedCount = writtenCount;
+        notifyAll();
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Durability getDurability() {
+        return durability;
+    }
+
+    public synchronized long getRecordCount() {
+        return writtenCount;
+    }
+
+    public synchronized long getCommitCount() {
+        return commitCount;
+    }
+
+    /**
+     * Forces everything written so far, unless a force which has finished meanwhile already covered the ticket.
+     */
+    private void force(long ticket) throws IOException {
+        long target;
+        FileChannel forcedChannel;
+
+        synchronized (this) {
+            waitForForce();
+            if (forcedCount >= ticket) {
+                return;
+            }
+
+            forcing = true;
+            target = writtenCount;
+            forcedChannel = channel;
+        }
+
+        // the file is not locked while the disk is busy, so that other threads can write their records
+        boolean forced = false;
+        try {
+            forcedChannel.force(false);
+            forced = true;
+        } finally {
+            synchronized (this) {
+                forcing = false;
+                if (forced) {
+                    forcedCount = Math.max(forcedCount, target);
+                    commitCount++;
+                }
+                notifyAll();
+            }
+        }
+    }
+
+    private void forceInBackground() {
+        try {
+            long ticket;
+            synchronized (this) {
+                if (forcing || forcedCount == writtenCount) {
+                    return;
+                }
+                ticket = writtenCount;
+            }
+
+            force(ticket);
+        } catch (IOException exception) {
+            System.out.println("Could not commit " + path + ":");
+            System.out.println(exception.getMessage());
+        }
+    }
+
+    // must be called with the monitor held
+    private void waitForForce() throws IOException {
+        while (forcing) {
+            try {
+                wait();
+            } catch (InterruptedException exception) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a commit", exception);
+            }
+        }
+    }
+
+    private <T> T readFile(Read<T> read) throws IOException {
+        try (var bufferedReader = new BufferedReader(new FileReader(path.toString(), Charset.defaultCharset()))) {
+            return read.readFrom(bufferedReader);
+        }
+    }
+
+    /**
+     * Commits the directory of the file, so that a file which has been moved into it is still there after a crash.
+     */
+    private void forceDirectory() throws IOException {
+        if (durability == Durability.NONE) {
+            return;
+        }
+
+        try (FileChannel directoryChannel = FileChannel.open(path.toAbsolutePath().getParent(),
+                StandardOpenOption.READ)) {
+            directoryChannel.force(true);
+        }
+    }
+
+    // must be called with the monitor held
+    private void closeChannel() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+
+    /**
+     * Writes the new contents of a file.
+     */
+    public interface Rewrite {
+        void writeTo(BufferedWriter writer) throws IOException;
+    }
+
+    /**
+     * Reads what is needed from a file.
+     */
+    public interface Read<T> {
+        T readFrom(BufferedReader reader) throws IOException;
+    }
+
+    /**
+     * Reads what is needed from the bytes of a file.
+     */
+    public interface ReadBytes<T> {
+        T readFrom(FileChannel channel) throws IOException;
+    }
+
+    private interface FileRead<T> {
+        T run() throws IOException;
+    }
+}
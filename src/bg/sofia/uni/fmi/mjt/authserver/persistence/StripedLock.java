@@ -0,0 +1,90 @@
+package bg.sofia.uni.fmi.mjt.authserver.persistence;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fixed number of locks shared by keys by their hash, so that changes to different keys
+ * can run at the same time while changes to the same key are made one at a time.
+ * <p>
+ *     Several keys are always locked in the order of their stripes, so two threads locking
+ *     the same keys in a different order cannot wait for each other.
+ * </p>
+ */
+public class StripedLock {
+    private final ReentrantLock[] stripes;
+
+    public StripedLock(int stripeCount) {
+        if (stripeCount <= 0) {
+            throw new IllegalArgumentException("There must be at least one stripe");
+        }
+
+        this.stripes = new ReentrantLock[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Locks the stripes of the given keys, {@code null} keys are skipped.
+     * @return the locked stripes, to be unlocked in a {@code finally} block
+     */
+    public Locked lock(Object... keys) {
+        return lock(Arrays.asList(keys));
+    }
+
+    public Locked lock(Collection<?> keys) {
+        int[] indices = keys.stream()
+                .filter(Objects::nonNull)
+                .mapToInt(this::stripeOf)
+                .distinct()
+                .sorted()
+                .toArray();
+
+        for (int index : indices) {
+            stripes[index].lock();
+        }
+
+        return new Locked(indices);
+    }
+
+    /**
+     * Locks every stripe, e.g. to replace everything the keys are about at once.
+     */
+    public Locked lockAll() {
+        int[] indices = new int[stripes.length];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i].lock();
+            indices[i] = i;
+        }
+
+        return new Locked(indices);
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    private int stripeOf(Object key) {
+        return Math.floorMod(key.hashCode(), stripes.length);
+    }
+
+    /**
+     * Stripes locked together, to be unlocked by the thread which locked them.
+     */
+    public class Locked {
+        private final int[] indices;
+
+        private Locked(int[] indices) {
+            this.indices = indices;
+        }
+
+        public void unlock() {
+            for (int i = indices.length - 1; i >= 0; i--) {
+                stripes[indices[i]].unlock();
+            }
+        }
+    }
+}
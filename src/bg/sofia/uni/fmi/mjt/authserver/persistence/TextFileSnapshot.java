@@ -0,0 +1,332 @@
+package bg.sofia.uni.fmi.mjt.authserver.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * A binary copy of the records of a text database file, one per line, kept next to it, so that the records
+ * can be loaded without parsing every line of the file when the server starts.
+ * <p>
+ *     The snapshot starts with a header, which holds the length and the checksum of the text it was taken from
+ *     and the length and the checksum of its own records. It is used only if both checksums still match,
+ *     so a snapshot which is missing, torn or older than the file is never loaded: the lines of the file
+ *     are parsed instead and a new snapshot is taken from them. The file is still read every time,
+ *     since its checksum is what tells whether the snapshot is up to date, but only its bytes are checked,
+ *     and its lines are decoded only when they have to be parsed.
+ * </p>
+ * <p>
+ *     A background thread takes a new snapshot every interval, if the file has changed since the last one,
+ *     and right after records had to be parsed because the snapshot was not up to date, from the parsed records,
+ *     so that reading never waits for a snapshot to be written.
+ *     Every snapshot is written to a temporary file of its own and moved over the previous one.
+ * </p>
+ */
+public class TextFileSnapshot<T> {
+    private static final ScheduledExecutorService SNAPSHOTTER = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "text-file-snapshotter");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private static final int MAGIC = 0x534e4150;
+    // the text is checked by its bytes since version 2, not by the UTF-8 bytes of its lines
+    private static final int VERSION = 2;
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    private final GroupCommitLog log;
+    private final Path path;
+    private final Format<T> format;
+    // snapshots are taken one at a time, so that one does not parse the file while another writes the same text
+    private final Object refreshLock = new Object();
+    private long snapshotSourceLength = -1;
+    private long snapshotSourceChecksum = -1;
+    // records parsed by a read, which the next snapshot is taken from if the file has not changed since
+    private SourceText parsedSource;
+    private List<T> parsedRecords;
+
+    /**
+     * @param log the log of the text file
+     * @param format how the records are parsed from the lines of the file and kept in the snapshot
+     * @param intervalSeconds how often a new snapshot is taken, none are taken in the background if it is not positive
+     */
+    public TextFileSnapshot(GroupCommitLog log, Format<T> format, int intervalSeconds) {
+        this.log = log;
+        this.path = log.getPath().resolveSibling(log.getPath().getFileName() + SNAPSHOT_SUFFIX);
+        this.format = format;
+
+        if (intervalSeconds > 0) {
+            SNAPSHOTTER.scheduleWithFixedDelay(() -> refreshInBackground(true), intervalSeconds, intervalSeconds,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Reads the records of the file, from the snapshot if it is up to date, otherwise by parsing the file,
+     * in which case a new snapshot is taken from them in the background.
+     */
+    public List<T> readRecords() throws IOException {
+        SourceText source = log.readBytes(SourceText::read);
+
+        List<T> records = readSnapshot(source);
+        if (records == null) {
+            // the file may have changed since, so the lines are checked again as they are read
+            source = log.readBytes(SourceText::readLines);
+            records = parse(source);
+
+            synchronized (this) {
+                parsedSource = source;
+                parsedRecords = records;
+            }
+            SNAPSHOTTER.execute(() -> refreshInBackground(false));
+        }
+
+        return records;
+    }
+
+    /**
+     * Takes a new snapshot, unless the file has not changed since the last one.
+     * The file is parsed only if it has changed since it was last read as well.
+     */
+    public void refresh() throws IOException {
+        refresh(true);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @param parse whether the file is parsed if it has changed since it was last read,
+     *              otherwise the snapshot is left to the next refresh which parses
+     */
+    private void refresh(boolean parse) throws IOException {
+        synchronized (refreshLock) {
+            SourceText source = log.readBytes(SourceText::read);
+            List<T> records = null;
+
+            synchronized (this) {
+                if (isSameText(source, parsedSource)) {
+                    records = parsedRecords;
+                }
+                parsedSource = null;
+                parsedRecords = null;
+
+                if (source.length == snapshotSourceLength && source.checksum == snapshotSourceChecksum) {
+                    return;
+                }
+            }
+
+            if (records == null && !parse) {
+                return;
+            }
+
+            if (records == null) {
+                source = log.readBytes(SourceText::readLines);
+                records = parse(source);
+            }
+            writeSnapshot(source, records);
+        }
+    }
+
+    private void refreshInBackground(boolean parse) {
+        try {
+            refresh(parse);
+        } catch (IOException | RuntimeException exception) {
+            System.out.println("Could not take a snapshot of " + log.getPath() + ":");
+            System.out.println(exception.getMessage());
+        }
+    }
+
+    /**
+     * Parses the lines of the given text, which are not kept after.
+     */
+    private List<T> parse(SourceText source) {
+        List<T> records = new ArrayList<>(source.lines.size());
+        for (String line : source.lines) {
+            records.add(format.parse(line));
+        }
+        source.lines = null;
+
+        return records;
+    }
+
+    /**
+     * @return the records in the snapshot, {@code null} if there is no snapshot of the given text
+     */
+    private List<T> readSnapshot(SourceText source) {
+        byte[] payload;
+        int recordCount;
+
+        try (var input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not a snapshot of the current version");
+            }
+
+            // a snapshot of older contents of the file is not read any further
+            if (input.readLong() != source.length || input.readLong() != source.checksum) {
+                return null;
+            }
+
+            recordCount = input.readInt();
+            payload = new byte[input.readInt()];
+            long payloadChecksum = input.readLong();
+            input.readFully(payload);
+
+            if (checksum(payload) != payloadChecksum || input.read() != -1) {
+                throw new IOException("The checksum of the records does not match");
+            }
+        } catch (NoSuchFileException exception) {
+            return null;
+        } catch (IOException | RuntimeException exception) {
+            System.out.println("Ignoring an invalid snapshot of " + log.getPath() + ":");
+            System.out.println(exception.getMessage());
+            return null;
+        }
+
+        List<T> records = new ArrayList<>(recordCount);
+        try (var input = new DataInputStream(new ByteArrayInputStream(payload))) {
+            for (int i = 0; i < recordCount; i++) {
+                records.add(format.read(input));
+            }
+        } catch (IOException | RuntimeException exception) {
+            System.out.println("Ignoring an unreadable snapshot of " + log.getPath() + ":");
+            System.out.println(exception.getMessage());
+            return null;
+        }
+
+        synchronized (this) {
+            snapshotSourceLength = source.length;
+            snapshotSourceChecksum = source.checksum;
+        }
+
+        return records;
+    }
+
+    private void writeSnapshot(SourceText source, List<T> records) throws IOException {
+        var payload = new ByteArrayOutputStream();
+        try (var output = new DataOutputStream(payload)) {
+            for (T record : records) {
+                format.write(output, record);
+            }
+        }
+        byte[] payloadBytes = payload.toByteArray();
+
+        Path directory = path.toAbsolutePath().getParent();
+        Path temporaryPath = Files.createTempFile(directory, path.getFileName() + ".", TEMPORARY_FILE_SUFFIX);
+        try {
+            try (var output = new DataOutputStream(Files.newOutputStream(temporaryPath))) {
+                output.writeInt(MAGIC);
+                output.writeInt(VERSION);
+                output.writeLong(source.length);
+                output.writeLong(source.checksum);
+                output.writeInt(records.size());
+                output.writeInt(payloadBytes.length);
+                output.writeLong(checksum(payloadBytes));
+                output.write(payloadBytes);
+            }
+
+            // snapshots taken at the same time replace each other whole, whichever is older is not used anyway
+            synchronized (this) {
+                Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                snapshotSourceLength = source.length;
+                snapshotSourceChecksum = source.checksum;
+            }
+        } finally {
+            Files.deleteIfExists(temporaryPath);
+        }
+    }
+
+    private static boolean isSameText(SourceText source, SourceText otherSource) {
+        return otherSource != null && source.length == otherSource.length && source.checksum == otherSource.checksum;
+    }
+
+    private static long checksum(byte[] bytes) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+
+        return crc.getValue();
+    }
+
+    /**
+     * Parses the records of a text file and keeps them in a snapshot.
+     */
+    public interface Format<T> {
+        T parse(String line);
+
+        void write(DataOutputStream output, T record) throws IOException;
+
+        T read(DataInputStream input) throws IOException;
+    }
+
+    /**
+     * The length and the checksum of the bytes of a text file, with its lines if they are needed.
+     */
+    private static class SourceText {
+        private static final int BUFFER_SIZE = 64 * 1024;
+
+        private List<String> lines;
+        private long length;
+        private long checksum;
+
+        /**
+         * Reads only the length and the checksum, which are enough to tell whether a snapshot is up to date.
+         */
+        private static SourceText read(FileChannel channel) throws IOException {
+            SourceText source = new SourceText();
+            CRC32 crc = new CRC32();
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                source.length += buffer.remaining();
+                crc.update(buffer);
+                buffer.clear();
+            }
+            source.checksum = crc.getValue();
+
+            return source;
+        }
+
+        /**
+         * Reads the lines as well, checking the same bytes they are decoded from.
+         */
+        private static SourceText readLines(FileChannel channel) throws IOException {
+            SourceText source = new SourceText();
+            source.lines = new ArrayList<>();
+
+            var input = new CheckedInputStream(Channels.newInputStream(channel), new CRC32());
+            var reader = new BufferedReader(new InputStreamReader(input, Charset.defaultCharset()), BUFFER_SIZE);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                source.lines.add(line);
+            }
+            source.length = channel.position();
+            source.checksum = input.getChecksum().getValue();
+
+            return source;
+        }
+    }
+}
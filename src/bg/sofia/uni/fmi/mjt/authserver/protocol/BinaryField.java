@@ -0,0 +1,36 @@
+package bg.sofia.uni.fmi.mjt.authserver.protocol;
+
+/**
+ * A typed field of a binary request, named after the command parameter it maps to.
+ */
+public class BinaryField {
+    private final String name;
+    private final boolean sessionId;
+
+    private BinaryField(String name, boolean sessionId) {
+        this.name = name;
+        this.sessionId = sessionId;
+    }
+
+    /**
+     * A length-prefixed UTF-8 string.
+     */
+    public static BinaryField string(String name) {
+        return new BinaryField(name, false);
+    }
+
+    /**
+     * A session id as the 16 raw bytes of its UUID.
+     */
+    public static BinaryField sessionId(String name) {
+        return new BinaryField(name, true);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isSessionId() {
+        return sessionId;
+    }
+}
@@ -0,0 +1,178 @@
+package bg.sofia.uni.fmi.mjt.authserver.protocol;
+
+import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandResult;
+import bg.sofia.uni.fmi.mjt.authserver.commands.ResultCode;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandParseException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * <p>
+ *     A binary alternative to the text protocol, chosen by a client which sends {@link #MAGIC}
+ *     as the very first byte of its connection.
+ * </p>
+ * <p>
+ *     Every message is a frame: a 4-byte big-endian length followed by that many bytes.
+ *     A request is a one-byte {@link Opcode} followed by the fields of the opcode, in order.
+ *     Strings are a 2-byte length followed by UTF-8 bytes, a length of {@code 0xFFFF} marking
+ *     an absent field, and session ids are the 16 bytes of their UUID.
+ *     A response is a one-byte {@link ResultCode}, a one-byte flag telling whether a session id follows,
+ *     the 16 bytes of the session id if so, and the response text in UTF-8 up to the end of the frame.
+ * </p>
+ */
+public final class BinaryProtocol {
+    // never the first byte of a UTF-8 character, so it cannot start a text command
+    public static final byte MAGIC = (byte) 0xA5;
+    public static final int MAX_FRAME_LENGTH = 64 * 1024 - Integer.BYTES;
+
+    private static final int ABSENT_STRING_LENGTH = 0xFFFF;
+    private static final int SESSION_ID_LENGTH = 2 * Long.BYTES;
+
+    private BinaryProtocol() {
+    }
+
+    /**
+     * Decodes the body of a request frame into a parser for the command it maps to.
+     */
+    public static CommandParser decodeRequest(ByteBuffer frame) throws CommandParseException {
+        try {
+            int code = Byte.toUnsignedInt(frame.get());
+            Opcode opcode = Opcode.fromCode(code);
+
+            if (opcode == null) {
+                throw new CommandParseException("Unknown opcode: " + code);
+            }
+
+            Map<String, String> arguments = new HashMap<>();
+            for (BinaryField field : opcode.getFields()) {
+                String value = field.isSessionId()
+                        ? new UUID(frame.getLong(), frame.getLong()).toString()
+                        : getString(frame);
+
+                if (value != null) {
+                    arguments.put(field.getName(), value);
+                }
+            }
+
+            if (frame.hasRemaining()) {
+                throw new CommandParseException("Request frame is longer than its fields");
+            }
+
+            return CommandParser.of(opcode.getCommandName(), arguments);
+        } catch (BufferUnderflowException exception) {
+            throw new CommandParseException("Request frame is shorter than its fields");
+        }
+    }
+
+    /**
+     * Encodes a whole request frame. The values are given in the order of the fields of the opcode,
+     * {@code null} for absent ones.
+     */
+    public static ByteBuffer encodeRequest(Opcode opcode, String... values) {
+        List<BinaryField> fields = opcode.getFields();
+        if (values.length != fields.size()) {
+            throw new IllegalArgumentException("Opcode " + opcode + " takes " + fields.size() + " fields");
+        }
+
+        byte[][] encodedValues = new byte[values.length][];
+        int length = 1;
+        for (int i = 0; i < values.length; i++) {
+            if (fields.get(i).isSessionId()) {
+                length += SESSION_ID_LENGTH;
+            } else {
+                encodedValues[i] = values[i] == null ? null : values[i].getBytes(StandardCharsets.UTF_8);
+                length += Short.BYTES + (encodedValues[i] == null ? 0 : encodedValues[i].length);
+            }
+        }
+
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + length);
+        frame.putInt(length);
+        frame.put((byte) opcode.getCode());
+
+        for (int i = 0; i < values.length; i++) {
+            if (fields.get(i).isSessionId()) {
+                UUID sessionId = UUID.fromString(values[i]);
+                frame.putLong(sessionId.getMostSignificantBits());
+                frame.putLong(sessionId.getLeastSignificantBits());
+            } else {
+                putString(frame, encodedValues[i]);
+            }
+        }
+
+        return frame.flip();
+    }
+
+    /**
+     * Encodes a whole response frame.
+     */
+    public static byte[] encodeResponse(CommandResult result) {
+        byte[] response = result.getResponse().getBytes(StandardCharsets.UTF_8);
+        Session session = result.getSession().orElse(null);
+
+        int length = 2 + (session != null ? SESSION_ID_LENGTH : 0) + response.length;
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + length);
+
+        frame.putInt(length);
+        frame.put((byte) result.getResultCode().getCode());
+        frame.put((byte) (session != null ? 1 : 0));
+        if (session != null) {
+            frame.putLong(session.getId().getMostSignificantBits());
+            frame.putLong(session.getId().getLeastSignificantBits());
+        }
+        frame.put(response);
+
+        return frame.array();
+    }
+
+    /**
+     * Decodes the body of a response frame. The session of a successful login only carries its id.
+     */
+    public static CommandResult decodeResponse(ByteBuffer frame) {
+        ResultCode resultCode = ResultCode.fromCode(Byte.toUnsignedInt(frame.get()));
+
+        Session session = null;
+        if (frame.get() != 0) {
+            session = new Session(new UUID(frame.getLong(), frame.getLong()));
+        }
+
+        byte[] response = new byte[frame.remaining()];
+        frame.get(response);
+
+        return new CommandResult(resultCode, new String(response, StandardCharsets.UTF_8), session);
+    }
+
+    private static String getString(ByteBuffer frame) {
+        int length = Short.toUnsignedInt(frame.getShort());
+        if (length == ABSENT_STRING_LENGTH) {
+            return null;
+        }
+
+        // the frame may well be a direct buffer, with no array to decode from
+        byte[] value = new byte[length];
+        frame.get(value);
+
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(ByteBuffer frame, byte[] value) {
+        if (value == null) {
+            frame.putShort((short) ABSENT_STRING_LENGTH);
+            return;
+        }
+
+        if (value.length >= ABSENT_STRING_LENGTH) {
+            throw new IllegalArgumentException("String field is too long");
+        }
+
+        frame.putShort((short) value.length);
+        frame.put(value);
+    }
+}
@@ -0,0 +1,68 @@
+package bg.sofia.uni.fmi.mjt.authserver.protocol;
+
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandExecutor;
+
+import java.util.List;
+
+/**
+ * The commands of the binary protocol, each with the fields its requests carry, in wire order.
+ */
+public enum Opcode {
+    REGISTER(1, CommandExecutor.COMMAND_REGISTER,
+            BinaryField.string("username"), BinaryField.string("password"), BinaryField.string("first-name"),
+            BinaryField.string("last-name"), BinaryField.string("email")),
+    LOGIN_WITH_PASSWORD(2, CommandExecutor.COMMAND_LOGIN,
+            BinaryField.string("username"), BinaryField.string("password")),
+    LOGIN_WITH_SESSION_ID(3, CommandExecutor.COMMAND_LOGIN,
+            BinaryField.sessionId("session-id")),
+    UPDATE_USER(4, CommandExecutor.COMMAND_UPDATE_USER,
+            BinaryField.sessionId("session-id"), BinaryField.string("new-username"),
+            BinaryField.string("new-first-name"), BinaryField.string("new-last-name"),
+            BinaryField.string("new-email")),
+    RESET_PASSWORD(5, CommandExecutor.COMMAND_RESET_PASSWORD,
+            BinaryField.sessionId("session-id"), BinaryField.string("username"),
+            BinaryField.string("old-password"), BinaryField.string("new-password")),
+    LOGOUT(6, CommandExecutor.COMMAND_LOGOUT,
+            BinaryField.sessionId("session-id")),
+    ADD_ADMIN_USER(7, CommandExecutor.COMMAND_ADD_ADMIN_USER,
+            BinaryField.sessionId("session-id"), BinaryField.string("username")),
+    REMOVE_ADMIN_USER(8, CommandExecutor.COMMAND_REMOVE_ADMIN_USER,
+            BinaryField.sessionId("session-id"), BinaryField.string("username")),
+    DELETE_USER(9, CommandExecutor.COMMAND_DELETE_USER,
+            BinaryField.sessionId("session-id"), BinaryField.string("username")),
+    VALIDATE_SESSION(10, CommandExecutor.COMMAND_VALIDATE_SESSION,
+            BinaryField.sessionId("session-id")),
+    STATS(11, CommandExecutor.COMMAND_STATS,
+            BinaryField.sessionId("session-id"));
+
+    private final int code;
+    private final String commandName;
+    private final List<BinaryField> fields;
+
+    Opcode(int code, String commandName, BinaryField... fields) {
+        this.code = code;
+        this.commandName = commandName;
+        this.fields = List.of(fields);
+    }
+
+    public int getCode() {
+        return code;
+    }
+
+    public String getCommandName() {
+        return commandName;
+    }
+
+    public List<BinaryField> getFields() {
+        return fields;
+    }
+
+    public static Opcode fromCode(int code) {
+        for (Opcode opcode : Opcode.values()) {
+            if (opcode.code == code) {
+                return opcode;
+            }
+        }
+        return null;
+    }
+}
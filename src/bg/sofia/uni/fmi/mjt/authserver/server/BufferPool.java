@@ -0,0 +1,98 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A pool of direct buffers split into power-of-two size classes.
+ * Direct buffers are expensive to allocate and are only freed by the garbage collector,
+ * so connections borrow them from here and give them back when they are done with them.
+ * Requests larger than the biggest size class are served with unpooled heap buffers.
+ */
+public class BufferPool {
+    private static final int MIN_BUFFER_SIZE = 1024;
+    private static final int SIZE_CLASS_COUNT = 7;
+    private static final int DEFAULT_MAX_POOLED_PER_CLASS = 256;
+
+    private final List<Queue<ByteBuffer>> sizeClasses;
+    private final AtomicIntegerArray pooledCounts;
+    private final int maxPooledPerClass;
+
+    public BufferPool() {
+        this(DEFAULT_MAX_POOLED_PER_CLASS);
+    }
+
+    public BufferPool(int maxPooledPerClass) {
+        this.maxPooledPerClass = maxPooledPerClass;
+        this.sizeClasses = new ArrayList<>(SIZE_CLASS_COUNT);
+        this.pooledCounts = new AtomicIntegerArray(SIZE_CLASS_COUNT);
+
+        for (int i = 0; i < SIZE_CLASS_COUNT; i++) {
+            sizeClasses.add(new ConcurrentLinkedQueue<>());
+        }
+    }
+
+    public static int getMaxPooledBufferSize() {
+        return sizeOfClass(SIZE_CLASS_COUNT - 1);
+    }
+
+    /**
+     * Borrows a cleared buffer able to hold at least the given number of bytes.
+     */
+    public ByteBuffer acquire(int minCapacity) {
+        int sizeClass = sizeClassFor(minCapacity);
+
+        if (sizeClass < 0) {
+            return ByteBuffer.allocate(minCapacity);
+        }
+
+        ByteBuffer buffer = sizeClasses.get(sizeClass).poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(sizeOfClass(sizeClass));
+        }
+
+        pooledCounts.decrementAndGet(sizeClass);
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Gives a buffer back to the pool. The caller must not use it afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect()) {
+            return;
+        }
+
+        int sizeClass = sizeClassFor(buffer.capacity());
+        if (sizeClass < 0 || sizeOfClass(sizeClass) != buffer.capacity()) {
+            return;
+        }
+
+        // buffers over the limit are simply dropped and left to the garbage collector
+        if (pooledCounts.incrementAndGet(sizeClass) > maxPooledPerClass) {
+            pooledCounts.decrementAndGet(sizeClass);
+            return;
+        }
+
+        sizeClasses.get(sizeClass).add(buffer);
+    }
+
+    private static int sizeClassFor(int capacity) {
+        for (int i = 0; i < SIZE_CLASS_COUNT; i++) {
+            if (sizeOfClass(i) >= capacity) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private static int sizeOfClass(int sizeClass) {
+        return MIN_BUFFER_SIZE << sizeClass;
+    }
+}
@@ -0,0 +1,369 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandResult;
+import bg.sofia.uni.fmi.mjt.authserver.commands.ResultCode;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandParseException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandTooLongException;
+import bg.sofia.uni.fmi.mjt.authserver.protocol.BinaryProtocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Queue;
+
+/**
+ * The state of a single client connection, owned by the reactor serving it.
+ * Commands are newline-delimited, or length-prefixed frames if the client has chosen
+ * the {@link BinaryProtocol}, so a single read may carry several of them
+ * and a single command may span several reads.
+ * Commands of one connection are executed one at a time, in the order they were received,
+ * which keeps their responses in the same order.
+ */
+public class Connection {
+    private static final int INITIAL_BUFFER_SIZE = 1024;
+    private static final int MAX_COMMAND_LENGTH = 64 * 1024;
+
+    private static final byte LINE_FEED = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private final SocketChannel socketChannel;
+    private final SelectionKey key;
+    private final BufferPool bufferPool;
+    private final Transport transport;
+    private final CharsetDecoder decoder;
+    private final CharsetEncoder encoder;
+    private final Queue<PendingCommand> pendingCommands;
+    private final Deque<ByteBuffer> pendingResponses;
+    private ByteBuffer inbound;
+    private CharBuffer decoded;
+    private boolean commandInFlight;
+    private boolean protocolNegotiated;
+    private boolean binaryProtocol;
+
+    public Connection(SocketChannel socketChannel, SelectionKey key, BufferPool bufferPool) {
+        this(socketChannel, key, bufferPool, new PlainTransport(socketChannel));
+    }
+
+    public Connection(SocketChannel socketChannel, SelectionKey key, BufferPool bufferPool, Transport transport) {
+        this.socketChannel = socketChannel;
+        this.key = key;
+        this.bufferPool = bufferPool;
+        this.transport = transport;
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.pendingCommands = new ArrayDeque<>();
+        this.pendingResponses = new ArrayDeque<>();
+        this.inbound = bufferPool.acquire(INITIAL_BUFFER_SIZE);
+        this.decoded = CharBuffer.allocate(INITIAL_BUFFER_SIZE);
+    }
+
+    public SocketChannel getSocketChannel() {
+        return socketChannel;
+    }
+
+    public SelectionKey getKey() {
+        return key;
+    }
+
+    /**
+     * Reads whatever is available from the channel and parses every complete command.
+     * @return the number of bytes read, or {@code -1} if the client has closed the connection
+     * @throws CommandTooLongException if a command exceeds the maximum allowed length
+     */
+    public int read() throws IOException {
+        if (!inbound.hasRemaining()) {
+            growInbound();
+        }
+
+        int r = transport.read(inbound);
+
+        if (r > 0) {
+            extractCommands();
+        }
+
+        return r;
+    }
+
+    /**
+     * @return whether the transport holds received data which has not been read yet,
+     * for which the channel will not signal readiness again
+     */
+    public boolean hasBufferedInput() {
+        return transport.hasBufferedInput();
+    }
+
+    public boolean hasPendingCommands() {
+        return !pendingCommands.isEmpty();
+    }
+
+    /**
+     * @return the number of commands received from the client and not yet answered,
+     * including the one being executed
+     */
+    public int getPendingCommandCount() {
+        return pendingCommands.size() + (commandInFlight ? 1 : 0);
+    }
+
+    public PendingCommand nextCommand() {
+        return pendingCommands.poll();
+    }
+
+    public boolean isCommandInFlight() {
+        return commandInFlight;
+    }
+
+    public void setCommandInFlight(boolean commandInFlight) {
+        this.commandInFlight = commandInFlight;
+    }
+
+    /**
+     * Encodes a response, followed by a line separator, into pooled buffers queued for writing.
+     * Binary clients get it as the message of a {@link ResultCode#BAD_REQUEST} frame,
+     * as only errors are answered without a command result.
+     */
+    public void enqueueResponse(String response) {
+        if (binaryProtocol) {
+            enqueueResponse(new CommandResult(ResultCode.BAD_REQUEST, response));
+            return;
+        }
+
+        encode(CharBuffer.wrap(response));
+        encode(CharBuffer.wrap(System.lineSeparator()));
+    }
+
+    /**
+     * Queues the result of a command for writing, in the protocol the client has chosen.
+     */
+    public void enqueueResponse(CommandResult result) {
+        if (!binaryProtocol) {
+            enqueueResponse(result.getResponse());
+            return;
+        }
+
+        ByteBuffer frame = ByteBuffer.wrap(BinaryProtocol.encodeResponse(result));
+        ByteBuffer tail = openTailBuffer(frame.remaining());
+
+        while (true) {
+            int count = Math.min(frame.remaining(), tail.remaining());
+            tail.put(frame.slice().limit(count));
+            frame.position(frame.position() + count);
+
+            if (!frame.hasRemaining()) {
+                break;
+            }
+
+            tail.flip();
+            tail = acquireResponseBuffer(frame.remaining());
+        }
+
+        tail.flip();
+    }
+
+    /**
+     * Writes as many of the pending responses as the channel accepts without blocking.
+     * @return whether all pending responses were written
+     */
+    public boolean flush() throws IOException {
+        if (!transport.flush()) {
+            return false;
+        }
+
+        ByteBuffer response;
+
+        while ((response = pendingResponses.peek()) != null) {
+            transport.write(response);
+
+            if (response.hasRemaining()) {
+                return false;
+            }
+
+            bufferPool.release(pendingResponses.poll());
+        }
+
+        return transport.flush();
+    }
+
+    public boolean hasPendingResponses() {
+        return !pendingResponses.isEmpty();
+    }
+
+    /**
+     * Tells the client the connection is about to be closed, if the transport has a way to.
+     */
+    public void shutdown() {
+        transport.shutdown();
+    }
+
+    /**
+     * Gives all pooled buffers back. Must be called once the connection is closed.
+     */
+    public void releaseBuffers() {
+        bufferPool.release(inbound);
+        inbound = null;
+        transport.releaseBuffers();
+
+        ByteBuffer response;
+        while ((response = pendingResponses.poll()) != null) {
+            bufferPool.release(response);
+        }
+    }
+
+    private void extractCommands() throws CommandTooLongException {
+        inbound.flip();
+
+        if (!protocolNegotiated) {
+            protocolNegotiated = true;
+            binaryProtocol = inbound.get(inbound.position()) == BinaryProtocol.MAGIC;
+
+            if (binaryProtocol) {
+                inbound.get();
+            }
+        }
+
+        if (binaryProtocol) {
+            extractFrames();
+        } else {
+            extractLines();
+        }
+
+        inbound.compact();
+
+        if (inbound.position() > MAX_COMMAND_LENGTH) {
+            throw new CommandTooLongException("Command is longer than " + MAX_COMMAND_LENGTH + " bytes");
+        }
+    }
+
+    private void extractLines() {
+        int lineStart = inbound.position();
+        for (int i = inbound.position(); i < inbound.limit(); i++) {
+            if (inbound.get(i) == LINE_FEED) {
+                int lineEnd = i;
+                if (lineEnd > lineStart && inbound.get(lineEnd - 1) == CARRIAGE_RETURN) {
+                    lineEnd--;
+                }
+
+                pendingCommands.add(parseLine(lineStart, lineEnd));
+                lineStart = i + 1;
+            }
+        }
+
+        inbound.position(lineStart);
+    }
+
+    private void extractFrames() throws CommandTooLongException {
+        while (inbound.remaining() >= Integer.BYTES) {
+            int frameStart = inbound.position() + Integer.BYTES;
+            int frameLength = inbound.getInt(inbound.position());
+
+            if (frameLength < 0 || frameLength > BinaryProtocol.MAX_FRAME_LENGTH) {
+                throw new CommandTooLongException("Frame length must be between 0 and "
+                        + BinaryProtocol.MAX_FRAME_LENGTH + " bytes");
+            }
+
+            if (inbound.limit() - frameStart < frameLength) {
+                return;
+            }
+
+            ByteBuffer frame = inbound.duplicate();
+            frame.limit(frameStart + frameLength).position(frameStart);
+
+            try {
+                pendingCommands.add(PendingCommand.parsed(BinaryProtocol.decodeRequest(frame)));
+            } catch (CommandParseException exception) {
+                pendingCommands.add(PendingCommand.failed(exception.getMessage()));
+            }
+
+            inbound.position(frameStart + frameLength);
+        }
+    }
+
+    private PendingCommand parseLine(int lineStart, int lineEnd) {
+        ByteBuffer line = inbound.duplicate();
+        line.limit(lineEnd).position(lineStart);
+
+        // UTF-8 never decodes to more chars than bytes
+        if (decoded.capacity() < lineEnd - lineStart) {
+            decoded = CharBuffer.allocate(lineEnd - lineStart);
+        }
+
+        decoded.clear();
+        decoder.reset();
+        decoder.decode(line, decoded, true);
+        decoder.flush(decoded);
+        decoded.flip();
+
+        try {
+            return PendingCommand.parsed(CommandParser.parse(decoded));
+        } catch (CommandParseException exception) {
+            return PendingCommand.failed(exception.getMessage());
+        }
+    }
+
+    private void encode(CharBuffer chars) {
+        ByteBuffer tail = openTailBuffer(getMaxEncodedLength(chars));
+
+        encoder.reset();
+        CoderResult result;
+        do {
+            result = encoder.encode(chars, tail, true);
+            if (result.isUnderflow()) {
+                result = encoder.flush(tail);
+            }
+
+            if (result.isOverflow()) {
+                tail.flip();
+                tail = acquireResponseBuffer(getMaxEncodedLength(chars));
+            }
+        } while (result.isOverflow());
+
+        tail.flip();
+    }
+
+    /**
+     * Reopens the last queued buffer for appending, or queues a new one if it cannot be appended to.
+     */
+    private ByteBuffer openTailBuffer(int expectedLength) {
+        ByteBuffer tail = pendingResponses.peekLast();
+
+        // keep filling the last queued buffer as long as nothing has been written from it yet
+        if (tail != null && tail.position() == 0 && tail.limit() < tail.capacity()) {
+            return tail.position(tail.limit()).limit(tail.capacity());
+        }
+
+        return acquireResponseBuffer(expectedLength);
+    }
+
+    private int getMaxEncodedLength(CharBuffer chars) {
+        return (int) Math.ceil(chars.remaining() * encoder.maxBytesPerChar());
+    }
+
+    private ByteBuffer acquireResponseBuffer(int expectedLength) {
+        ByteBuffer buffer = bufferPool.acquire(Math.min(expectedLength, BufferPool.getMaxPooledBufferSize()));
+
+        pendingResponses.add(buffer);
+        return buffer;
+    }
+
+    private void growInbound() {
+        ByteBuffer grown = bufferPool.acquire(inbound.capacity() * 2);
+        inbound.flip();
+        grown.put(inbound);
+
+        bufferPool.release(inbound);
+        inbound = grown;
+    }
+}
@@ -0,0 +1,44 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Caps the number of client connections open at the same time, across all threads serving them.
+ */
+public class ConnectionLimiter {
+    private final int maxConnections;
+    private final AtomicInteger openConnections;
+
+    public ConnectionLimiter(int maxConnections) {
+        this.maxConnections = maxConnections;
+        this.openConnections = new AtomicInteger();
+    }
+
+    /**
+     * Reserves a place for a new connection.
+     * @return whether the connection may be served, {@code false} if the limit has been reached
+     */
+    public boolean tryAcquire() {
+        int current;
+
+        do {
+            current = openConnections.get();
+            if (current >= maxConnections) {
+                return false;
+            }
+        } while (!openConnections.compareAndSet(current, current + 1));
+
+        return true;
+    }
+
+    /**
+     * Frees the place of a closed connection.
+     */
+    public void release() {
+        openConnections.decrementAndGet();
+    }
+
+    public int getOpenConnectionCount() {
+        return openConnections.get();
+    }
+}
@@ -0,0 +1,60 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the connections of a reactor ordered by their last activity, the least recently active first.
+ * Since all connections share the same idle timeout, recording activity and finding the idle
+ * connections are both cheap, with no timer task per connection. Not thread-safe, it is only
+ * used by the thread of its reactor.
+ */
+public class IdleConnectionTracker {
+    private final long idleTimeoutNanos;
+    private final Map<Connection, Long> lastActivity;
+
+    public IdleConnectionTracker(long idleTimeoutNanos) {
+        this.idleTimeoutNanos = idleTimeoutNanos;
+        // access order moves a connection to the end whenever its activity is recorded
+        this.lastActivity = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public void recordActivity(Connection connection, long now) {
+        lastActivity.put(connection, now);
+    }
+
+    public void remove(Connection connection) {
+        lastActivity.remove(connection);
+    }
+
+    /**
+     * Removes and returns the connections which have been idle for longer than the timeout.
+     * Connections with a command still being executed are not considered idle.
+     */
+    public List<Connection> removeIdleConnections(long now) {
+        List<Connection> idle = new ArrayList<>();
+        List<Connection> busy = new ArrayList<>();
+
+        Iterator<Map.Entry<Connection, Long>> iterator = lastActivity.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Connection, Long> entry = iterator.next();
+
+            if (now - entry.getValue() < idleTimeoutNanos) {
+                break;
+            }
+
+            iterator.remove();
+            if (entry.getKey().isCommandInFlight()) {
+                busy.add(entry.getKey());
+            } else {
+                idle.add(entry.getKey());
+            }
+        }
+
+        busy.forEach(connection -> lastActivity.put(connection, now));
+        return idle;
+    }
+}
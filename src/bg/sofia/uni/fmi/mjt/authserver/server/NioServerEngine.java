@@ -0,0 +1,225 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandExecutor;
+import bg.sofia.uni.fmi.mjt.authserver.config.ServerConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.config.SslContexts;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves clients from non-blocking selector loops, while their commands run on a bounded worker pool.
+ * With TLS enabled the selector loops also terminate TLS, so no proxy is needed in front of the server.
+ * Clients on the same host may also connect over a Unix domain socket, which skips the TCP/IP stack
+ * altogether; such connections are served by the same loops, in plaintext, as the socket file is
+ * protected by the file system's permissions.
+ */
+public class NioServerEngine implements ServerEngine {
+    private static final String REACTOR_THREAD_NAME_PREFIX = "reactor-";
+
+    private final ServerConfiguration configuration;
+    private final CommandExecutor commandExecutor;
+    private final ExecutorService workerPool;
+    private final List<Reactor> reactors;
+    private final ConnectionLimiter connectionLimiter;
+    private Selector selector;
+    private int nextReactorIndex;
+    private volatile boolean shouldListen;
+
+    public NioServerEngine(ServerConfiguration configuration, CommandExecutor commandExecutor) {
+        this.configuration = configuration;
+        this.commandExecutor = commandExecutor;
+
+        // commands do blocking file I/O and password hashing, so they must not run on the selector thread
+        this.workerPool = new ThreadPoolExecutor(configuration.getWorkerThreadCount(),
+                configuration.getWorkerThreadCount(), 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(configuration.getWorkerQueueCapacity()));
+        this.reactors = new CopyOnWriteArrayList<>();
+        this.connectionLimiter = new ConnectionLimiter(configuration.getMaxConnections());
+
+        if (configuration.isTlsEnabled()) {
+            SslContexts.configureServerSessions(configuration);
+        }
+    }
+
+    @Override
+    public void start() throws IOException {
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
+             ServerSocketChannel unixServerSocketChannel = openUnixServerSocket()) {
+            serverSocketChannel.bind(new InetSocketAddress(configuration.getHost(), configuration.getPort()));
+            serverSocketChannel.configureBlocking(false);
+
+            shouldListen = true;
+
+            if (configuration.getReactorCount() == 0) {
+                Reactor reactor = new Reactor(commandExecutor, workerPool, configuration, connectionLimiter);
+                reactors.add(reactor);
+
+                reactor.acceptFrom(serverSocketChannel);
+                if (unixServerSocketChannel != null) {
+                    reactor.acceptFrom(unixServerSocketChannel);
+                }
+                reactor.run();
+            } else {
+                startReactors();
+                acceptConnections(serverSocketChannel, unixServerSocketChannel);
+            }
+        } finally {
+            reactors.forEach(Reactor::stop);
+            workerPool.shutdown();
+            deleteUnixSocketFile();
+        }
+    }
+
+    @Override
+    public void stop() {
+        shouldListen = false;
+
+        reactors.forEach(Reactor::stop);
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    private void startReactors() throws IOException {
+        for (int i = 0; i < configuration.getReactorCount(); i++) {
+            Reactor reactor = new Reactor(commandExecutor, workerPool, configuration, connectionLimiter);
+            reactors.add(reactor);
+
+            new Thread(reactor, REACTOR_THREAD_NAME_PREFIX + i).start();
+        }
+    }
+
+    private void acceptConnections(ServerSocketChannel serverSocketChannel,
+                                   ServerSocketChannel unixServerSocketChannel) throws IOException {
+        selector = Selector.open();
+        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+        if (unixServerSocketChannel != null) {
+            unixServerSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+        }
+
+        while (shouldListen) {
+            selector.select();
+
+            Set<SelectionKey> selectedKeys = selector.selectedKeys();
+            Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+
+            while (keyIterator.hasNext()) {
+                SelectionKey key = keyIterator.next();
+                keyIterator.remove();
+
+                if (key.isValid() && key.isAcceptable()) {
+                    SocketChannel accept = ((ServerSocketChannel) key.channel()).accept();
+
+                    if (accept == null) {
+                        continue;
+                    }
+
+                    if (connectionLimiter.tryAcquire()) {
+                        getLeastLoadedReactor().register(accept);
+                    } else {
+                        Reactor.rejectConnection(accept);
+                    }
+                }
+            }
+        }
+
+        selector.close();
+    }
+
+    /**
+     * @return a bound, non-blocking Unix domain server socket, or {@code null} if none is configured
+     */
+    private ServerSocketChannel openUnixServerSocket() throws IOException {
+        Path socketPath = configuration.getUnixSocketPath();
+        if (socketPath == null) {
+            return null;
+        }
+
+        deleteStaleUnixSocketFile(socketPath);
+
+        ServerSocketChannel unixServerSocketChannel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            unixServerSocketChannel.bind(UnixDomainSocketAddress.of(socketPath));
+            unixServerSocketChannel.configureBlocking(false);
+        } catch (IOException exception) {
+            unixServerSocketChannel.close();
+            throw exception;
+        }
+
+        return unixServerSocketChannel;
+    }
+
+    /**
+     * Deletes a socket file left behind by a previous run, which would make binding fail.
+     * Anything else found at the path is left as it is and the server does not start.
+     */
+    private static void deleteStaleUnixSocketFile(Path socketPath) throws IOException {
+        if (!Files.exists(socketPath, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+
+        if (!isSocketFile(socketPath)) {
+            throw new IOException("Cannot bind the Unix domain socket, " + socketPath + " is not a socket");
+        }
+
+        Files.deleteIfExists(socketPath);
+    }
+
+    // a file which failed the start is not a socket and is never deleted
+    private void deleteUnixSocketFile() {
+        Path socketPath = configuration.getUnixSocketPath();
+        if (socketPath == null || !Files.exists(socketPath, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+
+        try {
+            if (isSocketFile(socketPath)) {
+                Files.deleteIfExists(socketPath);
+            }
+        } catch (IOException exception) {
+            System.out.println("Could not delete the Unix domain socket file:");
+            System.out.println(exception.getMessage());
+        }
+    }
+
+    // sockets are neither regular files, directories nor links
+    private static boolean isSocketFile(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).isOther();
+    }
+
+    private Reactor getLeastLoadedReactor() {
+        // start from a rotating index so that equally loaded reactors are picked round-robin
+        int reactorCount = reactors.size();
+        int start = Math.floorMod(nextReactorIndex++, reactorCount);
+
+        Reactor leastLoaded = reactors.get(start);
+        for (int i = 1; i < reactorCount; i++) {
+            Reactor reactor = reactors.get((start + i) % reactorCount);
+
+            if (reactor.getConnectionCount() < leastLoaded.getConnectionCount()) {
+                leastLoaded = reactor;
+            }
+        }
+
+        return leastLoaded;
+    }
+}
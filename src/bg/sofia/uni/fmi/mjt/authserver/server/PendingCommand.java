@@ -0,0 +1,37 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+
+/**
+ * A command received from a client, waiting for its turn to be executed.
+ * Commands which could not be parsed carry their error response instead.
+ */
+public class PendingCommand {
+    private final CommandParser parser;
+    private final String parseErrorResponse;
+
+    private PendingCommand(CommandParser parser, String parseErrorResponse) {
+        this.parser = parser;
+        this.parseErrorResponse = parseErrorResponse;
+    }
+
+    public static PendingCommand parsed(CommandParser parser) {
+        return new PendingCommand(parser, null);
+    }
+
+    public static PendingCommand failed(String parseErrorResponse) {
+        return new PendingCommand(null, parseErrorResponse);
+    }
+
+    public boolean isParsed() {
+        return parser != null;
+    }
+
+    public CommandParser getParser() {
+        return parser;
+    }
+
+    public String getParseErrorResponse() {
+        return parseErrorResponse;
+    }
+}
@@ -0,0 +1,44 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Reads and writes the channel directly.
+ */
+public class PlainTransport implements Transport {
+    private final SocketChannel socketChannel;
+
+    public PlainTransport(SocketChannel socketChannel) {
+        this.socketChannel = socketChannel;
+    }
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+        return socketChannel.read(destination);
+    }
+
+    @Override
+    public void write(ByteBuffer source) throws IOException {
+        socketChannel.write(source);
+    }
+
+    @Override
+    public boolean flush() {
+        return true;
+    }
+
+    @Override
+    public boolean hasBufferedInput() {
+        return false;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public void releaseBuffers() {
+    }
+}
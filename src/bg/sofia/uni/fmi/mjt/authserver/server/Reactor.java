@@ -0,0 +1,420 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandExecutor;
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandResult;
+import bg.sofia.uni.fmi.mjt.authserver.commands.ResultCode;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.config.ServerConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.config.SslContexts;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandTooLongException;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.StandardSocketOptions;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A selector loop which reads commands from its connections, hands them to the worker pool
+ * and writes back the responses. It can also accept connections itself when the server runs
+ * with a single selector.
+ */
+public class Reactor implements Runnable {
+    private static final long IDLE_SWEEP_INTERVAL_MILLIS = 1000;
+
+    private final CommandExecutor commandExecutor;
+    private final ExecutorService workerPool;
+    private final Selector selector;
+    private final BufferPool bufferPool;
+    private final Queue<SocketChannel> pendingRegistrations;
+    private final Queue<CompletedCommand> completedCommands;
+    private final AtomicInteger connectionCount;
+    private final ConnectionLimiter connectionLimiter;
+    private final int maxPendingCommands;
+    private final IdleConnectionTracker idleConnectionTracker;
+    private final SSLContext sslContext;
+    private long lastIdleSweep;
+    private volatile boolean shouldListen;
+
+    public Reactor(CommandExecutor commandExecutor, ExecutorService workerPool,
+                   ServerConfiguration configuration, ConnectionLimiter connectionLimiter) throws IOException {
+        this.commandExecutor = commandExecutor;
+        this.workerPool = workerPool;
+        this.selector = Selector.open();
+        this.bufferPool = new BufferPool();
+        this.pendingRegistrations = new ConcurrentLinkedQueue<>();
+        this.completedCommands = new ConcurrentLinkedQueue<>();
+        this.connectionCount = new AtomicInteger();
+        this.connectionLimiter = connectionLimiter;
+        this.maxPendingCommands = configuration.getMaxPendingCommandsPerConnection();
+        this.idleConnectionTracker = configuration.getIdleTimeoutSeconds() > 0
+                ? new IdleConnectionTracker(TimeUnit.SECONDS.toNanos(configuration.getIdleTimeoutSeconds()))
+                : null;
+        this.sslContext = configuration.getSslContext();
+        this.shouldListen = true;
+    }
+
+    /**
+     * Makes the reactor accept connections from the given server channel by itself.
+     * Must be called before the reactor is started.
+     */
+    public void acceptFrom(ServerSocketChannel serverSocketChannel) throws IOException {
+        serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Hands an accepted connection over to the reactor. Safe to call from any thread.
+     * The connection must already have its place reserved in the connection limiter.
+     */
+    public void register(SocketChannel socketChannel) {
+        connectionCount.incrementAndGet();
+        pendingRegistrations.add(socketChannel);
+        selector.wakeup();
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (shouldListen) {
+                // with idle eviction enabled the loop has to wake up now and then even without traffic
+                selector.select(idleConnectionTracker != null ? IDLE_SWEEP_INTERVAL_MILLIS : 0);
+
+                registerPendingConnections();
+                // responses are handed back by the workers, who wake the selector up
+                processCompletedCommands();
+                evictIdleConnections();
+
+                Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+
+                while (keyIterator.hasNext()) {
+                    SelectionKey key = keyIterator.next();
+                    keyIterator.remove();
+
+                    if (!key.isValid()) {
+                        continue;
+                    }
+
+                    if (key.isWritable()) {
+                        writeResponses(key);
+                    }
+
+                    if (key.isValid() && key.isReadable()) {
+                        readCommands(key);
+                    } else if (key.isValid() && key.isAcceptable()) {
+                        ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
+
+                        SocketChannel accept = serverSocketChannel.accept();
+                        if (accept == null) {
+                            continue;
+                        }
+
+                        if (!connectionLimiter.tryAcquire()) {
+                            rejectConnection(accept);
+                            continue;
+                        }
+
+                        connectionCount.incrementAndGet();
+                        accept.configureBlocking(false);
+                        registerConnection(accept);
+                    }
+                }
+            }
+        } catch (IOException exception) {
+            System.out.println("There was a problem with the reactor's selector");
+            exception.printStackTrace();
+        } finally {
+            closeConnections();
+        }
+    }
+
+    public void stop() {
+        shouldListen = false;
+        selector.wakeup();
+    }
+
+    private void registerPendingConnections() {
+        SocketChannel socketChannel;
+
+        while ((socketChannel = pendingRegistrations.poll()) != null) {
+            try {
+                socketChannel.configureBlocking(false);
+                registerConnection(socketChannel);
+            } catch (IOException exception) {
+                System.out.println("Could not register client:");
+                System.out.println(exception.getMessage());
+                close(socketChannel);
+            }
+        }
+    }
+
+    private void registerConnection(SocketChannel socketChannel) throws IOException {
+        SelectionKey key = socketChannel.register(selector, SelectionKey.OP_READ);
+        Transport transport;
+        // local clients are kept out by the socket file's permissions, TLS would only slow them down
+        if (sslContext != null && !(socketChannel.getLocalAddress() instanceof UnixDomainSocketAddress)) {
+            // session tickets and responses go out as separate small records, which Nagle's algorithm would delay
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            transport = new TlsTransport(socketChannel, SslContexts.createServerEngine(sslContext), bufferPool);
+        } else {
+            transport = new PlainTransport(socketChannel);
+        }
+        Connection connection = new Connection(socketChannel, key, bufferPool, transport);
+        key.attach(connection);
+
+        recordActivity(connection);
+    }
+
+    /**
+     * Tells a client over the connection limit to come back later and closes its connection.
+     * The message is written on a best-effort basis, without ever blocking.
+     */
+    static void rejectConnection(SocketChannel socketChannel) {
+        try (socketChannel) {
+            socketChannel.configureBlocking(false);
+            socketChannel.write(ByteBuffer.wrap((getTooManyConnectionsResponse() + System.lineSeparator())
+                    .getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException exception) {
+            System.out.println("Could not reject client:");
+            System.out.println(exception.getMessage());
+        }
+    }
+
+    private void readCommands(SelectionKey key) {
+        Connection connection = (Connection) key.attachment();
+
+        int r;
+        try {
+            r = connection.read();
+        } catch (CommandTooLongException exception) {
+            connection.enqueueResponse(exception.getMessage());
+            writeResponses(connection);
+            close(connection);
+            return;
+        } catch (IOException exception) {
+            System.out.println("Could not read from client:");
+            System.out.println(exception.getMessage());
+            close(connection);
+            return;
+        }
+
+        if (r < 0) {
+            close(connection);
+            return;
+        }
+
+        recordActivity(connection);
+        submitNextCommand(connection);
+        // also pauses reading if the client has sent too many commands ahead
+        writeResponses(connection);
+    }
+
+    private void submitNextCommand(Connection connection) {
+        if (connection.isCommandInFlight()) {
+            return;
+        }
+
+        PendingCommand command = connection.nextCommand();
+
+        // commands which failed to parse are answered right away, there is nothing to execute
+        while (command != null && !command.isParsed()) {
+            connection.enqueueResponse(command.getParseErrorResponse());
+            command = connection.nextCommand();
+        }
+
+        if (command == null) {
+            return;
+        }
+
+        CommandParser parser = command.getParser();
+        SocketChannel socketChannel = connection.getSocketChannel();
+        connection.setCommandInFlight(true);
+
+        try {
+            workerPool.execute(() -> {
+                CommandResult result;
+                try {
+                    result = commandExecutor.executeCommandForResult(parser, socketChannel);
+                } catch (RuntimeException exception) {
+                    System.out.println("There was an error while executing command:");
+                    System.out.println(exception.getMessage());
+                    result = new CommandResult(ResultCode.INTERNAL_ERROR, getCommandFailedResponse());
+                }
+
+                completedCommands.add(new CompletedCommand(connection, result));
+                selector.wakeup();
+            });
+        } catch (RejectedExecutionException exception) {
+            completedCommands.add(new CompletedCommand(connection,
+                    new CommandResult(ResultCode.SERVER_BUSY, getServerBusyResponse())));
+            selector.wakeup();
+        }
+    }
+
+    private void processCompletedCommands() {
+        CompletedCommand completedCommand;
+
+        while ((completedCommand = completedCommands.poll()) != null) {
+            Connection connection = completedCommand.getConnection();
+
+            if (!connection.getKey().isValid()) {
+                continue;
+            }
+
+            connection.setCommandInFlight(false);
+            connection.enqueueResponse(completedCommand.getResult());
+            recordActivity(connection);
+
+            submitNextCommand(connection);
+            // try writing right away, OP_WRITE is only needed if the socket buffer is full
+            writeResponses(connection);
+        }
+    }
+
+    private void recordActivity(Connection connection) {
+        if (idleConnectionTracker != null) {
+            idleConnectionTracker.recordActivity(connection, System.nanoTime());
+        }
+    }
+
+    private void evictIdleConnections() {
+        if (idleConnectionTracker == null) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (now - lastIdleSweep < TimeUnit.MILLISECONDS.toNanos(IDLE_SWEEP_INTERVAL_MILLIS)) {
+            return;
+        }
+        lastIdleSweep = now;
+
+        for (Connection connection : idleConnectionTracker.removeIdleConnections(now)) {
+            close(connection);
+        }
+    }
+
+    private void writeResponses(SelectionKey key) {
+        writeResponses((Connection) key.attachment());
+    }
+
+    private void writeResponses(Connection connection) {
+        SelectionKey key = connection.getKey();
+
+        boolean allWritten;
+        try {
+            allWritten = connection.flush();
+        } catch (IOException exception) {
+            System.out.println("Could not write to client:");
+            System.out.println(exception.getMessage());
+            close(connection);
+            return;
+        }
+
+        if (!key.isValid()) {
+            return;
+        }
+
+        int interestOps = allWritten ? 0 : SelectionKey.OP_WRITE;
+        // backpressure: stop reading from clients who send commands faster than they are answered
+        if (connection.getPendingCommandCount() < maxPendingCommands) {
+            interestOps |= SelectionKey.OP_READ;
+        }
+
+        key.interestOps(interestOps);
+
+        // TLS may have received more than it has handed over, and the channel will not signal it again
+        if (allWritten && (interestOps & SelectionKey.OP_READ) != 0 && connection.hasBufferedInput()) {
+            readCommands(key);
+        }
+    }
+
+    private void close(Connection connection) {
+        if (connection.getSocketChannel().isOpen()) {
+            connection.shutdown();
+        }
+        close(connection.getSocketChannel());
+        connection.releaseBuffers();
+
+        if (idleConnectionTracker != null) {
+            idleConnectionTracker.remove(connection);
+        }
+    }
+
+    private void close(SocketChannel socketChannel) {
+        if (!socketChannel.isOpen()) {
+            return;
+        }
+
+        connectionCount.decrementAndGet();
+        connectionLimiter.release();
+
+        try {
+            socketChannel.close();
+        } catch (IOException exception) {
+            System.out.println("Could not close client connection:");
+            System.out.println(exception.getMessage());
+        }
+    }
+
+    private void closeConnections() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                close((Connection) key.attachment());
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException exception) {
+            System.out.println("Could not close selector:");
+            System.out.println(exception.getMessage());
+        }
+    }
+
+    private static String getTooManyConnectionsResponse() {
+        return "Server has too many connections, try again later";
+    }
+
+    private static String getServerBusyResponse() {
+        return "Server is busy, try again later";
+    }
+
+    private static String getCommandFailedResponse() {
+        return "There was an error while executing the command";
+    }
+
+    private static class CompletedCommand {
+        private final Connection connection;
+        private final CommandResult result;
+
+        CompletedCommand(Connection connection, CommandResult result) {
+            this.connection = connection;
+            this.result = result;
+        }
+
+        Connection getConnection() {
+            return connection;
+        }
+
+        CommandResult getResult() {
+            return result;
+        }
+    }
+}
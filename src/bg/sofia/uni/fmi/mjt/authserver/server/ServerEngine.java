@@ -0,0 +1,21 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.io.IOException;
+
+/**
+ * The network front of the server: accepts client connections
+ * and runs the commands they send through the command executor.
+ */
+public interface ServerEngine {
+    /**
+     * Binds the listening socket and serves clients until the engine is stopped.
+     * Blocks the calling thread.
+     * @throws IOException if the listening socket could not be set up
+     */
+    void start() throws IOException;
+
+    /**
+     * Stops accepting clients and closes the open connections.
+     */
+    void stop();
+}
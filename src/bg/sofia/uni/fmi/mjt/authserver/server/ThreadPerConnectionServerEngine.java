@@ -0,0 +1,239 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandExecutor;
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandResult;
+import bg.sofia.uni.fmi.mjt.authserver.commands.ResultCode;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.config.ServerConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.config.SslContexts;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandParseException;
+import bg.sofia.uni.fmi.mjt.authserver.protocol.BinaryProtocol;
+
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves every client on its own thread with plain blocking reads and writes.
+ * The commands themselves block on file I/O and password hashing anyway, so this engine
+ * has no hand-offs between threads. Connections run on virtual threads when the runtime
+ * supports them (Java 21 onwards) and on a cached pool of platform threads otherwise.
+ * With TLS enabled every connection is wrapped in an {@link SSLSocket}.
+ */
+public class ThreadPerConnectionServerEngine implements ServerEngine {
+    private final ServerConfiguration configuration;
+    private final CommandExecutor commandExecutor;
+    private final ExecutorService connectionExecutor;
+    private final Set<SocketChannel> openConnections;
+    private final ConnectionLimiter connectionLimiter;
+    private ServerSocketChannel serverSocketChannel;
+    private volatile boolean shouldListen;
+
+    public ThreadPerConnectionServerEngine(ServerConfiguration configuration, CommandExecutor commandExecutor) {
+        this.configuration = configuration;
+        this.commandExecutor = commandExecutor;
+        this.connectionExecutor = newConnectionExecutor();
+        this.openConnections = ConcurrentHashMap.newKeySet();
+        this.connectionLimiter = new ConnectionLimiter(configuration.getMaxConnections());
+
+        if (configuration.isTlsEnabled()) {
+            SslContexts.configureServerSessions(configuration);
+        }
+
+        // the blocking sockets of this engine rely on TCP socket options, such as the read timeout
+        if (configuration.getUnixSocketPath() != null) {
+            System.out.println("The thread-per-connection engine only serves TCP clients, "
+                    + "the Unix domain socket is ignored");
+        }
+    }
+
+    @Override
+    public void start() throws IOException {
+        try (ServerSocketChannel serverSocketChannel = ServerSocketChannel.open()) {
+            this.serverSocketChannel = serverSocketChannel;
+            serverSocketChannel.bind(new InetSocketAddress(configuration.getHost(), configuration.getPort()));
+
+            shouldListen = true;
+
+            while (shouldListen) {
+                SocketChannel socketChannel;
+                try {
+                    socketChannel = serverSocketChannel.accept();
+                } catch (AsynchronousCloseException exception) {
+                    // the engine was stopped
+                    break;
+                }
+
+                if (!connectionLimiter.tryAcquire()) {
+                    Reactor.rejectConnection(socketChannel);
+                    continue;
+                }
+
+                openConnections.add(socketChannel);
+                connectionExecutor.execute(() -> serve(socketChannel));
+            }
+        } finally {
+            connectionExecutor.shutdown();
+            openConnections.forEach(this::close);
+        }
+    }
+
+    @Override
+    public void stop() {
+        shouldListen = false;
+
+        if (serverSocketChannel != null) {
+            try {
+                serverSocketChannel.close();
+            } catch (IOException exception) {
+                System.out.println("Could not close server socket:");
+                System.out.println(exception.getMessage());
+            }
+        }
+    }
+
+    private void serve(SocketChannel socketChannel) {
+        // unlike a channel input stream, the socket's own stream honours the read timeout
+        try (Socket socket = openSocket(socketChannel);
+             var input = new BufferedInputStream(socket.getInputStream())) {
+            socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(configuration.getIdleTimeoutSeconds()));
+            OutputStream output = socket.getOutputStream();
+
+            input.mark(1);
+            int firstByte = input.read();
+
+            if (firstByte == Byte.toUnsignedInt(BinaryProtocol.MAGIC)) {
+                serveFrames(new DataInputStream(input), output, socketChannel);
+            } else if (firstByte != -1) {
+                input.reset();
+                serveLines(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)), output,
+                        socketChannel);
+            }
+        } catch (SocketTimeoutException exception) {
+            // the client has been idle for too long
+        } catch (IOException exception) {
+            if (shouldListen) {
+                System.out.println("There was a problem with the client connection:");
+                System.out.println(exception.getMessage());
+            }
+        } finally {
+            close(socketChannel);
+        }
+    }
+
+    private Socket openSocket(SocketChannel socketChannel) throws IOException {
+        Socket socket = socketChannel.socket();
+
+        if (!configuration.isTlsEnabled()) {
+            return socket;
+        }
+
+        SSLSocket sslSocket = (SSLSocket) configuration.getSslContext().getSocketFactory()
+                .createSocket(socket, null, socket.getPort(), true);
+        sslSocket.setUseClientMode(false);
+        sslSocket.setEnabledProtocols(SslContexts.getProtocols());
+        // session tickets and responses go out as separate small records, which Nagle's algorithm would delay
+        sslSocket.setTcpNoDelay(true);
+
+        return sslSocket;
+    }
+
+    private void serveLines(BufferedReader reader, OutputStream output, SocketChannel socketChannel)
+            throws IOException {
+        String command;
+
+        while ((command = reader.readLine()) != null) {
+            String response;
+            try {
+                response = commandExecutor.executeCommand(command, socketChannel);
+            } catch (RuntimeException exception) {
+                System.out.println("There was an error while executing command:");
+                System.out.println(exception.getMessage());
+                response = getCommandFailedResponse();
+            }
+
+            output.write((response + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private void serveFrames(DataInputStream input, OutputStream output, SocketChannel socketChannel)
+            throws IOException {
+        while (true) {
+            int frameLength;
+            try {
+                frameLength = input.readInt();
+            } catch (EOFException exception) {
+                return;
+            }
+
+            if (frameLength < 0 || frameLength > BinaryProtocol.MAX_FRAME_LENGTH) {
+                output.write(BinaryProtocol.encodeResponse(new CommandResult(ResultCode.BAD_REQUEST,
+                        "Frame length must be between 0 and " + BinaryProtocol.MAX_FRAME_LENGTH + " bytes")));
+                return;
+            }
+
+            byte[] frame = new byte[frameLength];
+            input.readFully(frame);
+
+            CommandResult result;
+            try {
+                CommandParser parser = BinaryProtocol.decodeRequest(ByteBuffer.wrap(frame));
+                result = commandExecutor.executeCommandForResult(parser, socketChannel);
+            } catch (CommandParseException exception) {
+                result = new CommandResult(ResultCode.BAD_REQUEST, exception.getMessage());
+            } catch (RuntimeException exception) {
+                System.out.println("There was an error while executing command:");
+                System.out.println(exception.getMessage());
+                result = new CommandResult(ResultCode.INTERNAL_ERROR, getCommandFailedResponse());
+            }
+
+            output.write(BinaryProtocol.encodeResponse(result));
+        }
+    }
+
+    private void close(SocketChannel socketChannel) {
+        if (openConnections.remove(socketChannel)) {
+            connectionLimiter.release();
+        }
+
+        try {
+            socketChannel.close();
+        } catch (IOException exception) {
+            System.out.println("Could not close client connection:");
+            System.out.println(exception.getMessage());
+        }
+    }
+
+    private static ExecutorService newConnectionExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException exception) {
+            // virtual threads are missing, or still a preview feature, before Java 21
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private static String getCommandFailedResponse() {
+        return "There was an error while executing the command";
+    }
+}
@@ -0,0 +1,255 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Terminates TLS on the selector loop with an {@link SSLEngine}.
+ * Handshake messages are exchanged as the channel becomes readable and writable, next to the application data,
+ * and the engine's delegated tasks run right away on the calling thread.
+ * Network and application buffers are borrowed from the pool only while they hold data,
+ * so idle connections do not keep three TLS record-sized buffers each.
+ */
+public class TlsTransport implements Transport {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final SocketChannel socketChannel;
+    private final SSLEngine engine;
+    private final BufferPool bufferPool;
+    // received records not yet unwrapped, in write mode
+    private ByteBuffer netIn;
+    // unwrapped application data not yet read, in write mode
+    private ByteBuffer appIn;
+    // wrapped records not yet sent, in read mode
+    private ByteBuffer netOut;
+    private boolean needsMoreInput;
+    private boolean inboundClosed;
+
+    public TlsTransport(SocketChannel socketChannel, SSLEngine engine, BufferPool bufferPool) {
+        this.socketChannel = socketChannel;
+        this.engine = engine;
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public int read(ByteBuffer destination) throws IOException {
+        if (netIn == null) {
+            netIn = bufferPool.acquire(engine.getSession().getPacketBufferSize());
+        }
+
+        // a full buffer holds at least one whole record, which has to be unwrapped first
+        if (netIn.hasRemaining() && !inboundClosed) {
+            int r = socketChannel.read(netIn);
+
+            if (r > 0) {
+                needsMoreInput = false;
+            } else if (r < 0) {
+                closeInbound();
+            }
+        }
+
+        process();
+        int transferred = transferTo(destination);
+        releaseEmptyInputBuffers();
+
+        if (transferred == 0 && inboundClosed && !hasBufferedInput()) {
+            return -1;
+        }
+
+        return transferred;
+    }
+
+    @Override
+    public void write(ByteBuffer source) throws IOException {
+        if (!flush()) {
+            return;
+        }
+
+        while (source.hasRemaining()) {
+            netOut = bufferPool.acquire(engine.getSession().getPacketBufferSize());
+            SSLEngineResult result = engine.wrap(source, netOut);
+            netOut.flip();
+
+            if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                throw new SSLException("The TLS connection has been closed");
+            }
+
+            if (!writeNetOut() || result.bytesConsumed() == 0) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        if (!writeNetOut()) {
+            return false;
+        }
+
+        // a handshake may have been waiting for the channel to accept its messages
+        process();
+        return netOut == null;
+    }
+
+    @Override
+    public boolean hasBufferedInput() {
+        return (appIn != null && appIn.position() > 0)
+                || (netIn != null && netIn.position() > 0 && !needsMoreInput && !inboundClosed);
+    }
+
+    @Override
+    public void shutdown() {
+        engine.closeOutbound();
+
+        try {
+            if (writeNetOut()) {
+                netOut = bufferPool.acquire(engine.getSession().getPacketBufferSize());
+                engine.wrap(EMPTY, netOut);
+                netOut.flip();
+                writeNetOut();
+            }
+        } catch (IOException exception) {
+            // the connection is being closed anyway
+        }
+    }
+
+    @Override
+    public void releaseBuffers() {
+        bufferPool.release(netIn);
+        bufferPool.release(appIn);
+        bufferPool.release(netOut);
+        netIn = null;
+        appIn = null;
+        netOut = null;
+    }
+
+    /**
+     * Drives the handshake and unwraps received records for as long as neither the channel
+     * nor the buffers hold it back.
+     */
+    private void process() throws IOException {
+        boolean progress = true;
+
+        while (progress) {
+            switch (engine.getHandshakeStatus()) {
+                case NEED_TASK -> {
+                    Runnable task;
+                    while ((task = engine.getDelegatedTask()) != null) {
+                        task.run();
+                    }
+                }
+                case NEED_WRAP -> progress = wrapHandshake();
+                default -> progress = unwrap();
+            }
+        }
+    }
+
+    private boolean wrapHandshake() throws IOException {
+        if (!writeNetOut()) {
+            return false;
+        }
+
+        netOut = bufferPool.acquire(engine.getSession().getPacketBufferSize());
+        SSLEngineResult result = engine.wrap(EMPTY, netOut);
+        netOut.flip();
+
+        return writeNetOut() && result.getStatus() != SSLEngineResult.Status.CLOSED;
+    }
+
+    private boolean unwrap() throws SSLException {
+        if (netIn == null || netIn.position() == 0 || inboundClosed) {
+            return false;
+        }
+
+        if (appIn == null) {
+            appIn = bufferPool.acquire(engine.getSession().getApplicationBufferSize());
+        }
+
+        netIn.flip();
+        SSLEngineResult result;
+        try {
+            result = engine.unwrap(netIn, appIn);
+        } finally {
+            netIn.compact();
+        }
+
+        switch (result.getStatus()) {
+            case BUFFER_UNDERFLOW -> {
+                needsMoreInput = true;
+                return false;
+            }
+            case BUFFER_OVERFLOW -> {
+                // the application data has to be read first
+                return false;
+            }
+            case CLOSED -> {
+                // the client has sent close_notify
+                inboundClosed = true;
+                return false;
+            }
+            default -> {
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+            }
+        }
+    }
+
+    private int transferTo(ByteBuffer destination) {
+        if (appIn == null || appIn.position() == 0) {
+            return 0;
+        }
+
+        appIn.flip();
+        int count = Math.min(appIn.remaining(), destination.remaining());
+        destination.put(appIn.slice().limit(count));
+        appIn.position(appIn.position() + count);
+        appIn.compact();
+
+        return count;
+    }
+
+    /**
+     * Sends the wrapped records which are waiting, and gives their buffer back once it is empty.
+     * @return whether nothing is left waiting to be sent
+     */
+    private boolean writeNetOut() throws IOException {
+        if (netOut == null) {
+            return true;
+        }
+
+        socketChannel.write(netOut);
+
+        if (netOut.hasRemaining()) {
+            return false;
+        }
+
+        bufferPool.release(netOut);
+        netOut = null;
+        return true;
+    }
+
+    private void releaseEmptyInputBuffers() {
+        if (netIn != null && netIn.position() == 0) {
+            bufferPool.release(netIn);
+            netIn = null;
+        }
+
+        if (appIn != null && appIn.position() == 0) {
+            bufferPool.release(appIn);
+            appIn = null;
+        }
+    }
+
+    private void closeInbound() {
+        inboundClosed = true;
+
+        try {
+            engine.closeInbound();
+        } catch (SSLException exception) {
+            // the client closed the connection without close_notify, which makes no difference here
+        }
+    }
+}
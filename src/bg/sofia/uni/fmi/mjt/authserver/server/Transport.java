@@ -0,0 +1,43 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Moves a connection's bytes over its channel, either as they are or through a security layer.
+ * None of the operations block.
+ */
+public interface Transport {
+    /**
+     * Reads whatever data is available into the buffer.
+     * @return the number of bytes put into the buffer, or {@code -1} if the client has closed the connection
+     */
+    int read(ByteBuffer destination) throws IOException;
+
+    /**
+     * Sends as much of the buffer as the channel accepts, leaving the rest in it.
+     */
+    void write(ByteBuffer source) throws IOException;
+
+    /**
+     * Sends data the transport has buffered on its own, such as handshake messages.
+     * @return whether nothing is left waiting to be sent
+     */
+    boolean flush() throws IOException;
+
+    /**
+     * @return whether data has been received which {@link #read} would return without the channel
+     * becoming readable again
+     */
+    boolean hasBufferedInput();
+
+    /**
+     * Tells the client the connection is about to be closed, on a best-effort basis.
+     */
+    void shutdown();
+
+    /**
+     * Gives all pooled buffers back. Must be called once the connection is closed.
+     */
+    void releaseBuffers();
+}
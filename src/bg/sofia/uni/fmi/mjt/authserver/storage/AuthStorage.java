@@ -1,8 +1,15 @@
 package bg.sofia.uni.fmi.mjt.authserver.storage;
 
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.user.Email;
 import bg.sofia.uni.fmi.mjt.authserver.user.User;
 
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
 /**
  * <p>
  *     The storage solution for the authentication server
@@ -12,7 +19,9 @@ public interface AuthStorage {
     /**
      * Adds a user to the storage.
      * @param user the user to be added
-     * @throws UserAlreadyExistsException if a user with the same username already existed
+     * @throws UserAlreadyExistsException if a user with the same username already existed,
+     *         or an {@link bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException}
+     *         if one with the same email did, for storages which keep an index of the emails
      */
     void addUser(User user) throws UserAlreadyExistsException;
 
@@ -23,6 +32,40 @@ public interface AuthStorage {
      */
     User getUserByUsername(String username);
 
+    /**
+     * Answers whether a user with the given username might be in the storage, without reading it.
+     * @return {@code false} only if there is certainly no such user, which storages that do not know
+     *         their usernames up front never answer
+     */
+    default boolean mightContainUsername(String username) {
+        return true;
+    }
+
+    /**
+     * Retrieves a user from the storage by their email, which no two users share.
+     * Storages which keep an index of the emails should look the user up in it instead of reading every user.
+     * @param email the email of the queried user, in any case
+     * @return the found user or {@code null} if they were not found
+     */
+    default User getUserByEmail(String email) {
+        String normalizedEmail = Email.normalize(email);
+        User[] foundUser = {null};
+
+        forEachUser(user -> {
+            if (user.getEmail().getNormalizedValue().equals(normalizedEmail)) {
+                foundUser[0] = user;
+            }
+        });
+
+        return foundUser[0];
+    }
+
+    /**
+     * Performs the given action for every user in the storage, in no particular order.
+     * @param action the action, which receives users it may change without affecting the storage
+     */
+    void forEachUser(Consumer<User> action);
+
     /**
      * Looks for a user in the storage and removes them if found.
      * @param username the username of the user to be removed
@@ -32,6 +75,9 @@ public interface AuthStorage {
     /**
      * Looks for a user in the storage and replaces them if found
      * @param username the username of the user to be replaced
+     * @throws IllegalArgumentException if the user would take the username or the email of another user,
+     *                                  caused by a {@link UserAlreadyExistsException}
+     *                                  or an {@link EmailAlreadyExistsException}
      */
     void replaceUserByUsername(String username, User newUser);
 
@@ -41,4 +87,57 @@ public interface AuthStorage {
      * @return the number of users who are admins
      */
     long getAdminCount();
+
+    /**
+     * Counts the users by the properties admins are interested in. Storages which can afford to
+     * keep the counts up to date as users change should do so instead of counting every user.
+     * @return counts which do not change along with the storage
+     */
+    default UserStatistics getUserStatistics() {
+        UserStatistics statistics = new UserStatistics();
+        forEachUser(statistics::add);
+        return statistics;
+    }
+
+    /**
+     * Retrieves several users at once, which storages may do in a single read.
+     * @param usernames the usernames of the queried users
+     * @return the found users by their usernames, users who were not found are left out
+     */
+    default Map<String, User> getUsersByUsernames(Collection<String> usernames) {
+        Map<String, User> users = new HashMap<>();
+
+        for (String username : usernames) {
+            User user = getUserByUsername(username);
+            if (user != null) {
+                users.put(username, user);
+            }
+        }
+
+        return users;
+    }
+
+    /**
+     * Applies several changes at once, which storages may do in a single write.
+     * Existing users are replaced, missing ones are added.
+     * @param changes the new versions of the users by their usernames, {@code null} for users to be removed
+     */
+    default void applyChanges(Map<String, User> changes) {
+        for (Map.Entry<String, User> change : changes.entrySet()) {
+            String username = change.getKey();
+            User user = change.getValue();
+
+            if (user == null) {
+                removeUserByUsername(username);
+            } else if (getUserByUsername(username) != null) {
+                replaceUserByUsername(username, user);
+            } else {
+                try {
+                    addUser(user);
+                } catch (UserAlreadyExistsException exception) {
+                    throw new RuntimeException("User was added while changes were being applied", exception);
+                }
+            }
+        }
+    }
 }
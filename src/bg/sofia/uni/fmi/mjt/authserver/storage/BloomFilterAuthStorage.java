@@ -0,0 +1,192 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.StripedLock;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps a {@link CountingBloomFilter} of every username in front of a storage, so that looking up
+ * a username which does not exist, e.g. a typo or a guess, is answered without reading the storage.
+ * <p>
+ *     The filter is filled from the storage when it is created and kept up to date as users are added,
+ *     removed and renamed through this storage, so changes must not bypass it.
+ *     A username is added to the filter before it can be found in the storage, and forgotten only once it
+ *     can no longer be found. Removals and renames lock the usernames they involve, since the filter must only
+ *     forget a username which was actually in the storage, while additions and changes which keep the username
+ *     do not wait for anything.
+ * </p>
+ */
+public class BloomFilterAuthStorage implements AuthStorage, Closeable {
+    private static final int USER_LOCK_STRIPE_COUNT = 64;
+
+    private final AuthStorage storage;
+    private final CountingBloomFilter usernames;
+    private final StripedLock userLocks;
+    private final AtomicLong skippedLookupCount;
+
+    public BloomFilterAuthStorage(AuthStorage storage, int expectedUserCount, double falsePositiveRate) {
+        this.storage = storage;
+        this.usernames = new CountingBloomFilter(expectedUserCount, falsePositiveRate);
+        this.userLocks = new StripedLock(USER_LOCK_STRIPE_COUNT);
+        this.skippedLookupCount = new AtomicLong();
+
+        storage.forEachUser(user -> usernames.add(user.getUsername()));
+    }
+
+    @Override
+    public void addUser(User user) throws UserAlreadyExistsException {
+        usernames.add(user.getUsername());
+
+        boolean added = false;
+        try {
+            storage.addUser(user);
+            added = true;
+        } finally {
+            if (!added) {
+                usernames.remove(user.getUsername());
+            }
+        }
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        if (!mightContainUsername(username)) {
+            skippedLookupCount.incrementAndGet();
+            return null;
+        }
+
+        return storage.getUserByUsername(username);
+    }
+
+    @Override
+    public boolean mightContainUsername(String username) {
+        return usernames.mightContain(username) && storage.mightContainUsername(username);
+    }
+
+    @Override
+    public User getUserByEmail(String email) {
+        return storage.getUserByEmail(email);
+    }
+
+    @Override
+    public Map<String, User> getUsersByUsernames(Collection<String> usernames) {
+        List<String> existingUsernames = usernames.stream()
+                .filter(this::mightContainUsername)
+                .collect(Collectors.toList());
+
+        return existingUsernames.isEmpty() ? Map.of() : storage.getUsersByUsernames(existingUsernames);
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        storage.forEachUser(action);
+    }
+
+    @Override
+    public void removeUserByUsername(String username) {
+        StripedLock.Locked locked = userLocks.lock(username);
+        try {
+            if (storage.getUserByUsername(username) == null) {
+                return;
+            }
+
+            storage.removeUserByUsername(username);
+            usernames.remove(username);
+        } finally {
+            locked.unlock();
+        }
+    }
+
+    @Override
+    public void replaceUserByUsername(String username, User newUser) {
+        // the filter only changes when the user is renamed
+        if (username.equals(newUser.getUsername())) {
+            storage.replaceUserByUsername(username, newUser);
+            return;
+        }
+
+        StripedLock.Locked locked = userLocks.lock(username, newUser.getUsername());
+        try {
+            if (storage.getUserByUsername(username) == null) {
+                return;
+            }
+
+            usernames.add(newUser.getUsername());
+            boolean replaced = false;
+            try {
+                storage.replaceUserByUsername(username, newUser);
+                replaced = true;
+            } finally {
+                usernames.remove(replaced ? username : newUser.getUsername());
+            }
+        } finally {
+            locked.unlock();
+        }
+    }
+
+    @Override
+    public void applyChanges(Map<String, User> changes) {
+        List<String> newUsernames = changes.values().stream()
+                .filter(Objects::nonNull)
+                .map(User::getUsername)
+                .collect(Collectors.toList());
+        List<String> lockedUsernames = new ArrayList<>(changes.keySet());
+        lockedUsernames.addAll(newUsernames);
+
+        StripedLock.Locked locked = userLocks.lock(lockedUsernames);
+        try {
+            Map<String, User> previousUsers = storage.getUsersByUsernames(changes.keySet());
+
+            // users who were not in the storage are added by the changes
+            newUsernames.forEach(usernames::add);
+            boolean applied = false;
+            try {
+                storage.applyChanges(changes);
+                applied = true;
+            } finally {
+                if (applied) {
+                    previousUsers.keySet().forEach(usernames::remove);
+                } else {
+                    newUsernames.forEach(usernames::remove);
+                }
+            }
+        } finally {
+            locked.unlock();
+        }
+    }
+
+    @Override
+    public long getAdminCount() {
+        return storage.getAdminCount();
+    }
+
+    @Override
+    public UserStatistics getUserStatistics() {
+        return storage.getUserStatistics();
+    }
+
+    /**
+     * @return how many lookups were answered by the filter alone
+     */
+    public long getSkippedLookupCount() {
+        return skippedLookupCount.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (storage instanceof Closeable) {
+            ((Closeable) storage).close();
+        }
+    }
+}
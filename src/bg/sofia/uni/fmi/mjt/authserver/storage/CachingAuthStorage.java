@@ -0,0 +1,187 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * Caches the users most often looked up by username in front of any storage, in a {@link SegmentedLruCache},
+ * including the usernames which were not found, so that repeated lookups of the same few users
+ * do not read the storage at all.
+ * <p>
+ *     Every change made through this storage drops the users it involves from the cache once it is written,
+ *     so changes must not bypass it. A lookup which started before a change is not cached when it finishes,
+ *     since it may have read the user from before the change.
+ * </p>
+ */
+public class CachingAuthStorage implements AuthStorage, Closeable {
+    private final AuthStorage storage;
+    private final SegmentedLruCache<String, Optional<User>> users;
+    private final Object invalidationLock;
+    private long invalidationCount;
+
+    public CachingAuthStorage(AuthStorage storage, int capacity) {
+        this.storage = storage;
+        this.users = new SegmentedLruCache<>(capacity);
+        this.invalidationLock = new Object();
+    }
+
+    @Override
+    public void addUser(User user) throws UserAlreadyExistsException {
+        try {
+            storage.addUser(user);
+        } finally {
+            // the username may have been cached as missing
+            invalidate(List.of(user.getUsername()));
+        }
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        Optional<User> cachedUser = users.get(username);
+        if (cachedUser != null) {
+            return cachedUser.map(User::new).orElse(null);
+        }
+
+        long invalidationCountBefore = getInvalidationCount();
+        User user = storage.getUserByUsername(username);
+        cache(username, user, invalidationCountBefore);
+
+        return user;
+    }
+
+    @Override
+    public Map<String, User> getUsersByUsernames(Collection<String> usernames) {
+        Map<String, User> foundUsers = new HashMap<>();
+        List<String> uncachedUsernames = new ArrayList<>();
+
+        for (String username : usernames) {
+            Optional<User> cachedUser = users.get(username);
+
+            if (cachedUser == null) {
+                uncachedUsernames.add(username);
+            } else {
+                cachedUser.ifPresent(user -> foundUsers.put(username, new User(user)));
+            }
+        }
+
+        if (!uncachedUsernames.isEmpty()) {
+            long invalidationCountBefore = getInvalidationCount();
+            Map<String, User> readUsers = storage.getUsersByUsernames(uncachedUsernames);
+
+            for (String username : uncachedUsernames) {
+                cache(username, readUsers.get(username), invalidationCountBefore);
+            }
+            foundUsers.putAll(readUsers);
+        }
+
+        return foundUsers;
+    }
+
+    @Override
+    public boolean mightContainUsername(String username) {
+        return storage.mightContainUsername(username);
+    }
+
+    @Override
+    public User getUserByEmail(String email) {
+        return storage.getUserByEmail(email);
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        storage.forEachUser(action);
+    }
+
+    @Override
+    public void removeUserByUsername(String username) {
+        try {
+            storage.removeUserByUsername(username);
+        } finally {
+            invalidate(List.of(username));
+        }
+    }
+
+    @Override
+    public void replaceUserByUsername(String username, User newUser) {
+        try {
+            storage.replaceUserByUsername(username, newUser);
+        } finally {
+            invalidate(List.of(username, newUser.getUsername()));
+        }
+    }
+
+    @Override
+    public void applyChanges(Map<String, User> changes) {
+        List<String> changedUsernames = new ArrayList<>(changes.keySet());
+        changes.values().stream()
+                .filter(Objects::nonNull)
+                .forEach(user -> changedUsernames.add(user.getUsername()));
+
+        try {
+            storage.applyChanges(changes);
+        } finally {
+            invalidate(changedUsernames);
+        }
+    }
+
+    @Override
+    public long getAdminCount() {
+        return storage.getAdminCount();
+    }
+
+    @Override
+    public UserStatistics getUserStatistics() {
+        return storage.getUserStatistics();
+    }
+
+    /**
+     * @return the storage behind the cache
+     */
+    public AuthStorage getStorage() {
+        return storage;
+    }
+
+    public SegmentedLruCache<String, Optional<User>> getUsers() {
+        return users;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (storage instanceof Closeable) {
+            ((Closeable) storage).close();
+        }
+    }
+
+    private void cache(String username, User user, long invalidationCountBefore) {
+        synchronized (invalidationLock) {
+            if (invalidationCount == invalidationCountBefore) {
+                // the cache keeps its own copy, since the caller may modify the user without replacing it
+                users.put(username, Optional.ofNullable(user).map(User::new));
+            }
+        }
+    }
+
+    private void invalidate(Collection<String> usernames) {
+        synchronized (invalidationLock) {
+            invalidationCount++;
+            usernames.forEach(users::invalidate);
+        }
+    }
+
+    private long getInvalidationCount() {
+        synchronized (invalidationLock) {
+            return invalidationCount;
+        }
+    }
+}
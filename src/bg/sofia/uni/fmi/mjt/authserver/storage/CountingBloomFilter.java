@@ -0,0 +1,97 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A Bloom filter which keeps a counter instead of a bit in each position, so that keys can also be removed.
+ * It answers whether a key might have been added: never wrongly "no", and wrongly "yes" about as often as
+ * the false positive rate it was sized for, as long as no more keys than expected are in it.
+ */
+public class CountingBloomFilter {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final long MIX_MULTIPLIER = 0xff51afd7ed558ccdL;
+
+    private final AtomicIntegerArray counters;
+    private final int hashCount;
+
+    /**
+     * @param expectedCount how many keys are expected to be in the filter at the same time
+     * @param falsePositiveRate how often a key which is not in the filter may be reported as being in it
+     */
+    public CountingBloomFilter(int expectedCount, double falsePositiveRate) {
+        if (expectedCount <= 0) {
+            throw new IllegalArgumentException("The expected count must be positive");
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("The false positive rate must be between 0 and 1");
+        }
+
+        double ln2 = Math.log(2);
+        int size = (int) Math.min(Integer.MAX_VALUE - 8,
+                Math.ceil(-expectedCount * Math.log(falsePositiveRate) / (ln2 * ln2)));
+
+        this.counters = new AtomicIntegerArray(size);
+        this.hashCount = Math.max(1, (int) Math.round((double) size / expectedCount * ln2));
+    }
+
+    public void add(String key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashCount; i++) {
+            counters.incrementAndGet(position(hash, i));
+        }
+    }
+
+    /**
+     * Removes a key which was added before. Removing a key which is not in the filter breaks it.
+     */
+    public void remove(String key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashCount; i++) {
+            counters.decrementAndGet(position(hash, i));
+        }
+    }
+
+    public boolean mightContain(String key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashCount; i++) {
+            if (counters.get(position(hash, i)) <= 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    public int getSize() {
+        return counters.length();
+    }
+
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    // the positions are derived from the two halves of one hash, instead of computing a hash per position
+    private int position(long hash, int index) {
+        int firstHash = (int) hash;
+        int secondHash = (int) (hash >>> 32);
+
+        return Math.floorMod(firstHash + index * secondHash, counters.length());
+    }
+
+    private static long hash(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= FNV_PRIME;
+        }
+
+        // spreads the bits, so that both halves of the hash depend on every byte
+        hash ^= hash >>> 33;
+        hash *= MIX_MULTIPLIER;
+        hash ^= hash >>> 33;
+
+        return hash;
+    }
+}
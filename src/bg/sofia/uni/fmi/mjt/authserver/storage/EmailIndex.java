@@ -0,0 +1,66 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.user.Email;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps the normalized emails of the users of a storage to their usernames, kept up to date
+ * as users are added, changed and removed, so that a user can be found by email without reading every user.
+ */
+public class EmailIndex {
+    private final Map<String, String> usernamesByEmail;
+
+    public EmailIndex() {
+        this.usernamesByEmail = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return the username of the user with the given email, {@code null} if there is none
+     */
+    public String getUsername(String email) {
+        return usernamesByEmail.get(Email.normalize(email));
+    }
+
+    /**
+     * @return whether the email of the given user belongs to a user with another username
+     */
+    public boolean isTakenByAnotherUser(User user, String username) {
+        String owner = usernamesByEmail.get(user.getEmail().getNormalizedValue());
+        return owner != null && !owner.equals(username);
+    }
+
+    public void add(User user) {
+        usernamesByEmail.put(user.getEmail().getNormalizedValue(), user.getUsername());
+    }
+
+    /**
+     * Adds a user unless their email already belongs to another user, e.g. when loading users
+     * who were stored before emails had to be unique, in which case the first user keeps it.
+     * @return whether the email belongs to the given user
+     */
+    public boolean addIfFree(User user) {
+        String owner = usernamesByEmail.putIfAbsent(user.getEmail().getNormalizedValue(), user.getUsername());
+        return owner == null || owner.equals(user.getUsername());
+    }
+
+    public void remove(User user) {
+        // the email may already belong to the user who took it over in the same change
+        usernamesByEmail.remove(user.getEmail().getNormalizedValue(), user.getUsername());
+    }
+
+    /**
+     * @param previousUser the user before the change, {@code null} if they were added
+     * @param newUser the user after the change, {@code null} if they were removed
+     */
+    public void change(User previousUser, User newUser) {
+        if (previousUser != null) {
+            remove(previousUser);
+        }
+        if (newUser != null) {
+            add(newUser);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Keeps every user in memory, indexed by username, so that reads never touch the disk.
+ * The users are loaded once when the storage is created, and every change is written through
+ * to the persistence before it becomes visible in memory, so a failed write leaves both as they were.
+ * <p>
+ *     Reads do not lock, changes are made one at a time.
+ *     Waiting for a change to be committed happens outside the lock, so concurrent changes share commits.
+ * </p>
+ */
+public class InMemoryAuthStorage implements AuthStorage, Closeable {
+    private final UserPersistence persistence;
+    private final Map<String, User> users;
+    private final Object writeLock;
+    private final UserStatistics statistics;
+    private final EmailIndex emailIndex;
+
+    public InMemoryAuthStorage(UserPersistence persistence) {
+        this.persistence = persistence;
+        this.users = new ConcurrentHashMap<>();
+        this.writeLock = new Object();
+        this.statistics = new UserStatistics();
+        this.emailIndex = new EmailIndex();
+
+        persistence.loadUsers(user -> users.put(user.getUsername(), user));
+        users.values().forEach(user -> {
+            statistics.add(user);
+            if (!emailIndex.addIfFree(user)) {
+                System.out.println("The email of user " + user.getUsername() + " belongs to another user");
+            }
+        });
+    }
+
+    @Override
+    public void addUser(User user) throws UserAlreadyExistsException {
+        synchronized (writeLock) {
+            if (users.containsKey(user.getUsername())) {
+                throw new UserAlreadyExistsException("User already found in database");
+            }
+            if (emailIndex.getUsername(user.getEmail().getValue()) != null) {
+                throw new EmailAlreadyExistsException("Email already found in database");
+            }
+
+            persistence.writeAddedUser(user);
+            putUser(user.getUsername(), new User(user));
+        }
+
+        persistence.sync();
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        User user = users.get(username);
+
+        // the caller may modify the user without replacing it
+        return user != null ? new User(user) : null;
+    }
+
+    @Override
+    public User getUserByEmail(String email) {
+        String username = emailIndex.getUsername(email);
+        return username != null ? getUserByUsername(username) : null;
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        users.values().forEach(user -> action.accept(new User(user)));
+    }
+
+    @Override
+    public void removeUserByUsername(String username) {
+        synchronized (writeLock) {
+            if (!users.containsKey(username)) {
+                return;
+            }
+
+            persistence.writeRemovedUser(username);
+            putUser(username, null);
+        }
+
+        persistence.sync();
+    }
+
+    @Override
+    public void replaceUserByUsername(String username, User newUser) {
+        synchronized (writeLock) {
+            User replacedUser = users.get(username);
+            if (replacedUser == null) {
+                return;
+            }
+
+            if (!username.equals(newUser.getUsername()) && users.containsKey(newUser.getUsername())) {
+                throw new IllegalArgumentException("Cannot rename user to a taken username",
+                        new UserAlreadyExistsException("User already found in database"));
+            }
+            if (!replacedUser.getEmail().getNormalizedValue().equals(newUser.getEmail().getNormalizedValue())
+                    && emailIndex.isTakenByAnotherUser(newUser, username)) {
+                throw new IllegalArgumentException("Cannot change user to a taken email",
+                        new EmailAlreadyExistsException("Email already found in database"));
+            }
+
+            persistence.writeReplacedUser(username, newUser);
+            putUser(username, null);
+            putUser(newUser.getUsername(), new User(newUser));
+        }
+
+        persistence.sync();
+    }
+
+    @Override
+    public void applyChanges(Map<String, User> changes) {
+        synchronized (writeLock) {
+            persistence.writeChanges(changes);
+            changes.forEach((username, user) -> putUser(username, user != null ? new User(user) : null));
+        }
+
+        persistence.sync();
+    }
+
+    @Override
+    public long getAdminCount() {
+        return statistics.getCount(Authority.ADMIN);
+    }
+
+    @Override
+    public UserStatistics getUserStatistics() {
+        return new UserStatistics(statistics);
+    }
+
+    @Override
+    public void close() {
+        persistence.close();
+    }
+
+    // must be called with the write lock held
+    private void putUser(String username, User user) {
+        User previousUser = user != null ? users.put(username, user) : users.remove(username);
+        statistics.change(previousUser, user);
+        emailIndex.change(previousUser, user);
+    }
+}
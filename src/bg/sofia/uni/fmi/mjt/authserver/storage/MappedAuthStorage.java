@@ -0,0 +1,862 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.config.Durability;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.Email;
+import bg.sofia.uni.fmi.mjt.authserver.user.Password;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+import bg.sofia.uni.fmi.mjt.authserver.validation.EmailValidator;
+import bg.sofia.uni.fmi.mjt.authserver.validation.PasswordValidator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Keeps users in a memory-mapped file of fixed-size slots, which is at the same time an open-addressing
+ * hash table of the usernames, so that looking a user up or changing them touches a slot or a few neighbouring
+ * ones instead of the whole file.
+ * <p>
+ *     The file starts with a header, followed by a power of two of slots. A user goes to the slot their
+ *     username hashes to, or to the next free one after it. Removed users leave a tombstone behind,
+ *     so that the users after them can still be found. Once used slots and tombstones fill three quarters
+ *     of the table it is rebuilt into a new file, twice as large unless the tombstones alone made it full.
+ * </p>
+ * <p>
+ *     Every text field has a fixed maximum length in bytes, see {@link #SLOT_SIZE}; a user whose fields do not fit
+ *     cannot be stored. The header is marked clean only when the storage is closed, and its counters are
+ *     recounted from the slots after a crash. The {@link UserStatistics} are counted when the file is opened.
+ * </p>
+ * <p>
+ *     A user who keeps their username is changed in place, so their slot is first copied into the header,
+ *     and if a crash leaves it torn, part old and part new, it is restored from the copy when the file is opened.
+ *     Every slot keeps a checksum of its contents, which tells a torn slot apart, and a used slot whose checksum
+ *     does not match and which cannot be restored is dropped when the slots are recounted.
+ *     A renamed user is written to their new slot before their old one is removed.
+ *     The header takes a whole page, so that no slot crosses a page boundary; a file of an older version,
+ *     whose header is shorter, is rebuilt when it is opened.
+ * </p>
+ */
+public class MappedAuthStorage implements AuthStorage, Closeable {
+    private static final int MAGIC = 0x41555352;
+    private static final int VERSION = 3;
+    private static final int VERSION_WITH_SHORT_HEADER = 2;
+    private static final int VERSION_WITHOUT_CHECKSUMS = 1;
+    private static final int STATE_CLEAN = 0;
+    private static final int STATE_OPEN = 1;
+
+    private static final int HEADER_SIZE = 4096;
+    private static final int SHORT_HEADER_SIZE = 64;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_CAPACITY = 8;
+    private static final int HEADER_SIZE_COUNT = 12;
+    private static final int HEADER_TOMBSTONE_COUNT = 16;
+    private static final int HEADER_STATE = 20;
+    // the slot being changed in place, plus one, or zero if there is none, and a copy of it from before the change
+    private static final int HEADER_UNDO_SLOT = 24;
+    private static final int HEADER_UNDO_COPY = 512;
+    private static final int NO_UNDO_SLOT = 0;
+
+    /**
+     * A slot holds, in order: its state, the authority, a checksum of the rest of the slot, the hash of the username,
+     * the failed login attempts, the lock time and the text fields, each as its length followed by at most
+     * as many UTF-8 bytes as the field allows.
+     */
+    private static final int SLOT_SIZE = 512;
+    private static final int SLOT_STATE = 0;
+    private static final int SLOT_AUTHORITY = 1;
+    private static final int SLOT_CHECKSUM = 2;
+    private static final int SLOT_HASH = 4;
+    private static final int SLOT_FAILED_ATTEMPTS = 8;
+    private static final int SLOT_LOCKED_UNTIL_SECONDS = 12;
+    private static final int SLOT_LOCKED_UNTIL_NANOS = 20;
+    private static final int SLOT_FIELDS = 24;
+
+    private static final byte EMPTY = 0;
+    private static final byte USED = 1;
+    private static final byte DELETED = 2;
+    private static final long NOT_LOCKED = Long.MIN_VALUE;
+
+    private static final int FIELD_USERNAME = 0;
+    private static final int FIELD_PASSWORD_HASH = 1;
+    private static final int FIELD_FIRST_NAME = 2;
+    private static final int FIELD_LAST_NAME = 3;
+    private static final int FIELD_EMAIL = 4;
+    private static final String[] FIELD_NAMES = {"username", "password hash", "first name", "last name", "email"};
+    private static final int[] FIELD_CAPACITIES = {64, 64, 96, 96, 158};
+    private static final int[] FIELD_OFFSETS = new int[FIELD_CAPACITIES.length];
+
+    static {
+        int offset = SLOT_FIELDS;
+        for (int i = 0; i < FIELD_CAPACITIES.length; i++) {
+            FIELD_OFFSETS[i] = offset;
+            offset += Short.BYTES + FIELD_CAPACITIES[i];
+        }
+    }
+
+    private static final int REGION_SLOT_BITS = 16;
+    private static final int REGION_SLOTS = 1 << REGION_SLOT_BITS;
+    private static final int MIN_CAPACITY = 1024;
+    private static final int MAX_CAPACITY = 1 << 30;
+    private static final int LOAD_FACTOR_PERCENT = 75;
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+    private final Path path;
+    private final Durability durability;
+    private final ReadWriteLock lock;
+    private final ScheduledExecutorService flusher;
+    private final UserStatistics statistics;
+    private final EmailIndex emailIndex;
+    private SlotFile slots;
+
+    /**
+     * Opens the users file, or creates an empty one if there is none.
+     * @param durability {@code PER_OPERATION} forces the changed slot with every change, {@code BATCHED}
+     *                   forces the whole file every commit interval, and both force it when it is closed
+     * @param commitIntervalMillis the commit interval of the batched durability
+     */
+    public MappedAuthStorage(Path path, Durability durability, int commitIntervalMillis) {
+        this.path = path;
+        this.durability = durability;
+        this.lock = new ReentrantReadWriteLock();
+
+        try {
+            slots = Files.exists(path) ? SlotFile.open(path) : SlotFile.create(path, MIN_CAPACITY);
+        } catch (IOException exception) {
+            throw new RuntimeException("Could not open users file", exception);
+        }
+
+        if (slots.header.getInt(HEADER_VERSION) == VERSION_WITHOUT_CHECKSUMS) {
+            slots.addChecksums();
+        }
+        if (slots.header.getInt(HEADER_STATE) != STATE_CLEAN) {
+            slots.undoTornOverwrite();
+            slots.recount();
+        }
+        if (slots.hasShortHeader()) {
+            rebuild(slots.capacity);
+        }
+        slots.header.putInt(HEADER_STATE, STATE_OPEN);
+        slots.header.force();
+
+        this.statistics = new UserStatistics();
+        this.emailIndex = new EmailIndex();
+        forEachUser(user -> {
+            statistics.add(user);
+            if (!emailIndex.addIfFree(user)) {
+                System.out.println("The email of user " + user.getUsername() + " belongs to another user");
+            }
+        });
+
+        if (durability == Durability.BATCHED) {
+            flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "mapped-users-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flusher.scheduleAtFixedRate(this::forceInBackground, commitIntervalMillis, commitIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            flusher = null;
+        }
+    }
+
+    /**
+     * Converts users from another storage, e.g. a {@link TSVFileAuthStorage}, into a new users file,
+     * which replaces the one at the given path only once it is complete.
+     */
+    public static void importUsers(AuthStorage source, Path path) {
+        int[] userCount = {0};
+        source.forEachUser(user -> userCount[0]++);
+
+        Path temporaryPath = path.resolveSibling(path.getFileName() + TEMPORARY_FILE_SUFFIX);
+        try {
+            SlotFile importedSlots = SlotFile.create(temporaryPath, capacityFor(userCount[0]));
+            source.forEachUser(user -> {
+                byte[][] fields = encodeFields(user);
+                int slot = importedSlots.find(fields[FIELD_USERNAME], hash(fields[FIELD_USERNAME]));
+
+                if (slot < 0) {
+                    importedSlots.insert(-slot - 1, fields, user);
+                }
+            });
+            importedSlots.force();
+            importedSlots.channel.close();
+
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException exception) {
+            throw new RuntimeException("Could not import users", exception);
+        }
+    }
+
+    @Override
+    public void addUser(User user) throws UserAlreadyExistsException {
+        byte[][] fields = encodeFields(user);
+        int hash = hash(fields[FIELD_USERNAME]);
+
+        lock.writeLock().lock();
+        try {
+            int slot = slots.find(fields[FIELD_USERNAME], hash);
+            if (slot >= 0) {
+                throw new UserAlreadyExistsException("User already found in database");
+            }
+            if (emailIndex.getUsername(user.getEmail().getValue()) != null) {
+                throw new EmailAlreadyExistsException("Email already found in database");
+            }
+
+            if (slots.isFull()) {
+                resize();
+                slot = slots.find(fields[FIELD_USERNAME], hash);
+            }
+            forceSlot(slots.insert(-slot - 1, fields, user));
+            statistics.add(user);
+            emailIndex.add(user);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        byte[] usernameBytes = username.getBytes(StandardCharsets.UTF_8);
+
+        lock.readLock().lock();
+        try {
+            int slot = slots.find(usernameBytes, hash(usernameBytes));
+            return slot >= 0 ? slots.read(slot) : null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Map<String, User> getUsersByUsernames(Collection<String> usernames) {
+        Map<String, User> users = new HashMap<>();
+
+        lock.readLock().lock();
+        try {
+            for (String username : usernames) {
+                byte[] usernameBytes = username.getBytes(StandardCharsets.UTF_8);
+                int slot = slots.find(usernameBytes, hash(usernameBytes));
+
+                if (slot >= 0) {
+                    users.put(username, slots.read(slot));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        return users;
+    }
+
+    @Override
+    public User getUserByEmail(String email) {
+        String username = emailIndex.getUsername(email);
+        return username != null ? getUserByUsername(username) : null;
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        lock.readLock().lock();
+        try {
+            for (int slot = 0; slot < slots.capacity; slot++) {
+                if (slots.state(slot) == USED) {
+                    action.accept(slots.read(slot));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void removeUserByUsername(String username) {
+        byte[] usernameBytes = username.getBytes(StandardCharsets.UTF_8);
+
+        lock.writeLock().lock();
+        try {
+            int slot = slots.find(usernameBytes, hash(usernameBytes));
+            if (slot >= 0) {
+                delete(slot);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * A user who keeps their username is updated in their slot.
+     */
+    @Override
+    public void replaceUserByUsername(String username, User newUser) {
+        byte[] usernameBytes = username.getBytes(StandardCharsets.UTF_8);
+        byte[][] fields = encodeFields(newUser);
+
+        lock.writeLock().lock();
+        try {
+            int slot = slots.find(usernameBytes, hash(usernameBytes));
+            if (slot < 0) {
+                return;
+            }
+
+            boolean renamed = !Arrays.equals(usernameBytes, fields[FIELD_USERNAME]);
+            if (renamed && slots.find(fields[FIELD_USERNAME], hash(fields[FIELD_USERNAME])) >= 0) {
+                throw new IllegalArgumentException("Cannot rename user to a taken username",
+                        new UserAlreadyExistsException("User already found in database"));
+            }
+            if (!slots.read(slot).getEmail().getNormalizedValue().equals(newUser.getEmail().getNormalizedValue())
+                    && emailIndex.isTakenByAnotherUser(newUser, username)) {
+                throw new IllegalArgumentException("Cannot change user to a taken email",
+                        new EmailAlreadyExistsException("Email already found in database"));
+            }
+
+            if (!renamed) {
+                overwrite(slot, fields, newUser);
+            } else {
+                // a crash in between leaves both versions of the user rather than neither
+                upsert(fields, newUser);
+                delete(slots.find(usernameBytes, hash(usernameBytes)));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void applyChanges(Map<String, User> changes) {
+        // every user is encoded before anything is changed, so that a user who does not fit changes nothing
+        Map<String, byte[][]> encodedUsers = new HashMap<>();
+        changes.forEach((username, user) -> {
+            if (user != null) {
+                encodedUsers.put(username, encodeFields(user));
+            }
+        });
+
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<String, User> change : changes.entrySet()) {
+                byte[] usernameBytes = change.getKey().getBytes(StandardCharsets.UTF_8);
+                int slot = slots.find(usernameBytes, hash(usernameBytes));
+
+                if (change.getValue() == null) {
+                    if (slot >= 0) {
+                        delete(slot);
+                    }
+                } else {
+                    upsert(encodedUsers.get(change.getKey()), change.getValue());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public long getAdminCount() {
+        return statistics.getCount(Authority.ADMIN);
+    }
+
+    @Override
+    public UserStatistics getUserStatistics() {
+        return new UserStatistics(statistics);
+    }
+
+    /**
+     * @return the number of slots in the table
+     */
+    public int getCapacity() {
+        lock.readLock().lock();
+        try {
+            return slots.capacity;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (flusher != null) {
+            flusher.shutdown();
+        }
+
+        lock.writeLock().lock();
+        try {
+            slots.header.putInt(HEADER_STATE, STATE_CLEAN);
+            slots.force();
+            slots.channel.close();
+        } catch (IOException exception) {
+            System.out.println("Could not close users file:");
+            System.out.println(exception.getMessage());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // must be called with the write lock held
+    private void upsert(byte[][] fields, User user) {
+        int hash = hash(fields[FIELD_USERNAME]);
+        int slot = slots.find(fields[FIELD_USERNAME], hash);
+
+        if (slot >= 0) {
+            overwrite(slot, fields, user);
+            return;
+        }
+
+        if (slots.isFull()) {
+            resize();
+            slot = slots.find(fields[FIELD_USERNAME], hash);
+        }
+        forceSlot(slots.insert(-slot - 1, fields, user));
+        statistics.add(user);
+        emailIndex.add(user);
+    }
+
+    // must be called with the write lock held
+    private void overwrite(int slot, byte[][] fields, User user) {
+        User previousUser = slots.read(slot);
+
+        slots.keepUndoCopy(slot);
+        if (durability == Durability.PER_OPERATION) {
+            slots.header.force();
+        }
+        forceSlot(slots.overwrite(slot, fields, user));
+        statistics.change(previousUser, user);
+        emailIndex.change(previousUser, user);
+    }
+
+    // must be called with the write lock held
+    private void delete(int slot) {
+        User previousUser = slots.read(slot);
+
+        forceSlot(slots.delete(slot));
+        statistics.remove(previousUser);
+        emailIndex.remove(previousUser);
+    }
+
+    // must be called with the write lock held
+    private void resize() {
+        int size = slots.header.getInt(HEADER_SIZE_COUNT);
+        int newCapacity = capacityFor(size + 1);
+        if (newCapacity < slots.capacity) {
+            newCapacity = slots.capacity;
+        }
+
+        rebuild(newCapacity);
+    }
+
+    /**
+     * Copies the users into a new file of the current version with the given capacity, which replaces the old one.
+     * Must be called with the write lock held, or before the storage is used.
+     */
+    private void rebuild(int newCapacity) {
+        Path temporaryPath = path.resolveSibling(path.getFileName() + TEMPORARY_FILE_SUFFIX);
+        try {
+            SlotFile newSlots = SlotFile.create(temporaryPath, newCapacity);
+            slots.copyUsedSlotsTo(newSlots);
+            newSlots.header.putInt(HEADER_STATE, STATE_OPEN);
+            newSlots.force();
+            newSlots.channel.close();
+
+            slots.channel.close();
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            slots = SlotFile.open(path);
+        } catch (IOException exception) {
+            throw new RuntimeException("Could not rebuild users file", exception);
+        }
+    }
+
+    // must be called with the write lock held
+    private void forceSlot(int slot) {
+        if (durability == Durability.PER_OPERATION) {
+            slots.region(slot).force(slots.offset(slot), SLOT_SIZE);
+            slots.header.force();
+        }
+    }
+
+    private void forceInBackground() {
+        lock.readLock().lock();
+        try {
+            slots.force();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the smallest capacity which holds the given number of users below the load factor
+     */
+    private static int capacityFor(int userCount) {
+        int capacity = MIN_CAPACITY;
+        while ((long) userCount * 100 >= (long) capacity * LOAD_FACTOR_PERCENT) {
+            if (capacity == MAX_CAPACITY) {
+                throw new IllegalStateException("Users file cannot hold " + userCount + " users");
+            }
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static int hash(byte[] usernameBytes) {
+        int hash = Arrays.hashCode(usernameBytes);
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @throws IllegalArgumentException if a field does not fit into a slot
+     */
+    private static byte[][] encodeFields(User user) {
+        String[] values = {
+            user.getUsername(),
+            user.getPasswordHash().getValue(),
+            user.getFirstName(),
+            user.getLastName(),
+            user.getEmail().getValue()
+        };
+
+        byte[][] fields = new byte[values.length][];
+        for (int i = 0; i < values.length; i++) {
+            fields[i] = values[i].getBytes(StandardCharsets.UTF_8);
+
+            if (fields[i].length > FIELD_CAPACITIES[i]) {
+                throw new IllegalArgumentException("The " + FIELD_NAMES[i] + " is longer than "
+                        + FIELD_CAPACITIES[i] + " bytes");
+            }
+        }
+        return fields;
+    }
+
+    /**
+     * The mapped file: its header and its slots, mapped in regions of at most {@link #REGION_SLOTS} slots.
+     */
+    private static final class SlotFile {
+        private final FileChannel channel;
+        private final MappedByteBuffer header;
+        private final MappedByteBuffer[] regions;
+        private final int capacity;
+        private final int headerSize;
+
+        private SlotFile(FileChannel channel, int capacity, int headerSize) throws IOException {
+            this.channel = channel;
+            this.capacity = capacity;
+            this.headerSize = headerSize;
+            this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, headerSize);
+
+            int regionSlots = Math.min(capacity, REGION_SLOTS);
+            this.regions = new MappedByteBuffer[capacity / regionSlots];
+            for (int i = 0; i < regions.length; i++) {
+                regions[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                        headerSize + (long) i * regionSlots * SLOT_SIZE, (long) regionSlots * SLOT_SIZE);
+            }
+        }
+
+        static SlotFile create(Path path, int capacity) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+
+            // the file is extended with zeros, which leaves every slot empty
+            SlotFile slotFile = new SlotFile(channel, capacity, HEADER_SIZE);
+            slotFile.header.putInt(HEADER_MAGIC, MAGIC);
+            slotFile.header.putInt(HEADER_VERSION, VERSION);
+            slotFile.header.putInt(HEADER_CAPACITY, capacity);
+            return slotFile;
+        }
+
+        static SlotFile open(Path path) throws IOException {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            ByteBuffer header = ByteBuffer.allocate(SHORT_HEADER_SIZE);
+            int headerLength = channel.read(header, 0);
+
+            int capacity = header.getInt(HEADER_CAPACITY);
+            int version = header.getInt(HEADER_VERSION);
+            int headerSize = version == VERSION ? HEADER_SIZE : SHORT_HEADER_SIZE;
+            if (headerLength < SHORT_HEADER_SIZE
+                    || header.getInt(HEADER_MAGIC) != MAGIC
+                    || version != VERSION && version != VERSION_WITH_SHORT_HEADER
+                            && version != VERSION_WITHOUT_CHECKSUMS
+                    || Integer.bitCount(capacity) != 1
+                    || channel.size() < headerSize + (long) capacity * SLOT_SIZE) {
+                channel.close();
+                throw new IOException(path + " is not a users file");
+            }
+
+            return new SlotFile(channel, capacity, headerSize);
+        }
+
+        /**
+         * @return the slot of the user if they were found, otherwise {@code -(insertion slot + 1)}
+         */
+        int find(byte[] usernameBytes, int hash) {
+            int mask = capacity - 1;
+            int firstDeleted = -1;
+
+            for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+                byte state = state(slot);
+
+                if (state == EMPTY) {
+                    return -(firstDeleted >= 0 ? firstDeleted : slot) - 1;
+                }
+
+                if (state == DELETED) {
+                    if (firstDeleted < 0) {
+                        firstDeleted = slot;
+                    }
+                } else if (region(slot).getInt(offset(slot) + SLOT_HASH) == hash
+                        && Arrays.equals(readField(slot, FIELD_USERNAME), usernameBytes)) {
+                    return slot;
+                }
+            }
+        }
+
+        boolean isFull() {
+            long usedSlots = (long) header.getInt(HEADER_SIZE_COUNT) + header.getInt(HEADER_TOMBSTONE_COUNT) + 1;
+            return usedSlots * 100 > (long) capacity * LOAD_FACTOR_PERCENT;
+        }
+
+        int insert(int slot, byte[][] fields, User user) {
+            if (state(slot) == DELETED) {
+                header.putInt(HEADER_TOMBSTONE_COUNT, header.getInt(HEADER_TOMBSTONE_COUNT) - 1);
+            }
+
+            write(slot, fields, user);
+            header.putInt(HEADER_SIZE_COUNT, header.getInt(HEADER_SIZE_COUNT) + 1);
+            return slot;
+        }
+
+        boolean hasShortHeader() {
+            return headerSize < HEADER_SIZE;
+        }
+
+        /**
+         * Copies a slot into the header before it is changed in place.
+         */
+        void keepUndoCopy(int slot) {
+            byte[] slotBytes = new byte[SLOT_SIZE];
+            region(slot).get(offset(slot), slotBytes);
+
+            header.put(HEADER_UNDO_COPY, slotBytes);
+            header.putInt(HEADER_UNDO_SLOT, slot + 1);
+        }
+
+        /**
+         * Changes a slot which has been copied into the header, dropping the copy once the slot is written.
+         */
+        int overwrite(int slot, byte[][] fields, User user) {
+            write(slot, fields, user);
+            header.putInt(HEADER_UNDO_SLOT, NO_UNDO_SLOT);
+            return slot;
+        }
+
+        /**
+         * Restores the slot which was being changed in place when the file was not closed cleanly,
+         * if it was torn and its copy in the header is whole.
+         */
+        void undoTornOverwrite() {
+            if (hasShortHeader()) {
+                return;
+            }
+
+            int slot = header.getInt(HEADER_UNDO_SLOT) - 1;
+            if (slot >= 0 && slot < capacity && state(slot) == USED
+                    && region(slot).getShort(offset(slot) + SLOT_CHECKSUM) != checksum(slot)
+                    && header.get(HEADER_UNDO_COPY + SLOT_STATE) == USED
+                    && header.getShort(HEADER_UNDO_COPY + SLOT_CHECKSUM) == checksum(header, HEADER_UNDO_COPY)) {
+                System.out.println("Restoring the user in slot " + slot + " of the users file: their change is torn");
+
+                byte[] slotBytes = new byte[SLOT_SIZE];
+                header.get(HEADER_UNDO_COPY, slotBytes);
+                region(slot).put(offset(slot), slotBytes);
+            }
+
+            header.putInt(HEADER_UNDO_SLOT, NO_UNDO_SLOT);
+        }
+
+        int delete(int slot) {
+            region(slot).put(offset(slot) + SLOT_STATE, DELETED);
+            header.putInt(HEADER_SIZE_COUNT, header.getInt(HEADER_SIZE_COUNT) - 1);
+            header.putInt(HEADER_TOMBSTONE_COUNT, header.getInt(HEADER_TOMBSTONE_COUNT) + 1);
+            return slot;
+        }
+
+        User read(int slot) {
+            ByteBuffer region = region(slot);
+            int offset = offset(slot);
+
+            Password password = new Password(readString(slot, FIELD_PASSWORD_HASH), new PasswordValidator(),
+                    region.getInt(offset + SLOT_FAILED_ATTEMPTS));
+            Email email = new Email(readString(slot, FIELD_EMAIL), new EmailValidator());
+            Authority authority = Authority.values()[region.get(offset + SLOT_AUTHORITY)];
+
+            long lockedUntilSeconds = region.getLong(offset + SLOT_LOCKED_UNTIL_SECONDS);
+            LocalDateTime lockedUntil = lockedUntilSeconds == NOT_LOCKED
+                    ? null
+                    : LocalDateTime.ofEpochSecond(lockedUntilSeconds,
+                            region.getInt(offset + SLOT_LOCKED_UNTIL_NANOS), ZoneOffset.UTC);
+
+            return new User(readString(slot, FIELD_USERNAME), password, readString(slot, FIELD_FIRST_NAME),
+                    readString(slot, FIELD_LAST_NAME), email, authority, lockedUntil);
+        }
+
+        byte state(int slot) {
+            return region(slot).get(offset(slot) + SLOT_STATE);
+        }
+
+        /**
+         * Counts the users and tombstones again, after the file was not closed cleanly,
+         * leaving a tombstone in place of every user whose slot was torn.
+         */
+        void recount() {
+            int size = 0;
+            int tombstones = 0;
+
+            for (int slot = 0; slot < capacity; slot++) {
+                byte state = state(slot);
+
+                if (state == USED && region(slot).getShort(offset(slot) + SLOT_CHECKSUM) != checksum(slot)) {
+                    System.out.println("Dropping the user in slot " + slot + " of the users file: it is torn");
+                    region(slot).put(offset(slot) + SLOT_STATE, DELETED);
+                    state = DELETED;
+                }
+
+                if (state == USED) {
+                    size++;
+                } else if (state == DELETED) {
+                    tombstones++;
+                }
+            }
+
+            header.putInt(HEADER_SIZE_COUNT, size);
+            header.putInt(HEADER_TOMBSTONE_COUNT, tombstones);
+        }
+
+        /**
+         * Adds the checksums to the slots of a file of the version which had none.
+         */
+        void addChecksums() {
+            for (int slot = 0; slot < capacity; slot++) {
+                if (state(slot) == USED) {
+                    region(slot).putShort(offset(slot) + SLOT_CHECKSUM, checksum(slot));
+                }
+            }
+
+            header.putInt(HEADER_VERSION, VERSION_WITH_SHORT_HEADER);
+            force();
+        }
+
+        /**
+         * Copies the users into an empty table, leaving the tombstones behind.
+         */
+        void copyUsedSlotsTo(SlotFile target) {
+            byte[] slotBytes = new byte[SLOT_SIZE];
+            int mask = target.capacity - 1;
+
+            for (int slot = 0; slot < capacity; slot++) {
+                if (state(slot) != USED) {
+                    continue;
+                }
+
+                region(slot).get(offset(slot), slotBytes);
+                int targetSlot = region(slot).getInt(offset(slot) + SLOT_HASH) & mask;
+                while (target.state(targetSlot) != EMPTY) {
+                    targetSlot = (targetSlot + 1) & mask;
+                }
+                target.region(targetSlot).put(target.offset(targetSlot), slotBytes);
+            }
+
+            target.header.putInt(HEADER_SIZE_COUNT, header.getInt(HEADER_SIZE_COUNT));
+        }
+
+        void force() {
+            for (MappedByteBuffer region : regions) {
+                region.force();
+            }
+            header.force();
+        }
+
+        MappedByteBuffer region(int slot) {
+            return regions[slot >>> REGION_SLOT_BITS];
+        }
+
+        int offset(int slot) {
+            return (slot & (REGION_SLOTS - 1)) * SLOT_SIZE;
+        }
+
+        private void write(int slot, byte[][] fields, User user) {
+            ByteBuffer region = region(slot);
+            int offset = offset(slot);
+
+            region.put(offset + SLOT_AUTHORITY, (byte) user.getAuthority().ordinal());
+            region.putInt(offset + SLOT_HASH, hash(fields[FIELD_USERNAME]));
+            region.putInt(offset + SLOT_FAILED_ATTEMPTS, user.getPasswordHash().getFailedAttempts());
+
+            LocalDateTime lockedUntil = user.getLockedUntil();
+            region.putLong(offset + SLOT_LOCKED_UNTIL_SECONDS,
+                    lockedUntil == null ? NOT_LOCKED : lockedUntil.toEpochSecond(ZoneOffset.UTC));
+            region.putInt(offset + SLOT_LOCKED_UNTIL_NANOS, lockedUntil == null ? 0 : lockedUntil.getNano());
+
+            for (int i = 0; i < fields.length; i++) {
+                region.putShort(offset + FIELD_OFFSETS[i], (short) fields[i].length);
+                region.put(offset + FIELD_OFFSETS[i] + Short.BYTES, fields[i]);
+            }
+            region.putShort(offset + SLOT_CHECKSUM, checksum(slot));
+
+            // a new slot is marked used last, so that a crash cannot leave a half-written user behind
+            region.put(offset + SLOT_STATE, USED);
+        }
+
+        /**
+         * @return the lower half of the CRC-32 of the authority and everything after the checksum
+         */
+        private short checksum(int slot) {
+            return checksum(region(slot), offset(slot));
+        }
+
+        private static short checksum(ByteBuffer buffer, int offset) {
+            ByteBuffer contents = buffer.duplicate();
+            contents.limit(offset + SLOT_SIZE).position(offset + SLOT_HASH);
+
+            CRC32 crc = new CRC32();
+            crc.update(buffer.get(offset + SLOT_AUTHORITY));
+            crc.update(contents);
+            return (short) crc.getValue();
+        }
+
+        private byte[] readField(int slot, int field) {
+            ByteBuffer region = region(slot);
+            int fieldOffset = offset(slot) + FIELD_OFFSETS[field];
+
+            byte[] bytes = new byte[Math.min(Short.toUnsignedInt(region.getShort(fieldOffset)),
+                    FIELD_CAPACITIES[field])];
+            region.get(fieldOffset + Short.BYTES, bytes);
+            return bytes;
+        }
+
+        private String readString(int slot, int field) {
+            return new String(readField(slot, field), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,409 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.config.Durability;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.GroupCommitLog;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.StripedLock;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+
+/**
+ * Spreads the users over independent storages, e.g. one {@link TSVFileAuthStorage} per file, by the hash of
+ * their username, so that looking a user up or rewriting a file involves only the users of one partition,
+ * and changes to different partitions do not wait for each other.
+ * <p>
+ *     Queries about every user, e.g. the admin count, ask all the partitions at the same time on a fork-join pool.
+ *     Since a user is found by the hash of their username, the partitions must stay the same in number
+ *     and order for as long as they hold users, which is why their number is recorded in a manifest
+ *     when the users are imported into them.
+ * </p>
+ * <p>
+ *     A user who is renamed into another partition is added to it before they are removed from the old one,
+ *     so a failure in between leaves a copy of them under the old username rather than no user at all.
+ * </p>
+ * <p>
+ *     Every change locks the usernames it involves, both the old and the new one of a renamed user,
+ *     and then the email it gives a user, if any, since no single partition can keep two changes
+ *     in different partitions from taking the same email, or a rename from racing with a change
+ *     to the user in their old partition.
+ * </p>
+ */
+public class PartitionedAuthStorage implements AuthStorage, Closeable {
+    private static final String IMPORT_FILE_SUFFIX = ".import";
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+    private static final int USER_LOCK_STRIPE_COUNT = 64;
+    private static final int EMAIL_LOCK_STRIPE_COUNT = 64;
+
+    private final List<AuthStorage> partitions;
+    private final ForkJoinPool pool;
+    // always locked before the email locks
+    private final StripedLock userLocks;
+    private final StripedLock emailLocks;
+
+    public PartitionedAuthStorage(List<? extends AuthStorage> partitions) {
+        if (partitions.isEmpty()) {
+            throw new IllegalArgumentException("There must be at least one partition");
+        }
+
+        this.partitions = List.copyOf(partitions);
+        this.pool = new ForkJoinPool(partitions.size());
+        this.userLocks = new StripedLock(USER_LOCK_STRIPE_COUNT);
+        this.emailLocks = new StripedLock(EMAIL_LOCK_STRIPE_COUNT);
+    }
+
+    /**
+     * Spreads the users of another storage, e.g. a single {@link TSVFileAuthStorage}, over the partition files
+     * at the given paths, replacing everything that was in them, and records how many there are in the manifest.
+     * The partitions are written to files of their own and moved into place only once all of them are written,
+     * and the manifest is written last, so an import which is interrupted leaves no manifest and is done again.
+     * @param source the users to import, {@code null} if there are none
+     */
+    public static void importUsers(AuthStorage source, List<Path> partitionPaths, Path manifestPath,
+                                   Durability durability) {
+        List<List<User>> usersByPartition = new ArrayList<>();
+        for (int i = 0; i < partitionPaths.size(); i++) {
+            usersByPartition.add(new ArrayList<>());
+        }
+
+        if (source != null) {
+            source.forEachUser(user ->
+                    usersByPartition.get(partitionOf(user.getUsername(), partitionPaths.size())).add(user));
+        }
+
+        // every imported file is committed as it is written, unless nothing is to be committed at all
+        Durability importDurability = durability == Durability.NONE ? Durability.NONE : Durability.PER_OPERATION;
+        try {
+            List<Path> importPaths = new ArrayList<>();
+            for (int i = 0; i < partitionPaths.size(); i++) {
+                Path importPath = partitionPaths.get(i).resolveSibling(partitionPaths.get(i).getFileName()
+                        + IMPORT_FILE_SUFFIX);
+                Files.deleteIfExists(importPath);
+                Files.createFile(importPath);
+
+                GroupCommitLog log = GroupCommitLog.forPath(importPath, importDurability, 0);
+                try {
+                    new TSVFileAuthStorage(log).writeAllUsers(usersByPartition.get(i));
+                } finally {
+                    log.close();
+                }
+                importPaths.add(importPath);
+            }
+
+            for (int i = 0; i < partitionPaths.size(); i++) {
+                Files.move(importPaths.get(i), partitionPaths.get(i), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            }
+        } catch (IOException exception) {
+            throw new RuntimeException("Could not import users", exception);
+        }
+
+        // committing the manifest commits the directory with the moved partitions as well
+        writePartitionCount(manifestPath, partitionPaths.size(), durability);
+    }
+
+    /**
+     * @return the number of partitions recorded in the manifest, -1 if there is no manifest
+     */
+    public static int readPartitionCount(Path manifestPath) {
+        String text;
+        try {
+            text = Files.readString(manifestPath).trim();
+        } catch (NoSuchFileException exception) {
+            return -1;
+        } catch (IOException exception) {
+            throw new RuntimeException("Could not read the partition manifest", exception);
+        }
+
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException exception) {
+            throw new IllegalStateException("The partition manifest " + manifestPath + " is not valid", exception);
+        }
+    }
+
+    /**
+     * Records how many partitions the users are split into, replacing the manifest as a whole.
+     */
+    public static void writePartitionCount(Path manifestPath, int partitionCount, Durability durability) {
+        Path temporaryPath = manifestPath.resolveSibling(manifestPath.getFileName() + TEMPORARY_FILE_SUFFIX);
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer text = ByteBuffer.wrap((partitionCount + System.lineSeparator())
+                        .getBytes(StandardCharsets.UTF_8));
+                while (text.hasRemaining()) {
+                    channel.write(text);
+                }
+
+                if (durability != Durability.NONE) {
+                    channel.force(false);
+                }
+            }
+
+            Files.move(temporaryPath, manifestPath, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+
+            if (durability != Durability.NONE) {
+                try (FileChannel directoryChannel = FileChannel.open(manifestPath.toAbsolutePath().getParent(),
+                        StandardOpenOption.READ)) {
+                    directoryChannel.force(true);
+                }
+            }
+        } catch (IOException exception) {
+            throw new RuntimeException("Could not write the partition manifest", exception);
+        }
+    }
+
+    /**
+     * @return the index of the partition which keeps the user with the given username
+     */
+    public static int partitionOf(String username, int partitionCount) {
+        // the hash of a string is the same in every run, so users are found where they were put before
+        return Math.floorMod(username.hashCode(), partitionCount);
+    }
+
+    /**
+     * Emails are unique across all partitions, which is why adding a user asks every partition about their email.
+     */
+    @Override
+    public void addUser(User user) throws UserAlreadyExistsException {
+        StripedLock.Locked lockedUser = userLocks.lock(user.getUsername());
+        try {
+            StripedLock.Locked lockedEmail = emailLocks.lock(user.getEmail().getNormalizedValue());
+            try {
+                if (getUserByEmail(user.getEmail().getValue()) != null) {
+                    throw new EmailAlreadyExistsException("Email already found in database");
+                }
+
+                partitionFor(user.getUsername()).addUser(user);
+            } finally {
+                lockedEmail.unlock();
+            }
+        } finally {
+            lockedUser.unlock();
+        }
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        return partitionFor(username).getUserByUsername(username);
+    }
+
+    @Override
+    public User getUserByEmail(String email) {
+        return fanOut(i -> partitions.get(i).getUserByEmail(email)).stream()
+                .filter(Objects::nonNull)
+                .findFirst()
+                .orElse(null);
+    }
+
+    @Override
+    public Map<String, User> getUsersByUsernames(Collection<String> usernames) {
+        List<List<String>> usernamesByPartition = new ArrayList<>();
+        for (int i = 0; i < partitions.size(); i++) {
+            usernamesByPartition.add(new ArrayList<>());
+        }
+        for (String username : usernames) {
+            usernamesByPartition.get(partitionOf(username, partitions.size())).add(username);
+        }
+
+        Map<String, User> users = new HashMap<>();
+        fanOut(i -> usernamesByPartition.get(i).isEmpty()
+                ? Map.<String, User>of()
+                : partitions.get(i).getUsersByUsernames(usernamesByPartition.get(i)))
+                .forEach(users::putAll);
+
+        return users;
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        // one partition at a time, since the action is not expected to be called concurrently
+        for (AuthStorage partition : partitions) {
+            partition.forEachUser(action);
+        }
+    }
+
+    @Override
+    public void removeUserByUsername(String username) {
+        StripedLock.Locked locked = userLocks.lock(username);
+        try {
+            partitionFor(username).removeUserByUsername(username);
+        } finally {
+            locked.unlock();
+        }
+    }
+
+    /**
+     * A changed email is checked against every partition, like the email of a new user.
+     */
+    @Override
+    public void replaceUserByUsername(String username, User newUser) {
+        StripedLock.Locked lockedUsers = userLocks.lock(username, newUser.getUsername());
+        try {
+            StripedLock.Locked lockedEmail = emailLocks.lock(newUser.getEmail().getNormalizedValue());
+            try {
+                replaceLockedUser(username, newUser);
+            } finally {
+                lockedEmail.unlock();
+            }
+        } finally {
+            lockedUsers.unlock();
+        }
+    }
+
+    // must be called with the old and the new username and the new email locked
+    private void replaceLockedUser(String username, User newUser) {
+        AuthStorage partition = partitionFor(username);
+        AuthStorage newPartition = partitionFor(newUser.getUsername());
+
+        User replacedUser = partition.getUserByUsername(username);
+        if (replacedUser == null) {
+            return;
+        }
+
+        if (!replacedUser.getEmail().getNormalizedValue().equals(newUser.getEmail().getNormalizedValue())) {
+            User emailOwner = getUserByEmail(newUser.getEmail().getValue());
+
+            if (emailOwner != null && !emailOwner.getUsername().equals(username)) {
+                throw new IllegalArgumentException("Cannot change user to a taken email",
+                        new EmailAlreadyExistsException("Email already found in database"));
+            }
+        }
+
+        if (partition == newPartition) {
+            partition.replaceUserByUsername(username, newUser);
+            return;
+        }
+
+        try {
+            newPartition.addUser(newUser);
+        } catch (UserAlreadyExistsException exception) {
+            throw new IllegalArgumentException("Cannot rename user to a taken username or email", exception);
+        }
+        partition.removeUserByUsername(username);
+    }
+
+    /**
+     * The changes are split by partition and every partition applies its own at the same time as the others.
+     * A user who is renamed into another partition is removed from the old one and written to the new one.
+     */
+    @Override
+    public void applyChanges(Map<String, User> changes) {
+        Set<String> usernames = new HashSet<>(changes.keySet());
+        changes.values().stream()
+                .filter(Objects::nonNull)
+                .forEach(user -> usernames.add(user.getUsername()));
+
+        StripedLock.Locked locked = userLocks.lock(usernames);
+        try {
+            applyLockedChanges(changes);
+        } finally {
+            locked.unlock();
+        }
+    }
+
+    // must be called with every username of the changes locked
+    private void applyLockedChanges(Map<String, User> changes) {
+        List<Map<String, User>> changesByPartition = new ArrayList<>();
+        for (int i = 0; i < partitions.size(); i++) {
+            changesByPartition.add(new LinkedHashMap<>());
+        }
+
+        changes.forEach((username, user) -> {
+            int partition = partitionOf(username, partitions.size());
+            int newPartition = user != null ? partitionOf(user.getUsername(), partitions.size()) : partition;
+
+            if (newPartition == partition) {
+                changesByPartition.get(partition).put(username, user);
+            } else {
+                changesByPartition.get(newPartition).put(user.getUsername(), user);
+                changesByPartition.get(partition).putIfAbsent(username, null);
+            }
+        });
+
+        fanOut(i -> {
+            if (!changesByPartition.get(i).isEmpty()) {
+                partitions.get(i).applyChanges(changesByPartition.get(i));
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public long getAdminCount() {
+        return fanOut(i -> partitions.get(i).getAdminCount()).stream()
+                .mapToLong(Long::longValue)
+                .sum();
+    }
+
+    @Override
+    public UserStatistics getUserStatistics() {
+        UserStatistics statistics = new UserStatistics();
+        fanOut(i -> partitions.get(i).getUserStatistics()).forEach(statistics::addAll);
+
+        return statistics;
+    }
+
+    public int getPartitionCount() {
+        return partitions.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        pool.shutdown();
+
+        for (AuthStorage partition : partitions) {
+            if (partition instanceof Closeable) {
+                ((Closeable) partition).close();
+            }
+        }
+    }
+
+    private AuthStorage partitionFor(String username) {
+        return partitions.get(partitionOf(username, partitions.size()));
+    }
+
+    /**
+     * Runs a task for every partition on the pool and waits for all of them.
+     * @return the results of the tasks, in the order of the partitions
+     */
+    private <T> List<T> fanOut(IntFunction<T> task) {
+        List<ForkJoinTask<T>> tasks = new ArrayList<>();
+        for (int i = 0; i < partitions.size(); i++) {
+            int partition = i;
+            tasks.add(pool.submit(() -> task.apply(partition)));
+        }
+
+        List<T> results = new ArrayList<>();
+        for (ForkJoinTask<T> forkJoinTask : tasks) {
+            results.add(forkJoinTask.join());
+        }
+
+        return results;
+    }
+}
@@ -0,0 +1,111 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache which evicts by segmented LRU: new entries start in a probation segment,
+ * and only those which are read again while there move to a protected segment,
+ * so that a burst of keys which are read once cannot push out the keys which are read all the time.
+ * <p>
+ *     The least recently used entry of the protected segment goes back to probation when the segment is full,
+ *     and the least recently used entry of probation is the one evicted.
+ *     Thread-safe, every operation holds the lock of the cache for as long as it takes to move a few entries.
+ * </p>
+ */
+public class SegmentedLruCache<K, V> {
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final int capacity;
+    private final int protectedCapacity;
+    private final LinkedHashMap<K, V> probationEntries;
+    private final LinkedHashMap<K, V> protectedEntries;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * @param capacity how many entries the cache keeps, values must not be {@code null}
+     */
+    public SegmentedLruCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("The capacity must be positive");
+        }
+
+        this.capacity = capacity;
+        this.protectedCapacity = capacity * PROTECTED_PERCENT / 100;
+        // both segments are kept in access order, the least recently used entry first
+        this.probationEntries = new LinkedHashMap<>(16, 0.75f, true);
+        this.protectedEntries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * @return the cached value, {@code null} if the key is not cached
+     */
+    public synchronized V get(K key) {
+        V value = protectedEntries.get(key);
+        if (value != null) {
+            hitCount++;
+            return value;
+        }
+
+        value = probationEntries.remove(key);
+        if (value == null) {
+            missCount++;
+            return null;
+        }
+
+        hitCount++;
+        protectedEntries.put(key, value);
+        if (protectedEntries.size() > protectedCapacity) {
+            Map.Entry<K, V> demoted = removeEldest(protectedEntries);
+            probationEntries.put(demoted.getKey(), demoted.getValue());
+        }
+
+        return value;
+    }
+
+    public synchronized void put(K key, V value) {
+        if (protectedEntries.containsKey(key)) {
+            protectedEntries.put(key, value);
+            return;
+        }
+
+        probationEntries.put(key, value);
+        if (probationEntries.size() + protectedEntries.size() > capacity) {
+            removeEldest(probationEntries.isEmpty() ? protectedEntries : probationEntries);
+            evictionCount++;
+        }
+    }
+
+    public synchronized void invalidate(K key) {
+        probationEntries.remove(key);
+        protectedEntries.remove(key);
+    }
+
+    public synchronized int size() {
+        return probationEntries.size() + protectedEntries.size();
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    private static <K, V> Map.Entry<K, V> removeEldest(LinkedHashMap<K, V> entries) {
+        Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+        Map.Entry<K, V> eldest = iterator.next();
+        Map.Entry<K, V> removed = Map.entry(eldest.getKey(), eldest.getValue());
+        iterator.remove();
+
+        return removed;
+    }
+}
@@ -0,0 +1,106 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * <p>
+ *     Coalesces concurrent lookups of the same key: the first caller runs the lookup,
+ *     and everyone asking for the key while it runs waits for its result instead of running their own.
+ *     Nothing is kept once the lookup is over, so this is not a cache.
+ * </p>
+ * <p>
+ *     Callers who joined a lookup get their own copy of its result, made with the given copier,
+ *     as the results are mutable and each caller may change theirs.
+ * </p>
+ * @param <K> the type of the looked up keys
+ * @param <V> the type of the lookup results
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, CompletableFuture<V>> inFlight;
+    private final UnaryOperator<V> copier;
+    private final LongAdder executedCount;
+    private final LongAdder coalescedCount;
+
+    public SingleFlight(UnaryOperator<V> copier) {
+        this.inFlight = new ConcurrentHashMap<>();
+        this.copier = copier;
+        this.executedCount = new LongAdder();
+        this.coalescedCount = new LongAdder();
+    }
+
+    /**
+     * Runs the lookup of the key, or waits for the one already running.
+     * Exceptions thrown by the lookup are rethrown to every caller waiting for it.
+     */
+    public V execute(K key, Function<K, V> lookup) {
+        CompletableFuture<V> ownLookup = new CompletableFuture<>();
+        CompletableFuture<V> runningLookup = inFlight.putIfAbsent(key, ownLookup);
+
+        if (runningLookup != null) {
+            coalescedCount.increment();
+            return join(runningLookup);
+        }
+
+        executedCount.increment();
+        try {
+            V result = lookup.apply(key);
+            ownLookup.complete(result);
+
+            return result;
+        } catch (RuntimeException exception) {
+            ownLookup.completeExceptionally(exception);
+            throw exception;
+        } finally {
+            inFlight.remove(key, ownLookup);
+        }
+    }
+
+    /**
+     * Makes callers arriving from now on run a new lookup of the key instead of joining one which may have
+     * started before the key was changed. Must be called after every change of the underlying data.
+     */
+    public void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    /**
+     * Same as {@link #forget}, for all keys.
+     */
+    public void forgetAll() {
+        inFlight.clear();
+    }
+
+    /**
+     * @return the number of lookups which actually ran
+     */
+    public long getExecutedCount() {
+        return executedCount.sum();
+    }
+
+    /**
+     * @return the number of callers who shared a lookup run for someone else
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.sum();
+    }
+
+    private V join(CompletableFuture<V> runningLookup) {
+        V result;
+        try {
+            result = runningLookup.join();
+        } catch (CompletionException exception) {
+            if (exception.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) exception.getCause();
+            }
+            throw exception;
+        }
+
+        return result != null ? copier.apply(result) : null;
+    }
+}
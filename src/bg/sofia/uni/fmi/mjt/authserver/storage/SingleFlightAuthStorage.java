@@ -0,0 +1,98 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Lets concurrent lookups of the same username share a single read of the underlying storage.
+ * Writes go straight through, and lookups started after a write never join one started before it.
+ */
+public class SingleFlightAuthStorage implements AuthStorage {
+    private final AuthStorage storage;
+    private final SingleFlight<String, User> userLookups;
+
+    public SingleFlightAuthStorage(AuthStorage storage) {
+        this.storage = storage;
+        this.userLookups = new SingleFlight<>(User::new);
+    }
+
+    @Override
+    public void addUser(User user) throws UserAlreadyExistsException {
+        try {
+            storage.addUser(user);
+        } finally {
+            userLookups.forget(user.getUsername());
+        }
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        return userLookups.execute(username, storage::getUserByUsername);
+    }
+
+    @Override
+    public boolean mightContainUsername(String username) {
+        return storage.mightContainUsername(username);
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        storage.forEachUser(action);
+    }
+
+    @Override
+    public void removeUserByUsername(String username) {
+        try {
+            storage.removeUserByUsername(username);
+        } finally {
+            userLookups.forget(username);
+        }
+    }
+
+    @Override
+    public void replaceUserByUsername(String username, User newUser) {
+        try {
+            storage.replaceUserByUsername(username, newUser);
+        } finally {
+            userLookups.forget(username);
+            userLookups.forget(newUser.getUsername());
+        }
+    }
+
+    @Override
+    public Map<String, User> getUsersByUsernames(Collection<String> usernames) {
+        return storage.getUsersByUsernames(usernames);
+    }
+
+    @Override
+    public void applyChanges(Map<String, User> changes) {
+        try {
+            storage.applyChanges(changes);
+        } finally {
+            changes.keySet().forEach(userLookups::forget);
+        }
+    }
+
+    @Override
+    public long getAdminCount() {
+        return storage.getAdminCount();
+    }
+
+    @Override
+    public User getUserByEmail(String email) {
+        return storage.getUserByEmail(email);
+    }
+
+    @Override
+    public UserStatistics getUserStatistics() {
+        return storage.getUserStatistics();
+    }
+
+    public SingleFlight<String, User> getUserLookups() {
+        return userLookups;
+    }
+}
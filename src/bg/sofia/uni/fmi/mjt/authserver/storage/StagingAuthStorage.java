@@ -0,0 +1,177 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.Email;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Keeps writes aside, on top of another storage, until they are all committed to it at once.
+ * Reads see the staged writes, and every user is read from the underlying storage at most once,
+ * so a batch of commands costs one read of the users it touches and one write of all its changes.
+ * <p>
+ *     Not thread-safe, a staging storage belongs to a single batch.
+ * </p>
+ */
+public class StagingAuthStorage implements AuthStorage {
+    private final AuthStorage storage;
+    // users as read from the underlying storage, null for the ones which were not found
+    private final Map<String, User> originalUsers;
+    // new versions of users by their usernames, null for the ones which were removed
+    private final Map<String, User> changes;
+    private Long originalAdminCount;
+
+    public StagingAuthStorage(AuthStorage storage) {
+        this.storage = storage;
+        this.originalUsers = new HashMap<>();
+        this.changes = new LinkedHashMap<>();
+    }
+
+    /**
+     * Reads the given users from the underlying storage in one go, ahead of the commands which need them.
+     */
+    public void prefetch(Collection<String> usernames) {
+        Map<String, User> foundUsers = storage.getUsersByUsernames(usernames);
+
+        for (String username : usernames) {
+            originalUsers.putIfAbsent(username, foundUsers.get(username));
+        }
+    }
+
+    @Override
+    public void addUser(User user) throws UserAlreadyExistsException {
+        if (getUserByUsername(user.getUsername()) != null) {
+            throw new UserAlreadyExistsException("User already found in database");
+        }
+        if (getUserByEmail(user.getEmail().getValue()) != null) {
+            throw new EmailAlreadyExistsException("Email already found in database");
+        }
+
+        changes.put(user.getUsername(), new User(user));
+    }
+
+    @Override
+    public User getUserByUsername(String username) {
+        User user = changes.containsKey(username) ? changes.get(username) : getOriginalUser(username);
+
+        // the caller may modify the user without replacing it
+        return user != null ? new User(user) : null;
+    }
+
+    @Override
+    public boolean mightContainUsername(String username) {
+        for (User user : changes.values()) {
+            if (user != null && user.getUsername().equals(username)) {
+                return true;
+            }
+        }
+
+        return storage.mightContainUsername(username);
+    }
+
+    /**
+     * Staged users are looked through first, then the underlying storage for a user who has not been changed.
+     */
+    @Override
+    public User getUserByEmail(String email) {
+        String normalizedEmail = Email.normalize(email);
+
+        for (User user : changes.values()) {
+            if (user != null && user.getEmail().getNormalizedValue().equals(normalizedEmail)) {
+                return new User(user);
+            }
+        }
+
+        User user = storage.getUserByEmail(email);
+        return user != null && !changes.containsKey(user.getUsername()) ? user : null;
+    }
+
+    @Override
+    public void forEachUser(Consumer<User> action) {
+        storage.forEachUser(user -> {
+            if (!changes.containsKey(user.getUsername())) {
+                action.accept(user);
+            }
+        });
+
+        for (User user : changes.values()) {
+            if (user != null) {
+                action.accept(new User(user));
+            }
+        }
+    }
+
+    @Override
+    public void removeUserByUsername(String username) {
+        getOriginalUser(username);
+        changes.put(username, null);
+    }
+
+    @Override
+    public void replaceUserByUsername(String username, User newUser) {
+        if (getUserByUsername(username) == null) {
+            return;
+        }
+
+        if (!username.equals(newUser.getUsername())) {
+            changes.put(username, null);
+            getOriginalUser(newUser.getUsername());
+        }
+
+        changes.put(newUser.getUsername(), new User(newUser));
+    }
+
+    @Override
+    public long getAdminCount() {
+        if (originalAdminCount == null) {
+            originalAdminCount = storage.getAdminCount();
+        }
+
+        long adminCount = originalAdminCount;
+        for (Map.Entry<String, User> change : changes.entrySet()) {
+            if (isAdmin(originalUsers.get(change.getKey()))) {
+                adminCount--;
+            }
+            if (isAdmin(change.getValue())) {
+                adminCount++;
+            }
+        }
+
+        return adminCount;
+    }
+
+    /**
+     * Writes all the staged changes to the underlying storage and starts over with none.
+     */
+    public void commit() {
+        storage.applyChanges(changes);
+
+        originalUsers.clear();
+        changes.clear();
+        originalAdminCount = null;
+    }
+
+    public Map<String, User> getChanges() {
+        return Collections.unmodifiableMap(changes);
+    }
+
+    private User getOriginalUser(String username) {
+        if (!originalUsers.containsKey(username)) {
+            originalUsers.put(username, storage.getUserByUsername(username));
+        }
+
+        return originalUsers.get(username);
+    }
+
+    private static boolean isAdmin(User user) {
+        return user != null && user.getAuthority() == Authority.ADMIN;
+    }
+}
@@ -1,6 +1,11 @@
 package bg.sofia.uni.fmi.mjt.authserver.storage;
 
+import bg.sofia.uni.fmi.mjt.authserver.config.Durability;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.GroupCommitLog;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.StripedLock;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.TextFileSnapshot;
 import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
 import bg.sofia.uni.fmi.mjt.authserver.user.Email;
 import bg.sofia.uni.fmi.mjt.authserver.user.Password;
@@ -9,21 +14,42 @@ import bg.sofia.uni.fmi.mjt.authserver.validation.EmailValidator;
 import bg.sofia.uni.fmi.mjt.authserver.validation.PasswordValidator;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
+import java.time.ZoneOffset;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.function.Consumer;
 
-public class TSVFileAuthStorage implements AuthStorage {
-    private static final Path TEMPORARY_FILE_PATH = Path.of("tmp-users.tsv");
+/**
+ * Keeps the users in a file, one per line.
+ * <p>
+ *     Reads do not lock, see {@link GroupCommitLog#read}. Changes are made one at a time per user,
+ *     by locking the usernames and emails they involve, so that e.g. two registrations with the same username
+ *     cannot both find it free, while changes to different users do not wait for each other until they write.
+ * </p>
+ * <p>
+ *     Reading every user, e.g. when the server starts, may go through a {@link TextFileSnapshot} of the file,
+ *     which loads the users without parsing their lines as long as the file has not changed since it was taken.
+ * </p>
+ */
+public class TSVFileAuthStorage implements AuthStorage, UserPersistence {
     private static final String DELIMITER = "\t";
+    private static final int USER_LOCK_STRIPE_COUNT = 64;
 
     private static final int INDEX_USERNAME = 0;
     private static final int INDEX_PASSWORD_HASH = 1;
@@ -35,134 +61,476 @@ public class TSVFileAuthStorage implements AuthStorage {
     private static final int INDEX_LOCKED_UNTIL = 7;
 
     private final Path databasePath;
+    private final GroupCommitLog log;
+    private final StripedLock userLocks;
+    private final TextFileSnapshot<User> snapshot;
+    private volatile UserStatistics statistics;
+    private volatile EmailIndex emailIndex;
 
     public TSVFileAuthStorage(Path databasePath) {
-        Objects.requireNonNull(databasePath);
-        this.databasePath = databasePath;
+        this(GroupCommitLog.forPath(Objects.requireNonNull(databasePath), Durability.NONE, 0));
+    }
+
+    /**
+     * @param log the log of the file, through which every write to it goes
+     */
+    public TSVFileAuthStorage(GroupCommitLog log) {
+        this(log, null);
+    }
+
+    /**
+     * @param log the log of the file, through which every write to it goes
+     * @param snapshotIntervalSeconds how often a snapshot of the users is taken in the background,
+     *                                no snapshots are used if it is not positive
+     */
+    public TSVFileAuthStorage(GroupCommitLog log, int snapshotIntervalSeconds) {
+        this(log, snapshotIntervalSeconds > 0
+                ? new TextFileSnapshot<>(log, new UserFormat(), snapshotIntervalSeconds)
+                : null);
+    }
+
+    private TSVFileAuthStorage(GroupCommitLog log, TextFileSnapshot<User> snapshot) {
+        Objects.requireNonNull(log);
+        this.log = log;
+        this.databasePath = log.getPath();
+        this.userLocks = new StripedLock(USER_LOCK_STRIPE_COUNT);
+        this.snapshot = snapshot;
+
+        // counted once, afterwards every change made through this storage keeps the counts and the index up to date
+        this.statistics = new UserStatistics();
+        this.emailIndex = new EmailIndex();
+        if (Files.exists(databasePath)) {
+            loadUsers(user -> {
+                statistics.add(user);
+                if (!emailIndex.addIfFree(user)) {
+                    System.out.println("The email of user " + user.getUsername() + " belongs to another user");
+                }
+            });
+        }
     }
 
     @Override
     public void addUser(User user) throws UserAlreadyExistsException {
-        if (getUserByUsername(user.getUsername()) != null) {
-            throw new UserAlreadyExistsException("User already found in database");
+        StripedLock.Locked locked = userLocks.lock(user.getUsername(), user.getEmail().getNormalizedValue());
+        try {
+            if (getUserByUsername(user.getUsername()) != null) {
+                throw new UserAlreadyExistsException("User already found in database");
+            }
+            if (getUserByEmail(user.getEmail().getValue()) != null) {
+                throw new EmailAlreadyExistsException("Email already found in database");
+            }
+
+            writeAddedUser(user);
+        } finally {
+            locked.unlock();
         }
 
-        try (var bufferedWriter = new BufferedWriter(new FileWriter(databasePath.toString(), true))) {
-            bufferedWriter.write(user.toStringWithDelimiter(DELIMITER) + System.lineSeparator());
+        sync();
+    }
+
+    /**
+     * Adds a user to the end of the file, without checking whether they are already in it.
+     */
+    @Override
+    public void writeAddedUser(User user) {
+        try {
+            log.write(user.toStringWithDelimiter(DELIMITER) + System.lineSeparator());
         } catch (IOException exception) {
             throw new RuntimeException("Could not write new user to file", exception);
         }
+
+        statistics.add(user);
+        emailIndex.add(user);
+    }
+
+    @Override
+    public void sync() {
+        try {
+            log.sync();
+        } catch (IOException exception) {
+            throw new RuntimeException("Could not commit users to file", exception);
+        }
     }
 
     @Override
     public User getUserByUsername(String username) {
-        User foundUser = null;
-
-        try (var bufferedReader = new BufferedReader(new FileReader(databasePath.toString()))) {
-            String line;
-
-            boolean found = false;
-            String[] tokens;
-            while ((line = bufferedReader.readLine()) != null && !found) {
-                tokens = line.split(DELIMITER);
-
-                if (tokens[INDEX_USERNAME].equals(username)) {
-                    Password passwordHash = new Password(tokens[INDEX_PASSWORD_HASH],
-                            new PasswordValidator(), Integer.parseInt(tokens[INDEX_FAILED_LOGIN_ATTEMPTS]));
-                    Email mail = new Email(tokens[INDEX_EMAIL], new EmailValidator());
-                    Authority authority = Authority.fromString(tokens[INDEX_AUTHORITY]);
-
-                    LocalDateTime lockedUntil;
-                    try {
-                        lockedUntil = LocalDateTime.parse(tokens[INDEX_LOCKED_UNTIL]);
-                    } catch (DateTimeParseException exception) {
-                        lockedUntil = null;
-                    }
-
-                    foundUser = new User(tokens[INDEX_USERNAME], passwordHash, tokens[INDEX_FIRST_NAME],
-                            tokens[INDEX_LAST_NAME], mail, authority, lockedUntil);
+        try {
+            return log.read(bufferedReader -> {
+                String line;
+                String[] tokens;
+                while ((line = bufferedReader.readLine()) != null) {
+                    tokens = line.split(DELIMITER);
 
-                    found = true;
+                    if (tokens[INDEX_USERNAME].equals(username)) {
+                        return parseUser(tokens);
+                    }
                 }
-            }
+
+                return null;
+            });
         } catch (FileNotFoundException exception) {
             throw new RuntimeException("Cannot open file for reading", exception);
         } catch (IOException exception) {
             throw new RuntimeException("There was an error retrieving user from database", exception);
         }
+    }
 
-        return foundUser;
+    /**
+     * Only the username is found through the index of the emails, the user is then read from the file,
+     * which is also how an entry left behind by a change made to the file outside this storage is noticed.
+     */
+    @Override
+    public User getUserByEmail(String email) {
+        String username = emailIndex.getUsername(email);
+        User user = username != null ? getUserByUsername(username) : null;
+
+        return user != null && user.getEmail().getNormalizedValue().equals(Email.normalize(email)) ? user : null;
     }
 
+    /**
+     * The users are read before the action is given any of them, since the reading may have to be repeated.
+     */
     @Override
-    public void replaceUserByUsername(String replacedUsername, User newUser) {
-        try (var bufferedReader = new BufferedReader(new FileReader(databasePath.toString()));
-             var bufferedWriter = new BufferedWriter(new FileWriter(TEMPORARY_FILE_PATH.toString()))) {
+    public void forEachUser(Consumer<User> action) {
+        readUsers(false).forEach(action);
+    }
 
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                String[] tokens = line.split(DELIMITER);
+    /**
+     * Reads every user like {@link #forEachUser(Consumer)}, but from the snapshot, if it is up to date,
+     * since this is done when the server starts, before anything has been changed.
+     */
+    @Override
+    public void loadUsers(Consumer<User> action) {
+        readUsers(true).forEach(action);
+    }
+
+    private List<User> readUsers(boolean fromSnapshot) {
+        try {
+            return fromSnapshot && snapshot != null ? snapshot.readRecords() : log.read(bufferedReader -> {
+                List<User> readUsers = new ArrayList<>();
 
-                if (tokens[INDEX_USERNAME].equals(replacedUsername)) {
-                    bufferedWriter.write(newUser.toStringWithDelimiter(DELIMITER) + System.lineSeparator());
-                } else {
-                    bufferedWriter.write(line + System.lineSeparator());
+                String line;
+                while ((line = bufferedReader.readLine()) != null) {
+                    readUsers.add(parseUser(line.split(DELIMITER)));
                 }
-            }
 
+                return readUsers;
+            });
         } catch (FileNotFoundException exception) {
-            throw new RuntimeException("File was not found", exception);
+            throw new RuntimeException("Cannot open file for reading", exception);
         } catch (IOException exception) {
-            throw new RuntimeException("There was an error while trying to replace user", exception);
+            throw new RuntimeException("There was an error reading users from database", exception);
         }
+    }
+
+    @Override
+    public void writeReplacedUser(String username, User newUser) {
+        replaceUserByUsername(username, newUser);
+    }
+
+    @Override
+    public void writeRemovedUser(String username) {
+        removeUserByUsername(username);
+    }
+
+    @Override
+    public void writeChanges(Map<String, User> changes) {
+        applyChanges(changes);
+    }
+
+    /**
+     * Replaces the whole file with the given users. No other change is made meanwhile,
+     * so that none is lost from the counts and the index which are replaced along with the file.
+     */
+    public void writeAllUsers(Collection<User> users) {
+        UserStatistics newStatistics = new UserStatistics();
+        EmailIndex newEmailIndex = new EmailIndex();
 
+        StripedLock.Locked locked = userLocks.lockAll();
         try {
-            Files.move(Path.of(TEMPORARY_FILE_PATH.toString()), databasePath, StandardCopyOption.REPLACE_EXISTING);
+            log.rewrite(bufferedWriter -> {
+                for (User user : users) {
+                    bufferedWriter.write(user.toStringWithDelimiter(DELIMITER) + System.lineSeparator());
+                    newStatistics.add(user);
+                    newEmailIndex.add(user);
+                }
+            });
+
+            statistics = newStatistics;
+            emailIndex = newEmailIndex;
         } catch (IOException exception) {
-            throw new RuntimeException("Could not rename temporary database file", exception);
+            throw new RuntimeException("There was an error while trying to write users", exception);
+        } finally {
+            locked.unlock();
         }
     }
 
     @Override
-    public void removeUserByUsername(String username) {
-        try (var bufferedReader = new BufferedReader(new FileReader(databasePath.toString()));
-             var bufferedWriter = new BufferedWriter(new FileWriter(TEMPORARY_FILE_PATH.toString()))) {
+    public Map<String, User> getUsersByUsernames(Collection<String> usernames) {
+        Set<String> queriedUsernames = new HashSet<>(usernames);
+
+        try {
+            return log.read(bufferedReader -> {
+                Map<String, User> foundUsers = new HashMap<>();
 
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                String[] tokens = line.split(DELIMITER);
+                String line;
+                while ((line = bufferedReader.readLine()) != null && foundUsers.size() < queriedUsernames.size()) {
+                    String[] tokens = line.split(DELIMITER);
 
-                if (!tokens[INDEX_USERNAME].equals(username)) {
-                    bufferedWriter.write(line + System.lineSeparator());
+                    if (queriedUsernames.contains(tokens[INDEX_USERNAME])) {
+                        foundUsers.put(tokens[INDEX_USERNAME], parseUser(tokens));
+                    }
                 }
-            }
 
+                return foundUsers;
+            });
+        } catch (FileNotFoundException exception) {
+            throw new RuntimeException("Cannot open file for reading", exception);
+        } catch (IOException exception) {
+            throw new RuntimeException("There was an error retrieving users from database", exception);
+        }
+    }
+
+    /**
+     * Rewrites the file once for all the changes, instead of once per replaced or removed user.
+     * Users who were not in the file yet are appended at its end, in the order of the changes.
+     */
+    @Override
+    public void applyChanges(Map<String, User> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+
+        Map<String, User> pendingChanges = new LinkedHashMap<>(changes);
+        List<User> previousUsers = new ArrayList<>();
+
+        List<String> lockedKeys = new ArrayList<>(changes.keySet());
+        changes.values().stream()
+                .filter(Objects::nonNull)
+                .forEach(newUser -> {
+                    lockedKeys.add(newUser.getUsername());
+                    lockedKeys.add(newUser.getEmail().getNormalizedValue());
+                });
+
+        StripedLock.Locked locked = userLocks.lock(lockedKeys);
+        try {
+            log.rewrite(bufferedWriter -> {
+                try (var bufferedReader = new BufferedReader(new FileReader(databasePath.toString()))) {
+
+                    String line;
+                    while ((line = bufferedReader.readLine()) != null) {
+                        String[] tokens = line.split(DELIMITER);
+
+                        if (!pendingChanges.containsKey(tokens[INDEX_USERNAME])) {
+                            bufferedWriter.write(line + System.lineSeparator());
+                            continue;
+                        }
+
+                        previousUsers.add(parseUser(tokens));
+                        User newUser = pendingChanges.remove(tokens[INDEX_USERNAME]);
+                        if (newUser != null) {
+                            bufferedWriter.write(newUser.toStringWithDelimiter(DELIMITER) + System.lineSeparator());
+                        }
+                    }
+
+                    for (User newUser : pendingChanges.values()) {
+                        if (newUser != null) {
+                            bufferedWriter.write(newUser.toStringWithDelimiter(DELIMITER) + System.lineSeparator());
+                        }
+                    }
+                }
+            });
+
+            previousUsers.forEach(previousUser -> {
+                statistics.remove(previousUser);
+                emailIndex.remove(previousUser);
+            });
+            changes.values().stream()
+                    .filter(Objects::nonNull)
+                    .forEach(newUser -> {
+                        statistics.add(newUser);
+                        emailIndex.add(newUser);
+                    });
         } catch (FileNotFoundException exception) {
             throw new RuntimeException("File was not found", exception);
         } catch (IOException exception) {
-            throw new RuntimeException("There was an error while trying to replace user", exception);
+            throw new RuntimeException("There was an error while trying to apply changes to users", exception);
+        } finally {
+            locked.unlock();
         }
+    }
 
+    @Override
+    public void replaceUserByUsername(String replacedUsername, User newUser) {
+        List<User> previousUsers = new ArrayList<>();
+
+        StripedLock.Locked locked = userLocks.lock(replacedUsername, newUser.getUsername(),
+                newUser.getEmail().getNormalizedValue());
         try {
-            Files.move(TEMPORARY_FILE_PATH, databasePath, StandardCopyOption.REPLACE_EXISTING);
+            User replacedUser = getUserByUsername(replacedUsername);
+            if (replacedUser == null) {
+                return;
+            }
+
+            // whoever else might take the new username or email waits for the same stripes
+            if (!replacedUsername.equals(newUser.getUsername()) && getUserByUsername(newUser.getUsername()) != null) {
+                throw new IllegalArgumentException("Cannot rename user to a taken username",
+                        new UserAlreadyExistsException("User already found in database"));
+            }
+            if (!replacedUser.getEmail().getNormalizedValue().equals(newUser.getEmail().getNormalizedValue())) {
+                User emailOwner = getUserByEmail(newUser.getEmail().getValue());
+
+                if (emailOwner != null && !emailOwner.getUsername().equals(replacedUsername)) {
+                    throw new IllegalArgumentException("Cannot change user to a taken email",
+                            new EmailAlreadyExistsException("Email already found in database"));
+                }
+            }
+
+            log.rewrite(bufferedWriter -> {
+                try (var bufferedReader = new BufferedReader(new FileReader(databasePath.toString()))) {
+
+                    String line;
+                    while ((line = bufferedReader.readLine()) != null) {
+                        String[] tokens = line.split(DELIMITER);
+
+                        if (tokens[INDEX_USERNAME].equals(replacedUsername)) {
+                            previousUsers.add(parseUser(tokens));
+                            bufferedWriter.write(newUser.toStringWithDelimiter(DELIMITER) + System.lineSeparator());
+                        } else {
+                            bufferedWriter.write(line + System.lineSeparator());
+                        }
+                    }
+                }
+            });
+
+            previousUsers.forEach(previousUser -> {
+                statistics.change(previousUser, newUser);
+                emailIndex.change(previousUser, newUser);
+            });
+        } catch (FileNotFoundException exception) {
+            throw new RuntimeException("File was not found", exception);
         } catch (IOException exception) {
-            throw new RuntimeException("Could not rename temporary database file", exception);
+            throw new RuntimeException("There was an error while trying to replace user", exception);
+        } finally {
+            locked.unlock();
         }
     }
 
     @Override
-    public long getAdminCount() {
-        try (var bufferedReader = new BufferedReader(new FileReader(databasePath.toString()))) {
-            return bufferedReader.lines()
-                    .filter(line -> {
+    public void removeUserByUsername(String username) {
+        List<User> previousUsers = new ArrayList<>();
+
+        StripedLock.Locked locked = userLocks.lock(username);
+        try {
+            log.rewrite(bufferedWriter -> {
+                try (var bufferedReader = new BufferedReader(new FileReader(databasePath.toString()))) {
+
+                    String line;
+                    while ((line = bufferedReader.readLine()) != null) {
                         String[] tokens = line.split(DELIMITER);
-                        return tokens[INDEX_AUTHORITY].equalsIgnoreCase(Authority.ADMIN.toString());
-                    })
-                    .count();
+
+                        if (!tokens[INDEX_USERNAME].equals(username)) {
+                            bufferedWriter.write(line + System.lineSeparator());
+                        } else {
+                            previousUsers.add(parseUser(tokens));
+                        }
+                    }
+                }
+            });
+
+            previousUsers.forEach(previousUser -> {
+                statistics.remove(previousUser);
+                emailIndex.remove(previousUser);
+            });
         } catch (FileNotFoundException exception) {
             throw new RuntimeException("File was not found", exception);
         } catch (IOException exception) {
-            throw new RuntimeException("Could not rename temporary database file", exception);
+            throw new RuntimeException("There was an error while trying to replace user", exception);
+        } finally {
+            locked.unlock();
+        }
+    }
+
+    @Override
+    public long getAdminCount() {
+        return statistics.getCount(Authority.ADMIN);
+    }
+
+    /**
+     * The counts assume that the file is changed only through this storage.
+     */
+    @Override
+    public UserStatistics getUserStatistics() {
+        return new UserStatistics(statistics);
+    }
+
+    static String formatUser(User user) {
+        return user.toStringWithDelimiter(DELIMITER);
+    }
+
+    static User parseUser(String line) {
+        return parseUser(line.split(DELIMITER));
+    }
+
+    private static User parseUser(String[] tokens) {
+        Password passwordHash = new Password(tokens[INDEX_PASSWORD_HASH],
+                new PasswordValidator(), Integer.parseInt(tokens[INDEX_FAILED_LOGIN_ATTEMPTS]));
+        Email mail = new Email(tokens[INDEX_EMAIL], new EmailValidator());
+        Authority authority = Authority.fromString(tokens[INDEX_AUTHORITY]);
+
+        LocalDateTime lockedUntil;
+        try {
+            lockedUntil = LocalDateTime.parse(tokens[INDEX_LOCKED_UNTIL]);
+        } catch (DateTimeParseException exception) {
+            lockedUntil = null;
+        }
+
+        return new User(tokens[INDEX_USERNAME], passwordHash, tokens[INDEX_FIRST_NAME],
+                tokens[INDEX_LAST_NAME], mail, authority, lockedUntil);
+    }
+
+    /**
+     * Keeps a user in a snapshot as their text fields, their failed login attempts and, if they are locked,
+     * the UTC seconds and nanoseconds of their lock time.
+     */
+    private static class UserFormat implements TextFileSnapshot.Format<User> {
+        @Override
+        public User parse(String line) {
+            return parseUser(line);
+        }
+
+        @Override
+        public void write(DataOutputStream output, User user) throws IOException {
+            output.writeUTF(user.getUsername());
+            output.writeUTF(user.getPasswordHash().getValue());
+            output.writeUTF(user.getFirstName());
+            output.writeUTF(user.getLastName());
+            output.writeUTF(user.getEmail().getValue());
+            output.writeUTF(user.getAuthority().toString());
+            output.writeInt(user.getPasswordHash().getFailedAttempts());
+
+            output.writeBoolean(user.getLockedUntil() != null);
+            if (user.getLockedUntil() != null) {
+                output.writeLong(user.getLockedUntil().toEpochSecond(ZoneOffset.UTC));
+                output.writeInt(user.getLockedUntil().getNano());
+            }
+        }
+
+        @Override
+        public User read(DataInputStream input) throws IOException {
+            String username = input.readUTF();
+            String passwordHash = input.readUTF();
+            String firstName = input.readUTF();
+            String lastName = input.readUTF();
+            Email email = new Email(input.readUTF(), new EmailValidator());
+            Authority authority = Authority.fromString(input.readUTF());
+            Password password = new Password(passwordHash, new PasswordValidator(), input.readInt());
+
+            LocalDateTime lockedUntil = input.readBoolean()
+                    ? LocalDateTime.ofEpochSecond(input.readLong(), input.readInt(), ZoneOffset.UTC)
+                    : null;
+
+            return new User(username, password, firstName, lastName, email, authority, lockedUntil);
         }
     }
 }
@@ -0,0 +1,292 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.persistence.GroupCommitLog;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Persists users as a base TSV file plus an append-only journal of the changes made since it was written,
+ * so that every change costs one appended record instead of a rewrite of the whole file.
+ * <p>
+ *     Every record carries a sequence number and either upserts a whole user or deletes one:
+ *     {@code <sequence>\tUPSERT\t<user>} or {@code <sequence>\tDELETE\t<username>}.
+ *     Once the journal holds enough records it is set aside as a segment, new records go to a fresh journal,
+ *     and a background thread folds the segment into a new base file and deletes it.
+ *     Loading replays the base file, a segment left behind by an interrupted compaction and the journal, in order.
+ *     Replaying a record more than once does not change the outcome, so a compaction may stop at any point.
+ *     The new base file replaces the old one, and the segment is deleted, while no users are being loaded,
+ *     so that loading never reads the old base file and then misses the segment folded into the new one.
+ * </p>
+ */
+public class UserJournal implements UserPersistence {
+    private static final String DELIMITER = "\t";
+    private static final String UPSERT = "UPSERT";
+    private static final String DELETE = "DELETE";
+    private static final String SEGMENT_SUFFIX = ".compacting";
+
+    private static final int INDEX_SEQUENCE_NUMBER = 0;
+    private static final int INDEX_TYPE = 1;
+    private static final int INDEX_PAYLOAD = 2;
+    private static final int RECORD_TOKEN_COUNT = 3;
+
+    private final TSVFileAuthStorage baseStorage;
+    private final GroupCommitLog journalLog;
+    private final Path journalPath;
+    private final Path segmentPath;
+    private final int compactionThreshold;
+    private final ExecutorService compactor;
+    // held while the base file and the segment are read together, or replaced together
+    private final Object baseLock = new Object();
+
+    private long nextSequenceNumber;
+    private long journalRecordCount;
+    private boolean compacting;
+
+    /**
+     * @param baseStorage the base file
+     * @param journalLog the log of the journal next to it
+     * @param compactionThreshold the number of records after which the journal is compacted
+     */
+    public UserJournal(TSVFileAuthStorage baseStorage, GroupCommitLog journalLog, int compactionThreshold) {
+        this.baseStorage = baseStorage;
+        this.journalLog = journalLog;
+        this.journalPath = journalLog.getPath();
+        this.segmentPath = journalPath.resolveSibling(journalPath.getFileName() + SEGMENT_SUFFIX);
+        this.compactionThreshold = compactionThreshold;
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-journal-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        journalRecordCount = repair(journalPath);
+
+        // the sequence continues after the last record which made it to the disk
+        Map<String, User> ignoredUsers = new LinkedHashMap<>();
+        nextSequenceNumber = Math.max(replay(segmentPath, ignoredUsers), replay(journalPath, ignoredUsers)) + 1;
+
+        // a segment left behind has to be compacted before the journal can be set aside again
+        if (Files.exists(segmentPath) || journalRecordCount >= compactionThreshold) {
+            synchronized (this) {
+                startCompaction();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void loadUsers(Consumer<User> action) {
+        Map<String, User> users = new LinkedHashMap<>();
+
+        synchronized (baseLock) {
+            baseStorage.loadUsers(user -> users.put(user.getUsername(), user));
+            replay(segmentPath, users);
+        }
+        replay(journalPath, users);
+
+        users.values().forEach(action);
+    }
+
+    @Override
+    public synchronized void writeAddedUser(User user) {
+        append(UPSERT, TSVFileAuthStorage.formatUser(user));
+    }
+
+    @Override
+    public synchronized void writeReplacedUser(String username, User newUser) {
+        if (!username.equals(newUser.getUsername())) {
+            append(DELETE, username);
+        }
+        append(UPSERT, TSVFileAuthStorage.formatUser(newUser));
+    }
+
+    @Override
+    public synchronized void writeRemovedUser(String username) {
+        append(DELETE, username);
+    }
+
+    @Override
+    public synchronized void writeChanges(Map<String, User> changes) {
+        changes.forEach((username, user) -> {
+            if (user == null) {
+                append(DELETE, username);
+            } else {
+                append(UPSERT, TSVFileAuthStorage.formatUser(user));
+            }
+        });
+    }
+
+    /**
+     * Waits outside the monitor, so that the records of other changes can be appended meanwhile
+     * and committed together with these.
+     */
+    @Override
+    public void sync() {
+        try {
+            journalLog.sync();
+        } catch (IOException exception) {
+            throw new RuntimeException("Could not commit users journal", exception);
+        }
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdown();
+
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized long getJournalRecordCount() {
+        return journalRecordCount;
+    }
+
+    // must be called with the monitor held
+    private void append(String type, String payload) {
+        try {
+            journalLog.write(nextSequenceNumber + DELIMITER + type + DELIMITER + payload + System.lineSeparator());
+        } catch (IOException exception) {
+            throw new RuntimeException("Could not append to users journal", exception);
+        }
+
+        nextSequenceNumber++;
+        journalRecordCount++;
+
+        if (journalRecordCount >= compactionThreshold && !compacting) {
+            startCompaction();
+        }
+    }
+
+    // must be called with the monitor held
+    private void startCompaction() {
+        // a segment whose compaction has failed is compacted again before the journal is set aside
+        if (!Files.exists(segmentPath)) {
+            try {
+                journalLog.moveTo(segmentPath);
+            } catch (IOException exception) {
+                throw new RuntimeException("Could not set users journal aside for compaction", exception);
+            }
+
+            journalRecordCount = 0;
+        }
+
+        compacting = true;
+        compactor.execute(this::compact);
+    }
+
+    private void compact() {
+        try {
+            // nothing but this thread writes the base file or the segment while it is compacting
+            Map<String, User> users = new LinkedHashMap<>();
+            baseStorage.forEachUser(user -> users.put(user.getUsername(), user));
+            replay(segmentPath, users);
+
+            // appends go on meanwhile, only loading waits
+            synchronized (baseLock) {
+                baseStorage.writeAllUsers(users.values());
+                Files.delete(segmentPath);
+            }
+        } catch (RuntimeException | IOException exception) {
+            System.out.println("Could not compact users journal:");
+            System.out.println(exception.getMessage());
+        } finally {
+            synchronized (this) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Applies the records of a journal file to the given users, stopping at a torn last record.
+     * @return the sequence number of the last applied record, 0 if there were none
+     */
+    private static long replay(Path path, Map<String, User> users) {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        long lastSequenceNumber = 0;
+        try (var bufferedReader = new BufferedReader(new FileReader(path.toString()))) {
+            String line;
+            while ((line = bufferedReader.readLine()) != null) {
+                try {
+                    lastSequenceNumber = applyRecord(line, users);
+                } catch (RuntimeException exception) {
+                    // only the last record can be incomplete, after a crash in the middle of appending it
+                    break;
+                }
+            }
+        } catch (IOException exception) {
+            throw new RuntimeException("There was an error replaying users journal", exception);
+        }
+
+        return lastSequenceNumber;
+    }
+
+    /**
+     * @return the sequence number of the record
+     * @throws RuntimeException if the record is not valid
+     */
+    private static long applyRecord(String line, Map<String, User> users) {
+        String[] tokens = line.split(DELIMITER, RECORD_TOKEN_COUNT);
+        long sequenceNumber = Long.parseLong(tokens[INDEX_SEQUENCE_NUMBER]);
+
+        if (tokens[INDEX_TYPE].equals(UPSERT)) {
+            User user = TSVFileAuthStorage.parseUser(tokens[INDEX_PAYLOAD]);
+            users.put(user.getUsername(), user);
+        } else if (tokens[INDEX_TYPE].equals(DELETE)) {
+            users.remove(tokens[INDEX_PAYLOAD]);
+        } else {
+            throw new IllegalArgumentException("Unknown journal record type: " + tokens[INDEX_TYPE]);
+        }
+
+        return sequenceNumber;
+    }
+
+    /**
+     * Cuts a torn last record off the journal, so that the records appended after it are not lost.
+     * @return the number of valid records in the journal
+     */
+    private static long repair(Path path) {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        try {
+            List<String> lines = Files.readAllLines(path);
+            Map<String, User> ignoredUsers = new LinkedHashMap<>();
+
+            int validLineCount = 0;
+            try {
+                for (String line : lines) {
+                    applyRecord(line, ignoredUsers);
+                    validLineCount++;
+                }
+            } catch (RuntimeException exception) {
+                System.out.println("Dropping an invalid record from the users journal:");
+                System.out.println(exception.getMessage());
+
+                List<String> validLines = lines.subList(0, validLineCount);
+                Files.write(path, validLines);
+            }
+
+            return validLineCount;
+        } catch (IOException exception) {
+            throw new RuntimeException("There was an error reading users journal", exception);
+        }
+    }
+}
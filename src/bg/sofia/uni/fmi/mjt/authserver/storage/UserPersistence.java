@@ -0,0 +1,54 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * <p>
+ *     Where a storage which keeps its users in memory loads them from and writes its changes through to.
+ *     It is told about changes only after they have been checked against the users in memory,
+ *     so it does not have to look anything up.
+ * </p>
+ */
+public interface UserPersistence extends Closeable {
+    /**
+     * Reads every persisted user.
+     * @param action the action performed for every user
+     */
+    void loadUsers(Consumer<User> action);
+
+    /**
+     * @param user a user who did not exist before
+     */
+    void writeAddedUser(User user);
+
+    /**
+     * @param username the username of an existing user
+     * @param newUser the new version of the user, possibly with a new username
+     */
+    void writeReplacedUser(String username, User newUser);
+
+    /**
+     * @param username the username of an existing user
+     */
+    void writeRemovedUser(String username);
+
+    /**
+     * @param changes the new versions of users by their usernames, {@code null} for removed users
+     */
+    void writeChanges(Map<String, User> changes);
+
+    /**
+     * Waits for the changes written so far to be committed, as far as the configured durability asks for.
+     * It is called after the changes have become visible, so that other changes can be written meanwhile.
+     */
+    default void sync() {
+    }
+
+    @Override
+    default void close() {
+    }
+}
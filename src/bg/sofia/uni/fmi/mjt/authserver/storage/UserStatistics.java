@@ -0,0 +1,118 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+
+import java.time.LocalDateTime;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Counts of the users of a storage, kept up to date as users are added, changed and removed,
+ * so that they do not have to be counted on every request.
+ * <p>
+ *     Since locks expire on their own, the lock expiries still to come are kept instead of a count,
+ *     and the expired ones are dropped whenever the locked users are counted.
+ * </p>
+ */
+public class UserStatistics {
+    private final long[] countsByAuthority;
+    private final NavigableMap<LocalDateTime, Integer> lockExpiries;
+    private long userCount;
+    private long failedAttemptsCount;
+
+    public UserStatistics() {
+        this.countsByAuthority = new long[Authority.values().length];
+        this.lockExpiries = new TreeMap<>();
+    }
+
+    /**
+     * Creates a copy which does not change along with the original.
+     */
+    public UserStatistics(UserStatistics other) {
+        synchronized (other) {
+            this.countsByAuthority = other.countsByAuthority.clone();
+            this.lockExpiries = new TreeMap<>(other.lockExpiries);
+            this.userCount = other.userCount;
+            this.failedAttemptsCount = other.failedAttemptsCount;
+        }
+    }
+
+    public synchronized void add(User user) {
+        userCount++;
+        countsByAuthority[user.getAuthority().ordinal()]++;
+
+        if (user.getPasswordHash().getFailedAttempts() > 0) {
+            failedAttemptsCount++;
+        }
+
+        // a lock which has already expired is never counted
+        if (user.isLocked()) {
+            lockExpiries.merge(user.getLockedUntil(), 1, Integer::sum);
+        }
+    }
+
+    public synchronized void remove(User user) {
+        userCount--;
+        countsByAuthority[user.getAuthority().ordinal()]--;
+
+        if (user.getPasswordHash().getFailedAttempts() > 0) {
+            failedAttemptsCount--;
+        }
+
+        // the expiry may have been dropped already, in which case it no longer counts anyway
+        if (user.getLockedUntil() != null) {
+            lockExpiries.computeIfPresent(user.getLockedUntil(), (lockedUntil, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * Adds the counts of other users, e.g. those of another partition of the same storage.
+     */
+    public synchronized void addAll(UserStatistics other) {
+        UserStatistics otherCopy = new UserStatistics(other);
+
+        userCount += otherCopy.userCount;
+        failedAttemptsCount += otherCopy.failedAttemptsCount;
+        for (int i = 0; i < countsByAuthority.length; i++) {
+            countsByAuthority[i] += otherCopy.countsByAuthority[i];
+        }
+        otherCopy.lockExpiries.forEach((lockedUntil, count) -> lockExpiries.merge(lockedUntil, count, Integer::sum));
+    }
+
+    /**
+     * @param previousUser the user before the change, {@code null} if they were added
+     * @param newUser the user after the change, {@code null} if they were removed
+     */
+    public synchronized void change(User previousUser, User newUser) {
+        if (previousUser != null) {
+            remove(previousUser);
+        }
+        if (newUser != null) {
+            add(newUser);
+        }
+    }
+
+    public synchronized long getUserCount() {
+        return userCount;
+    }
+
+    public synchronized long getCount(Authority authority) {
+        return countsByAuthority[authority.ordinal()];
+    }
+
+    public synchronized long getLockedCount() {
+        lockExpiries.headMap(LocalDateTime.now(), true).clear();
+
+        return lockExpiries.values().stream()
+                .mapToLong(Integer::longValue)
+                .sum();
+    }
+
+    /**
+     * @return the number of users who have failed to log in since their last successful login
+     */
+    public synchronized long getFailedAttemptsCount() {
+        return failedAttemptsCount;
+    }
+}
@@ -6,6 +6,7 @@ import bg.sofia.uni.fmi.mjt.authserver.validation.Validatable;
 import bg.sofia.uni.fmi.mjt.authserver.validation.Validator;
 
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 
 public class Email implements Validatable {
@@ -33,6 +34,17 @@ public class Email implements Validatable {
         return value;
     }
 
+    /**
+     * @return the form in which two emails are the same if they differ only in case or surrounding spaces
+     */
+    public String getNormalizedValue() {
+        return normalize(value);
+    }
+
+    public static String normalize(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
     @Override
     public boolean equals(Object other) {
         if (this == other) {
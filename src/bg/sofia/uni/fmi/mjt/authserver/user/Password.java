@@ -29,6 +29,12 @@ public class Password implements Validatable {
         }
     }
 
+    public Password(Password other) {
+        this.value = other.value;
+        this.validator = other.validator;
+        this.failedAttempts = other.failedAttempts;
+    }
+
     @Override
     public void validate() throws ValidationException {
         if (!validator.validate(this)) {
@@ -53,12 +59,16 @@ public class Password implements Validatable {
         boolean correct = BCrypt.checkpw(guess, value);
 
         if (!correct) {
-            failedAttempts++;
+            addFailedAttempt();
         }
 
         return correct;
     }
 
+    public void addFailedAttempt() {
+        failedAttempts++;
+    }
+
     public int getFailedAttempts() {
         return failedAttempts;
     }
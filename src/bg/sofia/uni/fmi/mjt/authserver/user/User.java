@@ -28,6 +28,14 @@ public class User {
         this.lockedUntil = lockedUntil;
     }
 
+    /**
+     * Creates a copy which can be changed without affecting the original, down to the password's failed attempts.
+     */
+    public User(User other) {
+        this(other.username, new Password(other.passwordHash), other.firstName, other.lastName,
+                other.email, other.authority, other.lockedUntil);
+    }
+
     public void setUsername(String username) {
         this.username = username;
     }
@@ -9,6 +9,7 @@ import bg.sofia.uni.fmi.mjt.authserver.exceptions.LockedUserException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.ValidationException;
 import bg.sofia.uni.fmi.mjt.authserver.storage.AuthStorage;
+import bg.sofia.uni.fmi.mjt.authserver.storage.StorageTestFiles;
 import bg.sofia.uni.fmi.mjt.authserver.storage.TSVFileAuthStorage;
 import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
 import bg.sofia.uni.fmi.mjt.authserver.user.Email;
@@ -16,15 +17,23 @@ import bg.sofia.uni.fmi.mjt.authserver.user.Password;
 import bg.sofia.uni.fmi.mjt.authserver.user.User;
 import bg.sofia.uni.fmi.mjt.authserver.validation.EmailValidator;
 import bg.sofia.uni.fmi.mjt.authserver.validation.PasswordValidator;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -80,6 +89,8 @@ public class AuthenticatorTest {
     private static AuthStorage storage;
     private static AuthSessionManager sessionManager;
 
+    private Path directory;
+
     @BeforeClass
     public static void initAuthenticator() {
         storage = new TSVFileAuthStorage(DEFAULT_USERS_PATH);
@@ -94,6 +105,11 @@ public class AuthenticatorTest {
         }
     }
 
+    @After
+    public void deleteFiles() throws IOException {
+        StorageTestFiles.deleteDirectory(directory);
+    }
+
     private void registerDefaultUser() throws UserAlreadyExistsException, ValidationException {
         authenticator.registerUser(DEFAULT_USERNAME,
                 new Password(DEFAULT_PASSWORD, DEFAULT_PASS_VALIDATOR),
@@ -268,6 +284,48 @@ public class AuthenticatorTest {
         assertTrue(storage.getUserByUsername(DEFAULT_USERNAME).isLocked());
     }
 
+    @Test
+    public void testConcurrentFailedLoginsAreAllCounted() throws Exception {
+        directory = StorageTestFiles.createDirectory("authenticator-test");
+        AuthConfiguration configuration = AuthConfiguration.builder(directory.resolve("users.tsv"),
+                directory.resolve("sessions.tsv"), directory.resolve("audit.log"))
+                .setMaxLoginAttemptFailures(100)
+                .build();
+        Files.createFile(configuration.getUsersDatabasePath());
+        Files.createFile(configuration.getSessionsDatabasePath());
+
+        AuthStorage otherStorage = new TSVFileAuthStorage(configuration.getUsersDatabasePath());
+        Authenticator otherAuthenticator = new Authenticator(configuration, otherStorage,
+                new TSVFileSessionManager(configuration, otherStorage));
+        otherAuthenticator.registerUser(DEFAULT_USERNAME, new Password(DEFAULT_PASSWORD, DEFAULT_PASS_VALIDATOR),
+                DEFAULT_FIRST_NAME, DEFAULT_LAST_NAME, new Email(DEFAULT_EMAIL, DEFAULT_EMAIL_VALIDATOR));
+
+        int threadCount = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < threadCount; i++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                try {
+                    otherAuthenticator.logUserInWithPassword(DEFAULT_USERNAME, SECOND_VALID_PASSWORD);
+                } catch (FailedLoginException exception) {
+                    // expected
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(threadCount,
+                otherStorage.getUserByUsername(DEFAULT_USERNAME).getPasswordHash().getFailedAttempts());
+    }
+
     @Test
     public void testValidLoginWithPasswordSetsNewUserSession() throws UserAlreadyExistsException,
             ValidationException, AuthenticationException {
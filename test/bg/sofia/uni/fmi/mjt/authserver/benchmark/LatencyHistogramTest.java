@@ -0,0 +1,91 @@
+package bg.sofia.uni.fmi.mjt.authserver.benchmark;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    private static final long HIGHEST_TRACKABLE_VALUE = 60_000_000;
+
+    @Test
+    public void testPercentilesOfUniformValues() {
+        LatencyHistogram histogram = new LatencyHistogram(HIGHEST_TRACKABLE_VALUE);
+        for (int i = 1; i <= 1000; i++) {
+            histogram.recordValue(i);
+        }
+
+        assertEquals(1000, histogram.getTotalCount());
+        assertEquals(500, histogram.getValueAtPercentile(50));
+        assertEquals(990, histogram.getValueAtPercentile(99));
+        assertEquals(1000, histogram.getValueAtPercentile(100));
+        assertEquals(500.5, histogram.getMean(), 0.001);
+    }
+
+    @Test
+    public void testLargeValuesKeepThreeSignificantDigits() {
+        LatencyHistogram histogram = new LatencyHistogram(HIGHEST_TRACKABLE_VALUE);
+        histogram.recordValue(1_234_567);
+
+        long value = histogram.getValueAtPercentile(50);
+        assertTrue("Value should be within 0.1% but was " + value, Math.abs(value - 1_234_567) <= 1_235);
+        assertEquals(1_234_567, histogram.getMaxValue());
+    }
+
+    @Test
+    public void testValuesAboveTheTrackableRangeAreClamped() {
+        LatencyHistogram histogram = new LatencyHistogram(1000);
+        histogram.recordValue(5000);
+
+        assertEquals(1000, histogram.getMaxValue());
+    }
+
+    @Test
+    public void testCoordinatedOmissionCorrectionAddsMissedRequests() {
+        LatencyHistogram uncorrected = new LatencyHistogram(HIGHEST_TRACKABLE_VALUE);
+        LatencyHistogram corrected = new LatencyHistogram(HIGHEST_TRACKABLE_VALUE);
+
+        // a client sending every 100 us, stalled once for 10 ms
+        for (int i = 0; i < 100; i++) {
+            uncorrected.recordValue(100);
+            corrected.recordValueWithExpectedInterval(100, 100);
+        }
+        uncorrected.recordValue(10_000);
+        corrected.recordValueWithExpectedInterval(10_000, 100);
+
+        assertEquals(101, uncorrected.getTotalCount());
+        assertEquals(100, uncorrected.getValueAtPercentile(99));
+
+        assertEquals(200, corrected.getTotalCount());
+        assertTrue(corrected.getValueAtPercentile(75) >= 5_000);
+        assertEquals(10_000, corrected.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testAddMergesCounts() {
+        LatencyHistogram first = new LatencyHistogram(HIGHEST_TRACKABLE_VALUE);
+        LatencyHistogram second = new LatencyHistogram(HIGHEST_TRACKABLE_VALUE);
+        first.recordValue(10);
+        second.recordValue(20);
+        second.recordValue(30);
+
+        first.add(second);
+
+        assertEquals(3, first.getTotalCount());
+        assertEquals(30, first.getMaxValue());
+        assertEquals(20, first.getValueAtPercentile(50));
+    }
+
+    @Test
+    public void testParseMix() {
+        assertEquals(Map.of(LoadOperation.LOGIN, 4, LoadOperation.LOGOUT, 1),
+                Workload.parseMix("login:4, logout:1"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testParseMixRejectsUnknownOperations() {
+        Workload.parseMix("login:4,fly:1");
+    }
+}
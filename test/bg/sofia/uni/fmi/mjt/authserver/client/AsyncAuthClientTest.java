@@ -0,0 +1,173 @@
+package bg.sofia.uni.fmi.mjt.authserver.client;
+
+import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandResult;
+import bg.sofia.uni.fmi.mjt.authserver.commands.ResultCode;
+import bg.sofia.uni.fmi.mjt.authserver.config.ClientConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.ConnectionClosedException;
+import bg.sofia.uni.fmi.mjt.authserver.protocol.BinaryProtocol;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncAuthClientTest {
+    private static final UUID SESSION_ID = UUID.fromString("8e5d3a47-2f6b-4c1e-9a0d-7b3f1c2e4d5a");
+
+    private ServerSocketChannel serverSocketChannel;
+    private AsyncAuthClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        serverSocketChannel = ServerSocketChannel.open();
+        serverSocketChannel.bind(new InetSocketAddress("localhost", 0));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+        serverSocketChannel.close();
+    }
+
+    private AsyncAuthClient newClient(int requestTimeoutMillis) {
+        return new AsyncAuthClient(ClientConfiguration.builder("localhost", serverSocketChannel.socket().getLocalPort())
+                .setConnectionCount(1)
+                .setRequestTimeoutMillis(requestTimeoutMillis)
+                .build());
+    }
+
+    // a fake server which reads the given number of requests before answering the first ones with their opcode
+    private void serveRequests(int requestCount, int answerCount, boolean closeAfterwards) {
+        Thread server = new Thread(() -> {
+            try (SocketChannel socketChannel = serverSocketChannel.accept();
+                 var input = new DataInputStream(socketChannel.socket().getInputStream())) {
+                assertEquals(BinaryProtocol.MAGIC, input.readByte());
+
+                List<Integer> opcodes = new ArrayList<>();
+                for (int i = 0; i < requestCount; i++) {
+                    byte[] frame = new byte[input.readInt()];
+                    input.readFully(frame);
+                    opcodes.add((int) frame[0]);
+                }
+
+                for (int opcode : opcodes.subList(0, answerCount)) {
+                    ByteBuffer response = ByteBuffer.wrap(BinaryProtocol.encodeResponse(
+                            new CommandResult(ResultCode.OK, "opcode " + opcode, new Session(SESSION_ID))));
+                    while (response.hasRemaining()) {
+                        socketChannel.write(response);
+                    }
+                }
+
+                if (!closeAfterwards) {
+                    Thread.sleep(Long.MAX_VALUE);
+                }
+            } catch (IOException | InterruptedException exception) {
+                // the test is over
+            }
+        });
+
+        server.setDaemon(true);
+        server.start();
+    }
+
+    @Test
+    public void testPipelinedRequestsAreCompletedInOrder() throws Exception {
+        serveRequests(3, 3, false);
+        client = newClient(0);
+
+        CompletableFuture<CommandResult> login = client.login("user", "password");
+        CompletableFuture<CommandResult> validate = client.validateSession(SESSION_ID);
+        CompletableFuture<CommandResult> logout = client.logout(SESSION_ID);
+
+        assertEquals("opcode 2", login.get(5, TimeUnit.SECONDS).getResponse());
+        assertEquals("opcode 10", validate.get(5, TimeUnit.SECONDS).getResponse());
+        assertEquals("opcode 6", logout.get(5, TimeUnit.SECONDS).getResponse());
+        assertEquals(SESSION_ID, login.get().getSession().orElseThrow().getId());
+    }
+
+    @Test
+    public void testRequestTimesOutWithoutResponse() throws Exception {
+        serveRequests(1, 0, false);
+        client = newClient(100);
+
+        CompletableFuture<CommandResult> response = client.logout(SESSION_ID);
+
+        try {
+            response.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException exception) {
+            assertTrue(exception.getCause() instanceof TimeoutException);
+            return;
+        }
+
+        throw new AssertionError("Request should have timed out");
+    }
+
+    @Test
+    public void testPendingRequestsFailWhenConnectionIsLost() throws Exception {
+        serveRequests(2, 1, true);
+        client = newClient(0);
+
+        CompletableFuture<CommandResult> answered = client.logout(SESSION_ID);
+        CompletableFuture<CommandResult> unanswered = client.logout(SESSION_ID);
+
+        assertEquals(ResultCode.OK, answered.get(5, TimeUnit.SECONDS).getResultCode());
+
+        try {
+            unanswered.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException exception) {
+            assertTrue(exception.getCause() instanceof ConnectionClosedException);
+            return;
+        }
+
+        throw new AssertionError("Request should have failed");
+    }
+
+    @Test
+    public void testPendingRequestsFailOnFrameTooLong() throws Exception {
+        Thread server = new Thread(() -> {
+            try (SocketChannel socketChannel = serverSocketChannel.accept();
+                 var input = new DataInputStream(socketChannel.socket().getInputStream())) {
+                assertEquals(BinaryProtocol.MAGIC, input.readByte());
+                input.readFully(new byte[input.readInt()]);
+
+                ByteBuffer frameLength = ByteBuffer.allocate(Integer.BYTES).putInt(Integer.MAX_VALUE).flip();
+                while (frameLength.hasRemaining()) {
+                    socketChannel.write(frameLength);
+                }
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (IOException | InterruptedException exception) {
+                // the test is over
+            }
+        });
+        server.setDaemon(true);
+        server.start();
+        client = newClient(0);
+
+        CompletableFuture<CommandResult> response = client.logout(SESSION_ID);
+
+        try {
+            response.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException exception) {
+            assertTrue(exception.getCause() instanceof ConnectionClosedException);
+            return;
+        }
+
+        throw new AssertionError("Request should have failed");
+    }
+}
@@ -0,0 +1,228 @@
+package bg.sofia.uni.fmi.mjt.authserver.commands;
+
+import bg.sofia.uni.fmi.mjt.authserver.auth.AuthSessionManager;
+import bg.sofia.uni.fmi.mjt.authserver.auth.Authenticator;
+import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.config.AuthConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandParseException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.ValidationException;
+import bg.sofia.uni.fmi.mjt.authserver.storage.AuthStorage;
+import bg.sofia.uni.fmi.mjt.authserver.storage.StorageTestFiles;
+import bg.sofia.uni.fmi.mjt.authserver.storage.TSVFileAuthStorage;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.Email;
+import bg.sofia.uni.fmi.mjt.authserver.user.Password;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+import bg.sofia.uni.fmi.mjt.authserver.validation.EmailValidator;
+import bg.sofia.uni.fmi.mjt.authserver.validation.PasswordValidator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyMapOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class BatchCommandTest {
+    private static final String PASSWORD = "DefaultPassword678";
+    private static final String REGISTER_COMMAND_TEXT =
+            "register --username %s --password %s --first-name John --last-name Doe --email %s@mail.com";
+    private static final String ADMIN_USERNAME = "admin";
+    private static final UUID ADMIN_SESSION_ID = UUID.randomUUID();
+    private static final long CHANGER_WAIT_MILLIS = 200;
+    private static final SocketAddress CLIENT_ADDRESS = new InetSocketAddress("localhost", 4444);
+
+    private Path directory;
+    private AuthStorage storage;
+    private Authenticator authenticator;
+    private AuthSessionManager sessionManager;
+    private CommandExecutor executor;
+
+    @Before
+    public void setUpExecutor() throws Exception {
+        directory = StorageTestFiles.createDirectory("auth-batch-test");
+        Path usersPath = StorageTestFiles.createUsersFile(directory);
+
+        AuthConfiguration configuration = AuthConfiguration.builder(usersPath,
+                directory.resolve("sessions.tsv"), directory.resolve("audit.log"))
+                .setMinimumAdminCount(1)
+                .build();
+
+        storage = spy(new TSVFileAuthStorage(usersPath));
+        sessionManager = mock(AuthSessionManager.class);
+        authenticator = new Authenticator(configuration, storage, sessionManager);
+        executor = new CommandExecutor(authenticator);
+
+        storage.addUser(new User(ADMIN_USERNAME, new Password(PASSWORD, new PasswordValidator()), "Admin", "Admin",
+                new Email("admin@mail.com", new EmailValidator()), Authority.ADMIN, null));
+        when(sessionManager.getUserBySession(any(Session.class)))
+                .thenAnswer(invocation -> storage.getUserByUsername(ADMIN_USERNAME));
+    }
+
+    @After
+    public void deleteFiles() throws IOException {
+        StorageTestFiles.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testBatchReportsEveryCommandAndWritesOnce() throws Exception {
+        CommandResult result = executeBatch(register("first"),
+                register("second"),
+                register("first"),
+                String.format(REGISTER_COMMAND_TEXT, "third", "weak", "third"));
+
+        List<ResultCode> expectedResultCodes = List.of(ResultCode.OK, ResultCode.OK,
+                ResultCode.CONFLICT, ResultCode.BAD_REQUEST);
+
+        assertEquals(ResultCode.OK, result.getResultCode());
+        assertFalse("The batch response spans several lines", result.getResponse().contains("\n"));
+        for (int i = 0; i < expectedResultCodes.size(); i++) {
+            assertEquals(expectedResultCodes.get(i), getItemResultCode(result.getResponse(), i));
+        }
+
+        assertEquals("first", storage.getUserByUsername("first").getUsername());
+        assertEquals("second", storage.getUserByUsername("second").getUsername());
+        assertNull(storage.getUserByUsername("third"));
+
+        verify(storage, times(1)).applyChanges(anyMapOf(String.class, User.class));
+        // the admin was added before the batch
+        verify(storage, times(1)).addUser(any(User.class));
+    }
+
+    @Test
+    public void testBatchSeesItsOwnChanges() throws CommandParseException {
+        CommandResult result = executeBatch(register("promoted"),
+                "add-admin-user --session-id " + ADMIN_SESSION_ID + " --username promoted",
+                register("deleted"),
+                "delete-user --session-id " + ADMIN_SESSION_ID + " --username deleted");
+
+        assertEquals(ResultCode.OK, result.getResultCode());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(ResultCode.OK, getItemResultCode(result.getResponse(), i));
+        }
+
+        assertEquals(Authority.ADMIN, storage.getUserByUsername("promoted").getAuthority());
+        assertNull(storage.getUserByUsername("deleted"));
+        assertEquals(2, storage.getAdminCount());
+
+        verify(storage, never()).replaceUserByUsername(any(String.class), any(User.class));
+        verify(storage, never()).removeUserByUsername(any(String.class));
+    }
+
+    @Test
+    public void testChangesMadeDuringBatchWaitForItAndAreKept() throws Exception {
+        executeBatch(register("promoted"));
+
+        Thread changer = new Thread(() -> authenticator.updateUser("promoted", user -> user.setFirstName("Jane")));
+        AtomicBoolean changerWaited = new AtomicBoolean();
+        // the change is made after the batch has read the user and before it has written them
+        doAnswer(invocation -> {
+            changer.start();
+            changer.join(CHANGER_WAIT_MILLIS);
+            changerWaited.set(changer.isAlive());
+            return invocation.callRealMethod();
+        }).when(storage).getUsersByUsernames(anyCollectionOf(String.class));
+
+        CommandResult result = executeBatch("add-admin-user --session-id " + ADMIN_SESSION_ID + " --username promoted");
+        changer.join();
+
+        assertEquals(ResultCode.OK, getItemResultCode(result.getResponse(), 0));
+        assertTrue(changerWaited.get());
+        assertEquals(Authority.ADMIN, storage.getUserByUsername("promoted").getAuthority());
+        assertEquals("Jane", storage.getUserByUsername("promoted").getFirstName());
+    }
+
+    @Test
+    public void testRegistrationsDuringBatchCannotTakeItsUsernamesOrEmails() throws Exception {
+        List<Exception> registrationFailures = new CopyOnWriteArrayList<>();
+        Thread registrar = new Thread(() -> {
+            registerOutsideBatch("bob", "bob-outside", registrationFailures);
+            registerOutsideBatch("carol", "shared", registrationFailures);
+        });
+        AtomicBoolean registrarWaited = new AtomicBoolean();
+        // the registrations are made after the batch has checked its users are free and before it writes them
+        doAnswer(invocation -> {
+            registrar.start();
+            registrar.join(CHANGER_WAIT_MILLIS);
+            registrarWaited.set(registrar.isAlive());
+            return invocation.callRealMethod();
+        }).when(storage).applyChanges(anyMapOf(String.class, User.class));
+
+        CommandResult result = executeBatch(register("bob"), String.format(REGISTER_COMMAND_TEXT, "alice", PASSWORD,
+                "shared"));
+        registrar.join();
+
+        assertEquals(ResultCode.OK, getItemResultCode(result.getResponse(), 0));
+        assertEquals(ResultCode.OK, getItemResultCode(result.getResponse(), 1));
+        assertTrue(registrarWaited.get());
+        assertEquals(2, registrationFailures.size());
+        assertTrue(registrationFailures.get(0) instanceof UserAlreadyExistsException);
+        assertTrue(registrationFailures.get(1) instanceof EmailAlreadyExistsException);
+        assertEquals("bob@mail.com", storage.getUserByUsername("bob").getEmail().getValue());
+        assertNull(storage.getUserByUsername("carol"));
+    }
+
+    @Test
+    public void testBatchWithCommandWhichCannotBeBatchedIsRejected() throws CommandParseException {
+        CommandResult result = executeBatch(register("first"), "login --username first --password " + PASSWORD);
+
+        assertEquals(ResultCode.BAD_REQUEST, result.getResultCode());
+        assertEquals(BatchCommand.getCommandNotBatchableResponse(2, "login"), result.getResponse());
+        assertNull(storage.getUserByUsername("first"));
+    }
+
+    private CommandResult executeBatch(String... commands) throws CommandParseException {
+        CommandParser parser = CommandParser.parse("batch " + String.join(" ; ", commands));
+
+        return executor.executeCommandForResult(parser, CLIENT_ADDRESS);
+    }
+
+    private void registerOutsideBatch(String username, String emailName, List<Exception> failures) {
+        try {
+            authenticator.registerUser(username, new Password(PASSWORD, new PasswordValidator()), "John", "Doe",
+                    new Email(emailName + "@mail.com", new EmailValidator()));
+        } catch (UserAlreadyExistsException | ValidationException exception) {
+            failures.add(exception);
+        }
+    }
+
+    private static String register(String username) {
+        return String.format(REGISTER_COMMAND_TEXT, username, PASSWORD, username);
+    }
+
+    private static ResultCode getItemResultCode(String batchResponse, int index) {
+        String prefix = (index + 1) + ". ";
+
+        String results = batchResponse.substring(batchResponse.indexOf(':') + 1).trim();
+        for (String item : results.split("; ")) {
+            if (item.startsWith(prefix)) {
+                return ResultCode.valueOf(item.substring(prefix.length(), item.indexOf(':')));
+            }
+        }
+
+        return null;
+    }
+}
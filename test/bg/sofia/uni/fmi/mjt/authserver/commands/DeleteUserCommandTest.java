@@ -59,6 +59,7 @@ public class DeleteUserCommandTest {
         String response = command.execute();
 
         assertEquals(DeleteUserCommand.getInvalidSessionIdResponse(), response);
+        assertEquals(ResultCode.INVALID_SESSION, command.getResultCode());
     }
 
     @Test
@@ -74,6 +75,7 @@ public class DeleteUserCommandTest {
         String response = command.execute();
 
         assertEquals(DeleteUserCommand.getFailedSessionLoginResponse(), response);
+        assertEquals(ResultCode.INVALID_SESSION, command.getResultCode());
     }
 
     @Test
@@ -92,6 +94,7 @@ public class DeleteUserCommandTest {
         String response = command.execute();
 
         assertEquals(DeleteUserCommand.getUnauthorizedResponse(null), response);
+        assertEquals(ResultCode.FORBIDDEN, command.getResultCode());
     }
 
     @Test
@@ -113,5 +116,6 @@ public class DeleteUserCommandTest {
         String response = command.execute();
 
         assertEquals(DeleteUserCommand.getSuccessfulUserDeletionResponse(), response);
+        assertEquals(ResultCode.OK, command.getResultCode());
     }
 }
@@ -68,6 +68,7 @@ public class LoginWithPasswordCommandTest {
 
         assertEquals(LoginWithPasswordCommand.getFailedLoginResponse(
                 new AuthenticationException(NULL_TEXT)), response);
+        assertEquals(ResultCode.AUTHENTICATION_FAILED, command.getResultCode());
     }
 
     @Test
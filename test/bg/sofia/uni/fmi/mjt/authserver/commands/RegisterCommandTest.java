@@ -3,6 +3,7 @@ package bg.sofia.uni.fmi.mjt.authserver.commands;
 import bg.sofia.uni.fmi.mjt.authserver.auth.Authenticator;
 import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandParseException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.InvalidEmailException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.InvalidPasswordException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
@@ -68,6 +69,7 @@ public class RegisterCommandTest {
         assertEquals(RegisterCommand.getInvalidEmailResponse(
                 new InvalidEmailException(Collections.emptyList())),
                 response);
+        assertEquals(ResultCode.BAD_REQUEST, command.getResultCode());
     }
 
     @Test
@@ -81,6 +83,21 @@ public class RegisterCommandTest {
         String response = command.execute();
 
         assertEquals(RegisterCommand.getUserAlreadyExistsResponse(), response);
+        assertEquals(ResultCode.CONFLICT, command.getResultCode());
+    }
+
+    @Test
+    public void testRegisterCommandEmailAlreadyExists() throws UserAlreadyExistsException,
+            ValidationException {
+        doThrow(EmailAlreadyExistsException.class)
+                .when(authenticatorMock)
+                .registerUser(any(String.class), any(Password.class), any(String.class),
+                        any(String.class), any(Email.class));
+
+        String response = command.execute();
+
+        assertEquals(RegisterCommand.getEmailAlreadyExistsResponse(), response);
+        assertEquals(ResultCode.CONFLICT, command.getResultCode());
     }
 
     @Test
@@ -95,5 +112,6 @@ public class RegisterCommandTest {
         String response = command.execute();
 
         assertEquals(RegisterCommand.getSuccessfulRegisterResponse(), response);
+        assertEquals(ResultCode.OK, command.getResultCode());
     }
 }
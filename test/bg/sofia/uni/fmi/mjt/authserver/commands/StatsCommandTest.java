@@ -0,0 +1,84 @@
+package bg.sofia.uni.fmi.mjt.authserver.commands;
+
+import bg.sofia.uni.fmi.mjt.authserver.auth.Authenticator;
+import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandParseException;
+import bg.sofia.uni.fmi.mjt.authserver.storage.UserStatistics;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.when;
+import static org.mockito.MockitoAnnotations.initMocks;
+
+@RunWith(MockitoJUnitRunner.class)
+public class StatsCommandTest {
+    private static final String DEFAULT_COMMAND_TEXT = "stats --session-id %s";
+    private static final UUID RANDOM_ID = UUID.randomUUID();
+
+    private StatsCommand command;
+
+    @Mock
+    private Authenticator authenticatorMock;
+
+    @Mock
+    private User requestUserMock;
+
+    @Before
+    public void setUpCommand() throws CommandParseException {
+        initMocks(this);
+
+        command = new StatsCommand(authenticatorMock,
+                CommandParser.parse(String.format(DEFAULT_COMMAND_TEXT, RANDOM_ID)));
+        when(authenticatorMock.getUserBySession(any(Session.class)))
+                .thenReturn(requestUserMock);
+    }
+
+    @Test
+    public void testStatsCommandUserWhoRequestedNotAuthorized() {
+        when(requestUserMock.getAuthority())
+                .thenReturn(Authority.USER);
+
+        String response = command.execute();
+
+        assertEquals(StatsCommand.getUnauthorizedResponse(null), response);
+        assertNull(command.getStatistics());
+    }
+
+    @Test
+    public void testStatsCommandSuccessful() {
+        UserStatistics statistics = new UserStatistics();
+        when(requestUserMock.getAuthority())
+                .thenReturn(Authority.ADMIN);
+        when(authenticatorMock.getUserStatistics())
+                .thenReturn(statistics);
+
+        String response = command.execute();
+
+        assertEquals(StatsCommand.getStatisticsResponse(statistics), response);
+        assertEquals(statistics, command.getStatistics());
+        assertEquals("User statistics: users=0, USER=0, ADMIN=0, locked=0, failed-login-attempts=0", response);
+    }
+
+    @Test
+    public void testStatisticsAreLaidOutOnSeveralLinesForConsole() {
+        String response = StatsCommand.getStatisticsResponse(new UserStatistics());
+
+        String[] lines = StatsCommand.getConsoleLayout(response).split(System.lineSeparator());
+
+        assertEquals("User statistics:", lines[0]);
+        assertEquals("  users: 0", lines[1]);
+        assertEquals("  failed-login-attempts: 0", lines[lines.length - 1]);
+        assertEquals("Could not log in", StatsCommand.getConsoleLayout("Could not log in"));
+    }
+}
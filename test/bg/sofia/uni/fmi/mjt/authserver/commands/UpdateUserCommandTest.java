@@ -4,6 +4,7 @@ import bg.sofia.uni.fmi.mjt.authserver.auth.Authenticator;
 import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
 import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandParseException;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.StripedLock;
 import bg.sofia.uni.fmi.mjt.authserver.user.User;
 import org.junit.Before;
 import org.junit.Test;
@@ -16,6 +17,7 @@ import java.util.UUID;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -43,6 +45,8 @@ public class UpdateUserCommandTest {
     @Before
     public void setUpCommand() {
         authenticatorMock = mock(Authenticator.class);
+        when(authenticatorMock.lockUsers(anyCollectionOf(String.class), anyCollectionOf(String.class)))
+                .thenAnswer(invocation -> new StripedLock(1).lock());
     }
 
     @Test
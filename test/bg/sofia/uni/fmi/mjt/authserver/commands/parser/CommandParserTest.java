@@ -3,12 +3,15 @@ package bg.sofia.uni.fmi.mjt.authserver.commands.parser;
 import bg.sofia.uni.fmi.mjt.authserver.commands.CommandParameter;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandParseException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.InvalidArgumentNameException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.InvalidBatchException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.InvalidTokenCountException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.MissingRequiredArgumentsException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.MultipleOccurrencesOfOneArgumentException;
 import bg.sofia.uni.fmi.mjt.authserver.exceptions.UnknownArgumentException;
 import org.junit.Test;
 
+import java.nio.CharBuffer;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -21,6 +24,7 @@ public class CommandParserTest {
     private static final String COMMAND_MISSING_REQUIRED_ARGS = "command --arg2 val2";
     private static final String COMMAND_UNKNOWN_ARGS = "command --arg1 val1 --arg2 val2 --argN --valN";
     private static final String COMMAND_DEFAULT = "command --arg1 val1 --arg2 val2 --arg3 --val3";
+    private static final String COMMAND_BATCH = "batch " + COMMAND_DEFAULT + " ; other --arg1 va;l1 ;";
 
     private static final Set<CommandParameter> DEFAULT_PARAMETERS;
 
@@ -67,6 +71,42 @@ public class CommandParserTest {
         assertEquals("--val3", parser.getArgumentValue("arg3"));
     }
 
+    @Test
+    public void testParseFromCharBufferViewMatchesParseFromString() throws CommandParseException {
+        CharBuffer commandView = CharBuffer.wrap("   " + COMMAND_DEFAULT + "\t\t  trailing-ignored-part");
+        commandView.limit(commandView.limit() - "trailing-ignored-part".length());
+
+        CommandParser parser = CommandParser.parse(commandView);
+
+        assertEquals("command", parser.getCommandName());
+        assertEquals(CommandParser.parse(COMMAND_DEFAULT).getArguments(), parser.getArguments());
+    }
+
+    @Test
+    public void testParseBlankCommandHasBlankName() throws CommandParseException {
+        CommandParser parser = CommandParser.parse(CharBuffer.wrap("  \t "));
+
+        assertEquals("", parser.getCommandName());
+        assertEquals(Map.of(), parser.getArguments());
+    }
+
+    @Test
+    public void testParseBatchSplitsCommandsOnStandaloneSeparators() throws CommandParseException {
+        CommandParser parser = CommandParser.parse(COMMAND_BATCH);
+        List<CommandParser> batchedCommands = parser.getBatchedCommands();
+
+        assertEquals("batch", parser.getCommandName());
+        assertEquals(2, batchedCommands.size());
+        assertEquals(CommandParser.parse(COMMAND_DEFAULT).getArguments(), batchedCommands.get(0).getArguments());
+        assertEquals("other", batchedCommands.get(1).getCommandName());
+        assertEquals("va;l1", batchedCommands.get(1).getArgumentValue("arg1"));
+    }
+
+    @Test(expected = InvalidBatchException.class)
+    public void testParseBatchWithInvalidCommandFails() throws CommandParseException {
+        CommandParser.parse("batch " + COMMAND_DEFAULT + " ; " + COMMAND_INVALID_TOKEN_COUNT);
+    }
+
     @Test(expected = MissingRequiredArgumentsException.class)
     public void testCommandWithMissingRequiredArguments() throws CommandParseException {
         CommandParser parser = CommandParser.parse(COMMAND_MISSING_REQUIRED_ARGS);
@@ -0,0 +1,61 @@
+package bg.sofia.uni.fmi.mjt.authserver.http;
+
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.InvalidJsonException;
+import org.junit.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class FlatJsonTest {
+    @Test
+    public void testParseObjectWithStringsLiteralsAndEscapes() throws InvalidJsonException {
+        Map<String, String> object = FlatJson.parseObject(
+                " { \"username\" : \"a\\\"b\\u0041\", \"age\": 42, \"email\": null } ");
+
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("username", "a\"bA");
+        expected.put("age", "42");
+        expected.put("email", null);
+
+        assertEquals(expected, object);
+    }
+
+    @Test
+    public void testParseEmptyObject() throws InvalidJsonException {
+        assertEquals(Map.of(), FlatJson.parseObject("{}"));
+    }
+
+    @Test(expected = InvalidJsonException.class)
+    public void testParseNestedObject() throws InvalidJsonException {
+        FlatJson.parseObject("{\"a\": {\"b\": \"c\"}}");
+    }
+
+    @Test(expected = InvalidJsonException.class)
+    public void testParseTruncatedObject() throws InvalidJsonException {
+        FlatJson.parseObject("{\"a\": \"b\"");
+    }
+
+    @Test(expected = InvalidJsonException.class)
+    public void testParseObjectWithDuplicateKeys() throws InvalidJsonException {
+        FlatJson.parseObject("{\"a\": \"b\", \"a\": \"c\"}");
+    }
+
+    @Test(expected = InvalidJsonException.class)
+    public void testParseObjectWithDuplicateKeyAfterNull() throws InvalidJsonException {
+        FlatJson.parseObject("{\"a\": null, \"a\": \"c\"}");
+    }
+
+    @Test
+    public void testToJsonRoundTrip() throws InvalidJsonException {
+        Map<String, String> object = new LinkedHashMap<>();
+        object.put("message", "line one\nline \"two\"\t\\");
+        object.put("sessionId", null);
+
+        String json = FlatJson.toJson(object);
+
+        assertEquals("{\"message\":\"line one\\nline \\\"two\\\"\\t\\\\\",\"sessionId\":null}", json);
+        assertEquals(object, FlatJson.parseObject(json));
+    }
+}
@@ -0,0 +1,166 @@
+package bg.sofia.uni.fmi.mjt.authserver.persistence;
+
+import bg.sofia.uni.fmi.mjt.authserver.config.Durability;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class GroupCommitLogTest {
+    private static final int THREAD_COUNT = 8;
+    private static final int RECORDS_PER_THREAD = 50;
+    private static final int RECORD_LENGTH = 4096;
+
+    private Path directory;
+
+    @Before
+    public void setUpDirectory() throws IOException {
+        directory = Files.createTempDirectory("group-commit-test");
+    }
+
+    @Test
+    public void testConcurrentAppendsShareCommits() throws Exception {
+        GroupCommitLog log = GroupCommitLog.forPath(directory.resolve("records.log"), Durability.PER_OPERATION, 0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREAD_COUNT; thread++) {
+            int threadNumber = thread;
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                    log.append(threadNumber + "-" + i + System.lineSeparator());
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        Set<String> lines = new HashSet<>(Files.readAllLines(log.getPath()));
+        assertEquals(THREAD_COUNT * RECORDS_PER_THREAD, lines.size());
+        assertEquals(THREAD_COUNT * RECORDS_PER_THREAD, log.getRecordCount());
+        assertTrue(log.getCommitCount() > 0);
+        assertTrue(log.getCommitCount() <= log.getRecordCount());
+    }
+
+    @Test
+    public void testRewriteReplacesContentsAndAppendsContinue() throws IOException {
+        GroupCommitLog log = GroupCommitLog.forPath(directory.resolve("rewritten.log"), Durability.BATCHED, 10);
+        log.append("old" + System.lineSeparator());
+
+        log.rewrite(writer -> writer.write("new" + System.lineSeparator()));
+        log.append("appended" + System.lineSeparator());
+
+        assertEquals(List.of("new", "appended"), Files.readAllLines(log.getPath()));
+        assertFalse(Files.exists(directory.resolve("rewritten.log.tmp")));
+    }
+
+    @Test
+    public void testReadsSeeOnlyWholeRecords() throws Exception {
+        GroupCommitLog log = GroupCommitLog.forPath(directory.resolve("read.log"), Durability.NONE, 0);
+        String record = "x".repeat(RECORD_LENGTH);
+        log.append(record + System.lineSeparator());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> writer = executor.submit(() -> {
+            for (int i = 0; i < RECORDS_PER_THREAD; i++) {
+                log.append(record + System.lineSeparator());
+                if (i % 10 == 0) {
+                    log.rewrite(bufferedWriter -> bufferedWriter.write(record + System.lineSeparator()));
+                }
+            }
+            return null;
+        });
+
+        while (!writer.isDone()) {
+            List<String> lines = log.read(bufferedReader -> bufferedReader.lines().collect(Collectors.toList()));
+
+            assertFalse(lines.isEmpty());
+            for (String line : lines) {
+                assertEquals(record, line);
+            }
+        }
+        writer.get();
+        executor.shutdown();
+
+        try (var files = Files.list(directory)) {
+            assertTrue(files.noneMatch(file -> file.getFileName().toString().endsWith(".tmp")));
+        }
+    }
+
+    @Test
+    public void testBytesAreReadAsWritten() throws IOException {
+        GroupCommitLog log = GroupCommitLog.forPath(directory.resolve("bytes.log"), Durability.NONE, 0);
+        log.append("first" + System.lineSeparator());
+        log.append("second" + System.lineSeparator());
+
+        long size = log.readBytes(FileChannel::size);
+
+        assertEquals(Files.size(log.getPath()), size);
+        log.close();
+    }
+
+    @Test
+    public void testLogIsSharedByPath() {
+        Path path = directory.resolve("shared.log");
+
+        assertSame(GroupCommitLog.forPath(path, Durability.NONE, 0),
+                GroupCommitLog.forPath(directory.resolve(".").resolve("shared.log"), Durability.NONE, 0));
+    }
+
+    @Test
+    public void testClosedLogIsNoLongerShared() throws IOException {
+        Path path = directory.resolve("closed.log");
+        GroupCommitLog log = GroupCommitLog.forPath(path, Durability.BATCHED, 10);
+        log.write("kept" + System.lineSeparator());
+        log.close();
+
+        assertFalse(GroupCommitLog.getLogs().contains(log));
+
+        GroupCommitLog reopenedLog = GroupCommitLog.forPath(path, Durability.PER_OPERATION, 0);
+        reopenedLog.append("appended" + System.lineSeparator());
+        assertEquals(List.of("kept", "appended"), Files.readAllLines(path));
+        reopenedLog.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testLogWithAnotherDurabilityIsRejected() {
+        Path path = directory.resolve("durable.log");
+
+        GroupCommitLog.forPath(path, Durability.NONE, 0);
+        GroupCommitLog.forPath(path, Durability.PER_OPERATION, 0);
+    }
+
+    @Test
+    public void testCommitLatencyIsRecorded() throws IOException {
+        GroupCommitLog log = GroupCommitLog.forPath(directory.resolve("latency.log"), Durability.PER_OPERATION, 0);
+
+        long before = CommitLatency.getNanos();
+        log.append("record" + System.lineSeparator());
+
+        assertTrue(CommitLatency.getNanos() > before);
+    }
+}
@@ -0,0 +1,92 @@
+package bg.sofia.uni.fmi.mjt.authserver.persistence;
+
+import bg.sofia.uni.fmi.mjt.authserver.config.Durability;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TextFileSnapshotTest {
+    private GroupCommitLog log;
+    private CountingFormat format;
+    private TextFileSnapshot<String> snapshot;
+
+    @Before
+    public void setUpSnapshot() throws IOException {
+        Path path = Files.createTempDirectory("text-file-snapshot-test").resolve("records.tsv");
+        log = GroupCommitLog.forPath(path, Durability.NONE, 0);
+        log.append("first" + System.lineSeparator());
+        log.append("second" + System.lineSeparator());
+
+        format = new CountingFormat();
+        snapshot = new TextFileSnapshot<>(log, format, 0);
+    }
+
+    @Test
+    public void testUnchangedFileIsReadFromSnapshot() throws IOException {
+        assertEquals(List.of("FIRST", "SECOND"), snapshot.readRecords());
+        // the snapshot is taken in the background from the parsed records, unless it is taken first here
+        snapshot.refresh();
+        assertTrue(Files.exists(snapshot.getPath()));
+
+        assertEquals(List.of("FIRST", "SECOND"), snapshot.readRecords());
+        assertEquals(2, format.parsedCount);
+    }
+
+    @Test
+    public void testChangedFileIsParsedAgain() throws IOException {
+        snapshot.readRecords();
+        log.append("third" + System.lineSeparator());
+
+        assertEquals(List.of("FIRST", "SECOND", "THIRD"), snapshot.readRecords());
+        assertEquals(5, format.parsedCount);
+
+        snapshot.refresh();
+        assertEquals(5, format.parsedCount);
+    }
+
+    @Test
+    public void testCorruptSnapshotIsIgnored() throws IOException {
+        snapshot.readRecords();
+        snapshot.refresh();
+
+        try (var file = new RandomAccessFile(snapshot.getPath().toFile(), "rw")) {
+            file.seek(file.length() - 1);
+            int lastByte = file.read();
+            file.seek(file.length() - 1);
+            file.write(lastByte ^ 1);
+        }
+
+        assertEquals(List.of("FIRST", "SECOND"), snapshot.readRecords());
+        assertEquals(4, format.parsedCount);
+    }
+
+    private static class CountingFormat implements TextFileSnapshot.Format<String> {
+        private int parsedCount;
+
+        @Override
+        public String parse(String line) {
+            parsedCount++;
+            return line.toUpperCase();
+        }
+
+        @Override
+        public void write(DataOutputStream output, String record) throws IOException {
+            output.writeUTF(record);
+        }
+
+        @Override
+        public String read(DataInputStream input) throws IOException {
+            return input.readUTF();
+        }
+    }
+}
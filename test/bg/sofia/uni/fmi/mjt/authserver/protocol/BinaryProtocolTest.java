@@ -0,0 +1,84 @@
+package bg.sofia.uni.fmi.mjt.authserver.protocol;
+
+import bg.sofia.uni.fmi.mjt.authserver.auth.Session;
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandExecutor;
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandResult;
+import bg.sofia.uni.fmi.mjt.authserver.commands.ResultCode;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.CommandParseException;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class BinaryProtocolTest {
+    private static final UUID SESSION_ID = UUID.fromString("8e5d3a47-2f6b-4c1e-9a0d-7b3f1c2e4d5a");
+
+    private static ByteBuffer skipLength(ByteBuffer frame) {
+        assertEquals(frame.remaining() - Integer.BYTES, frame.getInt());
+        return frame;
+    }
+
+    @Test
+    public void testDecodedRequestMapsOntoCommandArguments() throws CommandParseException {
+        ByteBuffer frame = BinaryProtocol.encodeRequest(Opcode.LOGIN_WITH_PASSWORD, "user", "p\u00e4ssword");
+
+        CommandParser parser = BinaryProtocol.decodeRequest(skipLength(frame));
+
+        assertEquals(CommandExecutor.COMMAND_LOGIN, parser.getCommandName());
+        assertEquals(Map.of("--username", "user", "--password", "p\u00e4ssword"), parser.getArguments());
+    }
+
+    @Test
+    public void testDecodedRequestCarriesSessionIdAndSkipsAbsentFields() throws CommandParseException {
+        ByteBuffer frame = BinaryProtocol.encodeRequest(Opcode.UPDATE_USER, SESSION_ID.toString(),
+                null, "First", null, null);
+
+        CommandParser parser = BinaryProtocol.decodeRequest(skipLength(frame));
+
+        assertEquals(CommandExecutor.COMMAND_UPDATE_USER, parser.getCommandName());
+        assertEquals(Map.of("--session-id", SESSION_ID.toString(), "--new-first-name", "First"),
+                parser.getArguments());
+    }
+
+    @Test(expected = CommandParseException.class)
+    public void testDecodeRequestWithUnknownOpcode() throws CommandParseException {
+        BinaryProtocol.decodeRequest(ByteBuffer.wrap(new byte[] {(byte) 200}));
+    }
+
+    @Test(expected = CommandParseException.class)
+    public void testDecodeTruncatedRequest() throws CommandParseException {
+        ByteBuffer frame = skipLength(BinaryProtocol.encodeRequest(Opcode.LOGOUT, SESSION_ID.toString()));
+        frame.limit(frame.limit() - 1);
+
+        BinaryProtocol.decodeRequest(frame);
+    }
+
+    @Test
+    public void testResponseRoundTripWithSession() {
+        CommandResult result = new CommandResult(ResultCode.OK, "Logged in", new Session(SESSION_ID));
+
+        CommandResult decoded = BinaryProtocol.decodeResponse(
+                skipLength(ByteBuffer.wrap(BinaryProtocol.encodeResponse(result))));
+
+        assertEquals(ResultCode.OK, decoded.getResultCode());
+        assertEquals("Logged in", decoded.getResponse());
+        assertEquals(SESSION_ID, decoded.getSession().orElseThrow().getId());
+    }
+
+    @Test
+    public void testResponseRoundTripWithoutSession() {
+        CommandResult result = new CommandResult(ResultCode.INVALID_SESSION, "Session id is not a valid UUID");
+
+        CommandResult decoded = BinaryProtocol.decodeResponse(
+                skipLength(ByteBuffer.wrap(BinaryProtocol.encodeResponse(result))));
+
+        assertEquals(ResultCode.INVALID_SESSION, decoded.getResultCode());
+        assertEquals("Session id is not a valid UUID", decoded.getResponse());
+        assertFalse(decoded.getSession().isPresent());
+    }
+}
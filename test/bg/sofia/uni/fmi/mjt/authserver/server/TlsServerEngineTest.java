@@ -0,0 +1,144 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandExecutor;
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandResult;
+import bg.sofia.uni.fmi.mjt.authserver.commands.ResultCode;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.config.ServerConfiguration;
+import bg.sofia.uni.fmi.mjt.authserver.config.SslContexts;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ConnectException;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class TlsServerEngineTest {
+    private static final String HOST = "localhost";
+    private static final int PORT = 8341;
+    private static final char[] PASSWORD = "changeit".toCharArray();
+
+    private static Path keyStorePath;
+
+    private ServerEngine engine;
+    private Thread engineThread;
+
+    @BeforeClass
+    public static void createKeyStore() throws IOException, InterruptedException {
+        keyStorePath = Files.createTempDirectory("tls-test").resolve("server.p12");
+
+        Process keytool = new ProcessBuilder(Path.of(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "server", "-keyalg", "EC", "-groupname", "secp256r1",
+                "-dname", "CN=localhost", "-ext", "SAN=dns:localhost", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keyStorePath.toString(),
+                "-storepass", new String(PASSWORD), "-keypass", new String(PASSWORD))
+                .redirectErrorStream(true)
+                .start();
+        keytool.getInputStream().transferTo(System.out);
+        assertEquals(0, keytool.waitFor());
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        engine.stop();
+        engineThread.join();
+    }
+
+    // a server whose commands answer with their own name
+    private void startServer() throws Exception {
+        CommandExecutor commandExecutor = mock(CommandExecutor.class);
+        when(commandExecutor.executeCommandForResult(any(CommandParser.class), any(SocketChannel.class)))
+                .thenAnswer(invocation -> new CommandResult(ResultCode.OK,
+                        ((CommandParser) invocation.getArguments()[0]).getCommandName()));
+
+        engine = new NioServerEngine(ServerConfiguration.builder(PORT)
+                .setHost(HOST)
+                .setSslContext(SslContexts.fromKeyStore(keyStorePath, PASSWORD))
+                .build(), commandExecutor);
+        engineThread = new Thread(() -> {
+            try {
+                engine.start();
+            } catch (IOException exception) {
+                throw new RuntimeException(exception);
+            }
+        });
+        engineThread.start();
+    }
+
+    private static SSLSocket connect(SSLContext clientContext) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return (SSLSocket) clientContext.getSocketFactory().createSocket(HOST, PORT);
+            } catch (ConnectException exception) {
+                // the engine may still be starting up
+                if (attempt == 50) {
+                    throw exception;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static String exchange(SSLSocket socket, String... commands) throws IOException {
+        StringBuilder request = new StringBuilder();
+        for (String command : commands) {
+            request.append(command).append(System.lineSeparator());
+        }
+        socket.getOutputStream().write(request.toString().getBytes(StandardCharsets.UTF_8));
+
+        var reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        StringBuilder responses = new StringBuilder();
+        for (int i = 0; i < commands.length; i++) {
+            responses.append(reader.readLine()).append(' ');
+        }
+
+        return responses.toString().strip();
+    }
+
+    @Test
+    public void testPipelinedCommandsAreAnsweredOverTls() throws Exception {
+        startServer();
+
+        String[] commands = new String[500];
+        for (int i = 0; i < commands.length; i++) {
+            commands[i] = "command-" + i;
+        }
+
+        try (SSLSocket socket = connect(SslContexts.fromKeyStore(keyStorePath, PASSWORD))) {
+            assertEquals(String.join(" ", commands), exchange(socket, commands));
+        }
+    }
+
+    @Test
+    public void testReconnectingClientResumesItsSession() throws Exception {
+        startServer();
+        SSLContext clientContext = SslContexts.fromKeyStore(keyStorePath, PASSWORD);
+
+        byte[] firstSessionId;
+        try (SSLSocket socket = connect(clientContext)) {
+            socket.setEnabledProtocols(new String[] {"TLSv1.2"});
+            assertEquals("first", exchange(socket, "first"));
+            firstSessionId = socket.getSession().getId();
+        }
+
+        try (SSLSocket socket = connect(clientContext)) {
+            socket.setEnabledProtocols(new String[] {"TLSv1.2"});
+            assertEquals("second", exchange(socket, "second"));
+            assertArrayEquals(firstSessionId, socket.getSession().getId());
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package bg.sofia.uni.fmi.mjt.authserver.server;
+
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandExecutor;
+import bg.sofia.uni.fmi.mjt.authserver.commands.CommandResult;
+import bg.sofia.uni.fmi.mjt.authserver.commands.ResultCode;
+import bg.sofia.uni.fmi.mjt.authserver.commands.parser.CommandParser;
+import bg.sofia.uni.fmi.mjt.authserver.config.ServerConfiguration;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class UnixSocketServerEngineTest {
+    private static final String HOST = "localhost";
+    private static final int PORT = 8342;
+
+    private Path socketPath;
+    private ServerEngine engine;
+    private Thread engineThread;
+
+    @Before
+    public void setUp() throws IOException {
+        socketPath = Files.createTempDirectory("unix-socket-test").resolve("auth.sock");
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        engine.stop();
+        if (engineThread != null) {
+            engineThread.join();
+        }
+    }
+
+    // a server whose commands answer with their own name
+    private void createServer(int reactorCount) {
+        CommandExecutor commandExecutor = mock(CommandExecutor.class);
+        when(commandExecutor.executeCommandForResult(any(CommandParser.class), any(SocketChannel.class)))
+                .thenAnswer(invocation -> new CommandResult(ResultCode.OK,
+                        ((CommandParser) invocation.getArguments()[0]).getCommandName()));
+
+        engine = new NioServerEngine(ServerConfiguration.builder(PORT)
+                .setHost(HOST)
+                .setUnixSocketPath(socketPath)
+                .setReactorCount(reactorCount)
+                .build(), commandExecutor);
+    }
+
+    private void startServer(int reactorCount) {
+        createServer(reactorCount);
+        engineThread = new Thread(() -> {
+            try {
+                engine.start();
+            } catch (IOException exception) {
+                throw new RuntimeException(exception);
+            }
+        });
+        engineThread.start();
+    }
+
+    private static SocketChannel connect(SocketAddress address) throws Exception {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                SocketChannel socketChannel = address instanceof UnixDomainSocketAddress
+                        ? SocketChannel.open(StandardProtocolFamily.UNIX)
+                        : SocketChannel.open();
+                socketChannel.connect(address);
+                return socketChannel;
+            } catch (IOException exception) {
+                // the engine may still be starting up
+                if (attempt == 50) {
+                    throw exception;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static String exchange(SocketChannel socketChannel, String command) throws IOException {
+        ByteBuffer request = ByteBuffer.wrap((command + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+        while (request.hasRemaining()) {
+            socketChannel.write(request);
+        }
+
+        return new BufferedReader(new InputStreamReader(Channels.newInputStream(socketChannel),
+                StandardCharsets.UTF_8)).readLine();
+    }
+
+    @Test
+    public void testUnixAndTcpClientsAreServedBySingleReactor() throws Exception {
+        startServer(0);
+
+        try (SocketChannel unixClient = connect(UnixDomainSocketAddress.of(socketPath));
+             SocketChannel tcpClient = connect(new InetSocketAddress(HOST, PORT))) {
+            assertEquals("unix", exchange(unixClient, "unix"));
+            assertEquals("tcp", exchange(tcpClient, "tcp"));
+        }
+    }
+
+    @Test
+    public void testUnixClientsAreHandedToReactors() throws Exception {
+        startServer(2);
+
+        for (int i = 0; i < 4; i++) {
+            try (SocketChannel unixClient = connect(UnixDomainSocketAddress.of(socketPath))) {
+                assertEquals("command-" + i, exchange(unixClient, "command-" + i));
+            }
+        }
+    }
+
+    @Test
+    public void testSocketFileIsRemovedOnStop() throws Exception {
+        startServer(0);
+        connect(UnixDomainSocketAddress.of(socketPath)).close();
+
+        engine.stop();
+        engineThread.join();
+
+        assertFalse(Files.exists(socketPath));
+    }
+
+    @Test
+    public void testSocketFileLeftBehindIsReplaced() throws Exception {
+        ServerSocketChannel leftBehind = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        leftBehind.bind(UnixDomainSocketAddress.of(socketPath));
+        leftBehind.close();
+
+        startServer(0);
+
+        try (SocketChannel unixClient = connect(UnixDomainSocketAddress.of(socketPath))) {
+            assertEquals("unix", exchange(unixClient, "unix"));
+        }
+    }
+
+    @Test
+    public void testFileWhichIsNotSocketIsKeptAndFailsStart() throws IOException {
+        Files.writeString(socketPath, "not a socket");
+        createServer(0);
+
+        try {
+            engine.start();
+            fail("The server started on a path which is not a socket");
+        } catch (IOException exception) {
+            assertEquals("not a socket", Files.readString(socketPath));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.Email;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+import bg.sofia.uni.fmi.mjt.authserver.validation.EmailValidator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static bg.sofia.uni.fmi.mjt.authserver.storage.StorageTestFiles.createUser;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+public class BloomFilterAuthStorageTest {
+    private Path directory;
+    private TSVFileAuthStorage fileStorage;
+    private BloomFilterAuthStorage storage;
+
+    @Before
+    public void setUpStorage() throws IOException, UserAlreadyExistsException {
+        directory = StorageTestFiles.createDirectory("auth-bloom-test");
+        Path usersPath = StorageTestFiles.createUsersFile(directory);
+
+        TSVFileAuthStorage loadedStorage = new TSVFileAuthStorage(usersPath);
+        loadedStorage.addUser(createUser("loaded", Authority.USER));
+
+        fileStorage = spy(new TSVFileAuthStorage(usersPath));
+        storage = new BloomFilterAuthStorage(fileStorage, 1000, 0.001);
+    }
+
+    @After
+    public void deleteFiles() throws IOException {
+        StorageTestFiles.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testMissingUsernamesDoNotReachStorage() {
+        assertNull(storage.getUserByUsername("missing"));
+        assertFalse(storage.mightContainUsername("missing"));
+
+        verify(fileStorage, never()).getUserByUsername("missing");
+        assertEquals(1, storage.getSkippedLookupCount());
+        assertEquals("loaded", storage.getUserByUsername("loaded").getUsername());
+    }
+
+    @Test
+    public void testFilterFollowsAddsRemovalsAndRenames() throws UserAlreadyExistsException {
+        storage.addUser(createUser("added", Authority.USER));
+        storage.replaceUserByUsername("loaded", createUser("renamed", Authority.USER));
+        storage.removeUserByUsername("added");
+        Map<String, User> changes = new LinkedHashMap<>();
+        changes.put("renamed", createUser("batched", Authority.USER));
+        storage.applyChanges(changes);
+
+        assertFalse(storage.mightContainUsername("added"));
+        assertFalse(storage.mightContainUsername("loaded"));
+        assertFalse(storage.mightContainUsername("renamed"));
+        assertTrue(storage.mightContainUsername("batched"));
+        assertEquals("batched", storage.getUserByUsername("batched").getUsername());
+    }
+
+    @Test
+    public void testFailedAddDoesNotLeaveUsernameInFilter() throws UserAlreadyExistsException {
+        User user = createUser("other", Authority.USER);
+        user.setEmail(new Email("loaded@mail.com", new EmailValidator()));
+
+        try {
+            storage.addUser(user);
+        } catch (UserAlreadyExistsException exception) {
+            // the email is taken
+        }
+
+        assertFalse(storage.mightContainUsername("other"));
+    }
+
+    @Test
+    public void testChangesKeepingUsernameDoNotWaitForRename() throws Exception {
+        storage.addUser(createUser("other", Authority.USER));
+        CountDownLatch renameStarted = new CountDownLatch(1);
+        CountDownLatch renameReleased = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            renameStarted.countDown();
+            renameReleased.await();
+            return invocation.callRealMethod();
+        }).when(fileStorage).replaceUserByUsername(eq("loaded"), any(User.class));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<?> rename = executor.submit(() ->
+                storage.replaceUserByUsername("loaded", createUser("renamed", Authority.USER)));
+        renameStarted.await();
+
+        Future<?> change = executor.submit(() ->
+                storage.replaceUserByUsername("other", createUser("other", Authority.ADMIN)));
+        change.get(5, TimeUnit.SECONDS);
+
+        renameReleased.countDown();
+        rename.get();
+        executor.shutdown();
+
+        assertEquals(Authority.ADMIN, storage.getUserByUsername("other").getAuthority());
+        assertTrue(storage.mightContainUsername("renamed"));
+    }
+}
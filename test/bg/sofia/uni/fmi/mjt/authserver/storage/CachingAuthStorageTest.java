@@ -0,0 +1,73 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static bg.sofia.uni.fmi.mjt.authserver.storage.StorageTestFiles.createUser;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class CachingAuthStorageTest {
+    private Path directory;
+    private TSVFileAuthStorage fileStorage;
+    private CachingAuthStorage storage;
+
+    @Before
+    public void setUpStorage() throws IOException, UserAlreadyExistsException {
+        directory = StorageTestFiles.createDirectory("auth-caching-test");
+        Path usersPath = StorageTestFiles.createUsersFile(directory);
+
+        new TSVFileAuthStorage(usersPath).addUser(createUser("user", Authority.USER));
+        fileStorage = spy(new TSVFileAuthStorage(usersPath));
+        storage = new CachingAuthStorage(fileStorage, 100);
+    }
+
+    @After
+    public void deleteFiles() throws IOException {
+        StorageTestFiles.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testRepeatedLookupsReadStorageOnce() {
+        for (int i = 0; i < 3; i++) {
+            assertEquals("user", storage.getUserByUsername("user").getUsername());
+            assertNull(storage.getUserByUsername("missing"));
+        }
+
+        verify(fileStorage, times(1)).getUserByUsername("user");
+        verify(fileStorage, times(1)).getUserByUsername("missing");
+        assertEquals(4, storage.getUsers().getHitCount());
+    }
+
+    @Test
+    public void testChangesInvalidateCachedUsers() throws UserAlreadyExistsException {
+        storage.getUserByUsername("user");
+        storage.getUserByUsername("added");
+
+        storage.addUser(createUser("added", Authority.USER));
+        storage.replaceUserByUsername("user", createUser("user", Authority.ADMIN));
+
+        assertEquals("added", storage.getUserByUsername("added").getUsername());
+        assertEquals(Authority.ADMIN, storage.getUserByUsername("user").getAuthority());
+
+        storage.removeUserByUsername("added");
+        assertNull(storage.getUserByUsername("added"));
+    }
+
+    @Test
+    public void testReturnedUsersDoNotChangeCache() {
+        storage.getUserByUsername("user").setAuthority(Authority.ADMIN);
+        storage.getUserByUsername("user").setAuthority(Authority.ADMIN);
+
+        assertEquals(Authority.USER, storage.getUserByUsername("user").getAuthority());
+    }
+}
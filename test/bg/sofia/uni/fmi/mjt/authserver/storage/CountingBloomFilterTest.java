@@ -0,0 +1,44 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CountingBloomFilterTest {
+    private static final int EXPECTED_COUNT = 10_000;
+    private static final double FALSE_POSITIVE_RATE = 0.01;
+
+    @Test
+    public void testAddedKeysAreAlwaysFoundAndOthersRarely() {
+        CountingBloomFilter filter = new CountingBloomFilter(EXPECTED_COUNT, FALSE_POSITIVE_RATE);
+        for (int i = 0; i < EXPECTED_COUNT; i++) {
+            filter.add("user" + i);
+        }
+
+        int falsePositiveCount = 0;
+        for (int i = 0; i < EXPECTED_COUNT; i++) {
+            assertTrue(filter.mightContain("user" + i));
+            falsePositiveCount += filter.mightContain("missing" + i) ? 1 : 0;
+        }
+
+        assertTrue(falsePositiveCount < EXPECTED_COUNT * FALSE_POSITIVE_RATE * 2);
+    }
+
+    @Test
+    public void testRemovedKeysAreForgottenAndOthersKept() {
+        CountingBloomFilter filter = new CountingBloomFilter(EXPECTED_COUNT, FALSE_POSITIVE_RATE);
+        for (int i = 0; i < EXPECTED_COUNT; i++) {
+            filter.add("user" + i);
+        }
+
+        for (int i = 0; i < EXPECTED_COUNT; i += 2) {
+            filter.remove("user" + i);
+        }
+
+        for (int i = 1; i < EXPECTED_COUNT; i += 2) {
+            assertTrue(filter.mightContain("user" + i));
+        }
+        assertFalse(new CountingBloomFilter(EXPECTED_COUNT, FALSE_POSITIVE_RATE).mightContain("user0"));
+    }
+}
@@ -0,0 +1,117 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.Email;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+import bg.sofia.uni.fmi.mjt.authserver.validation.EmailValidator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static bg.sofia.uni.fmi.mjt.authserver.storage.StorageTestFiles.createUser;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class InMemoryAuthStorageTest {
+    private Path directory;
+    private TSVFileAuthStorage fileStorage;
+    private InMemoryAuthStorage storage;
+
+    @Before
+    public void setUpStorage() throws IOException, UserAlreadyExistsException {
+        directory = StorageTestFiles.createDirectory("auth-in-memory-test");
+        Path usersPath = StorageTestFiles.createUsersFile(directory);
+
+        fileStorage = new TSVFileAuthStorage(usersPath);
+        fileStorage.addUser(createUser("admin", Authority.ADMIN));
+        fileStorage.addUser(createUser("user", Authority.USER));
+
+        storage = new InMemoryAuthStorage(fileStorage);
+    }
+
+    @After
+    public void deleteFiles() throws IOException {
+        StorageTestFiles.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testUsersAreLoadedFromFile() {
+        assertEquals("user", storage.getUserByUsername("user").getUsername());
+        assertNull(storage.getUserByUsername("missing"));
+        assertEquals(1, storage.getAdminCount());
+    }
+
+    @Test(expected = UserAlreadyExistsException.class)
+    public void testAddExistingUserFails() throws UserAlreadyExistsException {
+        storage.addUser(createUser("user", Authority.USER));
+    }
+
+    @Test
+    public void testChangesAreWrittenThrough() throws UserAlreadyExistsException {
+        storage.addUser(createUser("new", Authority.ADMIN));
+        storage.replaceUserByUsername("user", createUser("renamed", Authority.USER));
+        storage.removeUserByUsername("admin");
+
+        InMemoryAuthStorage reloadedStorage = new InMemoryAuthStorage(fileStorage);
+        for (AuthStorage authStorage : new AuthStorage[] {storage, reloadedStorage}) {
+            assertEquals("new", authStorage.getUserByUsername("new").getUsername());
+            assertEquals("renamed", authStorage.getUserByUsername("renamed").getUsername());
+            assertNull(authStorage.getUserByUsername("user"));
+            assertNull(authStorage.getUserByUsername("admin"));
+            assertEquals(1, authStorage.getAdminCount());
+        }
+    }
+
+    @Test
+    public void testReturnedUsersDoNotChangeStorage() {
+        storage.getUserByUsername("user").setAuthority(Authority.ADMIN);
+
+        assertEquals(Authority.USER, storage.getUserByUsername("user").getAuthority());
+        assertEquals(1, storage.getAdminCount());
+    }
+
+    @Test
+    public void testUsersAreFoundByEmailAfterChanges() {
+        User renamedUser = createUser("renamed", Authority.USER);
+        renamedUser.setEmail(new Email("user@mail.com", new EmailValidator()));
+        storage.replaceUserByUsername("user", renamedUser);
+        storage.removeUserByUsername("admin");
+
+        assertEquals("renamed", storage.getUserByEmail(" USER@Mail.com").getUsername());
+        assertNull(storage.getUserByEmail("admin@mail.com"));
+    }
+
+    @Test(expected = EmailAlreadyExistsException.class)
+    public void testAddUserWithExistingEmailFails() throws UserAlreadyExistsException {
+        User user = createUser("new", Authority.USER);
+        user.setEmail(new Email("User@mail.com", new EmailValidator()));
+
+        storage.addUser(user);
+    }
+
+    @Test
+    public void testReplaceRejectsTakenUsernameAndEmail() {
+        User renamedUser = createUser("admin", Authority.USER);
+        User userWithTakenEmail = createUser("user", Authority.USER);
+        userWithTakenEmail.setEmail(new Email("Admin@mail.com", new EmailValidator()));
+
+        for (User newUser : new User[] {renamedUser, userWithTakenEmail}) {
+            try {
+                storage.replaceUserByUsername("user", newUser);
+                fail("Replacing the user should have failed");
+            } catch (IllegalArgumentException expected) {
+                // the users stay as they were
+            }
+        }
+
+        assertEquals(Authority.ADMIN, storage.getUserByUsername("admin").getAuthority());
+        assertEquals("user@mail.com", storage.getUserByUsername("user").getEmail().getValue());
+        assertEquals("admin", storage.getUserByEmail("admin@mail.com").getUsername());
+    }
+}
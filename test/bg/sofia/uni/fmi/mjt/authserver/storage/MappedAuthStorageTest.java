@@ -0,0 +1,200 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.config.Durability;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+
+import static bg.sofia.uni.fmi.mjt.authserver.storage.StorageTestFiles.createUser;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MappedAuthStorageTest {
+    private static final int HEADER_VERSION_OFFSET = 4;
+    private static final int HEADER_STATE_OFFSET = 20;
+    private static final int HEADER_UNDO_SLOT_OFFSET = 24;
+    private static final int HEADER_SIZE = 4096;
+    private static final int SHORT_HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 512;
+
+    private Path directory;
+    private Path mappedPath;
+    private MappedAuthStorage storage;
+
+    @Before
+    public void setUpStorage() throws IOException {
+        directory = StorageTestFiles.createDirectory("auth-mapped-test");
+        mappedPath = directory.resolve("users.tsv.slots");
+        storage = new MappedAuthStorage(mappedPath, Durability.NONE, 0);
+    }
+
+    @After
+    public void closeStorage() throws IOException {
+        storage.close();
+        StorageTestFiles.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testUsersAreUpdatedInPlaceAndSurviveReopening() throws UserAlreadyExistsException {
+        LocalDateTime lockedUntil = LocalDateTime.of(2030, 1, 2, 3, 4, 5, 6);
+
+        storage.addUser(createUser("admin", Authority.ADMIN));
+        storage.addUser(createUser("user", Authority.USER));
+        User lockedUser = createUser("user", Authority.USER);
+        lockedUser.setLockedUntil(lockedUntil);
+        storage.replaceUserByUsername("user", lockedUser);
+        storage.replaceUserByUsername("admin", createUser("renamed", Authority.ADMIN));
+        storage.close();
+
+        storage = new MappedAuthStorage(mappedPath, Durability.NONE, 0);
+        assertNull(storage.getUserByUsername("admin"));
+        assertEquals(Authority.ADMIN, storage.getUserByUsername("renamed").getAuthority());
+        assertEquals(lockedUntil, storage.getUserByUsername("user").getLockedUntil());
+        assertEquals("user@mail.com", storage.getUserByUsername("user").getEmail().getValue());
+        assertEquals(1, storage.getAdminCount());
+    }
+
+    @Test(expected = UserAlreadyExistsException.class)
+    public void testAddExistingUserFails() throws UserAlreadyExistsException {
+        storage.addUser(createUser("user", Authority.USER));
+        storage.addUser(createUser("user", Authority.ADMIN));
+    }
+
+    @Test
+    public void testTableGrowsAndKeepsUsersAfterRemovals() throws UserAlreadyExistsException {
+        int initialCapacity = storage.getCapacity();
+
+        for (int i = 0; i < initialCapacity; i++) {
+            storage.addUser(createUser("user" + i, i % 2 == 0 ? Authority.ADMIN : Authority.USER));
+        }
+        for (int i = 0; i < initialCapacity; i += 4) {
+            storage.removeUserByUsername("user" + i);
+        }
+
+        assertTrue(storage.getCapacity() > initialCapacity);
+        for (int i = 0; i < initialCapacity; i++) {
+            User user = storage.getUserByUsername("user" + i);
+            assertEquals(i % 4 == 0, user == null);
+        }
+        assertEquals(initialCapacity / 4, storage.getAdminCount());
+    }
+
+    @Test
+    public void testUsersAreImportedFromTSVFile() throws IOException, UserAlreadyExistsException {
+        Path usersPath = StorageTestFiles.createUsersFile(directory);
+        TSVFileAuthStorage fileStorage = new TSVFileAuthStorage(usersPath);
+        fileStorage.addUser(createUser("admin", Authority.ADMIN));
+        fileStorage.addUser(createUser("user", Authority.USER));
+
+        Path importedPath = directory.resolve("imported.slots");
+        MappedAuthStorage.importUsers(fileStorage, importedPath);
+
+        MappedAuthStorage importedStorage = new MappedAuthStorage(importedPath, Durability.NONE, 0);
+        assertEquals(fileStorage.getUserByUsername("user"), importedStorage.getUserByUsername("user"));
+        assertEquals(1, importedStorage.getAdminCount());
+        importedStorage.close();
+    }
+
+    @Test
+    public void testTornSlotIsDroppedAfterCrash() throws IOException, UserAlreadyExistsException {
+        storage.addUser(createUser("kept", Authority.USER));
+        storage.addUser(createUser("torn", Authority.ADMIN));
+
+        // a change to the user reached the file only in part before the crash
+        byte[] contents = Files.readAllBytes(mappedPath);
+        int usernameOffset = indexOf(contents, "torn".getBytes(StandardCharsets.UTF_8));
+        try (var file = new RandomAccessFile(mappedPath.toFile(), "rw")) {
+            file.seek(usernameOffset);
+            file.write('T');
+        }
+
+        // the storage is opened again without having been closed
+        storage = new MappedAuthStorage(mappedPath, Durability.NONE, 0);
+        assertNull(storage.getUserByUsername("torn"));
+        assertNull(storage.getUserByUsername("Torn"));
+        assertEquals("kept", storage.getUserByUsername("kept").getUsername());
+        assertEquals(1, storage.getUserStatistics().getUserCount());
+        assertEquals(0, storage.getAdminCount());
+    }
+
+    @Test
+    public void testTornChangeIsRestoredAfterCrash() throws IOException, UserAlreadyExistsException {
+        storage.addUser(createUser("user", Authority.USER));
+        User lockedUser = createUser("user", Authority.USER);
+        lockedUser.setLockedUntil(LocalDateTime.of(2030, 1, 2, 3, 4, 5, 6));
+        storage.replaceUserByUsername("user", lockedUser);
+
+        // the change reached the file only in part before the crash, after the user had been copied
+        byte[] contents = Files.readAllBytes(mappedPath);
+        int usernameOffset = indexOf(contents, "user".getBytes(StandardCharsets.UTF_8), HEADER_SIZE);
+        try (var file = new RandomAccessFile(mappedPath.toFile(), "rw")) {
+            file.seek(usernameOffset);
+            file.write('U');
+            file.seek(HEADER_UNDO_SLOT_OFFSET);
+            file.writeInt((usernameOffset - HEADER_SIZE) / SLOT_SIZE + 1);
+        }
+
+        // the storage is opened again without having been closed
+        storage = new MappedAuthStorage(mappedPath, Durability.NONE, 0);
+        assertNull(storage.getUserByUsername("User"));
+        assertNull(storage.getUserByUsername("user").getLockedUntil());
+        assertEquals(1, storage.getUserStatistics().getUserCount());
+    }
+
+    @Test
+    public void testFileWithoutChecksumsKeepsItsUsers() throws IOException, UserAlreadyExistsException {
+        storage.addUser(createUser("user", Authority.USER));
+        storage.close();
+
+        // the first version of the file had a short header and no checksums, and this one was not closed cleanly
+        byte[] contents = Files.readAllBytes(mappedPath);
+        try (var file = new RandomAccessFile(mappedPath.toFile(), "rw")) {
+            file.setLength(0);
+            file.write(contents, 0, SHORT_HEADER_SIZE);
+            file.write(contents, HEADER_SIZE, contents.length - HEADER_SIZE);
+            file.seek(HEADER_VERSION_OFFSET);
+            file.writeInt(1);
+            file.seek(HEADER_STATE_OFFSET);
+            file.writeInt(1);
+        }
+
+        storage = new MappedAuthStorage(mappedPath, Durability.NONE, 0);
+        assertEquals("user", storage.getUserByUsername("user").getUsername());
+        assertEquals(1, storage.getUserStatistics().getUserCount());
+
+        // the file is rebuilt with a header of a whole page
+        storage.close();
+        assertEquals(HEADER_SIZE + (long) storage.getCapacity() * SLOT_SIZE, Files.size(mappedPath));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUserWhoDoesNotFitIsRejected() throws UserAlreadyExistsException {
+        storage.addUser(createUser("x".repeat(100), Authority.USER));
+    }
+
+    private static int indexOf(byte[] bytes, byte[] searched) {
+        return indexOf(bytes, searched, 0);
+    }
+
+    private static int indexOf(byte[] bytes, byte[] searched, int from) {
+        for (int i = from; i + searched.length <= bytes.length; i++) {
+            if (Arrays.equals(bytes, i, i + searched.length, searched, 0, searched.length)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
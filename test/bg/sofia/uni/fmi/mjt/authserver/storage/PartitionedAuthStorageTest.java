@@ -0,0 +1,200 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.config.Durability;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.EmailAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.Email;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+import bg.sofia.uni.fmi.mjt.authserver.validation.EmailValidator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static bg.sofia.uni.fmi.mjt.authserver.storage.StorageTestFiles.createUser;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PartitionedAuthStorageTest {
+    private static final int PARTITION_COUNT = 4;
+    private static final int USER_COUNT = 40;
+
+    private Path directory;
+    private List<TSVFileAuthStorage> partitions;
+    private PartitionedAuthStorage storage;
+
+    @Before
+    public void setUpStorage() throws IOException {
+        directory = StorageTestFiles.createDirectory("auth-partitioned-test");
+        partitions = createPartitions("users.tsv");
+
+        storage = new PartitionedAuthStorage(partitions);
+    }
+
+    @After
+    public void closeStorage() throws IOException {
+        storage.close();
+        StorageTestFiles.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testUsersAreSpreadOverPartitionsAndCountedTogether() throws UserAlreadyExistsException {
+        for (int i = 0; i < USER_COUNT; i++) {
+            storage.addUser(createUser("user" + i, i % 4 == 0 ? Authority.ADMIN : Authority.USER));
+        }
+
+        for (int i = 0; i < USER_COUNT; i++) {
+            String username = "user" + i;
+            int partition = PartitionedAuthStorage.partitionOf(username, PARTITION_COUNT);
+
+            assertEquals(username, partitions.get(partition).getUserByUsername(username).getUsername());
+            assertEquals(username, storage.getUserByUsername(username).getUsername());
+        }
+        assertTrue(partitions.stream().allMatch(partition -> partition.getUserStatistics().getUserCount() > 0));
+        assertEquals(USER_COUNT / 4, storage.getAdminCount());
+        assertEquals(USER_COUNT, storage.getUserStatistics().getUserCount());
+        assertEquals(3, storage.getUsersByUsernames(List.of("user0", "user7", "user39", "missing")).size());
+    }
+
+    @Test
+    public void testUsersRenamedIntoAnotherPartitionAreMoved() throws UserAlreadyExistsException {
+        storage.addUser(createUser("user", Authority.USER));
+        storage.addUser(createUser("batched", Authority.USER));
+        String renamed = findUsernameInAnotherPartition("user");
+        String batchRenamed = findUsernameInAnotherPartition("batched");
+
+        storage.replaceUserByUsername("user", createUser(renamed, Authority.USER));
+        Map<String, User> changes = new LinkedHashMap<>();
+        changes.put("batched", createUser(batchRenamed, Authority.ADMIN));
+        storage.applyChanges(changes);
+
+        assertNull(storage.getUserByUsername("user"));
+        assertNull(storage.getUserByUsername("batched"));
+        assertEquals(renamed, storage.getUserByUsername(renamed).getUsername());
+        assertEquals(Authority.ADMIN, storage.getUserByUsername(batchRenamed).getAuthority());
+        assertEquals(2, storage.getUserStatistics().getUserCount());
+    }
+
+    @Test(expected = EmailAlreadyExistsException.class)
+    public void testEmailsAreUniqueAcrossPartitions() throws UserAlreadyExistsException {
+        storage.addUser(createUser("user", Authority.USER));
+        User user = createUser(findUsernameInAnotherPartition("user"), Authority.USER);
+        user.setEmail(new Email("user@mail.com", new EmailValidator()));
+
+        storage.addUser(user);
+    }
+
+    @Test
+    public void testUsersRenamedIntoAnotherPartitionCannotTakeEmailOfAnotherUser() throws UserAlreadyExistsException {
+        storage.addUser(createUser("user", Authority.USER));
+        storage.addUser(createUser("other", Authority.USER));
+        int userPartition = PartitionedAuthStorage.partitionOf("user", PARTITION_COUNT);
+        int otherPartition = PartitionedAuthStorage.partitionOf("other", PARTITION_COUNT);
+        String renamed = "renamed";
+        for (int i = 0; PartitionedAuthStorage.partitionOf(renamed, PARTITION_COUNT) == userPartition
+                || PartitionedAuthStorage.partitionOf(renamed, PARTITION_COUNT) == otherPartition; i++) {
+            renamed = "renamed" + i;
+        }
+
+        User withTakenEmail = createUser(renamed, Authority.USER);
+        withTakenEmail.setEmail(new Email("user@mail.com", new EmailValidator()));
+        try {
+            storage.replaceUserByUsername("other", withTakenEmail);
+            fail("The email of another user was taken by a rename");
+        } catch (IllegalArgumentException exception) {
+            assertTrue(exception.getCause() instanceof EmailAlreadyExistsException);
+        }
+
+        assertNull(storage.getUserByUsername(renamed));
+        assertEquals("other", storage.getUserByUsername("other").getUsername());
+    }
+
+    @Test
+    public void testUsersAreImportedFromSingleFile() throws IOException, UserAlreadyExistsException {
+        Path usersPath = directory.resolve("single.tsv");
+        Files.createFile(usersPath);
+        TSVFileAuthStorage fileStorage = new TSVFileAuthStorage(usersPath);
+        for (int i = 0; i < USER_COUNT; i++) {
+            fileStorage.addUser(createUser("user" + i, Authority.USER));
+        }
+
+        List<Path> importedPaths = getPartitionPaths("imported.tsv");
+        Path manifestPath = directory.resolve("imported.partitions");
+        PartitionedAuthStorage.importUsers(fileStorage, importedPaths, manifestPath, Durability.NONE);
+
+        List<TSVFileAuthStorage> importedPartitions = new ArrayList<>();
+        for (Path importedPath : importedPaths) {
+            importedPartitions.add(new TSVFileAuthStorage(importedPath));
+        }
+        PartitionedAuthStorage importedStorage = new PartitionedAuthStorage(importedPartitions);
+        for (int i = 0; i < USER_COUNT; i++) {
+            assertEquals(fileStorage.getUserByUsername("user" + i), importedStorage.getUserByUsername("user" + i));
+        }
+        importedStorage.close();
+    }
+
+    @Test
+    public void testImportRecordsPartitionCountAndLeavesNoImportFiles() throws IOException {
+        List<Path> importedPaths = getPartitionPaths("imported.tsv");
+        Path manifestPath = directory.resolve("imported.partitions");
+        assertEquals(-1, PartitionedAuthStorage.readPartitionCount(manifestPath));
+
+        PartitionedAuthStorage.importUsers(null, importedPaths, manifestPath, Durability.NONE);
+
+        assertEquals(PARTITION_COUNT, PartitionedAuthStorage.readPartitionCount(manifestPath));
+        for (Path importedPath : importedPaths) {
+            assertTrue(Files.exists(importedPath));
+            assertFalse(Files.exists(importedPath.resolveSibling(importedPath.getFileName() + ".import")));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testMalformedManifestIsRejected() throws IOException {
+        Path manifestPath = directory.resolve("users.partitions");
+        Files.writeString(manifestPath, "four");
+
+        PartitionedAuthStorage.readPartitionCount(manifestPath);
+    }
+
+    private List<Path> getPartitionPaths(String fileName) {
+        List<Path> partitionPaths = new ArrayList<>();
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            partitionPaths.add(directory.resolve(fileName + "." + i));
+        }
+
+        return partitionPaths;
+    }
+
+    private List<TSVFileAuthStorage> createPartitions(String fileName) throws IOException {
+        List<TSVFileAuthStorage> createdPartitions = new ArrayList<>();
+        for (int i = 0; i < PARTITION_COUNT; i++) {
+            Path partitionPath = directory.resolve(fileName + "." + i);
+            Files.createFile(partitionPath);
+            createdPartitions.add(new TSVFileAuthStorage(partitionPath));
+        }
+
+        return createdPartitions;
+    }
+
+    private static String findUsernameInAnotherPartition(String username) {
+        int partition = PartitionedAuthStorage.partitionOf(username, PARTITION_COUNT);
+
+        for (int i = 0; ; i++) {
+            String otherUsername = username + i;
+            if (PartitionedAuthStorage.partitionOf(otherUsername, PARTITION_COUNT) != partition) {
+                return otherUsername;
+            }
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SegmentedLruCacheTest {
+    private static final int CAPACITY = 10;
+
+    @Test
+    public void testKeysReadAgainSurviveBurstOfNewKeys() {
+        SegmentedLruCache<String, Integer> cache = new SegmentedLruCache<>(CAPACITY);
+        for (int i = 0; i < 5; i++) {
+            cache.put("hot" + i, i);
+            cache.get("hot" + i);
+        }
+
+        for (int i = 0; i < CAPACITY * 10; i++) {
+            cache.put("cold" + i, i);
+        }
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Integer.valueOf(i), cache.get("hot" + i));
+        }
+        assertNull(cache.get("cold0"));
+        assertEquals(CAPACITY, cache.size());
+    }
+
+    @Test
+    public void testCountersAndInvalidation() {
+        SegmentedLruCache<String, Integer> cache = new SegmentedLruCache<>(CAPACITY);
+        for (int i = 0; i < CAPACITY + 2; i++) {
+            cache.put("key" + i, i);
+        }
+
+        cache.invalidate("key5");
+
+        assertNull(cache.get("key5"));
+        assertEquals(Integer.valueOf(6), cache.get("key6"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(2, cache.getEvictionCount());
+    }
+}
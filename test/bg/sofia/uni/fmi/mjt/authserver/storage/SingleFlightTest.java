@@ -0,0 +1,144 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SingleFlightTest {
+    private static final int CALLER_COUNT = 8;
+
+    private final SingleFlight<String, StringBuilder> singleFlight = new SingleFlight<>(StringBuilder::new);
+    // every caller blocks, so each needs a thread of its own
+    private final ExecutorService callers = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        callers.shutdownNow();
+    }
+
+    // starts a lookup which blocks until released, so that other callers can join it
+    private CompletableFuture<StringBuilder> startBlockedLookup(CountDownLatch release, AtomicInteger runs,
+                                                                 RuntimeException failure) {
+        CompletableFuture<StringBuilder> result = CompletableFuture.supplyAsync(() ->
+                singleFlight.execute("key", key -> {
+                    runs.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException exception) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    if (failure != null) {
+                        throw failure;
+                    }
+                    return new StringBuilder("value");
+                }), callers);
+
+        // wait for the lookup to be running
+        while (runs.get() == 0) {
+            Thread.onSpinWait();
+        }
+        return result;
+    }
+
+    private List<CompletableFuture<StringBuilder>> joinLookup(int count) throws InterruptedException {
+        List<CompletableFuture<StringBuilder>> results = new ArrayList<>();
+
+        for (int i = 0; i < count; i++) {
+            results.add(CompletableFuture.supplyAsync(() -> singleFlight.execute("key", key -> {
+                fail("Lookup should have been coalesced");
+                return null;
+            }), callers));
+        }
+
+        while (singleFlight.getCoalescedCount() < count) {
+            Thread.sleep(1);
+        }
+        return results;
+    }
+
+    @Test
+    public void testConcurrentCallersShareOneLookup() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+
+        CompletableFuture<StringBuilder> leader = startBlockedLookup(release, runs, null);
+        List<CompletableFuture<StringBuilder>> followers = joinLookup(CALLER_COUNT - 1);
+        release.countDown();
+
+        StringBuilder leaderResult = leader.get(5, TimeUnit.SECONDS);
+        for (CompletableFuture<StringBuilder> follower : followers) {
+            StringBuilder followerResult = follower.get(5, TimeUnit.SECONDS);
+
+            assertEquals("value", followerResult.toString());
+            assertNotSame("Every caller should get their own copy", leaderResult, followerResult);
+        }
+
+        assertEquals(1, runs.get());
+        assertEquals(1, singleFlight.getExecutedCount());
+        assertEquals(CALLER_COUNT - 1, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void testFailureIsRethrownToEveryCaller() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException failure = new IllegalStateException("lookup failed");
+
+        CompletableFuture<StringBuilder> leader = startBlockedLookup(release, new AtomicInteger(), failure);
+        List<CompletableFuture<StringBuilder>> followers = joinLookup(2);
+        release.countDown();
+
+        followers.add(leader);
+        for (CompletableFuture<StringBuilder> caller : followers) {
+            try {
+                caller.get(5, TimeUnit.SECONDS);
+                fail("The lookup's failure should have been rethrown");
+            } catch (ExecutionException exception) {
+                assertSame(failure, exception.getCause());
+            }
+        }
+    }
+
+    @Test
+    public void testForgottenKeyIsLookedUpAnew() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+
+        CompletableFuture<StringBuilder> leader = startBlockedLookup(release, runs, null);
+        singleFlight.forget("key");
+
+        assertEquals("fresh", singleFlight.execute("key", key -> new StringBuilder("fresh")).toString());
+        release.countDown();
+
+        assertEquals("value", leader.get(5, TimeUnit.SECONDS).toString());
+        assertEquals(2, singleFlight.getExecutedCount());
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    public void testLookupsAreNotCachedOnceOver() {
+        AtomicInteger runs = new AtomicInteger();
+
+        singleFlight.execute("key", key -> new StringBuilder(Integer.toString(runs.incrementAndGet())));
+        StringBuilder second = singleFlight.execute("key",
+                key -> new StringBuilder(Integer.toString(runs.incrementAndGet())));
+
+        assertEquals("2", second.toString());
+        assertTrue(singleFlight.getCoalescedCount() == 0);
+    }
+}
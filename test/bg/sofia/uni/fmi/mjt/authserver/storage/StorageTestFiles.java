@@ -0,0 +1,60 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.Email;
+import bg.sofia.uni.fmi.mjt.authserver.user.Password;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+import bg.sofia.uni.fmi.mjt.authserver.validation.EmailValidator;
+import bg.sofia.uni.fmi.mjt.authserver.validation.PasswordValidator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * The temporary directories and the users the storage tests are set up with.
+ * Every directory made here should be deleted after the test which made it.
+ */
+public final class StorageTestFiles {
+    public static final String USERS_FILE_NAME = "users.tsv";
+
+    private StorageTestFiles() {
+    }
+
+    public static Path createDirectory(String prefix) throws IOException {
+        return Files.createTempDirectory(prefix);
+    }
+
+    /**
+     * Creates an empty users file in the given directory.
+     */
+    public static Path createUsersFile(Path directory) throws IOException {
+        return Files.createFile(directory.resolve(USERS_FILE_NAME));
+    }
+
+    /**
+     * Deletes the given directory with everything in it, does nothing if it is {@code null} or already deleted.
+     */
+    public static void deleteDirectory(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+
+        List<Path> paths;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            paths = walk.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    public static User createUser(String username, Authority authority) {
+        return new User(username, new Password("hash", new PasswordValidator()), "First", "Last",
+                new Email(username + "@mail.com", new EmailValidator()), authority, null);
+    }
+}
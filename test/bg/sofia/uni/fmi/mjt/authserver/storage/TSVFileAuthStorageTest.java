@@ -0,0 +1,114 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.Email;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+import bg.sofia.uni.fmi.mjt.authserver.validation.EmailValidator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static bg.sofia.uni.fmi.mjt.authserver.storage.StorageTestFiles.createUser;
+import static org.junit.Assert.assertEquals;
+
+public class TSVFileAuthStorageTest {
+    private static final int THREAD_COUNT = 8;
+
+    private Path directory;
+    private Path usersPath;
+    private TSVFileAuthStorage storage;
+
+    @Before
+    public void setUpStorage() throws IOException {
+        directory = StorageTestFiles.createDirectory("auth-tsv-test");
+        usersPath = StorageTestFiles.createUsersFile(directory);
+
+        storage = new TSVFileAuthStorage(usersPath);
+    }
+
+    @After
+    public void deleteFiles() throws IOException {
+        StorageTestFiles.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testConcurrentRegistrationsOfOneUsernameAddOneUser() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Boolean>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREAD_COUNT; thread++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                try {
+                    storage.addUser(createUser("user", Authority.USER));
+                    return true;
+                } catch (UserAlreadyExistsException exception) {
+                    return false;
+                }
+            }));
+        }
+
+        start.countDown();
+        int addedCount = 0;
+        for (Future<Boolean> future : futures) {
+            addedCount += future.get() ? 1 : 0;
+        }
+        executor.shutdown();
+
+        assertEquals(1, addedCount);
+        assertEquals(1, Files.readAllLines(usersPath).size());
+    }
+
+    @Test
+    public void testConcurrentChangesToDifferentUsersAreAllKept() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < THREAD_COUNT; thread++) {
+            String username = "user" + thread;
+            futures.add(executor.submit(() -> {
+                storage.addUser(createUser(username, Authority.USER));
+                storage.replaceUserByUsername(username, createUser(username, Authority.ADMIN));
+                return null;
+            }));
+        }
+
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        for (int thread = 0; thread < THREAD_COUNT; thread++) {
+            assertEquals(Authority.ADMIN, storage.getUserByUsername("user" + thread).getAuthority());
+        }
+        assertEquals(THREAD_COUNT, storage.getAdminCount());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReplaceRejectsTakenUsername() throws UserAlreadyExistsException {
+        storage.addUser(createUser("first", Authority.USER));
+        storage.addUser(createUser("second", Authority.USER));
+
+        storage.replaceUserByUsername("first", createUser("second", Authority.USER));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testReplaceRejectsEmailOfAnotherUser() throws UserAlreadyExistsException {
+        storage.addUser(createUser("first", Authority.USER));
+        storage.addUser(createUser("second", Authority.USER));
+
+        User withTakenEmail = createUser("first", Authority.USER);
+        withTakenEmail.setEmail(new Email("second@mail.com", new EmailValidator()));
+        storage.replaceUserByUsername("first", withTakenEmail);
+    }
+}
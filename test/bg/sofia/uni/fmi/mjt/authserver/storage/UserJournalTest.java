@@ -0,0 +1,155 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.config.Durability;
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.persistence.GroupCommitLog;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static bg.sofia.uni.fmi.mjt.authserver.storage.StorageTestFiles.createUser;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.spy;
+
+public class UserJournalTest {
+    private static final int NO_COMPACTION = Integer.MAX_VALUE;
+    private static final long SEGMENT_DELETION_WAIT_MILLIS = 500;
+
+    private Path directory;
+    private Path usersPath;
+    private Path journalPath;
+    private TSVFileAuthStorage baseStorage;
+
+    @Before
+    public void setUpFiles() throws IOException, UserAlreadyExistsException {
+        directory = StorageTestFiles.createDirectory("auth-journal-test");
+        usersPath = StorageTestFiles.createUsersFile(directory);
+        journalPath = directory.resolve("users.tsv.journal");
+
+        baseStorage = new TSVFileAuthStorage(usersPath);
+        baseStorage.addUser(createUser("base", Authority.ADMIN));
+    }
+
+    @After
+    public void deleteFiles() throws IOException {
+        StorageTestFiles.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testChangesAreAppendedAndReplayed() throws IOException, UserAlreadyExistsException {
+        String baseFile = Files.readString(usersPath);
+
+        InMemoryAuthStorage storage = new InMemoryAuthStorage(new UserJournal(baseStorage, journalLog(),
+                NO_COMPACTION));
+        storage.addUser(createUser("added", Authority.USER));
+        storage.replaceUserByUsername("added", createUser("renamed", Authority.ADMIN));
+        storage.removeUserByUsername("base");
+        storage.close();
+
+        assertEquals(baseFile, Files.readString(usersPath));
+        assertEquals(4, Files.readAllLines(journalPath).size());
+
+        InMemoryAuthStorage reloadedStorage = new InMemoryAuthStorage(new UserJournal(baseStorage, journalLog(),
+                NO_COMPACTION));
+        assertNull(reloadedStorage.getUserByUsername("base"));
+        assertNull(reloadedStorage.getUserByUsername("added"));
+        assertEquals(Authority.ADMIN, reloadedStorage.getUserByUsername("renamed").getAuthority());
+        assertEquals(1, reloadedStorage.getAdminCount());
+        reloadedStorage.close();
+    }
+
+    @Test
+    public void testJournalIsCompactedIntoBaseFile() throws IOException, UserAlreadyExistsException {
+        UserJournal journal = new UserJournal(baseStorage, journalLog(), 3);
+        InMemoryAuthStorage storage = new InMemoryAuthStorage(journal);
+
+        for (int i = 0; i < 4; i++) {
+            storage.addUser(createUser("user" + i, Authority.USER));
+        }
+        storage.removeUserByUsername("base");
+        // waits for the compaction to finish
+        storage.close();
+
+        assertEquals(2, journal.getJournalRecordCount());
+        assertEquals(4, Files.readAllLines(usersPath).size());
+        assertFalse(Files.exists(journalPath.resolveSibling("users.tsv.journal.compacting")));
+
+        InMemoryAuthStorage reloadedStorage = new InMemoryAuthStorage(new UserJournal(baseStorage, journalLog(),
+                NO_COMPACTION));
+        for (int i = 0; i < 4; i++) {
+            assertEquals("user" + i, reloadedStorage.getUserByUsername("user" + i).getUsername());
+        }
+        assertNull(reloadedStorage.getUserByUsername("base"));
+        reloadedStorage.close();
+    }
+
+    @Test
+    public void testTornRecordDoesNotHideLaterRecords() throws IOException, UserAlreadyExistsException {
+        InMemoryAuthStorage storage = new InMemoryAuthStorage(new UserJournal(baseStorage, journalLog(),
+                NO_COMPACTION));
+        storage.addUser(createUser("before", Authority.USER));
+        storage.close();
+
+        Files.writeString(journalPath, "2\tUPSE", StandardOpenOption.APPEND);
+
+        storage = new InMemoryAuthStorage(new UserJournal(baseStorage, journalLog(),
+                NO_COMPACTION));
+        storage.addUser(createUser("after", Authority.USER));
+        storage.close();
+
+        storage = new InMemoryAuthStorage(new UserJournal(baseStorage, journalLog(),
+                NO_COMPACTION));
+        assertTrue(storage.getUserByUsername("before") != null);
+        assertTrue(storage.getUserByUsername("after") != null);
+        storage.close();
+    }
+
+    @Test
+    public void testUsersLoadedDuringCompactionIncludeSegment() throws IOException {
+        Path segmentPath = journalPath.resolveSibling("users.tsv.journal.compacting");
+        Files.writeString(segmentPath, "1\tUPSERT\t" + TSVFileAuthStorage.formatUser(createUser("segment",
+                Authority.USER)) + System.lineSeparator());
+
+        // the segment left behind is compacted after the base file has been loaded, before the segment is
+        CountDownLatch baseLoaded = new CountDownLatch(1);
+        TSVFileAuthStorage spiedBaseStorage = spy(baseStorage);
+        doAnswer(invocation -> {
+            baseLoaded.await(5, TimeUnit.SECONDS);
+            return invocation.callRealMethod();
+        }).when(spiedBaseStorage).forEachUser(any());
+        doAnswer(invocation -> {
+            invocation.callRealMethod();
+            baseLoaded.countDown();
+
+            long deadline = System.currentTimeMillis() + SEGMENT_DELETION_WAIT_MILLIS;
+            while (Files.exists(segmentPath) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            return null;
+        }).when(spiedBaseStorage).loadUsers(any());
+
+        InMemoryAuthStorage storage = new InMemoryAuthStorage(new UserJournal(spiedBaseStorage, journalLog(),
+                NO_COMPACTION));
+
+        assertEquals("segment", storage.getUserByUsername("segment").getUsername());
+        assertEquals("base", storage.getUserByUsername("base").getUsername());
+        storage.close();
+    }
+
+    private GroupCommitLog journalLog() {
+        return GroupCommitLog.forPath(journalPath, Durability.NONE, 0);
+    }
+}
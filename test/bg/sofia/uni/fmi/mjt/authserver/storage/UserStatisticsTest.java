@@ -0,0 +1,84 @@
+package bg.sofia.uni.fmi.mjt.authserver.storage;
+
+import bg.sofia.uni.fmi.mjt.authserver.exceptions.UserAlreadyExistsException;
+import bg.sofia.uni.fmi.mjt.authserver.user.Authority;
+import bg.sofia.uni.fmi.mjt.authserver.user.Email;
+import bg.sofia.uni.fmi.mjt.authserver.user.Password;
+import bg.sofia.uni.fmi.mjt.authserver.user.User;
+import bg.sofia.uni.fmi.mjt.authserver.validation.EmailValidator;
+import bg.sofia.uni.fmi.mjt.authserver.validation.PasswordValidator;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class UserStatisticsTest {
+    private Path directory;
+
+    @After
+    public void deleteFiles() throws IOException {
+        StorageTestFiles.deleteDirectory(directory);
+    }
+
+    @Test
+    public void testLocksAndFailedAttemptsAreCounted() {
+        UserStatistics statistics = new UserStatistics();
+        User lockedUser = createUser("locked", Authority.USER, 3, LocalDateTime.now().plusHours(1));
+        User expiredUser = createUser("expired", Authority.USER, 0, LocalDateTime.now().minusHours(1));
+
+        statistics.add(lockedUser);
+        statistics.add(expiredUser);
+        statistics.add(createUser("admin", Authority.ADMIN, 1, null));
+
+        assertEquals(3, statistics.getUserCount());
+        assertEquals(1, statistics.getCount(Authority.ADMIN));
+        assertEquals(1, statistics.getLockedCount());
+        assertEquals(2, statistics.getFailedAttemptsCount());
+
+        statistics.change(lockedUser, createUser("locked", Authority.USER, 0, null));
+        statistics.remove(expiredUser);
+
+        assertEquals(2, statistics.getUserCount());
+        assertEquals(0, statistics.getLockedCount());
+        assertEquals(1, statistics.getFailedAttemptsCount());
+    }
+
+    @Test
+    public void testFileStorageKeepsCountsUpToDate() throws IOException, UserAlreadyExistsException {
+        directory = StorageTestFiles.createDirectory("auth-statistics-test");
+        Path usersPath = StorageTestFiles.createUsersFile(directory);
+
+        TSVFileAuthStorage storage = new TSVFileAuthStorage(usersPath);
+        storage.addUser(createUser("admin", Authority.ADMIN, 0, null));
+        storage.addUser(createUser("user", Authority.USER, 0, null));
+        storage.replaceUserByUsername("user", createUser("user", Authority.USER, 2,
+                LocalDateTime.now().plusMinutes(15)));
+
+        Map<String, User> changes = new LinkedHashMap<>();
+        changes.put("admin", null);
+        changes.put("new", createUser("new", Authority.ADMIN, 0, null));
+        storage.applyChanges(changes);
+
+        // a storage opened later counts the file once
+        for (AuthStorage authStorage : new AuthStorage[] {storage, new TSVFileAuthStorage(usersPath)}) {
+            UserStatistics statistics = authStorage.getUserStatistics();
+            assertEquals(2, statistics.getUserCount());
+            assertEquals(1, statistics.getCount(Authority.ADMIN));
+            assertEquals(1, statistics.getLockedCount());
+            assertEquals(1, statistics.getFailedAttemptsCount());
+            assertEquals(1, authStorage.getAdminCount());
+        }
+    }
+
+    private static User createUser(String username, Authority authority, int failedAttempts,
+                                   LocalDateTime lockedUntil) {
+        return new User(username, new Password("hash", new PasswordValidator(), failedAttempts), "First", "Last",
+                new Email(username + "@mail.com", new EmailValidator()), authority, lockedUntil);
+    }
+}